@@ -0,0 +1,75 @@
+package simpledb;
+
+/** Helper for implementing ReplacementPolicies. It keeps the hit/miss/eviction
+counters and serializes calls into the policy, so subclasses only need to
+maintain their own bookkeeping in <code>onHit</code>, <code>onMiss</code>,
+<code>onRemove</code> and <code>chooseVictim</code>. Prefetches are not
+counted as misses. */
+public abstract class AbstractReplacementPolicy implements ReplacementPolicy {
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public synchronized void recordHit(PageId pid) {
+        hits++;
+        onHit(pid);
+    }
+
+    public synchronized void recordMiss(PageId pid) {
+        misses++;
+        onMiss(pid);
+    }
+
+    public synchronized void recordPrefetch(PageId pid) {
+        onPrefetch(pid);
+    }
+
+    public synchronized void remove(PageId pid) {
+        onRemove(pid);
+    }
+
+    public synchronized PageId evict(EvictionFilter filter) {
+        PageId victim = chooseVictim(filter);
+        if (victim != null) {
+            evictions++;
+            onRemove(victim);
+        }
+        return victim;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized String toString() {
+        return String.format("%s(hits=%d, misses=%d, evictions=%d)",
+                getClass().getSimpleName(), hits, misses, evictions);
+    }
+
+    /** Called for every access to a page that is already tracked. */
+    protected abstract void onHit(PageId pid);
+
+    /** Called when a page starts being tracked. */
+    protected abstract void onMiss(PageId pid);
+
+    /** Called when a page starts being tracked because it was prefetched.
+    Treats the prefetch like a miss unless overridden. */
+    protected void onPrefetch(PageId pid) {
+        onMiss(pid);
+    }
+
+    /** Called when a tracked page leaves the pool, either evicted or removed. */
+    protected abstract void onRemove(PageId pid);
+
+    /** Returns the tracked page to evict, or null if the filter rejects all of them.
+    Must not change which pages are tracked; evict() calls onRemove for the victim. */
+    protected abstract PageId chooseVictim(EvictionFilter filter);
+}
@@ -0,0 +1,521 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BTreeFile is a DbFile that stores the tuples of a table in a B+-tree
+ * ordered on one of its fields, the key. The tuples themselves live in the
+ * leaves of the tree, so the file is both the table and its index: a lookup
+ * descends from the root to the first leaf that may hold the key and then
+ * reads leaves left to right, see {@link #indexIterator}.
+ * <p>
+ * Page 0 of the file is a {@link BTreeRootPtrPage} naming the root; every
+ * other page is a {@link BTreeInternalPage} or a {@link BTreeLeafPage}, and
+ * every page is BufferPool.PAGE_SIZE bytes. All pages are read through the
+ * BufferPool and locked like the pages of a HeapFile: lookups take shared
+ * locks on the pages they read, and inserts take an exclusive lock on the
+ * leaf they change and on every page a split changes. Pages created by a
+ * split are allocated at the end of the file and cached in the BufferPool as
+ * dirty pages of the inserting transaction.
+ * <p>
+ * Deleting tuples never merges pages; a leaf emptied by deletes stays in the
+ * tree until tuples are added to it again. Files are usually written in one
+ * go by {@link #create}, e.g. through HeapFileEncoder.convertBTree, and
+ * selected in a catalog file with the <code>format=btree</code> table option.
+ */
+public class BTreeFile implements DbFile {
+    private final File f;
+    private final TupleDesc td;
+    private final int keyField;
+    // opened lazily, guarded by this
+    private RandomAccessFile raf;
+    private final byte[] writeBuffer = new byte[BufferPool.PAGE_SIZE];
+
+    /**
+     * Constructs a B+-tree file backed by the specified file. If the file is
+     * empty, this writes an empty tree to it.
+     *
+     * @param f the file that stores the on-disk backing store for this B+-tree.
+     * @param keyField the index of the field the tuples are ordered on.
+     */
+    public BTreeFile(File f, TupleDesc td, int keyField) throws IOException {
+        if (keyField < 0 || keyField >= td.numFields())
+            throw new IllegalArgumentException("no key field " + keyField + " in " + td);
+        this.f = f;
+        this.td = td;
+        this.keyField = keyField;
+        if (f.length() == 0)
+            create(f, td, keyField, new ArrayList<Tuple>());
+    }
+
+    /**
+     * Returns the File backing this BTreeFile on disk.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    /** @return the index of the field the tuples of this file are ordered on */
+    public int getKeyField() {
+        return keyField;
+    }
+
+    /** @return the type of the key field */
+    public Type getKeyType() {
+        return td.getType(keyField);
+    }
+
+    /**
+     * Returns an ID uniquely identifying this BTreeFile, the hash code of the
+     * absolute path of its file, like HeapFile's.
+     */
+    public int getId() {
+        return f.getAbsoluteFile().hashCode();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Compares two keys of the same type.
+     * @return a negative number, zero or a positive number as a is less
+     *   than, equal to or greater than b.
+     */
+    static int compareKeys(Field a, Field b) {
+        if (a instanceof IntField && b instanceof IntField) {
+            int x = ((IntField) a).getValue();
+            int y = ((IntField) b).getValue();
+            return x < y ? -1 : (x == y ? 0 : 1);
+        }
+        if (a.compare(Predicate.Op.LESS_THAN, b))
+            return -1;
+        return a.compare(Predicate.Op.GREATER_THAN, b) ? 1 : 0;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId id) {
+        BTreePageId pid = (BTreePageId) id;
+        byte[] data = new byte[BufferPool.PAGE_SIZE];
+        try {
+            synchronized (this) {
+                RandomAccessFile file = file();
+                long offset = (long) pid.pageno() * data.length;
+                // pages past the end of the file read as zeros, an empty page
+                if (offset < file.length()) {
+                    file.seek(offset);
+                    file.readFully(data, 0, (int) Math.min(data.length, file.length() - offset));
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("could not read " + pid + " of " + f + ": " + e.getMessage());
+        }
+        switch (pid.category()) {
+        case BTreePageId.ROOT_PTR:
+            return new BTreeRootPtrPage(pid, data);
+        case BTreePageId.INTERNAL:
+            return new BTreeInternalPage(pid, data, getKeyType());
+        default:
+            return new BTreeLeafPage(pid, data, td, keyField);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public synchronized void writePage(Page page) throws IOException {
+        RandomAccessFile file = file();
+        file.seek((long) page.getId().pageno() * BufferPool.PAGE_SIZE);
+        file.write(writeBuffer, 0, page.getPageData(writeBuffer));
+    }
+
+    /** Returns the number of pages in this file, including the root pointer page. */
+    public int numPages() {
+        return (int) (f.length() / BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Returns the number of pages a lookup reads on its way from the root to
+     * the first leaf, including both. The pages are read without locks, so
+     * this is only meant for cost estimates.
+     */
+    public int height() {
+        BTreePageId pid = ((BTreeRootPtrPage) readPage(rootPtrId())).getRootId();
+        int height = 0;
+        while (pid != null) {
+            height++;
+            if (pid.category() != BTreePageId.INTERNAL)
+                break;
+            pid = ((BTreeInternalPage) readPage(pid)).getChildId(0);
+        }
+        return height;
+    }
+
+    /** Closes the file handle; it is reopened on the next page read or write. */
+    public synchronized void close() {
+        if (raf == null)
+            return;
+        try {
+            raf.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        raf = null;
+    }
+
+    private synchronized RandomAccessFile file() throws IOException {
+        if (raf == null)
+            raf = new RandomAccessFile(f.getAbsoluteFile(), "rw");
+        return raf;
+    }
+
+    private BTreePageId rootPtrId() {
+        return new BTreePageId(getId(), 0, BTreePageId.ROOT_PTR);
+    }
+
+    private BTreePage getPage(TransactionId tid, BTreePageId pid, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (BTreePage) Database.getBufferPool().getPage(tid, pid, perm);
+    }
+
+    /**
+     * Descends from the root to the leftmost leaf that may hold the specified
+     * key, taking shared locks on the way.
+     *
+     * @param path if not null, the internal pages on the way are added to it, root first
+     * @return the leaf, or null if the tree has no root
+     */
+    private BTreePageId findLeaf(TransactionId tid, Field key, ArrayList<BTreePageId> path)
+            throws DbException, TransactionAbortedException {
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, rootPtrId(), Permissions.READ_ONLY);
+        BTreePageId pid = rootPtr.getRootId();
+        while (pid != null && pid.category() == BTreePageId.INTERNAL) {
+            if (path != null)
+                path.add(pid);
+            BTreeInternalPage page = (BTreeInternalPage) getPage(tid, pid, Permissions.READ_ONLY);
+            pid = page.getChildId(key == null ? 0 : page.childIndexFor(key));
+        }
+        return pid;
+    }
+
+    /**
+     * Allocates a page at the end of the file and returns it, locked for
+     * writing. The page is written to disk empty right away, so that no
+     * other transaction can allocate the same page number; if the
+     * transaction aborts, the page stays empty and unused.
+     */
+    private BTreePage newPage(TransactionId tid, int category, ArrayList<Page> dirtied)
+            throws DbException, TransactionAbortedException, IOException {
+        int pageno;
+        synchronized (this) {
+            pageno = Math.max(1, numPages());
+            RandomAccessFile file = file();
+            file.seek((long) pageno * BufferPool.PAGE_SIZE);
+            file.write(new byte[BufferPool.PAGE_SIZE]);
+        }
+        BTreePage page = getPage(tid, new BTreePageId(getId(), pageno, category), Permissions.READ_WRITE);
+        page.markDirty(true, tid);
+        dirtied.add(page);
+        return page;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> addTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        Field key = t.getField(keyField);
+        ArrayList<BTreePageId> path = new ArrayList<BTreePageId>();
+        BTreePageId leafId = findLeaf(tid, key, path);
+        if (leafId == null)
+            throw new DbException(f + " has no root page");
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        BTreeLeafPage leaf = (BTreeLeafPage) getPage(tid, leafId, Permissions.READ_WRITE);
+        leaf.markDirty(true, tid);
+        dirtied.add(leaf);
+        if (leaf.getNumEmptySlots() == 0) {
+            BTreeLeafPage right = (BTreeLeafPage) newPage(tid, BTreePageId.LEAF, dirtied);
+            Field separator = leaf.splitInto(right);
+            insertIntoParent(tid, path, leafId, separator, right.getId(), dirtied);
+            if (compareKeys(key, separator) >= 0)
+                leaf = right;
+        }
+        leaf.insertTuple(t);
+        return dirtied;
+    }
+
+    /**
+     * Adds the new right half of a page that split to the parent of the
+     * page, splitting the parent in turn if it is full, or makes a new root
+     * if the page was the root.
+     *
+     * @param path the internal pages from the root down to the parent of left
+     */
+    private void insertIntoParent(TransactionId tid, ArrayList<BTreePageId> path, BTreePageId left,
+            Field separator, BTreePageId right, ArrayList<Page> dirtied)
+            throws DbException, TransactionAbortedException, IOException {
+        if (path.isEmpty()) {
+            BTreeInternalPage root = (BTreeInternalPage) newPage(tid, BTreePageId.INTERNAL, dirtied);
+            root.setFirstChild(left);
+            root.insertEntry(left.pageno(), separator, right.pageno());
+            BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, rootPtrId(), Permissions.READ_WRITE);
+            rootPtr.setRootId(root.getId());
+            rootPtr.markDirty(true, tid);
+            dirtied.add(rootPtr);
+            return;
+        }
+        BTreePageId parentId = path.remove(path.size() - 1);
+        BTreeInternalPage parent = (BTreeInternalPage) getPage(tid, parentId, Permissions.READ_WRITE);
+        parent.markDirty(true, tid);
+        dirtied.add(parent);
+        if (parent.isFull()) {
+            BTreeInternalPage sibling = (BTreeInternalPage) newPage(tid, BTreePageId.INTERNAL, dirtied);
+            Field up = parent.splitInto(sibling);
+            insertIntoParent(tid, path, parentId, up, sibling.getId(), dirtied);
+            if (!parent.hasChild(left.pageno()))
+                parent = sibling;
+        }
+        parent.insertEntry(left.pageno(), separator, right.pageno());
+    }
+
+    // see DbFile.java for javadocs
+    public Page deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !(rid.getPageId() instanceof BTreePageId) || rid.getPageId().getTableId() != getId()
+                || ((BTreePageId) rid.getPageId()).category() != BTreePageId.LEAF)
+            throw new DbException("tuple is not a member of " + f);
+        BTreeLeafPage leaf = (BTreeLeafPage) getPage(tid, (BTreePageId) rid.getPageId(), Permissions.READ_WRITE);
+        if (leaf.indexOf(t) < 0)
+            leaf = findTuple(tid, t);
+        leaf.deleteTuple(t);
+        leaf.markDirty(true, tid);
+        return leaf;
+    }
+
+    /**
+     * Finds the leaf holding the specified tuple by its key, for tuples that
+     * moved to another leaf since their RecordId was set, and locks it for
+     * writing.
+     *
+     * @throws DbException if the tuple is not in the file
+     */
+    private BTreeLeafPage findTuple(TransactionId tid, Tuple t) throws DbException, TransactionAbortedException {
+        Field key = t.getField(keyField);
+        BTreePageId pid = findLeaf(tid, key, null);
+        while (pid != null) {
+            BTreeLeafPage leaf = (BTreeLeafPage) getPage(tid, pid, Permissions.READ_ONLY);
+            if (leaf.indexOf(t) >= 0)
+                return (BTreeLeafPage) getPage(tid, pid, Permissions.READ_WRITE);
+            int n = leaf.getNumTuples();
+            if ((n > 0 && compareKeys(leaf.getKey(n - 1), key) > 0) || leaf.getRightSibling() == 0)
+                break;
+            pid = new BTreePageId(getId(), leaf.getRightSibling(), BTreePageId.LEAF);
+        }
+        throw new DbException("tuple is not a member of " + f);
+    }
+
+    /**
+     * Returns an iterator over all the tuples in this file, in key order.
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        return new BTreeFileIterator(tid, null, false, null, false);
+    }
+
+    /**
+     * Returns an iterator over the tuples whose key satisfies
+     * <tt>key op operand</tt>, in key order. Only the leaves that can hold
+     * such tuples are read.
+     *
+     * @param op EQUALS, GREATER_THAN, GREATER_THAN_OR_EQ, LESS_THAN or LESS_THAN_OR_EQ
+     * @throws IllegalArgumentException for other operators
+     */
+    public DbFileIterator indexIterator(TransactionId tid, Predicate.Op op, Field operand) {
+        switch (op) {
+        case EQUALS:
+            return indexIterator(tid, operand, true, operand, true);
+        case GREATER_THAN:
+            return indexIterator(tid, operand, false, null, false);
+        case GREATER_THAN_OR_EQ:
+            return indexIterator(tid, operand, true, null, false);
+        case LESS_THAN:
+            return indexIterator(tid, null, false, operand, false);
+        case LESS_THAN_OR_EQ:
+            return indexIterator(tid, null, false, operand, true);
+        default:
+            throw new IllegalArgumentException("a B+-tree cannot look up keys with " + op);
+        }
+    }
+
+    /**
+     * Returns an iterator over the tuples whose key lies between low and
+     * high, in key order.
+     *
+     * @param low the smallest key to return, or null for no lower bound
+     * @param lowInclusive whether tuples whose key equals low are returned
+     * @param high the largest key to return, or null for no upper bound
+     * @param highInclusive whether tuples whose key equals high are returned
+     */
+    public DbFileIterator indexIterator(TransactionId tid, Field low, boolean lowInclusive,
+            Field high, boolean highInclusive) {
+        return new BTreeFileIterator(tid, low, lowInclusive, high, highInclusive);
+    }
+
+    /**
+     * Writes a B+-tree holding the specified tuples to f, replacing any
+     * file there. The leaves are filled as evenly and as fully as possible,
+     * and are written in key order right after the root pointer page, so a
+     * scan of a fresh file reads it from front to back.
+     *
+     * @param tuples the tuples of the table, in any order
+     */
+    public static void create(File f, TupleDesc td, final int keyField, List<Tuple> tuples) throws IOException {
+        ArrayList<Tuple> sorted = new ArrayList<Tuple>(tuples);
+        Collections.sort(sorted, new Comparator<Tuple>() {
+            public int compare(Tuple a, Tuple b) {
+                return compareKeys(a.getField(keyField), b.getField(keyField));
+            }
+        });
+        int pageSize = BufferPool.PAGE_SIZE;
+        Type keyType = td.getType(keyField);
+        int leafCapacity = BTreeLeafPage.maxTuples(pageSize, td);
+        int numLeaves = Math.max(1, (sorted.size() + leafCapacity - 1) / leafCapacity);
+
+        f.delete();
+        RandomAccessFile out = new RandomAccessFile(f, "rw");
+        try {
+            // the root pointer is written last, once the root is known
+            int pageno = 1;
+            ArrayList<Integer> level = new ArrayList<Integer>();
+            ArrayList<Field> minKeys = new ArrayList<Field>();
+            out.seek(pageSize);
+            for (int i = 0; i < numLeaves; i++) {
+                BTreeLeafPage leaf = new BTreeLeafPage(new BTreePageId(0, pageno, BTreePageId.LEAF),
+                        new byte[pageSize], td, keyField);
+                int from = (int) ((long) i * sorted.size() / numLeaves);
+                int to = (int) ((long) (i + 1) * sorted.size() / numLeaves);
+                try {
+                    for (Tuple t : sorted.subList(from, to))
+                        leaf.insertTuple(t);
+                } catch (DbException e) {
+                    throw new IOException("cannot add tuple to leaf: " + e.getMessage());
+                }
+                leaf.setRightSibling(i + 1 < numLeaves ? pageno + 1 : 0);
+                out.write(leaf.getPageData());
+                level.add(pageno++);
+                minKeys.add(from < to ? leaf.getKey(0) : null);
+            }
+
+            int category = BTreePageId.LEAF;
+            int fanout = BTreeInternalPage.maxKeys(pageSize, keyType) + 1;
+            while (level.size() > 1) {
+                ArrayList<Integer> parents = new ArrayList<Integer>();
+                ArrayList<Field> parentKeys = new ArrayList<Field>();
+                int numParents = (level.size() + fanout - 1) / fanout;
+                for (int i = 0; i < numParents; i++) {
+                    int from = (int) ((long) i * level.size() / numParents);
+                    int to = (int) ((long) (i + 1) * level.size() / numParents);
+                    BTreeInternalPage page = new BTreeInternalPage(new BTreePageId(0, pageno, BTreePageId.INTERNAL),
+                            new byte[pageSize], keyType);
+                    page.setFirstChild(new BTreePageId(0, level.get(from), category));
+                    for (int c = from + 1; c < to; c++)
+                        page.appendEntry(minKeys.get(c), level.get(c));
+                    out.write(page.getPageData());
+                    parents.add(pageno++);
+                    parentKeys.add(minKeys.get(from));
+                }
+                level = parents;
+                minKeys = parentKeys;
+                category = BTreePageId.INTERNAL;
+            }
+
+            BTreeRootPtrPage rootPtr = new BTreeRootPtrPage(new BTreePageId(0, 0, BTreePageId.ROOT_PTR),
+                    new byte[pageSize]);
+            rootPtr.setRootId(new BTreePageId(0, level.get(0), category));
+            out.seek(0);
+            out.write(rootPtr.getPageData());
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Iterates over the tuples with keys between two bounds, reading leaves
+     * left to right from the first one that may hold the lower bound. Each
+     * leaf's tuples are copied when the leaf is reached, so the caller may
+     * delete the tuples it is handed.
+     */
+    private class BTreeFileIterator extends AbstractDbFileIterator {
+        private final TransactionId tid;
+        private final Field low;
+        private final boolean lowInclusive;
+        private final Field high;
+        private final boolean highInclusive;
+        // tuples of the current leaf; null before open and after the last tuple
+        private Tuple[] tuples;
+        private int pos;
+        private int nextLeaf;
+
+        BTreeFileIterator(TransactionId tid, Field low, boolean lowInclusive, Field high, boolean highInclusive) {
+            this.tid = tid;
+            this.low = low;
+            this.lowInclusive = lowInclusive;
+            this.high = high;
+            this.highInclusive = highInclusive;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            tuples = null;
+            BTreePageId pid = findLeaf(tid, low, null);
+            if (pid == null)
+                return;
+            BTreeLeafPage leaf = readLeaf(pid);
+            if (low != null)
+                pos = leaf.lowerBound(low, lowInclusive);
+        }
+
+        private BTreeLeafPage readLeaf(BTreePageId pid) throws DbException, TransactionAbortedException {
+            BTreeLeafPage leaf = (BTreeLeafPage) getPage(tid, pid, Permissions.READ_ONLY);
+            tuples = leaf.getTuples();
+            pos = 0;
+            nextLeaf = leaf.getRightSibling();
+            return leaf;
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            while (tuples != null) {
+                if (pos == tuples.length) {
+                    if (nextLeaf == 0)
+                        tuples = null;
+                    else
+                        readLeaf(new BTreePageId(getId(), nextLeaf, BTreePageId.LEAF));
+                    continue;
+                }
+                Tuple t = tuples[pos++];
+                Field key = t.getField(keyField);
+                if (high != null) {
+                    int c = compareKeys(key, high);
+                    if (c > 0 || (c == 0 && !highInclusive)) {
+                        tuples = null;
+                        break;
+                    }
+                }
+                // equal keys may continue on the leaves after the first one
+                if (low != null) {
+                    int c = compareKeys(key, low);
+                    if (c < 0 || (c == 0 && !lowInclusive))
+                        continue;
+                }
+                return t;
+            }
+            return null;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            tuples = null;
+        }
+    }
+}
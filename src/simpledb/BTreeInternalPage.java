@@ -0,0 +1,190 @@
+package simpledb;
+
+import java.text.ParseException;
+import java.util.Arrays;
+
+/**
+ * BTreeInternalPage routes lookups in a BTreeFile. A page with n keys has
+ * n + 1 children, all of the same category, and child i holds the keys
+ * between key i - 1 and key i, both inclusive, since equal keys may be split
+ * across neighbouring children. The page format is
+ * <pre>
+ *     number of keys (int) | child category (byte) | keys... | child page numbers...
+ * </pre>
+ * where the key and child arrays have room for a full page, so a page with
+ * 4096 bytes and int keys holds up to 510 keys.
+ *
+ * @see BTreeFile
+ */
+public class BTreeInternalPage extends BTreePage {
+    private static final int HEADER_SIZE = 5;
+
+    private final Type keyType;
+    private final int maxKeys;
+    private int numKeys;
+    private int childCategory;
+    private final Field[] keys;
+    private final int[] children;
+
+    /**
+     * Create an internal page from a set of bytes of data read from disk;
+     * the key type is looked up in the Catalog. An array of zeros is an empty
+     * page, which must be given its children before it is used.
+     */
+    public BTreeInternalPage(BTreePageId id, byte[] data) {
+        this(id, data, fileOf(id).getKeyType());
+    }
+
+    /**
+     * Create an internal page with the specified key type, for callers such
+     * as BTreeFile's bulk loader that have no catalog entry.
+     */
+    BTreeInternalPage(BTreePageId id, byte[] data, Type keyType) {
+        super(id, data);
+        this.keyType = keyType;
+        this.maxKeys = maxKeys(data.length, keyType);
+        numKeys = Type.readInt(data, 0);
+        childCategory = data[4];
+        if (numKeys < 0 || numKeys > maxKeys)
+            throw new IllegalArgumentException("bad key count " + numKeys + " on " + id);
+        keys = new Field[maxKeys];
+        children = new int[maxKeys + 1];
+        int childStart = HEADER_SIZE + maxKeys * keyType.getLen();
+        try {
+            for (int i = 0; i < numKeys; i++)
+                keys[i] = keyType.parse(data, HEADER_SIZE + i * keyType.getLen());
+        } catch (ParseException e) {
+            throw new IllegalArgumentException("bad key on " + id + ": " + e.getMessage());
+        }
+        for (int i = 0; i <= numKeys; i++)
+            children[i] = Type.readInt(data, childStart + i * 4);
+    }
+
+    /** @return the number of keys that fit on an internal page of the specified size */
+    static int maxKeys(int pageSize, Type keyType) {
+        return (pageSize - HEADER_SIZE - 4) / (keyType.getLen() + 4);
+    }
+
+    /** @return the number of keys on this page; it has one more child */
+    public int getNumKeys() {
+        return numKeys;
+    }
+
+    /** @return true if no more keys can be added to this page */
+    public boolean isFull() {
+        return numKeys == maxKeys;
+    }
+
+    /** @return the i-th key on this page */
+    public Field getKey(int i) {
+        return keys[i];
+    }
+
+    /** @return the id of the i-th child of this page */
+    public BTreePageId getChildId(int i) {
+        return new BTreePageId(pid.getTableId(), children[i], childCategory);
+    }
+
+    /**
+     * @return the index of the leftmost child that may hold the specified
+     *   key: the first i whose key is greater than or equal to it, or
+     *   getNumKeys() if there is none.
+     */
+    public int childIndexFor(Field key) {
+        int lo = 0;
+        int hi = numKeys;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (BTreeFile.compareKeys(keys[mid], key) < 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Makes this empty page the parent of the single specified child, e.g.
+     * of the old root when the root splits.
+     */
+    public void setFirstChild(BTreePageId child) {
+        if (numKeys != 0)
+            throw new IllegalStateException(pid + " already has children");
+        childCategory = child.category();
+        children[0] = child.pageno();
+    }
+
+    /**
+     * Adds a child to the right of an existing one, e.g. the new right half
+     * of a child that split.
+     *
+     * @param left the page number of an existing child
+     * @param key the key separating left and right
+     * @param right the page number of the new child
+     * @throws DbException if the page is full or left is not one of its children
+     */
+    public void insertEntry(int left, Field key, int right) throws DbException {
+        if (isFull())
+            throw new DbException(pid + " is full");
+        int i = 0;
+        while (i <= numKeys && children[i] != left)
+            i++;
+        if (i > numKeys)
+            throw new DbException("page " + left + " is not a child of " + pid);
+        System.arraycopy(keys, i, keys, i + 1, numKeys - i);
+        System.arraycopy(children, i + 1, children, i + 2, numKeys - i);
+        keys[i] = key;
+        children[i + 1] = right;
+        numKeys++;
+    }
+
+    /** Adds a child after the last one; used to fill pages in key order. */
+    void appendEntry(Field key, int child) {
+        keys[numKeys] = key;
+        children[numKeys + 1] = child;
+        numKeys++;
+    }
+
+    /** @return true if the specified page number is one of this page's children */
+    public boolean hasChild(int pageno) {
+        for (int i = 0; i <= numKeys; i++)
+            if (children[i] == pageno)
+                return true;
+        return false;
+    }
+
+    /**
+     * Moves the upper half of the keys and children of this page to the
+     * empty page right, and removes the key between the two halves.
+     *
+     * @return the removed key, which separates this page and right in their
+     *   parent.
+     */
+    public Field splitInto(BTreeInternalPage right) {
+        int mid = numKeys / 2;
+        Field up = keys[mid];
+        right.childCategory = childCategory;
+        right.numKeys = numKeys - mid - 1;
+        System.arraycopy(keys, mid + 1, right.keys, 0, right.numKeys);
+        System.arraycopy(children, mid + 1, right.children, 0, right.numKeys + 1);
+        Arrays.fill(keys, mid, numKeys, null);
+        numKeys = mid;
+        return up;
+    }
+
+    public int getPageData(byte[] out) {
+        Arrays.fill(out, 0, pageSize, (byte) 0);
+        Type.writeInt(out, 0, numKeys);
+        out[4] = (byte) childCategory;
+        for (int i = 0; i < numKeys; i++)
+            keys[i].serialize(out, HEADER_SIZE + i * keyType.getLen());
+        int childStart = HEADER_SIZE + maxKeys * keyType.getLen();
+        for (int i = 0; i <= numKeys; i++)
+            Type.writeInt(out, childStart + i * 4, children[i]);
+        return pageSize;
+    }
+
+    public BTreeInternalPage getBeforeImage() {
+        return new BTreeInternalPage(pid, oldData, keyType);
+    }
+}
@@ -0,0 +1,206 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * BTreeLeafPage stores the tuples of a BTreeFile, sorted by the key field of
+ * the file. Tuples with equal keys keep the order they were added in. The
+ * page format is
+ * <pre>
+ *     right sibling (int, 0 for the last leaf) | number of tuples (int) | tuples...
+ * </pre>
+ * with the tuples packed in key order. Leaves are chained left to right
+ * through their right siblings, so range scans read one leaf after another
+ * without going back up the tree.
+ * <p>
+ * The RecordId of a tuple is its position on the page, which changes as
+ * tuples with smaller keys are added or deleted. {@link #deleteTuple} uses it
+ * as a hint and falls back to looking the tuple up by its key.
+ *
+ * @see BTreeFile
+ */
+public class BTreeLeafPage extends BTreePage {
+    private static final int HEADER_SIZE = 8;
+
+    private final TupleDesc td;
+    private final int keyField;
+    private final int maxTuples;
+    private int rightSibling;
+    // decoded lazily from oldData, which is never modified
+    private final ArrayList<Tuple> tuples;
+
+    /**
+     * Create a leaf page from a set of bytes of data read from disk; the
+     * TupleDesc and key field are looked up in the Catalog. An array of zeros
+     * is an empty leaf.
+     */
+    public BTreeLeafPage(BTreePageId id, byte[] data) {
+        this(id, data, fileOf(id).getTupleDesc(), fileOf(id).getKeyField());
+    }
+
+    /**
+     * Create a leaf page of a table with the specified schema, for callers
+     * such as BTreeFile's bulk loader that have no catalog entry.
+     */
+    BTreeLeafPage(BTreePageId id, byte[] data, TupleDesc td, int keyField) {
+        super(id, data);
+        this.td = td;
+        this.keyField = keyField;
+        int size = td.getSize();
+        this.maxTuples = maxTuples(data.length, td);
+        rightSibling = Type.readInt(data, 0);
+        int count = Type.readInt(data, 4);
+        if (count < 0 || count > maxTuples)
+            throw new IllegalArgumentException("bad tuple count " + count + " on " + id);
+        tuples = new ArrayList<Tuple>(maxTuples);
+        for (int i = 0; i < count; i++)
+            tuples.add(new Tuple(td, data, HEADER_SIZE + i * size));
+    }
+
+    /** @return the number of tuples that fit on a leaf page of the specified size */
+    static int maxTuples(int pageSize, TupleDesc td) {
+        return (pageSize - HEADER_SIZE) / td.getSize();
+    }
+
+    /** @return the number of tuples on this page */
+    public int getNumTuples() {
+        return tuples.size();
+    }
+
+    /** @return the number of tuples that can still be added to this page */
+    public int getNumEmptySlots() {
+        return maxTuples - tuples.size();
+    }
+
+    /** @return the page number of the next leaf in key order, or 0 if this is the last one */
+    public int getRightSibling() {
+        return rightSibling;
+    }
+
+    public void setRightSibling(int pageno) {
+        rightSibling = pageno;
+    }
+
+    /** @return the key of the i-th tuple on this page */
+    public Field getKey(int i) {
+        return tuples.get(i).getField(keyField);
+    }
+
+    /**
+     * @return the index of the first tuple whose key is greater than or
+     *   equal to key if inclusive, or greater than key if not; getNumTuples()
+     *   if there is none.
+     */
+    public int lowerBound(Field key, boolean inclusive) {
+        int lo = 0;
+        int hi = tuples.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = BTreeFile.compareKeys(getKey(mid), key);
+            if (c < 0 || (c == 0 && !inclusive))
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * @return the tuples on this page in key order, with their RecordIds set.
+     *   The array is not changed by later modifications of the page, so
+     *   readers may delete the tuples they were handed while iterating.
+     */
+    public Tuple[] getTuples() {
+        Tuple[] copy = tuples.toArray(new Tuple[tuples.size()]);
+        for (int i = 0; i < copy.length; i++)
+            copy[i].setRecordId(new RecordId(pid, i));
+        return copy;
+    }
+
+    /**
+     * Adds the specified tuple to the page, after any tuples with the same
+     * key, and sets its RecordId.
+     * @throws DbException if the page is full or the tuple's TupleDesc does
+     *   not match the page's.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("tuple does not match the schema of " + pid);
+        if (tuples.size() == maxTuples)
+            throw new DbException(pid + " is full");
+        int i = lowerBound(t.getField(keyField), false);
+        tuples.add(i, t);
+        t.setRecordId(new RecordId(pid, i));
+    }
+
+    /**
+     * Deletes the specified tuple from the page and clears its RecordId.
+     * @throws DbException if the tuple is not on this page.
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        int i = indexOf(t);
+        if (i < 0)
+            throw new DbException("tuple is not on " + pid);
+        tuples.remove(i);
+        t.setRecordId(null);
+    }
+
+    /**
+     * @return the index of a tuple on this page with the same fields as t,
+     *   or -1 if there is none. The position in t's RecordId is tried first.
+     */
+    int indexOf(Tuple t) {
+        RecordId rid = t.getRecordId();
+        if (rid != null && pid.equals(rid.getPageId()) && rid.tupleno() < tuples.size()
+                && sameFields(tuples.get(rid.tupleno()), t))
+            return rid.tupleno();
+        Field key = t.getField(keyField);
+        for (int i = lowerBound(key, true); i < tuples.size() && BTreeFile.compareKeys(getKey(i), key) == 0; i++)
+            if (sameFields(tuples.get(i), t))
+                return i;
+        return -1;
+    }
+
+    private boolean sameFields(Tuple a, Tuple b) {
+        for (int i = 0; i < td.numFields(); i++)
+            if (!a.getField(i).equals(b.getField(i)))
+                return false;
+        return true;
+    }
+
+    /**
+     * Moves the upper half of the tuples on this full page to the empty page
+     * right, and links right in after this page.
+     *
+     * @return the key of the first tuple on right, which separates the two
+     *   pages in their parent: every key on this page is less than or equal
+     *   to it, and every key on right is greater than or equal to it.
+     */
+    public Field splitInto(BTreeLeafPage right) {
+        int mid = tuples.size() / 2;
+        right.tuples.addAll(tuples.subList(mid, tuples.size()));
+        tuples.subList(mid, tuples.size()).clear();
+        right.rightSibling = rightSibling;
+        rightSibling = right.pid.pageno();
+        return right.getKey(0);
+    }
+
+    public int getPageData(byte[] out) {
+        Type.writeInt(out, 0, rightSibling);
+        Type.writeInt(out, 4, tuples.size());
+        int offset = HEADER_SIZE;
+        for (Tuple t : tuples) {
+            for (int f = 0; f < td.numFields(); f++) {
+                t.getField(f).serialize(out, offset);
+                offset += td.getType(f).getLen();
+            }
+        }
+        Arrays.fill(out, offset, pageSize, (byte) 0);
+        return pageSize;
+    }
+
+    public BTreeLeafPage getBeforeImage() {
+        return new BTreeLeafPage(pid, oldData, td, keyField);
+    }
+}
@@ -0,0 +1,53 @@
+package simpledb;
+
+/**
+ * BTreePage holds what the pages of a BTreeFile have in common: their id,
+ * dirty state and before-image. Subclasses decode their contents when they
+ * are created and serialize them again in {@link #getPageData(byte[])}.
+ *
+ * @see BTreeFile
+ */
+public abstract class BTreePage implements Page {
+    protected final BTreePageId pid;
+    protected final int pageSize;
+    private TransactionId dirtier;
+    // contents as of the last commit; never modified, see getBeforeImage()
+    protected byte[] oldData;
+
+    protected BTreePage(BTreePageId id, byte[] data) {
+        this.pid = id;
+        this.pageSize = data.length;
+        this.oldData = data;
+    }
+
+    /** @return the BTreeFile the specified page belongs to, looked up in the Catalog. */
+    static BTreeFile fileOf(BTreePageId id) {
+        return (BTreeFile) Database.getCatalog().getDbFile(id.getTableId());
+    }
+
+    public BTreePageId getId() {
+        return pid;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtier = dirty ? tid : null;
+    }
+
+    public byte[] getPageData() {
+        byte[] data = new byte[pageSize];
+        getPageData(data);
+        return data;
+    }
+
+    /**
+     * The committed contents become the before-image; they are serialized
+     * here, once per commit, rather than on every modification.
+     */
+    public void setBeforeImage() {
+        oldData = getPageData();
+    }
+}
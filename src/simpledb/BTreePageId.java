@@ -0,0 +1,79 @@
+package simpledb;
+
+/**
+ * Unique identifier for the pages of a BTreeFile. Besides the table and the
+ * page number, the id records which kind of page it names, so that the file
+ * knows which page class to read it as.
+ */
+public class BTreePageId implements PageId {
+    /** The page at the start of a BTreeFile that points to the root of the tree. */
+    public static final int ROOT_PTR = 0;
+    /** An internal page, holding keys and the page numbers of its children. */
+    public static final int INTERNAL = 1;
+    /** A leaf page, holding the tuples of the table in key order. */
+    public static final int LEAF = 2;
+
+    private final int tableId;
+    private final int pageNum;
+    private final int category;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific BTreeFile.
+     *
+     * @param tableId The table that is being referenced
+     * @param pgNo The page number in that table.
+     * @param category ROOT_PTR, INTERNAL or LEAF
+     */
+    public BTreePageId(int tableId, int pgNo, int category) {
+        if (category < ROOT_PTR || category > LEAF)
+            throw new IllegalArgumentException("unknown B+-tree page category " + category);
+        this.tableId = tableId;
+        this.pageNum = pgNo;
+        this.category = category;
+    }
+
+    /** @return the table associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the page number in the table getTableId() associated with
+     *   this PageId
+     */
+    public int pageno() {
+        return pageNum;
+    }
+
+    /** @return the kind of page this id names: ROOT_PTR, INTERNAL or LEAF */
+    public int category() {
+        return category;
+    }
+
+    public int hashCode() {
+        return (tableId * 31 + pageNum) * 3 + category;
+    }
+
+    public boolean equals(Object o) {
+        if (o == null || !(o instanceof BTreePageId))
+            return false;
+        BTreePageId other = (BTreePageId) o;
+        return tableId == other.tableId && pageNum == other.pageNum && category == other.category;
+    }
+
+    public String toString() {
+        String[] names = { "root pointer", "internal", "leaf" };
+        return names[category] + " page " + pageNum + " of table " + tableId;
+    }
+
+    /**
+     *  Return a representation of this object as an array of
+     *  integers, for writing to disk.  Size of returned array must contain
+     *  number of integers that corresponds to number of args to one of the
+     *  constructors.
+     */
+    public int[] serialize() {
+        return new int[] { tableId, pageNum, category };
+    }
+}
@@ -0,0 +1,55 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * BTreeRootPtrPage is the first page of every BTreeFile. It records the page
+ * number and category of the root of the tree, which changes whenever the
+ * root splits:
+ * <pre>
+ *     root page number (int, 0 for an empty tree) | root category (byte)
+ * </pre>
+ * The rest of the page is unused.
+ */
+public class BTreeRootPtrPage extends BTreePage {
+    private int root;
+    private int rootCategory;
+
+    /**
+     * Create a root pointer page from the bytes of page 0 of a BTreeFile. An
+     * array of zeros is the root pointer of an empty tree.
+     */
+    public BTreeRootPtrPage(BTreePageId id, byte[] data) {
+        super(id, data);
+        root = Type.readInt(data, 0);
+        rootCategory = data[4];
+        if (root != 0 && rootCategory != BTreePageId.INTERNAL && rootCategory != BTreePageId.LEAF)
+            throw new IllegalArgumentException("bad root category " + rootCategory + " on " + id);
+    }
+
+    /** @return the id of the root page, or null if the tree is empty */
+    public BTreePageId getRootId() {
+        if (root == 0)
+            return null;
+        return new BTreePageId(pid.getTableId(), root, rootCategory);
+    }
+
+    /** Makes the specified page the root of the tree. */
+    public void setRootId(BTreePageId id) {
+        if (id.category() == BTreePageId.ROOT_PTR)
+            throw new IllegalArgumentException("the root must be an internal or a leaf page");
+        root = id.pageno();
+        rootCategory = id.category();
+    }
+
+    public int getPageData(byte[] out) {
+        Arrays.fill(out, 0, pageSize, (byte) 0);
+        Type.writeInt(out, 0, root);
+        out[4] = (byte) rootCategory;
+        return pageSize;
+    }
+
+    public BTreeRootPtrPage getBeforeImage() {
+        return new BTreeRootPtrPage(pid, oldData);
+    }
+}
@@ -2,9 +2,10 @@ package simpledb;
 
 import java.io.*;
 import java.util.HashSet;
-import java.util.Map;
-import java.util.HashMap;
 import java.util.Set;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
@@ -15,9 +16,19 @@ import java.util.Set;
  * The BufferPool is also responsible for locking; when a transaction fetches a
  * page, BufferPool which check that the transaction has the appropriate locks
  * to read/write the page.
+ * <p>
+ * The page table is split into partitions by PageId hash. Each partition has
+ * its own lock and its own replacement policy, so that threads hitting pages
+ * in different partitions never contend. The capacity of the pool is shared by
+ * all partitions; a page read from disk evicts a page of its own partition if
+ * it can, and a page of another partition otherwise.
  */
 public class BufferPool {
-	/** Bytes per page, including header. */
+	/**
+	 * Bytes per page, including header, for tables that were not created with
+	 * another page size (see {@link HeapFile#getPageSize}). The pool's
+	 * capacity is counted in pages whatever their size.
+	 */
 	public static final int PAGE_SIZE = 4096;
 
 	/**
@@ -27,19 +38,171 @@ public class BufferPool {
 	 */
 	public static final int DEFAULT_PAGES = 50;
 
+	/**
+	 * Sequential scans of tables with more than numPages * BULK_READ_POOL_FRACTION
+	 * pages read through a {@link BufferRing} instead of the shared pool. Scans
+	 * of tables that fit in the pool stay cached, since the inner side of a
+	 * nested loops join rescans its table once per outer tuple.
+	 */
+	public static final double BULK_READ_POOL_FRACTION = 1.0;
+
+	/** Upper bound on the number of frames in a bulk-read ring. */
+	public static final int BULK_READ_RING_PAGES = 16;
+
+	/** Upper bound on the number of partitions of the page table. */
+	public static final int MAX_PARTITIONS = 16;
+
+	/**
+	 * Pools are only split into as many partitions as give every partition
+	 * this many pages, so that small pools evict in global policy order.
+	 */
+	public static final int MIN_PARTITION_PAGES = 16;
+
+	private static final ReplacementPolicy.Factory CLOCK = new ReplacementPolicy.Factory() {
+		public ReplacementPolicy newPolicy() {
+			return new ClockPolicy();
+		}
+	};
+
+	/** A slice of the page table, guarded by its own monitor. */
+	private static class Partition {
+		final HashMap<PageId, Page> pages;
+		final ReplacementPolicy policy;
+
+		Partition(ReplacementPolicy policy) {
+			this.pages = new HashMap<PageId, Page>();
+			this.policy = policy;
+		}
+	}
+
 	private int numPages;
-	private HashMap<PageId, Page> idToPage;
+	private Partition[] partitions;
+	// number of pages in all partitions, plus frames reserved for pages being added
+	private AtomicInteger usedFrames;
 	private LockManager lockManager;
+	private Prefetcher prefetcher;
+	// bumped whenever a page is written back or discarded, see installPrefetchedPage()
+	private AtomicLong writeEpoch;
 
 	/**
-	 * Creates a BufferPool that caches up to numPages pages.
+	 * Creates a BufferPool that caches up to numPages pages, evicting pages
+	 * with the CLOCK replacement policy. The page table is split into
+	 * numPages / MIN_PARTITION_PAGES partitions, at most MAX_PARTITIONS.
 	 *
 	 * @param nPages maximum number of pages in this buffer pool.
 	 */
 	public BufferPool(int nPages) {
+		this(nPages, Math.max(1, Math.min(MAX_PARTITIONS, nPages / MIN_PARTITION_PAGES)), CLOCK);
+	}
+
+	/**
+	 * Creates a BufferPool with a single partition that caches up to numPages
+	 * pages. The policy sees every page access of the pool.
+	 *
+	 * @param nPages maximum number of pages in this buffer pool.
+	 * @param policy the policy that chooses which page to evict when the pool is full
+	 */
+	public BufferPool(int nPages, ReplacementPolicy policy) {
+		this(nPages, new Partition[] { new Partition(policy) });
+	}
+
+	/**
+	 * Creates a BufferPool that caches up to numPages pages in the specified
+	 * number of partitions.
+	 *
+	 * @param nPages maximum number of pages in this buffer pool.
+	 * @param nPartitions number of partitions of the page table
+	 * @param factory creates the replacement policy of each partition
+	 */
+	public BufferPool(int nPages, int nPartitions, ReplacementPolicy.Factory factory) {
+		this(nPages, newPartitions(nPartitions, factory));
+	}
+
+	private BufferPool(int nPages, Partition[] partitions) {
 		numPages = nPages;
-		idToPage = new HashMap<PageId, Page>();
+		this.partitions = partitions;
+		usedFrames = new AtomicInteger();
 		lockManager = new LockManager();
+		prefetcher = new Prefetcher(this);
+		writeEpoch = new AtomicLong();
+	}
+
+	private static Partition[] newPartitions(int nPartitions, ReplacementPolicy.Factory factory) {
+		if(nPartitions < 1)
+			throw new IllegalArgumentException("a buffer pool needs at least one partition");
+		Partition[] partitions = new Partition[nPartitions];
+		for(int i = 0; i < nPartitions; i++)
+			partitions[i] = new Partition(factory.newPolicy());
+		return partitions;
+	}
+
+	/** @return the number of partitions of the page table */
+	public int getNumPartitions() {
+		return partitions.length;
+	}
+
+	/**
+	 * @return the replacement policy of a pool with a single partition, or
+	 *   null if the pool has several; see {@link #getHits} and friends for the
+	 *   counters of the whole pool
+	 */
+	public ReplacementPolicy getReplacementPolicy() {
+		return partitions.length == 1 ? partitions[0].policy : null;
+	}
+
+	/** @return the number of page requests served from the pool, over all partitions */
+	public long getHits() {
+		long hits = 0;
+		for(Partition part : partitions)
+			hits += part.policy.getHits();
+		return hits;
+	}
+
+	/** @return the number of page requests that read the page from disk, over all partitions */
+	public long getMisses() {
+		long misses = 0;
+		for(Partition part : partitions)
+			misses += part.policy.getMisses();
+		return misses;
+	}
+
+	/** @return the number of pages evicted, over all partitions */
+	public long getEvictions() {
+		long evictions = 0;
+		for(Partition part : partitions)
+			evictions += part.policy.getEvictions();
+		return evictions;
+	}
+
+	private Partition partitionFor(PageId pid) {
+		return partitions[(pid.hashCode() & Integer.MAX_VALUE) % partitions.length];
+	}
+
+	/** @return the resident copy of the specified page, or null */
+	private Page lookup(PageId pid) {
+		Partition part = partitionFor(pid);
+		synchronized(part) {
+			return part.pages.get(pid);
+		}
+	}
+
+	/**
+	 * @return the prefetcher of this buffer pool, which also holds its
+	 *   read-ahead counters
+	 */
+	public Prefetcher getPrefetcher() {
+		return prefetcher;
+	}
+
+	/**
+	 * Enables or disables read-ahead for sequential scans. When enabled, scans
+	 * have the pages that follow the one they are reading loaded into the pool
+	 * on a background thread. Disabled by default.
+	 *
+	 * @see Prefetcher
+	 */
+	public void setPrefetching(boolean enabled) {
+		prefetcher.setEnabled(enabled);
 	}
 
 	/**
@@ -58,32 +221,157 @@ public class BufferPool {
 	 */
 	public Page getPage(TransactionId tid, PageId pid, Permissions perm)
 			throws TransactionAbortedException, DbException{
+		return getPage(tid, pid, perm, null);
+	}
+
+	/**
+	 * Retrieve the specified page on behalf of a scan that reads through the
+	 * specified ring. Behaves like {@link #getPage(TransactionId, PageId, Permissions)},
+	 * except that a page which has to be read from disk is loaded into a frame
+	 * owned by the ring: once the ring is full, the ring's oldest page is
+	 * evicted to make room, rather than a page chosen by the replacement policy.
+	 *
+	 * @param ring the ring of the calling scan, or null to use the shared pool
+	 * @see #newBulkReadRing
+	 */
+	public Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+			throws TransactionAbortedException, DbException{
 
 	    // block until lock is acquired
 		boolean readWritePermissions = perm != null && Permissions.READ_WRITE.permLevel == perm.permLevel;
-        while(!lockManager.lockPage(tid, pid, readWritePermissions))
-        	continue;
-
-        // evict pages if necessary
-        if(idToPage.size() >= numPages)
-        	evictPage();
+		lockManager.lockPage(tid, pid, readWritePermissions);
 
-		if(idToPage.containsKey(pid))
-			return idToPage.get(pid);
-		else {
+		Partition part = partitionFor(pid);
+		Page cachedPage;
+		synchronized(part) {
+			cachedPage = part.pages.get(pid);
+			if(cachedPage != null)
+				part.policy.recordHit(pid);
+		}
+		if(cachedPage != null) {
+			prefetcher.pageUsed(pid);
+			return cachedPage;
+		} else {
+			Page fetchedPage = null;
 			try {
 				DbFile dbf = Database.getCatalog().getDbFile(pid.getTableId());
-				Page fetchedPage = dbf.readPage(pid);
-				idToPage.put(pid, fetchedPage);
-				return fetchedPage;
+				fetchedPage = dbf.readPage(pid);
 			} catch (Exception e) {
 				e.printStackTrace();
 				System.exit(1);
-			}	
-			return null;
+			}
+			return addPage(fetchedPage, ring);
 		}
 	}
 
+	/**
+	 * Adds a page that was just read from disk to the pool, evicting a page
+	 * if necessary. If another thread added the page in the meantime, e.g. a
+	 * prefetch, the resident copy is returned instead.
+	 */
+	private Page addPage(Page p, BufferRing ring) throws DbException {
+		PageId pid = p.getId();
+		Partition part = partitionFor(pid);
+		if(ring != null && ring.isFull())
+			recyclePage(ring);
+		if(!reserveFrame(part))
+			throw new DbException("All pages in the buffer pool are dirty. Cannot perform page eviction");
+
+		Page cachedPage;
+		synchronized(part) {
+			cachedPage = part.pages.get(pid);
+			if(cachedPage != null) {
+				part.policy.recordHit(pid);
+			} else {
+				part.pages.put(pid, p);
+				part.policy.recordMiss(pid);
+			}
+		}
+		if(cachedPage != null) {
+			usedFrames.decrementAndGet();
+			prefetcher.pageUsed(pid);
+			return cachedPage;
+		}
+		if(ring != null)
+			ring.add(pid);
+		return p;
+	}
+
+	/**
+	 * Adds a page read by the prefetcher to the pool. The page is dropped if
+	 * it is already resident, if the pool is full of dirty pages, or if any
+	 * page was written back or discarded since epoch: the prefetcher reads
+	 * without holding locks, so the page may then be older than the version
+	 * that was written.
+	 *
+	 * @param epoch the value of {@link #getWriteEpoch} before the page was read
+	 * @return true if the page was added
+	 */
+	boolean installPrefetchedPage(Page p, BufferRing ring, long epoch) {
+		PageId pid = p.getId();
+		Partition part = partitionFor(pid);
+		if(epoch != writeEpoch.get() || isResident(pid))
+			return false;
+		if(ring != null && ring.isFull())
+			recyclePage(ring);
+		if(!reserveFrame(part))
+			return false;
+
+		boolean installed;
+		synchronized(part) {
+			// checked under the partition lock: a page written back since epoch
+			// may only be evicted while holding it
+			installed = epoch == writeEpoch.get() && !part.pages.containsKey(pid);
+			if(installed) {
+				part.pages.put(pid, p);
+				part.policy.recordPrefetch(pid);
+				prefetcher.pageInstalled(pid);
+			}
+		}
+		if(!installed) {
+			usedFrames.decrementAndGet();
+			return false;
+		}
+		if(ring != null)
+			ring.add(pid);
+		return true;
+	}
+
+	/** @return the number of times a page was written back or discarded so far */
+	long getWriteEpoch() {
+		return writeEpoch.get();
+	}
+
+	/** @return true if the specified page is currently in the pool */
+	boolean isResident(PageId pid) {
+		return lookup(pid) != null;
+	}
+
+	/**
+	 * Returns the read-ahead window for a sequential scan over a heap file, or
+	 * null if prefetching is disabled.
+	 *
+	 * @param tableId the id of the scanned heap file
+	 * @param tablePages the number of pages in the scanned heap file
+	 * @param ring the ring the scan reads through, or null
+	 */
+	public Prefetcher.Window newReadAheadWindow(int tableId, int tablePages, BufferRing ring) {
+		return prefetcher.newWindow(tableId, tablePages, ring, numPages);
+	}
+
+	/**
+	 * Returns a ring for a sequential scan over a table with the specified
+	 * number of pages, or null if the table is small enough to be cached in
+	 * the shared pool.
+	 *
+	 * @param tablePages the number of pages in the table being scanned
+	 */
+	public BufferRing newBulkReadRing(int tablePages) {
+		if(tablePages <= numPages * BULK_READ_POOL_FRACTION)
+			return null;
+		return new BufferRing(Math.max(1, Math.min(BULK_READ_RING_PAGES, numPages / 8)));
+	}
+
 	/**
 	 * Releases the lock on a page. Calling this is very risky, and may result in
 	 * wrong behavior. Think hard about who needs to call this and why, and why they
@@ -105,6 +393,28 @@ public class BufferPool {
 		transactionComplete(tid, true);
 	}
 
+	/**
+	 * Selects how transactions waiting for locks are kept from deadlocking.
+	 * Must only be called while no transaction holds a lock, e.g. right after
+	 * the pool was created. The default is {@link DeadlockPolicy#DETECT}.
+	 */
+	public void setDeadlockPolicy(DeadlockPolicy policy) {
+		lockManager = new LockManager(policy);
+	}
+
+	/** @return how transactions waiting for locks are kept from deadlocking */
+	public DeadlockPolicy getDeadlockPolicy() {
+		return lockManager.getDeadlockPolicy();
+	}
+
+	/**
+	 * @return the histogram of the time getPage calls spent waiting for locks
+	 *   held by other transactions
+	 */
+	public WaitTimeHistogram getLockWaitTimes() {
+		return lockManager.getWaitTimes();
+	}
+
 	/** Return true if the specified transaction has a lock on the specified page */
 	public boolean holdsLock(TransactionId tid, PageId pid) {
 	    return lockManager.holdsLock(tid, pid);
@@ -124,14 +434,16 @@ public class BufferPool {
 
 		for(PageId pid : lockedPageIds) {
 		    // pages missing from the buffer pool cannot be dirty, so we can ignore them
-			if(!idToPage.containsKey(pid))
+			Page p = lookup(pid);
+			if(p == null)
 				continue;
-			Page p = idToPage.get(pid);
 			if(p.isDirty() != null)
-				if(commit)
+				if(commit) {
 					flushPage(pid);
-				else
-					discardPage(pid);
+					// the committed contents are the before-image of the next transaction
+					p.setBeforeImage();
+				} else
+					rollBackPage(pid);
 		}
 
 		lockManager.unlockAllPages(tid);
@@ -146,15 +458,20 @@ public class BufferPool {
 	 * markDirty bit, and updates cached versions of any pages that have been
 	 * dirtied so that future requests see up-to-date pages.
 	 *
+	 * If the table has a hash index, the tuple is added to it as well.
+	 *
 	 * @param tid     the transaction adding the tuple
 	 * @param tableId the table to add the tuple to
 	 * @param t       the tuple to add
 	 */
 	public void insertTuple(TransactionId tid, int tableId, Tuple t)
 			throws DbException, TransactionAbortedException {
-	    HeapFile hf = (HeapFile) Database.getCatalog().getDbFile(tableId);
+	    DbFile file = Database.getCatalog().getDbFile(tableId);
+	    HashIndexFile index = Database.getCatalog().getHashIndex(tableId);
 	    try {
-	    	hf.addTuple(tid, t);
+	    	file.addTuple(tid, t);
+	    	if(index != null)
+	    		index.insert(tid, t.getField(index.getKeyField()), t.getRecordId());
 		} catch (IOException ioe) {
 	    	ioe.printStackTrace();
 	    	System.exit(1);
@@ -170,13 +487,19 @@ public class BufferPool {
 	 * been dirtied, as it is not possible that a new page was created during the
 	 * deletion (note difference from addTuple).
 	 *
+	 * If the table has a hash index, the tuple is removed from it as well.
+	 *
 	 * @param tid the transaction adding the tuple.
 	 * @param t   the tuple to add
 	 */
 	public void deleteTuple(TransactionId tid, Tuple t) throws DbException, TransactionAbortedException {
-		int tableId = t.getRecordId().getPageId().getTableId();
-		HeapFile hf = (HeapFile) Database.getCatalog().getDbFile(tableId);
-		hf.deleteTuple(tid, t);
+		RecordId rid = t.getRecordId();
+		int tableId = rid.getPageId().getTableId();
+		DbFile file = Database.getCatalog().getDbFile(tableId);
+		HashIndexFile index = Database.getCatalog().getHashIndex(tableId);
+		file.deleteTuple(tid, t);
+		if(index != null)
+			index.delete(tid, t.getField(index.getKeyField()), rid);
 	}
 
 	/**
@@ -184,7 +507,11 @@ public class BufferPool {
 	 * dirty data to disk so will break simpledb if running in NO STEAL mode.
 	 */
 	public synchronized void flushAllPages() throws IOException {
-		Set<PageId> pids = new HashSet<PageId>(idToPage.keySet());
+		Set<PageId> pids = new HashSet<PageId>();
+		for(Partition part : partitions)
+			synchronized(part) {
+				pids.addAll(part.pages.keySet());
+			}
 		for(PageId pid : pids) {
 			flushPage(pid);
 		}
@@ -195,8 +522,30 @@ public class BufferPool {
 	 * manager to ensure that the buffer pool doesn't keep a rolled back page in its
 	 * cache.
 	 */
-	public synchronized void discardPage(PageId pid) {
-	    idToPage.remove(pid);
+	public void discardPage(PageId pid) {
+		Partition part = partitionFor(pid);
+		boolean removed;
+		synchronized(part) {
+			removed = part.pages.remove(pid) != null;
+			if(removed)
+				part.policy.remove(pid);
+		}
+		if(removed) {
+			usedFrames.decrementAndGet();
+			prefetcher.pageRemoved(pid);
+		}
+	    writeEpoch.incrementAndGet();
+	}
+
+	/**
+	 * Discards the uncommitted image of a page. The free space map of its
+	 * file is told, since the image on disk may have more free slots.
+	 */
+	private void rollBackPage(PageId pid) {
+		discardPage(pid);
+		DbFile df = Database.getCatalog().getDbFile(pid.getTableId());
+		if(df instanceof HeapFile)
+			((HeapFile) df).pageDiscarded(pid);
 	}
 
 	/**
@@ -206,13 +555,15 @@ public class BufferPool {
 	 */
 	private void flushPage(PageId pid) throws IOException {
 		// page isn't in memory so skip flush
-        if(!idToPage.containsKey(pid))
+        Page p = lookup(pid);
+        if(p == null)
         	return;
-        Page p = idToPage.get(pid);
         // page is dirty so flush is needed
         if(p.isDirty() != null) {
 			DbFile df = Database.getCatalog().getDbFile(pid.getTableId());
 			df.writePage(p);
+			// before the page becomes evictable, so that no prefetch of the old image can replace it
+			writeEpoch.incrementAndGet();
 			p.markDirty(false, null);
 		}
 	}
@@ -226,26 +577,82 @@ public class BufferPool {
 	}
 
 	/**
-	 * Discards a page from the buffer pool. Flushes the page to disk to ensure
-	 * dirty pages are updated on disk.
+	 * Frees the frame of the oldest page in a full ring. The page is left
+	 * alone if it is no longer resident or has been dirtied since the scan
+	 * loaded it; the frame it occupied is then given up by the ring instead.
 	 */
-	private synchronized void evictPage() throws DbException {
+	private void recyclePage(BufferRing ring) {
+		PageId oldest = ring.removeOldest();
+		if(oldest == null)
+			return;
+		Partition part = partitionFor(oldest);
+		boolean removed = false;
+		synchronized(part) {
+			Page p = part.pages.get(oldest);
+			if(p != null && p.isDirty() == null) {
+				part.pages.remove(oldest);
+				part.policy.remove(oldest);
+				removed = true;
+			}
+		}
+		if(removed) {
+			usedFrames.decrementAndGet();
+			prefetcher.pageRemoved(oldest);
+		}
+	}
+
+	/**
+	 * Reserves a frame for a page about to be added to the specified
+	 * partition, evicting pages while the pool is full. The caller must
+	 * release the frame by decrementing usedFrames if it does not add the page.
+	 *
+	 * @return false if the pool is full and every page in it is dirty
+	 */
+	private boolean reserveFrame(Partition preferred) {
+		while(true) {
+			int used = usedFrames.get();
+			if(used < numPages) {
+				if(usedFrames.compareAndSet(used, used + 1))
+					return true;
+			} else if(!evictPage(preferred)) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Discards a page from the buffer pool, preferring a page of the specified
+	 * partition. Flushes the page to disk to ensure dirty pages are updated on disk.
+	 *
+	 * @return false if every page in the pool is dirty
+	 */
+	private boolean evictPage(Partition preferred) {
 	    // page eviction algorithm is NO-STEAL (meaning we dont evict dirty pages that are locked because they will
 		// interrupt an ongoing transaction). Since all modified pages are flushed upon committing a transaction, all
 		// current dirty pages must be locked as well
-
-		PageId pageIdToEvict = null;
-		for(Map.Entry<PageId, Page> entry : idToPage.entrySet()) {
-			if(entry.getValue().isDirty() == null) {
-				pageIdToEvict = entry.getKey();
-				break;
+		int first = 0;
+		while(partitions[first] != preferred)
+			first++;
+		for(int i = 0; i < partitions.length; i++) {
+			final Partition part = partitions[(first + i) % partitions.length];
+			PageId pageIdToEvict;
+			synchronized(part) {
+				pageIdToEvict = part.policy.evict(new ReplacementPolicy.EvictionFilter() {
+					public boolean canEvict(PageId pid) {
+						Page p = part.pages.get(pid);
+						return p != null && p.isDirty() == null;
+					}
+				});
+				if(pageIdToEvict != null)
+					part.pages.remove(pageIdToEvict);
+			}
+			if(pageIdToEvict != null) {
+				usedFrames.decrementAndGet();
+				prefetcher.pageRemoved(pageIdToEvict);
+				return true;
 			}
 		}
-
-		if(pageIdToEvict == null)
-			throw new DbException("All pages in the buffer pool are dirty. Cannot perform page eviction");
-		else
-			idToPage.remove(pageIdToEvict);
+		return false;
 	}
 
 }
@@ -0,0 +1,54 @@
+package simpledb;
+
+import java.util.LinkedList;
+
+/**
+ * BufferRing is a small, private set of buffer pool frames used by a single
+ * large sequential scan, modeled on PostgreSQL's bulk-read rings. Pages the
+ * scan has to read from disk are remembered in the ring; once the ring is
+ * full, the scan recycles the frame of the oldest page in its ring instead of
+ * asking the replacement policy for a victim. A scan over a table much larger
+ * than the pool therefore only ever occupies a handful of frames and leaves
+ * the working set of concurrent queries alone.
+ * <p>
+ * Pages that were already resident when the scan reached them are not added
+ * to the ring, since some other query brought them in. A ring may be filled
+ * by its scan and by the prefetcher reading ahead of it at the same time.
+ *
+ * @see BufferPool#newBulkReadRing
+ * @see BufferPool#getPage(TransactionId, PageId, Permissions, BufferRing)
+ */
+public class BufferRing {
+    private final int size;
+    private final LinkedList<PageId> pages;
+
+    /**
+     * @param size the number of frames the owning scan may occupy
+     */
+    public BufferRing(int size) {
+        if (size < 1)
+            throw new IllegalArgumentException("ring size must be positive");
+        this.size = size;
+        this.pages = new LinkedList<PageId>();
+    }
+
+    /** @return the number of frames the owning scan may occupy */
+    public int size() {
+        return size;
+    }
+
+    /** @return true if loading another page must recycle one of the ring's frames */
+    synchronized boolean isFull() {
+        return pages.size() >= size;
+    }
+
+    /** Records that the owning scan loaded the specified page into the pool. */
+    synchronized void add(PageId pid) {
+        pages.add(pid);
+    }
+
+    /** Removes and returns the page loaded longest ago, or null if the ring is empty. */
+    synchronized PageId removeOldest() {
+        return pages.poll();
+    }
+}
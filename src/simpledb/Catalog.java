@@ -19,6 +19,8 @@ public class Catalog {
 	private HashMap<String, DbFile> nameToDbFile;
 	private HashMap<Integer, DbFile> idToDbFile;
 	private HashMap<Integer, String> idToPrimaryKey;
+	private HashMap<Integer, HashIndexFile> idToHashIndex; // by the id of the indexed table
+	private HashMap<Integer, HashIndexFile> indexIdToHashIndex;
     /**
      * Constructor.
      * Creates a new, empty catalog.
@@ -28,6 +30,8 @@ public class Catalog {
     	nameToDbFile = new HashMap<String, DbFile>();
     	idToDbFile = new HashMap<Integer, DbFile>();
     	idToPrimaryKey = new HashMap<Integer, String>();
+    	idToHashIndex = new HashMap<Integer, HashIndexFile>();
+    	indexIdToHashIndex = new HashMap<Integer, HashIndexFile>();
     }
 
     /**
@@ -84,23 +88,76 @@ public class Catalog {
 
     /**
      * Returns the DbFile that can be used to read the contents of the
-     * specified table.
+     * specified table, or of the specified hash index, so that the
+     * BufferPool can read the pages of indexes like those of tables.
      * @param tableid The id of the table, as specified by the DbFile.getId()
-     *     function passed to addTable
+     *     function passed to addTable, or the id of a HashIndexFile
      */
     public DbFile getDbFile(int tableid) throws NoSuchElementException {
-    	if(!idToDbFile.containsKey(tableid))
-    		throw new NoSuchElementException();
-    	else
+    	if(idToDbFile.containsKey(tableid))
     		return idToDbFile.get(tableid);
+    	else if(indexIdToHashIndex.containsKey(tableid))
+    		return indexIdToHashIndex.get(tableid);
+    	else
+    		throw new NoSuchElementException();
+    }
+
+    /**
+     * Adds a hash index on the primary key of the specified table, which the
+     * BufferPool then maintains as tuples are inserted and deleted. The
+     * index is stored next to the table file, see
+     * {@link HashIndexFile#fileFor}; an existing index file is used if it
+     * matches the table (see {@link HashIndexFile#isCurrent}), and otherwise
+     * the index is built from a scan of it.
+     *
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *     function passed to addTable
+     * @return the index
+     * @throws NoSuchElementException if the table doesn't exist
+     * @throws IllegalArgumentException if the table has no primary key or
+     *     is not stored in a HeapFile
+     */
+    public HashIndexFile addHashIndex(int tableid) throws IOException, DbException, TransactionAbortedException {
+        DbFile table = getDbFile(tableid);
+        String pkey = getPrimaryKey(tableid);
+        if(!(table instanceof HeapFile) || !idToDbFile.containsKey(tableid))
+            throw new IllegalArgumentException("Only heap files can have hash indexes");
+        if(pkey == null || pkey.length() == 0)
+            throw new IllegalArgumentException("Table " + getTableName(tableid) + " has no primary key");
+        HeapFile hf = (HeapFile) table;
+        int keyField = hf.getTupleDesc().nameToId(pkey);
+        File indexFile = HashIndexFile.fileFor(hf.getFile());
+        if(!HashIndexFile.isCurrent(indexFile, hf))
+            HashIndexFile.build(indexFile, hf, keyField);
+        HashIndexFile index = new HashIndexFile(indexFile, hf, keyField);
+        idToHashIndex.put(tableid, index);
+        indexIdToHashIndex.put(index.getId(), index);
+        return index;
+    }
+
+    /**
+     * @return the hash index on the primary key of the specified table, or
+     *     null if it has none
+     */
+    public HashIndexFile getHashIndex(int tableid) {
+        return idToHashIndex.get(tableid);
     }
 
     /** Delete all tables from the catalog */
     public void clear() {
-        // some code goes here
+        // release the file handles held open by the tables being dropped
+        for(DbFile f : idToDbFile.values())
+            if(f instanceof HeapFile)
+                ((HeapFile) f).close();
+            else if(f instanceof BTreeFile)
+                ((BTreeFile) f).close();
+        for(HashIndexFile index : idToHashIndex.values())
+            index.close();
     	nameToDbFile.clear();
     	idToDbFile.clear();
     	idToPrimaryKey.clear();
+    	idToHashIndex.clear();
+    	indexIdToHashIndex.clear();
     }
 
     public String getPrimaryKey(int tableid) {
@@ -121,6 +178,25 @@ public class Catalog {
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line has the form
+     * <pre>
+     *     name (field type [pk], field type, ...) [option=value ...]
+     * </pre>
+     * where the optional trailing options configure how the table is stored:
+     * <ul>
+     * <li> <code>format=slotted</code> stores variable-length tuples in {@link SlottedPage}s;
+     *      the default, <code>format=heap</code>, uses fixed-size {@link HeapPage} slots
+     * <li> <code>format=pax</code> stores each page column by column in {@link PaxPage}s
+     * <li> <code>compress=level</code> stores the HeapPages deflated at the given level,
+     *      0 to 9, in a {@link CompressedHeapFile}; not supported with the other options
+     * <li> <code>format=btree</code> stores the table in a {@link BTreeFile} ordered on its
+     *      primary key, which queries with filters on the key can read through an {@link IndexScan}
+     * <li> <code>pagesize=bytes</code>, e.g. <code>pagesize=16k</code>, creates an empty table
+     *      with pages of that size, which is then recorded in the file; a table that already
+     *      has pages must have that size
+     * <li> <code>index=hash</code> maintains a {@link HashIndexFile} on the primary key of a
+     *      heap table, which answers equality filters on the key and joins on it
+     * </ul>
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -157,11 +233,77 @@ public class Catalog {
                         }
                     }
                 }
+                HashMap<String, String> options = parseTableOptions(line.substring(line.indexOf(")") + 1));
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(name + ".dat"), t);
-                addTable(tabHf,name,primaryKey);
+                String format = options.remove("format");
+                String compress = options.remove("compress");
+                String pageSizeOption = options.remove("pagesize");
+                int pageSize = 0;
+                if (pageSizeOption != null) {
+                    pageSize = parsePageSize(pageSizeOption);
+                    if (compress != null) {
+                        System.out.println("Compressed tables only support the default page size");
+                        System.exit(0);
+                    }
+                }
+                File tabFile = new File(name + ".dat");
+                DbFile table = null;
+                HeapFile tabHf = null;
+                if (format != null && format.equals("btree")) {
+                    if (primaryKey.length() == 0) {
+                        System.out.println("B+-tree tables are ordered on their primary key, which is missing");
+                        System.exit(0);
+                    }
+                    if (compress != null || pageSize != 0) {
+                        System.out.println("B+-tree tables only support the default page size and no compression");
+                        System.exit(0);
+                    }
+                    table = new BTreeFile(tabFile, t, t.nameToId(primaryKey));
+                } else if (compress != null) {
+                    int level = -1;
+                    try {
+                        level = Integer.parseInt(compress);
+                    } catch (NumberFormatException e) {
+                    }
+                    if (level < 0 || level > 9) {
+                        System.out.println("Invalid compression level " + compress);
+                        System.exit(0);
+                    }
+                    if (format != null && !format.equals("heap")) {
+                        System.out.println("Compressed tables only support format=heap");
+                        System.exit(0);
+                    }
+                    tabHf = new CompressedHeapFile(tabFile, t, level);
+                } else if (format == null || format.equals("heap"))
+                    tabHf = pageSize == 0 ? new HeapFile(tabFile, t) : new HeapFile(tabFile, t, pageSize);
+                else if (format.equals("slotted"))
+                    tabHf = pageSize == 0 ? new SlottedHeapFile(tabFile, t) : new SlottedHeapFile(tabFile, t, pageSize);
+                else if (format.equals("pax"))
+                    tabHf = pageSize == 0 ? new PaxHeapFile(tabFile, t) : new PaxHeapFile(tabFile, t, pageSize);
+                else {
+                    System.out.println("Unknown table format " + format);
+                    System.exit(0);
+                    return;
+                }
+                if (tabHf != null)
+                    table = tabHf;
+                String index = options.remove("index");
+                if (index != null && !index.equals("hash")) {
+                    System.out.println("Unknown index type " + index);
+                    System.exit(0);
+                } else if (index != null && (tabHf == null || primaryKey.length() == 0)) {
+                    System.out.println("Hash indexes need a heap table with a primary key");
+                    System.exit(0);
+                }
+                if (!options.isEmpty()) {
+                    System.out.println("Unknown table options " + options.keySet());
+                    System.exit(0);
+                }
+                addTable(table,name,primaryKey);
+                if (index != null)
+                    addHashIndex(table.getId());
                 System.out.println("Added table : " + name + " with schema " + t);
             }
         } catch (IOException e) {
@@ -175,5 +317,38 @@ public class Catalog {
             System.exit(1);
         }
     }
-}
 
+    /** Parses a page size option, in bytes or with a k suffix for KB; exits if it is not a valid page size. */
+    private static int parsePageSize(String option) {
+        String digits = option.toLowerCase();
+        int multiplier = 1;
+        if (digits.endsWith("k")) {
+            digits = digits.substring(0, digits.length() - 1);
+            multiplier = 1024;
+        }
+        try {
+            int pageSize = Integer.parseInt(digits) * multiplier;
+            HeapFile.checkPageSize(pageSize);
+            return pageSize;
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid page size " + option + ": page sizes are powers of two from "
+                    + HeapFile.MIN_PAGE_SIZE + " to " + HeapFile.MAX_PAGE_SIZE + " bytes");
+            System.exit(0);
+            return 0;
+        }
+    }
+
+    /** Parses the whitespace separated key=value options that may follow a table's field list. */
+    private static HashMap<String, String> parseTableOptions(String optionString) {
+        HashMap<String, String> options = new HashMap<String, String>();
+        for (String option : optionString.trim().split("\\s+")) {
+            if (option.length() == 0)
+                continue;
+            int eq = option.indexOf('=');
+            if (eq <= 0)
+                throw new IndexOutOfBoundsException("bad table option " + option);
+            options.put(option.substring(0, eq).toLowerCase(), option.substring(eq + 1));
+        }
+        return options;
+    }
+}
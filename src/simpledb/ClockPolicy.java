@@ -0,0 +1,82 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+
+/**
+ * ClockPolicy implements the CLOCK (second-chance) approximation of LRU.
+ * Every resident page occupies a frame on a circular list with a reference
+ * bit that is set whenever the page is accessed. To find a victim, the clock
+ * hand sweeps the frames, clearing set reference bits and evicting the first
+ * evictable page whose bit is already clear.
+ */
+public class ClockPolicy extends AbstractReplacementPolicy {
+    private ArrayList<PageId> frames;
+    private ArrayList<Boolean> referenced;
+    private HashMap<PageId, Integer> pageToFrame;
+    private LinkedList<Integer> freeFrames;
+    private int hand;
+
+    public ClockPolicy() {
+        frames = new ArrayList<PageId>();
+        referenced = new ArrayList<Boolean>();
+        pageToFrame = new HashMap<PageId, Integer>();
+        freeFrames = new LinkedList<Integer>();
+        hand = 0;
+    }
+
+    protected void onHit(PageId pid) {
+        Integer frame = pageToFrame.get(pid);
+        if (frame == null)
+            onMiss(pid);
+        else
+            referenced.set(frame, true);
+    }
+
+    protected void onMiss(PageId pid) {
+        if (pageToFrame.containsKey(pid)) {
+            onHit(pid);
+            return;
+        }
+        int frame;
+        if (freeFrames.isEmpty()) {
+            frame = frames.size();
+            frames.add(pid);
+            referenced.add(true);
+        } else {
+            frame = freeFrames.poll();
+            frames.set(frame, pid);
+            referenced.set(frame, true);
+        }
+        pageToFrame.put(pid, frame);
+    }
+
+    protected void onRemove(PageId pid) {
+        Integer frame = pageToFrame.remove(pid);
+        if (frame == null)
+            return;
+        frames.set(frame, null);
+        referenced.set(frame, false);
+        freeFrames.add(frame);
+    }
+
+    protected PageId chooseVictim(EvictionFilter filter) {
+        int numFrames = frames.size();
+        // two full sweeps: the first may only clear reference bits
+        for (int step = 0; step < 2 * numFrames; step++) {
+            int frame = hand;
+            hand = (hand + 1) % numFrames;
+            PageId pid = frames.get(frame);
+            if (pid == null)
+                continue;
+            if (referenced.get(frame)) {
+                referenced.set(frame, false);
+                continue;
+            }
+            if (filter.canEvict(pid))
+                return pid;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,266 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * CompressedHeapFile is a HeapFile that stores each page deflated, for
+ * append-mostly archive tables that are mostly scanned. Pages are compressed
+ * when they are written and inflated when the BufferPool reads them, so the
+ * BufferPool and everything above it see ordinary pages.
+ * <p>
+ * Compressed pages have different sizes, so the table file is a sequence of
+ * page images in no particular order, addressed through a page-offset index
+ * stored in a sidecar file next to it, see {@link #indexFor}. The index has
+ * one {@value #ENTRY_SIZE} byte entry per page: the offset of the page's
+ * image in the table file, its length, and the space reserved for it. A page
+ * whose new image fits in its space is rewritten in place; otherwise the
+ * image is appended to the file and the old space is never reused, which is
+ * cheap for tables that are mostly appended to. The image is written before
+ * its index entry, so the index only ever points at complete images, and
+ * images are read and written under the file's lock, so a read never sees an
+ * image that is being rewritten in place.
+ * <p>
+ * Tables in this format are written by {@link #compress} from a HeapFile,
+ * e.g. one produced by HeapFileEncoder, and selected in a catalog file with
+ * the <code>compress=level</code> table option. Their pages are always
+ * BufferPool.PAGE_SIZE bytes.
+ */
+public class CompressedHeapFile extends HeapFile {
+	private static final int ENTRY_SIZE = 16;
+
+	private final int level;
+	private final File indexFile;
+	// the page-offset index, loaded on first use; guarded by this, like the channel
+	private RandomAccessFile index;
+	private long[] offsets;
+	private int[] lengths;
+	private int[] capacities;
+	private int pages = -1;
+	// where the next appended page image goes
+	private long end;
+
+	// compressed images are read and written through a per-thread buffer, grown as needed
+	private static final ThreadLocal<byte[]> imageBuffer = new ThreadLocal<byte[]>() {
+		protected byte[] initialValue() {
+			return new byte[BufferPool.PAGE_SIZE + 64];
+		}
+	};
+
+	/**
+	 * Constructs a compressed heap file backed by the specified file.
+	 *
+	 * @param f the file that stores the compressed pages of this heap file.
+	 * @param level the deflate level that pages are written with, from
+	 *   0 (stored uncompressed) to 9 (smallest).
+	 */
+	public CompressedHeapFile(File f, TupleDesc td, int level) {
+		super(f, td);
+		if(level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)
+			throw new IllegalArgumentException("compression level must be between 0 and 9: " + level);
+		this.level = level;
+		this.indexFile = indexFor(f);
+	}
+
+	/** @return the sidecar file storing the page-offset index of the specified table file. */
+	public static File indexFor(File table) {
+		return new File(table.getPath() + ".idx");
+	}
+
+	/** @return the deflate level that pages are written with. */
+	public int getLevel() {
+		return level;
+	}
+
+	/**
+	 * Writes a compressed copy of the specified HeapFile, and its index, to
+	 * outFile. Any existing table at outFile is replaced.
+	 *
+	 * @param heapFile a file of uncompressed pages, e.g. written by HeapFileEncoder
+	 * @param outFile the file to write the compressed pages to
+	 * @param level the deflate level, from 0 to 9
+	 */
+	public static void compress(File heapFile, File outFile, int level) throws IOException {
+		if(recordedPageSize(heapFile) != 0)
+			throw new IOException(heapFile + " does not have the default page size of " + BufferPool.PAGE_SIZE);
+		outFile.delete();
+		indexFor(outFile).delete();
+		FreeSpaceMap.sidecarFor(outFile).delete();
+		// only pages are written, so no TupleDesc is needed
+		CompressedHeapFile out = new CompressedHeapFile(outFile, null, level);
+		byte[] page = new byte[BufferPool.PAGE_SIZE];
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(heapFile)));
+		try {
+			long numPages = heapFile.length() / BufferPool.PAGE_SIZE;
+			for(int pageno = 0; pageno < numPages; pageno++) {
+				in.readFully(page);
+				out.writePageData(pageno, page, page.length);
+			}
+		} finally {
+			in.close();
+			out.close();
+		}
+	}
+
+	public int getPageSize() {
+		return BufferPool.PAGE_SIZE;
+	}
+
+	protected void readPageData(int pageno, byte[] data) throws IOException {
+		byte[] image;
+		int length;
+		// read the image under the lock, since writePageData may be rewriting it in place
+		synchronized(this) {
+			load();
+			if(pageno >= pages || lengths[pageno] == 0)
+				return;
+			length = lengths[pageno];
+			image = imageBuffer(length);
+			readFully(ByteBuffer.wrap(image, 0, length), offsets[pageno]);
+		}
+		// zlib streams hold native memory until they are ended, so each page gets its own
+		Inflater inf = new Inflater();
+		try {
+			inf.setInput(image, 0, length);
+			int n = 0;
+			while(n < data.length && !inf.finished()) {
+				int inflated = inf.inflate(data, n, data.length - n);
+				if(inflated == 0 && (inf.needsInput() || inf.needsDictionary()))
+					throw new DataFormatException("truncated page image");
+				n += inflated;
+			}
+		} catch(DataFormatException e) {
+			throw new IOException("page " + pageno + " of " + getFile() + " is corrupt: " + e.getMessage());
+		} finally {
+			inf.end();
+		}
+	}
+
+	protected void writePageData(int pageno, byte[] data, int length) throws IOException {
+		Deflater def = new Deflater(level);
+		byte[] image = imageBuffer.get();
+		int n = 0;
+		try {
+			def.setInput(data, 0, length);
+			def.finish();
+			while(!def.finished()) {
+				if(n == image.length)
+					image = imageBuffer(image.length * 2);
+				n += def.deflate(image, n, image.length - n);
+			}
+		} finally {
+			def.end();
+		}
+
+		synchronized(this) {
+			load();
+			long offset;
+			int capacity;
+			if(pageno < pages && n <= capacities[pageno]) {
+				offset = offsets[pageno];
+				capacity = capacities[pageno];
+			} else {
+				offset = end;
+				capacity = n;
+				end += n;
+			}
+			writeFully(ByteBuffer.wrap(image, 0, n), offset);
+			setEntry(pageno, offset, n, capacity);
+		}
+	}
+
+	public synchronized int numPages() {
+		try {
+			load();
+		} catch(IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+		return pages;
+	}
+
+	public synchronized void close() {
+		super.close();
+		if(index == null)
+			return;
+		try {
+			index.close();
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+		index = null;
+	}
+
+	/** @return the per-thread image buffer, grown to at least the specified size. */
+	private static byte[] imageBuffer(int size) {
+		byte[] buf = imageBuffer.get();
+		if(buf.length < size) {
+			byte[] grown = new byte[Math.max(size, buf.length * 2)];
+			System.arraycopy(buf, 0, grown, 0, buf.length);
+			imageBuffer.set(grown);
+			buf = grown;
+		}
+		return buf;
+	}
+
+	/** Records the location of a page image in memory and in the index file. */
+	private void setEntry(int pageno, long offset, int length, int capacity) throws IOException {
+		if(pageno >= offsets.length) {
+			int size = Math.max(pageno + 1, offsets.length * 2);
+			long[] o = new long[size];
+			int[] l = new int[size];
+			int[] c = new int[size];
+			System.arraycopy(offsets, 0, o, 0, pages);
+			System.arraycopy(lengths, 0, l, 0, pages);
+			System.arraycopy(capacities, 0, c, 0, pages);
+			offsets = o;
+			lengths = l;
+			capacities = c;
+		}
+		offsets[pageno] = offset;
+		lengths[pageno] = length;
+		capacities[pageno] = capacity;
+		// pages skipped over are left with empty entries, which read as empty pages
+		pages = Math.max(pages, pageno + 1);
+
+		if(index == null)
+			index = new RandomAccessFile(indexFile, "rw");
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(ENTRY_SIZE);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeLong(offset);
+		out.writeInt(length);
+		out.writeInt(capacity);
+		long from = Math.min(index.length(), (long) pageno * ENTRY_SIZE);
+		index.seek(from);
+		for(long p = from / ENTRY_SIZE; p < pageno; p++)
+			index.write(new byte[ENTRY_SIZE]);
+		index.write(bytes.toByteArray());
+	}
+
+	private void load() throws IOException {
+		if(pages >= 0)
+			return;
+		int n = (int) (indexFile.length() / ENTRY_SIZE);
+		offsets = new long[Math.max(n, 16)];
+		lengths = new int[offsets.length];
+		capacities = new int[offsets.length];
+		end = getFile().length();
+		if(n > 0) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+			try {
+				for(int p = 0; p < n; p++) {
+					offsets[p] = in.readLong();
+					lengths[p] = in.readInt();
+					capacities[p] = in.readInt();
+					end = Math.max(end, offsets[p] + capacities[p]);
+				}
+			} finally {
+				in.close();
+			}
+		}
+		pages = n;
+	}
+}
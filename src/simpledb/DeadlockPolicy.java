@@ -0,0 +1,32 @@
+package simpledb;
+
+/**
+ * How the LockManager keeps transactions waiting for locks from deadlocking.
+ * The timestamp-ordered schemes compare TransactionIds, which grow with the
+ * start time of the transaction: smaller ids are older.
+ *
+ * @see BufferPool#setDeadlockPolicy
+ */
+public enum DeadlockPolicy {
+    /**
+     * Transactions wait for any conflicting lock; a request that would close
+     * a cycle in the waits-for graph aborts. Aborts only on real deadlocks,
+     * but every wait updates the graph under a single monitor.
+     */
+    DETECT,
+
+    /**
+     * An older transaction waits for younger ones; a younger transaction that
+     * would wait for an older one aborts ("dies") instead. Needs no shared
+     * state, and never aborts a transaction that holds the lock asked for.
+     */
+    WAIT_DIE,
+
+    /**
+     * A younger transaction waits for older ones; an older transaction that
+     * would wait for a younger one aborts it ("wounds") and waits for it to
+     * release its locks. The victim finds out on its next lock request, or
+     * right away if it is waiting for a lock.
+     */
+    WOUND_WAIT
+}
@@ -1,114 +1,136 @@
 package simpledb;
 
-import javafx.util.Pair;
-
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map;
-import java.util.Queue;
-import java.util.LinkedList;
 
+/**
+ * DependencyGraph is the waits-for graph of the LockManager. It has an edge
+ * from a waiting transaction to every transaction it waits for, labelled with
+ * the pages it waits on; parallel edges for different pages are kept apart so
+ * that each can be removed on its own.
+ * <p>
+ * The graph is acyclic at all times: adding an edge only searches for a path
+ * back from the new edge's target to its source, since any cycle would have
+ * to run through the new edge. The cost of detection therefore depends on the
+ * transactions reachable from the new edge, not on the size of the graph.
+ */
 public class DependencyGraph {
-    private HashMap<TransactionId, HashSet<Pair<PageId, TransactionId>>> blockingMe; // waiting tids are the keys
-    private HashMap<TransactionId, HashSet<Pair<PageId, TransactionId>>> waitingOnMe;
+    private HashMap<TransactionId, HashMap<TransactionId, HashSet<PageId>>> blockingMe; // waiting tids are the keys
+    private HashMap<TransactionId, HashMap<TransactionId, HashSet<PageId>>> waitingOnMe;
 
     public DependencyGraph() {
-        blockingMe = new  HashMap<TransactionId, HashSet<Pair<PageId, TransactionId>>>();
-        waitingOnMe = new HashMap<TransactionId, HashSet<Pair<PageId, TransactionId>>>();
+        blockingMe = new HashMap<TransactionId, HashMap<TransactionId, HashSet<PageId>>>();
+        waitingOnMe = new HashMap<TransactionId, HashMap<TransactionId, HashSet<PageId>>>();
     }
 
+    /**
+     * Records that waiter waits for runner to release its lock on pid.
+     *
+     * @throws TransactionAbortedException if the edge would close a cycle; the
+     *   edge is not added in that case
+     */
     public synchronized void addDependency(TransactionId waiter, TransactionId runner, PageId pid) throws TransactionAbortedException {
         if(waiter.equals(runner)) // block self-looping dependencies
             return;
 
-        // add runner to graph in order to properly keep track of graph size
-        if(!blockingMe.containsKey(runner))
-            blockingMe.put(runner, new HashSet<Pair<PageId, TransactionId>>());
-
-        // update incoming and outgoing edges in dependency graph
-        Pair<PageId, TransactionId> newBlockingMeValue = new Pair<PageId, TransactionId>(pid, runner);
-        if(!blockingMe.containsKey(waiter))
-            blockingMe.put(waiter, new HashSet<Pair<PageId, TransactionId>>());
-        blockingMe.get(waiter).add(newBlockingMeValue);
-
-        if(!waitingOnMe.containsKey(runner))
-            waitingOnMe.put(runner, new HashSet<Pair<PageId, TransactionId>>());
-        Pair<PageId, TransactionId> newWaitingOnMeValue = new Pair<PageId, TransactionId>(pid, waiter);
-        waitingOnMe.get(runner).add(newWaitingOnMeValue);
-
-        if(detectDeadlock()) {
-            _removeDependency(waiter, runner, pid);
+        // only a new pair of transactions can close a cycle; another page between the same two cannot
+        if(!hasEdge(waiter, runner) && reaches(runner, waiter))
             throw new TransactionAbortedException();
-        }
+
+        addEdge(blockingMe, waiter, runner, pid);
+        addEdge(waitingOnMe, runner, waiter, pid);
     }
 
-    private  void _removeDependency(TransactionId finishedRunning, TransactionId waiting, PageId pid) {
-        if(!blockingMe.containsKey(waiting))
+    /**
+     * Removes the edges of all transactions waiting for finishedRunning's lock
+     * on pid, because it released that lock.
+     */
+    public synchronized void removeDependencies(TransactionId finishedRunning, PageId pid) {
+        HashMap<TransactionId, HashSet<PageId>> blockedByMe = waitingOnMe.get(finishedRunning);
+        if(blockedByMe == null)
             return;
-        HashSet<Pair<PageId, TransactionId>> waitingOn = blockingMe.get(waiting);
-        Pair<PageId, TransactionId> completed = new Pair<PageId, TransactionId>(pid, finishedRunning);
-        waitingOn.remove(completed);
-        Pair<PageId, TransactionId> waitingOnMeValueToDelete = new Pair<PageId, TransactionId>(pid, waiting);
-        waitingOnMe.get(finishedRunning).remove(waitingOnMeValueToDelete);
+        for(TransactionId waiter : new ArrayList<TransactionId>(blockedByMe.keySet()))
+            _removeDependency(finishedRunning, waiter, pid);
     }
 
-    public synchronized void removeDependencies(TransactionId finishedRunning, PageId pid) {
-        if(!waitingOnMe.containsKey(finishedRunning))
+    /**
+     * Removes the edges of a waiter that stopped waiting for the specified
+     * page, either because it was granted the lock or because it gave up.
+     */
+    public synchronized void removeWaiter(TransactionId waiter, PageId pid) {
+        HashMap<TransactionId, HashSet<PageId>> waitingOn = blockingMe.get(waiter);
+        if(waitingOn == null)
             return;
-        HashSet<Pair<PageId, TransactionId>> blockedByMe = (HashSet<Pair<PageId, TransactionId>>) waitingOnMe.get(finishedRunning).clone();
-        for(Pair<PageId,TransactionId> blocked : blockedByMe) {
-            if(blocked.getKey().equals(pid))
-                _removeDependency(finishedRunning, blocked.getValue(), pid);
-        }
+        for(TransactionId runner : new ArrayList<TransactionId>(waitingOn.keySet()))
+            _removeDependency(runner, waiter, pid);
     }
 
-    // use topological sort to detect cycles in this disconnected DAG with parallel edges
-    private boolean detectDeadlock() {
+    /** @return the number of transactions with at least one incoming or outgoing edge */
+    public synchronized int size() {
+        HashSet<TransactionId> tids = new HashSet<TransactionId>(blockingMe.keySet());
+        tids.addAll(waitingOnMe.keySet());
+        return tids.size();
+    }
 
-        // calculate in-degrees
-        HashMap<TransactionId, Integer> indegrees = new HashMap<TransactionId, Integer>();
-        for(Map.Entry<TransactionId, HashSet<Pair<PageId, TransactionId>>> entry : blockingMe.entrySet()) {
-            TransactionId source = entry.getKey();
-            if(!indegrees.containsKey(source))
-                indegrees.put(source, 0);
+    private void _removeDependency(TransactionId finishedRunning, TransactionId waiting, PageId pid) {
+        removeEdge(blockingMe, waiting, finishedRunning, pid);
+        removeEdge(waitingOnMe, finishedRunning, waiting, pid);
+    }
 
-            HashSet<Pair<PageId, TransactionId>> destinations = entry.getValue();
-            for(Pair<PageId, TransactionId> p : destinations) {
-                TransactionId dest = p.getValue();
-                if(!indegrees.containsKey(dest))
-                    indegrees.put(dest, 0);
-                indegrees.put(dest, indegrees.get(dest)+1);
-            }
-        }
+    private boolean hasEdge(TransactionId from, TransactionId to) {
+        HashMap<TransactionId, HashSet<PageId>> edges = blockingMe.get(from);
+        return edges != null && edges.containsKey(to);
+    }
 
-        // find sources
-        Queue<TransactionId> sources = new LinkedList<TransactionId>();
-        for(Map.Entry<TransactionId, Integer> entry : indegrees.entrySet()) {
-            TransactionId currSource = entry.getKey();
-            int indegree = entry.getValue();
-            if(indegree == 0) {
-                int outdegree = blockingMe.get(currSource).size();
-                if(outdegree == 0)
-                    blockingMe.remove(currSource); // remove nodes with zero indegree and outdegree
-                else
-                    sources.add(entry.getKey());
-            }
+    /** Depth-first search along waits-for edges; visits every transaction at most once. */
+    private boolean reaches(TransactionId from, TransactionId target) {
+        HashSet<TransactionId> visited = new HashSet<TransactionId>();
+        ArrayList<TransactionId> stack = new ArrayList<TransactionId>();
+        stack.add(from);
+        visited.add(from);
+        while(!stack.isEmpty()) {
+            TransactionId current = stack.remove(stack.size() - 1);
+            if(current.equals(target))
+                return true;
+            HashMap<TransactionId, HashSet<PageId>> edges = blockingMe.get(current);
+            if(edges == null)
+                continue;
+            for(TransactionId next : edges.keySet())
+                if(visited.add(next))
+                    stack.add(next);
         }
+        return false;
+    }
 
-        int visitedCount = 0;
-        // decrement in-degrees while removing sources
-        while(sources.size() > 0) {
-            TransactionId current = sources.poll();
-            visitedCount++;
-            HashSet<Pair<PageId, TransactionId>> children = blockingMe.get(current);
-            for(Pair<PageId, TransactionId> p : children) {
-                TransactionId childId = p.getValue();
-                indegrees.put(childId, indegrees.get(childId)-1);
-                if(indegrees.get(childId) == 0)
-                    sources.add(childId);
-            }
+    private static void addEdge(HashMap<TransactionId, HashMap<TransactionId, HashSet<PageId>>> index,
+                                TransactionId from, TransactionId to, PageId pid) {
+        HashMap<TransactionId, HashSet<PageId>> edges = index.get(from);
+        if(edges == null) {
+            edges = new HashMap<TransactionId, HashSet<PageId>>();
+            index.put(from, edges);
+        }
+        HashSet<PageId> pids = edges.get(to);
+        if(pids == null) {
+            pids = new HashSet<PageId>();
+            edges.put(to, pids);
         }
+        pids.add(pid);
+    }
 
-        return visitedCount != blockingMe.size();
+    /** Removes an edge, dropping transactions that are left without edges in this index. */
+    private static void removeEdge(HashMap<TransactionId, HashMap<TransactionId, HashSet<PageId>>> index,
+                                   TransactionId from, TransactionId to, PageId pid) {
+        HashMap<TransactionId, HashSet<PageId>> edges = index.get(from);
+        if(edges == null)
+            return;
+        HashSet<PageId> pids = edges.get(to);
+        if(pids == null || !pids.remove(pid))
+            return;
+        if(pids.isEmpty()) {
+            edges.remove(to);
+            if(edges.isEmpty())
+                index.remove(from);
+        }
     }
 }
@@ -14,6 +14,15 @@ public interface Field {
      */
     void serialize(DataOutputStream dos) throws IOException;
 
+    /**
+     * Write the bytes representing this field into data, starting at the
+     * specified offset. Writes exactly the bytes that
+     * {@link #serialize(DataOutputStream)} would, i.e. getType().getLen() bytes.
+     * @param data The array to write to.
+     * @param offset The offset of the first byte to write.
+     */
+    void serialize(byte[] data, int offset);
+
     /**
      * Compare the value of this field object to the passed in value.
      * @param op The operator
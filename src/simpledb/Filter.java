@@ -24,6 +24,11 @@ public class Filter extends AbstractDbIterator {
         return childIt.getTupleDesc();
     }
 
+    /** @return the operator this filter reads tuples from */
+    public DbIterator getChild() {
+        return childIt;
+    }
+
     public void open()
         throws DbException, NoSuchElementException, TransactionAbortedException {
         childIt.open();
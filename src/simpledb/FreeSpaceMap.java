@@ -0,0 +1,160 @@
+package simpledb;
+
+import java.io.*;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap tracks which pages of a HeapFile may have a free slot, one bit
+ * per page, so that inserts do not have to read every page of the table to
+ * find room for a tuple.
+ * <p>
+ * The map is a hint: a set bit means the page may have room, a clear bit that
+ * it was full when last looked at. Callers verify a candidate page under its
+ * lock before using it and clear the bit if it turns out to be full. Bits are
+ * only ever cleared for pages that were seen full, and pages whose state is
+ * uncertain (such as pages rolled back by an abort) are marked free, so a
+ * stale map costs extra page reads but never wastes space.
+ * <p>
+ * The map is stored in a sidecar file next to the table, see
+ * {@link #sidecarFor}. The byte holding a page's bit is written whenever the
+ * page itself is written, so the map on disk follows the table on disk. Pages
+ * past the end of the sidecar, e.g. of a table written by HeapFileEncoder, are
+ * treated as free until they are seen. The sidecar is only created once a
+ * page is written full, so tables that are only read never get one.
+ * <p>
+ * The sidecar starts with the length of the table file when it was last
+ * written. A sidecar whose length does not match the table, e.g. because the
+ * table was regenerated or written without its map, is discarded.
+ */
+public class FreeSpaceMap {
+	private static final int HEADER_LENGTH = 8;
+
+	private final File file;
+	private final File table;
+	private RandomAccessFile raf;
+	private BitSet bits;
+	// pages below this number have a bit; the others are unknown and treated as free
+	private int known;
+
+	/**
+	 * Creates the map of the specified table file, stored in its sidecar. The
+	 * sidecar is read on first use.
+	 */
+	public FreeSpaceMap(File table) {
+		this.table = table;
+		this.file = sidecarFor(table);
+	}
+
+	/** @return the sidecar file storing the free space map of the specified table file. */
+	public static File sidecarFor(File table) {
+		return new File(table.getPath() + ".fsm");
+	}
+
+	/**
+	 * @return the lowest numbered page below numPages that may have a free slot,
+	 *   or -1 if all of them are full.
+	 */
+	public synchronized int firstFree(int numPages) throws IOException {
+		return nextFree(0, numPages);
+	}
+
+	/**
+	 * @return the lowest numbered page from from up to numPages that may have
+	 *   a free slot, or -1 if all of them are full.
+	 */
+	public synchronized int nextFree(int from, int numPages) throws IOException {
+		load();
+		int pageno = bits.nextSetBit(from);
+		if(pageno >= 0 && pageno < numPages && pageno < known)
+			return pageno;
+		pageno = Math.max(from, known);
+		return pageno < numPages ? pageno : -1;
+	}
+
+	/** @return true if the specified page may have a free slot. */
+	public synchronized boolean isFree(int pageno) throws IOException {
+		load();
+		return pageno >= known || bits.get(pageno);
+	}
+
+	/** Records whether the specified page has a free slot. */
+	public synchronized void setFree(int pageno, boolean free) throws IOException {
+		load();
+		if(pageno >= known) {
+			bits.set(known, pageno);
+			known = pageno + 1;
+		}
+		bits.set(pageno, free);
+	}
+
+	/**
+	 * Records whether the specified page has a free slot and writes the byte
+	 * holding its bit to the sidecar file, along with the current length of
+	 * the table file. Called after the page has been written to the table.
+	 */
+	public synchronized void write(int pageno, boolean free) throws IOException {
+		setFree(pageno, free);
+		if(raf == null) {
+			// a missing sidecar already says that every page is free
+			if(free && !file.exists())
+				return;
+			raf = new RandomAccessFile(file, "rw");
+		}
+		// fill any gap before the byte, which would otherwise read back as full pages
+		long from = Math.min(Math.max(0, raf.length() - HEADER_LENGTH), pageno / 8);
+		raf.seek(HEADER_LENGTH + from);
+		for(long n = from; n <= pageno / 8; n++)
+			raf.write(byteAt((int) n));
+		raf.seek(0);
+		raf.writeLong(table.length());
+	}
+
+	/** @return byte n of the map; unknown pages are written as free. */
+	private int byteAt(int n) throws IOException {
+		int b = 0;
+		for(int i = 0; i < 8; i++)
+			if(isFree(n * 8 + i))
+				b |= 1 << i;
+		return b;
+	}
+
+	/** Closes the sidecar file; it is reopened on the next write. */
+	public synchronized void close() {
+		if(raf == null)
+			return;
+		try {
+			raf.close();
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+		raf = null;
+	}
+
+	private void load() throws IOException {
+		if(bits != null)
+			return;
+		bits = new BitSet();
+		known = 0;
+		if(!file.exists())
+			return;
+		byte[] data = new byte[(int) Math.max(0, file.length() - HEADER_LENGTH)];
+		long tableLength;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			tableLength = file.length() < HEADER_LENGTH ? -1 : in.readLong();
+			in.readFully(data);
+		} finally {
+			in.close();
+		}
+		if(tableLength != table.length()) {
+			// the map belongs to another version of the table; start over with every page free
+			if(!file.delete())
+				throw new IOException("could not delete stale free space map " + file);
+			return;
+		}
+		for(int i = 0; i < data.length * 8; i++)
+			if((data[i / 8] & (1 << (i % 8))) != 0)
+				bits.set(i);
+		known = data.length * 8;
+	}
+}
@@ -0,0 +1,196 @@
+package simpledb;
+
+import java.text.ParseException;
+import java.util.Arrays;
+
+/**
+ * HashBucketPage holds the entries of a HashIndexFile whose key hashes
+ * agree in their low localDepth bits. An entry is a key and the RecordId of
+ * the tuple of the indexed table holding it, stored as the page number and
+ * slot of the tuple. The page format is
+ * <pre>
+ *     local depth (int) | overflow page (int, 0 for none) | number of entries (int) | entries...
+ * </pre>
+ * Only buckets at the directory's maximum depth, which can no longer split,
+ * chain overflow pages; an overflow page holds more entries of the same
+ * bucket.
+ *
+ * @see HashIndexFile
+ */
+public class HashBucketPage extends HashIndexPage {
+    private static final int HEADER_SIZE = 12;
+
+    private final Type keyType;
+    private final int maxEntries;
+    private int localDepth;
+    private int overflow;
+    private int numEntries;
+    private final Field[] keys;
+    private final int[] pagenos;
+    private final int[] slots;
+
+    /**
+     * Create a bucket page from a set of bytes of data read from disk; the
+     * key type is looked up in the Catalog. An array of zeros is an empty
+     * bucket of depth 0.
+     */
+    public HashBucketPage(HashIndexPageId id, byte[] data) {
+        this(id, data, fileOf(id).getKeyType());
+    }
+
+    /**
+     * Create a bucket page with the specified key type, for callers such as
+     * HashIndexFile's bulk loader that have no catalog entry.
+     */
+    HashBucketPage(HashIndexPageId id, byte[] data, Type keyType) {
+        super(id, data);
+        this.keyType = keyType;
+        this.maxEntries = maxEntries(data.length, keyType);
+        localDepth = Type.readInt(data, 0);
+        overflow = Type.readInt(data, 4);
+        numEntries = Type.readInt(data, 8);
+        if (numEntries < 0 || numEntries > maxEntries)
+            throw new IllegalArgumentException("bad entry count " + numEntries + " on " + id);
+        keys = new Field[maxEntries];
+        pagenos = new int[maxEntries];
+        slots = new int[maxEntries];
+        int entrySize = keyType.getLen() + 8;
+        try {
+            for (int i = 0; i < numEntries; i++) {
+                int offset = HEADER_SIZE + i * entrySize;
+                keys[i] = keyType.parse(data, offset);
+                pagenos[i] = Type.readInt(data, offset + keyType.getLen());
+                slots[i] = Type.readInt(data, offset + keyType.getLen() + 4);
+            }
+        } catch (ParseException e) {
+            throw new IllegalArgumentException("bad key on " + id + ": " + e.getMessage());
+        }
+    }
+
+    /** @return the number of entries that fit on a bucket page of the specified size */
+    static int maxEntries(int pageSize, Type keyType) {
+        return (pageSize - HEADER_SIZE) / (keyType.getLen() + 8);
+    }
+
+    /** @return the number of low hash bits all keys in this bucket agree in */
+    public int getLocalDepth() {
+        return localDepth;
+    }
+
+    void setLocalDepth(int depth) {
+        localDepth = depth;
+    }
+
+    /** @return the page number of the next page of this bucket, or 0 if there is none */
+    public int getOverflow() {
+        return overflow;
+    }
+
+    public void setOverflow(int pageno) {
+        overflow = pageno;
+    }
+
+    /** @return the number of entries on this page */
+    public int getNumEntries() {
+        return numEntries;
+    }
+
+    /** @return true if no more entries can be added to this page */
+    public boolean isFull() {
+        return numEntries == maxEntries;
+    }
+
+    /** @return the key of the i-th entry on this page */
+    public Field getKey(int i) {
+        return keys[i];
+    }
+
+    /** @return the page number in the indexed table of the tuple of the i-th entry */
+    public int getTuplePage(int i) {
+        return pagenos[i];
+    }
+
+    /** @return the slot on its page of the tuple of the i-th entry */
+    public int getTupleSlot(int i) {
+        return slots[i];
+    }
+
+    /**
+     * Adds an entry for the tuple with the specified key on the specified
+     * page and slot of the indexed table.
+     * @throws DbException if the page is full
+     */
+    public void addEntry(Field key, int pageno, int slot) throws DbException {
+        if (isFull())
+            throw new DbException(pid + " is full");
+        keys[numEntries] = key;
+        pagenos[numEntries] = pageno;
+        slots[numEntries] = slot;
+        numEntries++;
+    }
+
+    /**
+     * Removes the entry with the specified key, page and slot; the last
+     * entry takes its place.
+     * @return false if there is no such entry on this page
+     */
+    public boolean removeEntry(Field key, int pageno, int slot) {
+        for (int i = 0; i < numEntries; i++) {
+            if (pagenos[i] == pageno && slots[i] == slot && keys[i].equals(key)) {
+                numEntries--;
+                keys[i] = keys[numEntries];
+                pagenos[i] = pagenos[numEntries];
+                slots[i] = slots[numEntries];
+                keys[numEntries] = null;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Moves the entries whose key hashes have the specified bit set to the
+     * empty bucket other, and gives both buckets one more bit of depth.
+     *
+     * @param bit the local depth of this bucket before the split
+     */
+    public void splitInto(HashBucketPage other, int bit) {
+        int kept = 0;
+        for (int i = 0; i < numEntries; i++) {
+            if ((HashIndexFile.hash(keys[i]) & (1 << bit)) != 0) {
+                other.keys[other.numEntries] = keys[i];
+                other.pagenos[other.numEntries] = pagenos[i];
+                other.slots[other.numEntries] = slots[i];
+                other.numEntries++;
+            } else {
+                keys[kept] = keys[i];
+                pagenos[kept] = pagenos[i];
+                slots[kept] = slots[i];
+                kept++;
+            }
+        }
+        Arrays.fill(keys, kept, numEntries, null);
+        numEntries = kept;
+        localDepth = bit + 1;
+        other.localDepth = bit + 1;
+    }
+
+    public int getPageData(byte[] out) {
+        Arrays.fill(out, 0, pageSize, (byte) 0);
+        Type.writeInt(out, 0, localDepth);
+        Type.writeInt(out, 4, overflow);
+        Type.writeInt(out, 8, numEntries);
+        int entrySize = keyType.getLen() + 8;
+        for (int i = 0; i < numEntries; i++) {
+            int offset = HEADER_SIZE + i * entrySize;
+            keys[i].serialize(out, offset);
+            Type.writeInt(out, offset + keyType.getLen(), pagenos[i]);
+            Type.writeInt(out, offset + keyType.getLen() + 4, slots[i]);
+        }
+        return pageSize;
+    }
+
+    public HashBucketPage getBeforeImage() {
+        return new HashBucketPage(pid, oldData, keyType);
+    }
+}
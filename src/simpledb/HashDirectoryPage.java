@@ -0,0 +1,133 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * HashDirectoryPage is the first page of every HashIndexFile. It maps the
+ * low globalDepth bits of a key's hash to the page number of the bucket
+ * holding the key, and records the length and CRC-32 of the table file the
+ * index was built from, so that an index file left over from another
+ * version of the table is not mistaken for its index:
+ * <pre>
+ *     global depth (int) | table CRC-32 (int) | table length (long) | bucket page numbers (int each, 2^global depth of them)
+ * </pre>
+ * A bucket with local depth d is named by the 2^(global depth - d) entries
+ * that agree in their low d bits. The directory has to fit on one page, so
+ * the global depth is at most {@link #maxDepth}, 9 for 4096 byte pages.
+ */
+public class HashDirectoryPage extends HashIndexPage {
+    private final int maxDepth;
+    private static final int HEADER_SIZE = 16;
+
+    private int globalDepth;
+    private int tableChecksum;
+    private long tableLength;
+    private int[] buckets;
+
+    /**
+     * Create a directory page from the bytes of page 0 of a HashIndexFile.
+     * An array of zeros is a directory of depth 0 that still has to be
+     * given its bucket.
+     */
+    public HashDirectoryPage(HashIndexPageId id, byte[] data) {
+        super(id, data);
+        maxDepth = maxDepth(data.length);
+        globalDepth = Type.readInt(data, 0);
+        if (globalDepth < 0 || globalDepth > maxDepth)
+            throw new IllegalArgumentException("bad global depth " + globalDepth + " on " + id);
+        tableChecksum = Type.readInt(data, 4);
+        tableLength = ((long) Type.readInt(data, 8) << 32) | (Type.readInt(data, 12) & 0xffffffffL);
+        buckets = new int[1 << globalDepth];
+        for (int i = 0; i < buckets.length; i++)
+            buckets[i] = Type.readInt(data, HEADER_SIZE + i * 4);
+    }
+
+    /** @return the largest global depth of a directory on a page of the specified size */
+    static int maxDepth(int pageSize) {
+        int depth = 0;
+        while (HEADER_SIZE + 4 * (2 << depth) <= pageSize)
+            depth++;
+        return depth;
+    }
+
+    /** @return the largest global depth of this directory */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /** @return the number of low hash bits that select a bucket */
+    public int getGlobalDepth() {
+        return globalDepth;
+    }
+
+    /** @return the length in bytes of the table file the index was built from */
+    public long getTableLength() {
+        return tableLength;
+    }
+
+    /** @return the CRC-32 of the table file the index was built from */
+    public int getTableChecksum() {
+        return tableChecksum;
+    }
+
+    /** Records the length and CRC-32 of the table file the index is built from. */
+    public void setTable(long length, int checksum) {
+        tableLength = length;
+        tableChecksum = checksum;
+    }
+
+    /** @return the page number of the bucket for keys with the specified hash */
+    public int getBucket(int hash) {
+        return buckets[hash & (buckets.length - 1)];
+    }
+
+    /** Points the specified entry of the directory to a bucket; used to fill a new directory. */
+    void setBucket(int index, int pageno) {
+        buckets[index] = pageno;
+    }
+
+    /**
+     * Doubles the directory by adding one hash bit; each new entry points to
+     * the same bucket as the entry that agrees with it in the old bits.
+     * @throws IllegalStateException if the directory is at its maximum depth
+     */
+    public void doubleSize() {
+        if (globalDepth == maxDepth)
+            throw new IllegalStateException(pid + " cannot grow past depth " + maxDepth);
+        int[] doubled = Arrays.copyOf(buckets, buckets.length * 2);
+        System.arraycopy(buckets, 0, doubled, buckets.length, buckets.length);
+        buckets = doubled;
+        globalDepth++;
+    }
+
+    /**
+     * Points the entries of a bucket that split on the specified hash bit
+     * and whose bit is set to the bucket that took those keys.
+     *
+     * @param oldPage the page number of the bucket that split
+     * @param bit the hash bit the bucket split on, its old local depth
+     * @param newPage the page number of the bucket holding the keys with the bit set
+     */
+    public void redirect(int oldPage, int bit, int newPage) {
+        if (bit >= globalDepth)
+            throw new IllegalArgumentException("bit " + bit + " is not in a directory of depth " + globalDepth);
+        for (int i = 0; i < buckets.length; i++)
+            if (buckets[i] == oldPage && (i & (1 << bit)) != 0)
+                buckets[i] = newPage;
+    }
+
+    public int getPageData(byte[] out) {
+        Arrays.fill(out, 0, pageSize, (byte) 0);
+        Type.writeInt(out, 0, globalDepth);
+        Type.writeInt(out, 4, tableChecksum);
+        Type.writeInt(out, 8, (int) (tableLength >>> 32));
+        Type.writeInt(out, 12, (int) tableLength);
+        for (int i = 0; i < buckets.length; i++)
+            Type.writeInt(out, HEADER_SIZE + i * 4, buckets[i]);
+        return pageSize;
+    }
+
+    public HashDirectoryPage getBeforeImage() {
+        return new HashDirectoryPage(pid, oldData);
+    }
+}
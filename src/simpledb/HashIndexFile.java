@@ -0,0 +1,568 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * HashIndexFile is an extendible hash index on one field of a table stored
+ * in a HeapFile, usually its primary key. It maps each key to the RecordIds
+ * of the tuples holding it, so that a lookup reads the directory, one bucket
+ * and the pages of the matching tuples, however large the table is.
+ * <p>
+ * Page 0 of the file is a {@link HashDirectoryPage} and every other page is
+ * a {@link HashBucketPage}. Like a BTreeFile, the index is a DbFile whose
+ * pages are read and locked through the BufferPool: lookups take shared
+ * locks, and inserts take an exclusive lock on the bucket they change and
+ * on the directory when the bucket splits. A full bucket splits on its next
+ * hash bit, doubling the directory first if the bucket already uses all of
+ * its bits; once the directory is as large as a page allows, full buckets
+ * chain overflow pages instead.
+ * <p>
+ * The Catalog creates the index of a table with {@link Catalog#addHashIndex}
+ * and the BufferPool keeps it up to date as tuples are inserted into and
+ * deleted from the table. The index itself is a DbFile whose tuples are its
+ * entries: the key, and the page number and slot of the indexed tuple.
+ * Deleting entries never merges buckets. The directory records which
+ * contents of the table file the index was built from, so that the Catalog
+ * rebuilds an index whose table file has changed since, see
+ * {@link #isCurrent}.
+ */
+public class HashIndexFile implements DbFile {
+    private final File f;
+    private final HeapFile table;
+    private final int keyField;
+    private final TupleDesc td;
+    // opened lazily, guarded by this
+    private RandomAccessFile raf;
+    private final byte[] writeBuffer = new byte[BufferPool.PAGE_SIZE];
+
+    /**
+     * Opens the hash index stored in f on the specified field of a table.
+     * If the file is empty, this writes an empty index to it; the caller
+     * has to add the tuples already in the table, see {@link #create}. An
+     * existing file is not checked against the table, see {@link #isCurrent}.
+     */
+    public HashIndexFile(File f, HeapFile table, int keyField) throws IOException {
+        TupleDesc tableTd = table.getTupleDesc();
+        if (keyField < 0 || keyField >= tableTd.numFields())
+            throw new IllegalArgumentException("no key field " + keyField + " in " + tableTd);
+        this.f = f;
+        this.table = table;
+        this.keyField = keyField;
+        this.td = entryDesc(tableTd.getType(keyField));
+        if (f.length() == 0)
+            create(f, getKeyType(), new ArrayList<Tuple>(), -1, 0);
+    }
+
+    /**
+     * @return the name of the file holding the hash index of the specified
+     *   table file; its suffix differs from the sidecars of other table
+     *   formats, such as the page-offset index of a CompressedHeapFile
+     */
+    public static File fileFor(File table) {
+        return new File(table.getPath() + ".hidx");
+    }
+
+    /**
+     * @return true if f holds a hash index built from a table file of the
+     *   same length and CRC-32 as the file of the specified table, which
+     *   this reads in full. Any other file, such as one left over from an
+     *   earlier version of the table, has to be rebuilt; so does an index
+     *   whose table has changed since it was built, even through the
+     *   BufferPool, which keeps the index up to date only while it is open.
+     */
+    public static boolean isCurrent(File f, HeapFile table) throws IOException {
+        if (f.length() < BufferPool.PAGE_SIZE)
+            return false;
+        byte[] data = new byte[BufferPool.PAGE_SIZE];
+        DataInputStream in = new DataInputStream(new FileInputStream(f));
+        try {
+            in.readFully(data);
+        } finally {
+            in.close();
+        }
+        try {
+            HashDirectoryPage dir = new HashDirectoryPage(new HashIndexPageId(0, 0), data);
+            File tableFile = table.getFile();
+            return dir.getTableLength() == tableFile.length() && dir.getTableChecksum() == checksum(tableFile);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /** @return the CRC-32 of the contents of the specified file */
+    static int checksum(File f) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buf = new byte[1 << 16];
+        InputStream in = new FileInputStream(f);
+        try {
+            int n;
+            while ((n = in.read(buf)) > 0)
+                crc.update(buf, 0, n);
+        } finally {
+            in.close();
+        }
+        return (int) crc.getValue();
+    }
+
+    /** @return the TupleDesc of the entries of an index with the specified key type */
+    static TupleDesc entryDesc(Type keyType) {
+        return new TupleDesc(new Type[] { keyType, Type.INT_TYPE, Type.INT_TYPE },
+                new String[] { "key", "page", "slot" });
+    }
+
+    /** Returns the File backing this index on disk. */
+    public File getFile() {
+        return f;
+    }
+
+    /** @return the indexed table */
+    public HeapFile getTable() {
+        return table;
+    }
+
+    /** @return the index of the indexed field in the tuples of the table */
+    public int getKeyField() {
+        return keyField;
+    }
+
+    /** @return the type of the indexed field */
+    public Type getKeyType() {
+        return td.getType(0);
+    }
+
+    /**
+     * Returns an ID uniquely identifying this index, the hash code of the
+     * absolute path of its file, like HeapFile's.
+     */
+    public int getId() {
+        return f.getAbsoluteFile().hashCode();
+    }
+
+    /** Returns the TupleDesc of the entries of this index: key, page and slot. */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Hashes a key; the directory uses the low bits of the result. The hash
+     * code of the field is mixed so that keys such as consecutive integers
+     * differ in their low bits.
+     */
+    static int hash(Field key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId id) {
+        HashIndexPageId pid = (HashIndexPageId) id;
+        byte[] data = new byte[BufferPool.PAGE_SIZE];
+        try {
+            synchronized (this) {
+                RandomAccessFile file = file();
+                long offset = (long) pid.pageno() * data.length;
+                // pages past the end of the file read as zeros, an empty page
+                if (offset < file.length()) {
+                    file.seek(offset);
+                    file.readFully(data, 0, (int) Math.min(data.length, file.length() - offset));
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("could not read " + pid + " of " + f + ": " + e.getMessage());
+        }
+        if (pid.isDirectory())
+            return new HashDirectoryPage(pid, data);
+        return new HashBucketPage(pid, data, getKeyType());
+    }
+
+    // see DbFile.java for javadocs
+    public synchronized void writePage(Page page) throws IOException {
+        RandomAccessFile file = file();
+        file.seek((long) page.getId().pageno() * BufferPool.PAGE_SIZE);
+        file.write(writeBuffer, 0, page.getPageData(writeBuffer));
+    }
+
+    /** Returns the number of pages in this file, including the directory. */
+    public int numPages() {
+        return (int) (f.length() / BufferPool.PAGE_SIZE);
+    }
+
+    /** Closes the file handle; it is reopened on the next page read or write. */
+    public synchronized void close() {
+        if (raf == null)
+            return;
+        try {
+            raf.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        raf = null;
+    }
+
+    private synchronized RandomAccessFile file() throws IOException {
+        if (raf == null)
+            raf = new RandomAccessFile(f.getAbsoluteFile(), "rw");
+        return raf;
+    }
+
+    private HashIndexPage getPage(TransactionId tid, int pageno, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (HashIndexPage) Database.getBufferPool().getPage(tid, new HashIndexPageId(getId(), pageno), perm);
+    }
+
+    /**
+     * Allocates a bucket page at the end of the file and returns it, locked
+     * for writing. The page is written to disk empty right away, so that no
+     * other transaction can allocate the same page number; if the
+     * transaction aborts, the page stays empty and unused.
+     */
+    private HashBucketPage newBucket(TransactionId tid, ArrayList<Page> dirtied)
+            throws DbException, TransactionAbortedException, IOException {
+        int pageno;
+        synchronized (this) {
+            pageno = Math.max(1, numPages());
+            RandomAccessFile file = file();
+            file.seek((long) pageno * BufferPool.PAGE_SIZE);
+            file.write(new byte[BufferPool.PAGE_SIZE]);
+        }
+        HashBucketPage page = (HashBucketPage) getPage(tid, pageno, Permissions.READ_WRITE);
+        page.markDirty(true, tid);
+        dirtied.add(page);
+        return page;
+    }
+
+    /**
+     * Returns the RecordIds of the tuples of the table with the specified
+     * key, taking shared locks on the directory and on the pages of the
+     * key's bucket.
+     */
+    public ArrayList<RecordId> lookup(TransactionId tid, Field key)
+            throws DbException, TransactionAbortedException {
+        ArrayList<RecordId> rids = new ArrayList<RecordId>();
+        HashDirectoryPage dir = (HashDirectoryPage) getPage(tid, 0, Permissions.READ_ONLY);
+        int pageno = dir.getBucket(hash(key));
+        while (pageno != 0) {
+            HashBucketPage bucket = (HashBucketPage) getPage(tid, pageno, Permissions.READ_ONLY);
+            for (int i = 0; i < bucket.getNumEntries(); i++)
+                if (bucket.getKey(i).equals(key))
+                    rids.add(new RecordId(new HeapPageId(table.getId(), bucket.getTuplePage(i)), bucket.getTupleSlot(i)));
+            pageno = bucket.getOverflow();
+        }
+        return rids;
+    }
+
+    /**
+     * Returns an iterator over the tuples of the table with the specified
+     * key, which reads their pages through the BufferPool.
+     */
+    public DbFileIterator lookupIterator(TransactionId tid, Field key) {
+        return new LookupIterator(tid, key);
+    }
+
+    /**
+     * Adds an entry for a tuple of the table to the index.
+     *
+     * @param key the value of the indexed field of the tuple
+     * @param rid the RecordId of the tuple
+     * @return the pages that were modified
+     */
+    public ArrayList<Page> insert(TransactionId tid, Field key, RecordId rid)
+            throws DbException, IOException, TransactionAbortedException {
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        int h = hash(key);
+        while (true) {
+            HashDirectoryPage dir = (HashDirectoryPage) getPage(tid, 0, Permissions.READ_ONLY);
+            int pageno = dir.getBucket(h);
+            HashBucketPage bucket = (HashBucketPage) getPage(tid, pageno, Permissions.READ_WRITE);
+            if (bucket.isFull() && bucket.getLocalDepth() < dir.getMaxDepth()) {
+                split(tid, pageno, bucket, dirtied);
+                continue;
+            }
+            // a bucket that cannot split any more adds the entry to the first page of its chain with room
+            while (bucket.isFull()) {
+                int next = bucket.getOverflow();
+                if (next == 0) {
+                    HashBucketPage page = newBucket(tid, dirtied);
+                    page.setLocalDepth(bucket.getLocalDepth());
+                    bucket.setOverflow(page.getId().pageno());
+                    bucket.markDirty(true, tid);
+                    dirtied.add(bucket);
+                    bucket = page;
+                } else {
+                    bucket = (HashBucketPage) getPage(tid, next, Permissions.READ_WRITE);
+                }
+            }
+            bucket.addEntry(key, rid.getPageId().pageno(), rid.tupleno());
+            bucket.markDirty(true, tid);
+            dirtied.add(bucket);
+            return dirtied;
+        }
+    }
+
+    /**
+     * Splits a full bucket on its next hash bit into itself and a new
+     * bucket, doubling the directory first if needed.
+     */
+    private void split(TransactionId tid, int pageno, HashBucketPage bucket, ArrayList<Page> dirtied)
+            throws DbException, IOException, TransactionAbortedException {
+        HashDirectoryPage dir = (HashDirectoryPage) getPage(tid, 0, Permissions.READ_WRITE);
+        dir.markDirty(true, tid);
+        dirtied.add(dir);
+        int bit = bucket.getLocalDepth();
+        if (bit == dir.getGlobalDepth())
+            dir.doubleSize();
+        HashBucketPage sibling = newBucket(tid, dirtied);
+        bucket.splitInto(sibling, bit);
+        bucket.markDirty(true, tid);
+        dirtied.add(bucket);
+        dir.redirect(pageno, bit, sibling.getId().pageno());
+    }
+
+    /**
+     * Removes the entry for a tuple of the table from the index.
+     *
+     * @param key the value of the indexed field of the tuple
+     * @param rid the RecordId the tuple had in the table
+     * @return the page that was modified
+     * @throws DbException if the index has no such entry
+     */
+    public Page delete(TransactionId tid, Field key, RecordId rid)
+            throws DbException, TransactionAbortedException {
+        HashDirectoryPage dir = (HashDirectoryPage) getPage(tid, 0, Permissions.READ_ONLY);
+        int pageno = dir.getBucket(hash(key));
+        while (pageno != 0) {
+            HashBucketPage bucket = (HashBucketPage) getPage(tid, pageno, Permissions.READ_WRITE);
+            if (bucket.removeEntry(key, rid.getPageId().pageno(), rid.tupleno())) {
+                bucket.markDirty(true, tid);
+                return bucket;
+            }
+            pageno = bucket.getOverflow();
+        }
+        throw new DbException("no entry for " + key + " at " + rid.getPageId() + " slot " + rid.tupleno() + " in " + f);
+    }
+
+    /**
+     * Adds an entry, a tuple with this index's TupleDesc, to the index.
+     * @see #insert
+     */
+    public ArrayList<Page> addTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        return insert(tid, t.getField(0), entryRecordId(t));
+    }
+
+    /**
+     * Removes an entry, a tuple with this index's TupleDesc, from the index.
+     * @see #delete
+     */
+    public Page deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        return delete(tid, t.getField(0), entryRecordId(t));
+    }
+
+    private RecordId entryRecordId(Tuple entry) {
+        return new RecordId(new HeapPageId(table.getId(), ((IntField) entry.getField(1)).getValue()),
+                ((IntField) entry.getField(2)).getValue());
+    }
+
+    /**
+     * Returns an iterator over all the entries of this index, in no
+     * particular order.
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        return new EntryIterator(tid);
+    }
+
+    /**
+     * Writes a hash index holding the specified entries to f, replacing any
+     * file there. The directory is made just deep enough for every bucket to
+     * fit on a page, and every bucket uses all of its bits.
+     *
+     * @param entries tuples of the TupleDesc returned by {@link #entryDesc}
+     * @param tableLength the length of the table file the entries are from
+     * @param tableChecksum the CRC-32 of the table file the entries are from
+     */
+    public static void create(File f, Type keyType, List<Tuple> entries, long tableLength, int tableChecksum)
+            throws IOException {
+        int pageSize = BufferPool.PAGE_SIZE;
+        int maxDepth = HashDirectoryPage.maxDepth(pageSize);
+        int capacity = HashBucketPage.maxEntries(pageSize, keyType);
+        int[] hashes = new int[entries.size()];
+        for (int i = 0; i < hashes.length; i++)
+            hashes[i] = hash(entries.get(i).getField(0));
+        int depth = 0;
+        while (depth < maxDepth && largestBucket(hashes, depth) > capacity)
+            depth++;
+
+        ArrayList<ArrayList<Tuple>> buckets = new ArrayList<ArrayList<Tuple>>();
+        for (int i = 0; i < 1 << depth; i++)
+            buckets.add(new ArrayList<Tuple>());
+        for (int i = 0; i < hashes.length; i++)
+            buckets.get(hashes[i] & ((1 << depth) - 1)).add(entries.get(i));
+
+        f.delete();
+        RandomAccessFile out = new RandomAccessFile(f, "rw");
+        try {
+            HashDirectoryPage dir = new HashDirectoryPage(new HashIndexPageId(0, 0), new byte[pageSize]);
+            while (dir.getGlobalDepth() < depth)
+                dir.doubleSize();
+            dir.setTable(tableLength, tableChecksum);
+            // bucket b starts at page b + 1; overflow pages follow all of them
+            int nextOverflow = buckets.size() + 1;
+            ArrayList<HashBucketPage> overflows = new ArrayList<HashBucketPage>();
+            out.seek(pageSize);
+            for (int b = 0; b < buckets.size(); b++) {
+                ArrayList<Tuple> bucket = buckets.get(b);
+                int pages = Math.max(1, (bucket.size() + capacity - 1) / capacity);
+                int pageno = b + 1;
+                for (int p = 0; p < pages; p++) {
+                    HashBucketPage page = new HashBucketPage(new HashIndexPageId(0, pageno), new byte[pageSize], keyType);
+                    page.setLocalDepth(depth);
+                    try {
+                        for (Tuple e : bucket.subList(p * capacity, Math.min(bucket.size(), (p + 1) * capacity)))
+                            page.addEntry(e.getField(0), ((IntField) e.getField(1)).getValue(),
+                                    ((IntField) e.getField(2)).getValue());
+                    } catch (DbException e) {
+                        throw new IOException("cannot add entry to bucket: " + e.getMessage());
+                    }
+                    if (p + 1 < pages) {
+                        page.setOverflow(nextOverflow);
+                        pageno = nextOverflow++;
+                    }
+                    if (p == 0)
+                        out.write(page.getPageData());
+                    else
+                        overflows.add(page);
+                }
+            }
+            for (HashBucketPage page : overflows)
+                out.write(page.getPageData());
+            for (int b = 0; b < buckets.size(); b++)
+                dir.setBucket(b, b + 1);
+            out.seek(0);
+            out.write(dir.getPageData());
+        } finally {
+            out.close();
+        }
+    }
+
+    /** @return the size of the largest bucket if keys are spread over the low depth bits of their hashes */
+    private static int largestBucket(int[] hashes, int depth) {
+        int[] sizes = new int[1 << depth];
+        int largest = 0;
+        for (int h : hashes)
+            largest = Math.max(largest, ++sizes[h & ((1 << depth) - 1)]);
+        return largest;
+    }
+
+    /**
+     * Writes the hash index of the specified field of a table to f, reading
+     * the table through the BufferPool in a transaction of its own.
+     */
+    public static void build(File f, HeapFile table, int keyField)
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayList<Tuple> entries = new ArrayList<Tuple>();
+        Type keyType = table.getTupleDesc().getType(keyField);
+        TupleDesc entryTd = entryDesc(keyType);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            Tuple e = new Tuple(entryTd);
+            e.setField(0, t.getField(keyField));
+            e.setField(1, new IntField(t.getRecordId().getPageId().pageno()));
+            e.setField(2, new IntField(t.getRecordId().tupleno()));
+            entries.add(e);
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        File tableFile = table.getFile();
+        create(f, keyType, entries, tableFile.length(), checksum(tableFile));
+    }
+
+    /** Iterates over the tuples of the table with one key, following the RecordIds of its entries. */
+    private class LookupIterator extends AbstractDbFileIterator {
+        private final TransactionId tid;
+        private final Field key;
+        private Iterator<RecordId> rids;
+
+        LookupIterator(TransactionId tid, Field key) {
+            this.tid = tid;
+            this.key = key;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            rids = lookup(tid, key).iterator();
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            while (rids != null && rids.hasNext()) {
+                Tuple t = table.getTuple(tid, rids.next());
+                if (t != null && t.getField(keyField).equals(key))
+                    return t;
+            }
+            return null;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            rids = null;
+        }
+    }
+
+    /** Iterates over the entries of all bucket pages, including overflow pages. */
+    private class EntryIterator extends AbstractDbFileIterator {
+        private final TransactionId tid;
+        private int pageno;
+        private HashBucketPage bucket;
+        private int pos;
+
+        EntryIterator(TransactionId tid) {
+            this.tid = tid;
+        }
+
+        public void open() {
+            pageno = 1;
+            bucket = null;
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            while (bucket == null || pos == bucket.getNumEntries()) {
+                if (pageno == 0 || pageno >= numPages())
+                    return null;
+                bucket = (HashBucketPage) getPage(tid, pageno++, Permissions.READ_ONLY);
+                pos = 0;
+            }
+            Tuple t = new Tuple(td);
+            t.setField(0, bucket.getKey(pos));
+            t.setField(1, new IntField(bucket.getTuplePage(pos)));
+            t.setField(2, new IntField(bucket.getTupleSlot(pos)));
+            t.setRecordId(new RecordId(bucket.getId(), pos));
+            pos++;
+            return t;
+        }
+
+        public void rewind() {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            pageno = 0;
+            bucket = null;
+        }
+    }
+}
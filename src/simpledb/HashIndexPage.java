@@ -0,0 +1,54 @@
+package simpledb;
+
+/**
+ * HashIndexPage holds what the pages of a HashIndexFile have in common:
+ * their id, dirty state and before-image. Subclasses decode their contents
+ * when they are created and serialize them again in
+ * {@link #getPageData(byte[])}.
+ *
+ * @see HashIndexFile
+ */
+public abstract class HashIndexPage implements Page {
+    protected final HashIndexPageId pid;
+    protected final int pageSize;
+    private TransactionId dirtier;
+    // contents as of the last commit; never modified, see getBeforeImage()
+    protected byte[] oldData;
+
+    protected HashIndexPage(HashIndexPageId id, byte[] data) {
+        this.pid = id;
+        this.pageSize = data.length;
+        this.oldData = data;
+    }
+
+    /** @return the HashIndexFile the specified page belongs to, looked up in the Catalog. */
+    static HashIndexFile fileOf(HashIndexPageId id) {
+        return (HashIndexFile) Database.getCatalog().getDbFile(id.getTableId());
+    }
+
+    public HashIndexPageId getId() {
+        return pid;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtier = dirty ? tid : null;
+    }
+
+    public byte[] getPageData() {
+        byte[] data = new byte[pageSize];
+        getPageData(data);
+        return data;
+    }
+
+    /**
+     * The committed contents become the before-image; they are serialized
+     * here, once per commit, rather than on every modification.
+     */
+    public void setBeforeImage() {
+        oldData = getPageData();
+    }
+}
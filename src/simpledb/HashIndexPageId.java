@@ -0,0 +1,62 @@
+package simpledb;
+
+/**
+ * Unique identifier for the pages of a HashIndexFile. Page 0 is the
+ * directory of the index and every other page is a bucket.
+ */
+public class HashIndexPageId implements PageId {
+    private final int tableId;
+    private final int pageNum;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific HashIndexFile.
+     *
+     * @param tableId The id of the HashIndexFile, not of the indexed table
+     * @param pgNo The page number in that file.
+     */
+    public HashIndexPageId(int tableId, int pgNo) {
+        this.tableId = tableId;
+        this.pageNum = pgNo;
+    }
+
+    /** @return the id of the HashIndexFile this page belongs to */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /** @return the page number in the file getTableId() */
+    public int pageno() {
+        return pageNum;
+    }
+
+    /** @return true if this is the directory page of its file */
+    public boolean isDirectory() {
+        return pageNum == 0;
+    }
+
+    public int hashCode() {
+        return tableId * 31 + pageNum;
+    }
+
+    public boolean equals(Object o) {
+        if (o == null || !(o instanceof HashIndexPageId))
+            return false;
+        HashIndexPageId other = (HashIndexPageId) o;
+        return tableId == other.tableId && pageNum == other.pageNum;
+    }
+
+    public String toString() {
+        return (isDirectory() ? "directory" : "bucket page " + pageNum) + " of hash index " + tableId;
+    }
+
+    /**
+     *  Return a representation of this object as an array of
+     *  integers, for writing to disk.  Size of returned array must contain
+     *  number of integers that corresponds to number of args to one of the
+     *  constructors.
+     */
+    public int[] serialize() {
+        return new int[] { tableId, pageNum };
+    }
+}
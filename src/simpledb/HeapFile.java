@@ -1,7 +1,10 @@
 package simpledb;
 
 import java.io.*;
-import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 /**
@@ -10,12 +13,46 @@ import java.util.*;
  * which is a fixed size, and the file is simply a collection of those
  * pages. HeapFile works closely with HeapPage.  The format of HeapPages
  * is described in the HeapPage constructor.
+ * <p>
+ * Pages are BufferPool.PAGE_SIZE bytes unless the table was created with
+ * another page size, see {@link #HeapFile(File, TupleDesc, int)}. Such a
+ * file starts with a header page recording the page size, a magic number and
+ * a checksum, and its first table page follows the header.
+ * <p>
+ * Subclasses store their tuples in other page layouts by overriding
+ * {@link #newPage}; everything else only uses pages as TuplePages. They
+ * store pages in the file differently by overriding {@link #readPageData},
+ * {@link #writePageData} and {@link #numPages}.
  *
  * @see simpledb.HeapPage#HeapPage
  */
 public class HeapFile implements DbFile {
 	private File f;
 	private TupleDesc td;
+	// long-lived handle shared by all page reads/writes; opened lazily, see getChannel()
+	private RandomAccessFile raf;
+	private FileChannel channel;
+	// pages that may have a free slot, so that inserts do not probe every page
+	private FreeSpaceMap freeSpace;
+	// read from the file on first use, see getPageSize(); dataStart is set before pageSize
+	private volatile int pageSize;
+	private long dataStart;
+
+	/** Smallest page size a table can be created with; page sizes are powers of two. */
+	public static final int MIN_PAGE_SIZE = 512;
+	/** Largest page size a table can be created with. */
+	public static final int MAX_PAGE_SIZE = 65536;
+
+	private static final byte[] HEADER_MAGIC = { 'S', 'i', 'm', 'p', 'l', 'e', 'D', 'B' };
+	// magic, page size and a CRC32 of both
+	private static final int HEADER_LENGTH = HEADER_MAGIC.length + 8;
+
+	// pages are serialized into a per-thread buffer on their way to disk, so flushing allocates nothing
+	private static final ThreadLocal<byte[]> writeBuffer = new ThreadLocal<byte[]>() {
+		protected byte[] initialValue() {
+			return new byte[BufferPool.PAGE_SIZE];
+		}
+	};
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -25,6 +62,115 @@ public class HeapFile implements DbFile {
     public HeapFile(File f, TupleDesc td) {
     	this.f = f;
     	this.td = td;
+    	this.freeSpace = new FreeSpaceMap(f);
+    }
+
+    /**
+     * Constructs a heap file with the specified page size backed by the
+     * specified file. If the file is empty, this creates the table with that
+     * page size and records it in the file; otherwise the file must already
+     * have that page size.
+     *
+     * @param f the file that stores the on-disk backing store for this heap file.
+     * @param pageSize the number of bytes per page, a power of two between
+     *   MIN_PAGE_SIZE and MAX_PAGE_SIZE.
+     * @throws IllegalArgumentException if the page size is invalid or the
+     *   file has another page size.
+     */
+    public HeapFile(File f, TupleDesc td, int pageSize) throws IOException {
+    	this(f, td);
+    	checkPageSize(pageSize);
+    	if(f.length() == 0 && pageSize != BufferPool.PAGE_SIZE) {
+    		FileOutputStream out = new FileOutputStream(f);
+    		try {
+    			out.write(fileHeader(pageSize));
+    		} finally {
+    			out.close();
+    		}
+    	}
+    	if(getPageSize() != pageSize)
+    		throw new IllegalArgumentException(f + " has " + getPageSize() + " byte pages, not " + pageSize);
+    }
+
+    /** @throws IllegalArgumentException if pageSize is not a valid page size. */
+    public static void checkPageSize(int pageSize) {
+    	if(pageSize < MIN_PAGE_SIZE || pageSize > MAX_PAGE_SIZE || Integer.bitCount(pageSize) != 1)
+    		throw new IllegalArgumentException("page size must be a power of two between " + MIN_PAGE_SIZE +
+    				" and " + MAX_PAGE_SIZE + ": " + pageSize);
+    }
+
+    /**
+     * @return the header page that a table file with the specified page size
+     *   starts with, or an empty array for the default page size, whose files
+     *   have no header.
+     */
+    static byte[] fileHeader(int pageSize) {
+    	checkPageSize(pageSize);
+    	if(pageSize == BufferPool.PAGE_SIZE)
+    		return new byte[0];
+    	byte[] header = new byte[pageSize];
+    	System.arraycopy(HEADER_MAGIC, 0, header, 0, HEADER_MAGIC.length);
+    	Type.writeInt(header, HEADER_MAGIC.length, pageSize);
+    	java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+    	crc.update(header, 0, HEADER_MAGIC.length + 4);
+    	Type.writeInt(header, HEADER_MAGIC.length + 4, (int) crc.getValue());
+    	return header;
+    }
+
+    /**
+     * @return the page size recorded in the header of the specified table
+     *   file, or 0 if it has none.
+     */
+    static int recordedPageSize(File f) throws IOException {
+    	if(f.length() < HEADER_LENGTH)
+    		return 0;
+    	byte[] header = new byte[HEADER_LENGTH];
+    	DataInputStream in = new DataInputStream(new FileInputStream(f));
+    	try {
+    		in.readFully(header);
+    	} finally {
+    		in.close();
+    	}
+    	for(int i = 0; i < HEADER_MAGIC.length; i++)
+    		if(header[i] != HEADER_MAGIC[i])
+    			return 0;
+    	java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+    	crc.update(header, 0, HEADER_MAGIC.length + 4);
+    	if(Type.readInt(header, HEADER_MAGIC.length + 4) != (int) crc.getValue())
+    		return 0;
+    	int pageSize = Type.readInt(header, HEADER_MAGIC.length);
+    	checkPageSize(pageSize);
+    	return pageSize;
+    }
+
+    /**
+     * Returns the size of the pages of this file: the size recorded in its
+     * header, or BufferPool.PAGE_SIZE for files without one.
+     */
+    public int getPageSize() {
+    	int size = pageSize;
+    	if(size != 0)
+    		return size;
+    	synchronized(this) {
+    		if(pageSize == 0) {
+    			int recorded = 0;
+    			try {
+    				recorded = recordedPageSize(f);
+    			} catch(IOException e) {
+    				e.printStackTrace();
+    				System.exit(1);
+    			}
+    			dataStart = recorded;
+    			pageSize = recorded != 0 ? recorded : BufferPool.PAGE_SIZE;
+    		}
+    		return pageSize;
+    	}
+    }
+
+    /** @return the file offset of the specified page. */
+    private long pageOffset(int pageno) {
+    	int size = getPageSize();
+    	return dataStart + (long) pageno * size;
     }
 
     /**
@@ -61,15 +207,10 @@ public class HeapFile implements DbFile {
     public Page readPage(PageId pid) {
     	if(pid == null)
     		return null;
-    	int pageNum = pid.pageno();
-    	int fileOffset = pageNum * BufferPool.PAGE_SIZE;
-    	byte[] pageData = new byte[BufferPool.PAGE_SIZE];
     	try {
-    		FileInputStream fis = new FileInputStream(f.getAbsoluteFile());
-			fis.skip(fileOffset);
-			fis.read(pageData);
-    		fis.close();
-    		return new HeapPage((HeapPageId)pid, pageData);
+    		byte[] pageData = new byte[getPageSize()];
+    		readPageData(pid.pageno(), pageData);
+    		return newPage((HeapPageId)pid, pageData);
     	} catch(Exception e) {
     		e.printStackTrace();
     		System.exit(1);
@@ -79,23 +220,123 @@ public class HeapFile implements DbFile {
 
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
-        int fileOffset = page.getId().pageno() * BufferPool.PAGE_SIZE;
-        try {
-			RandomAccessFile raf = new RandomAccessFile(f.getAbsoluteFile(), "rw");
-			raf.seek(fileOffset);
-			raf.write(page.getPageData());
-			raf.close();
-		} catch(Exception e) {
-			e.printStackTrace();
-			System.exit(1);
-		}
+        byte[] buf = writeBuffer.get();
+        if(buf.length < getPageSize()) {
+        	buf = new byte[getPageSize()];
+        	writeBuffer.set(buf);
+        }
+        writePageData(page.getId().pageno(), buf, page.getPageData(buf));
+        freeSpace.write(page.getId().pageno(), ((TuplePage) page).getNumEmptySlots() > 0);
+    }
+
+    /**
+     * Reads the bytes of the specified page into data. Bytes past the end of
+     * the file are left untouched.
+     */
+    protected void readPageData(int pageno, byte[] data) throws IOException {
+    	readFully(ByteBuffer.wrap(data), pageOffset(pageno));
+    }
+
+    /**
+     * Writes the first length bytes of data as the contents of the specified
+     * page. The array is reused once this returns.
+     */
+    protected void writePageData(int pageno, byte[] data, int length) throws IOException {
+    	writeFully(ByteBuffer.wrap(data, 0, length), pageOffset(pageno));
+    }
+
+    /**
+     * Creates a page of this file from its bytes on disk; an array of zeros
+     * must make an empty page. The page may keep the array.
+     */
+    protected TuplePage newPage(HeapPageId pid, byte[] data) throws IOException {
+    	return new HeapPage(pid, data);
+    }
+
+    /**
+     * Tells the free space map that the cached image of the specified page was
+     * thrown away, e.g. because the transaction that modified it aborted. The
+     * image on disk may have slots that the discarded one had filled.
+     */
+    void pageDiscarded(PageId pid) {
+    	try {
+    		freeSpace.setFree(pid.pageno(), true);
+    	} catch(IOException e) {
+    		e.printStackTrace();
+    	}
+    }
+
+    /**
+     * Closes the file handle backing this HeapFile. The handle is reopened
+     * on the next page read or write, so closing a file that is still in use
+     * is safe, just slower.
+     */
+    public synchronized void close() {
+    	freeSpace.close();
+    	if(raf == null)
+    		return;
+    	try {
+    		raf.close();
+    	} catch(IOException e) {
+    		e.printStackTrace();
+    	}
+    	raf = null;
+    	channel = null;
+    }
+
+    /**
+     * Returns the channel used for page I/O, opening it if needed. Positional
+     * reads and writes on a FileChannel do not touch the channel's own position,
+     * so a single channel can serve concurrent page misses from many threads.
+     */
+    protected synchronized FileChannel getChannel() throws IOException {
+    	if(channel == null || !channel.isOpen()) {
+    		if(raf != null)
+    			raf.close();
+    		raf = new RandomAccessFile(f.getAbsoluteFile(), "rw");
+    		channel = raf.getChannel();
+    	}
+    	return channel;
+    }
+
+    /**
+     * Fills buf with the bytes starting at the specified file offset. Bytes past
+     * the end of the file are left untouched (zero for a freshly allocated page).
+     */
+    protected void readFully(ByteBuffer buf, long offset) throws IOException {
+    	while(buf.hasRemaining()) {
+    		int read;
+    		try {
+    			read = getChannel().read(buf, offset + buf.position());
+    		} catch(ClosedByInterruptException e) {
+    			throw e;
+    		} catch(ClosedChannelException e) {
+    			// another thread was interrupted mid-I/O, which closes the channel for everyone; reopen and retry
+    			continue;
+    		}
+    		if(read < 0)
+    			break;
+    	}
+    }
+
+    protected void writeFully(ByteBuffer buf, long offset) throws IOException {
+    	while(buf.hasRemaining()) {
+    		try {
+    			getChannel().write(buf, offset + buf.position());
+    		} catch(ClosedByInterruptException e) {
+    			throw e;
+    		} catch(ClosedChannelException e) {
+    			continue;
+    		}
+    	}
     }
 
     /**
      * Returns the number of pages in this HeapFile.
      */
     public int numPages() {
-    	return (int) Math.ceil(f.length() / BufferPool.PAGE_SIZE);
+    	long offset = pageOffset(0);
+    	return (int) Math.max(0, (f.length() - offset) / getPageSize());
     }
 
 
@@ -105,17 +346,22 @@ public class HeapFile implements DbFile {
         int numPages = this.numPages();
         int tableId = getId();
         BufferPool bp = Database.getBufferPool();
-        for(int p=0; p<numPages; p++) {
+        // the free space map only names candidates; each one is checked under its page lock
+        for(int p = freeSpace.firstFree(numPages); p >= 0; p = freeSpace.nextFree(p + 1, numPages)) {
 			HeapPageId pId = new HeapPageId(tableId, p);
-			//TODO: maintain a free space list in order to avoid iterating through all pages
-        	HeapPage hp = (HeapPage) bp.getPage(tid, pId, Permissions.READ_ONLY);
-        	if(hp.getNumEmptySlots() > 0) {
+        	TuplePage hp = (TuplePage) bp.getPage(tid, pId, Permissions.READ_ONLY);
+        	if(hp.hasRoomFor(t)) {
         		// if there is space on this page, acquire write lock before inserting tuple into the page
-				hp = (HeapPage) bp.getPage(tid, pId, Permissions.READ_WRITE);
+				hp = (TuplePage) bp.getPage(tid, pId, Permissions.READ_WRITE);
 				hp.addTuple(t);
 				hp.markDirty(true, tid);
+				if(hp.getNumEmptySlots() == 0)
+					freeSpace.setFree(p, false);
         		return new ArrayList<Page>(Arrays.asList(new Page[] {hp}));
 			}
+			// a page of variable-length tuples may still have room for smaller tuples
+			if(hp.getNumEmptySlots() == 0)
+				freeSpace.setFree(p, false);
 			// optimization: we can release page lock early since we did not actually look at the page's data
 			bp.releasePage(tid, pId);
 		}
@@ -125,7 +371,7 @@ public class HeapFile implements DbFile {
         synchronized (Database.getCatalog()) {
         	int synchronizedNumPages = this.numPages();
 			HeapPageId newPageId = new HeapPageId(tableId, synchronizedNumPages);
-			HeapPage newPage = new HeapPage(newPageId, new byte[BufferPool.PAGE_SIZE]);
+			TuplePage newPage = newPage(newPageId, new byte[getPageSize()]);
 			newPage.addTuple(t);
 			writePage(newPage);
 			return new ArrayList<Page>(Arrays.asList(new Page[] {newPage}));
@@ -136,31 +382,65 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public Page deleteTuple(TransactionId tid, Tuple t)
         throws DbException, TransactionAbortedException {
-		HeapPage hp = (HeapPage) Database.getBufferPool().getPage(tid, t.getRecordId().getPageId(), Permissions.READ_WRITE);
+		TuplePage hp = (TuplePage) Database.getBufferPool().getPage(tid, t.getRecordId().getPageId(), Permissions.READ_WRITE);
 		//TODO: Figure out how to garbage collect empty pages and how to defragment data in heap files
 		hp.deleteTuple(t);
 		hp.markDirty(true, tid);
+		try {
+			freeSpace.setFree(hp.getId().pageno(), true);
+		} catch (IOException e) {
+			throw new DbException("could not read free space map of " + f + ": " + e.getMessage());
+		}
 		return hp;
     }
-    
+
+    /**
+     * Reads the tuple with the specified RecordId through the BufferPool,
+     * taking a shared lock on its page; used to follow the RecordIds stored
+     * in an index such as a {@link HashIndexFile}.
+     *
+     * @return the tuple, or null if its slot is empty or its page is past
+     *   the end of the file
+     */
+    public Tuple getTuple(TransactionId tid, RecordId rid)
+        throws DbException, TransactionAbortedException {
+    	if(rid.getPageId().pageno() >= numPages())
+    		return null;
+    	TuplePage hp = (TuplePage) Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_ONLY);
+    	return hp.getTuple(rid.tupleno());
+    }
+
     public class HeapFileIterator implements DbFileIterator {
-    	private HeapPage hp;
+    	private TuplePage hp;
     	private Iterator<Tuple> it;
     	private TransactionId tid;
     	private int tableId;
     	private HeapFile hf;
+    	private BufferRing ring; // only set for scans of tables too large for the buffer pool
+    	private Prefetcher.Window window; // only set if the buffer pool prefetches
+    	private BitSet columns; // columns the reader needs, null for all
     	
     	public HeapFileIterator(TransactionId tid, HeapFile hf) {
+    		this(tid, hf, null);
+    	}
+
+    	public HeapFileIterator(TransactionId tid, HeapFile hf, BitSet columns) {
     		this.tableId = hf.getId();
     		this.tid = tid;
     		this.hf = hf;
+    		this.columns = columns;
     	}
 
 		@Override
 		public void open() throws DbException, TransactionAbortedException {
+    		BufferPool bp = Database.getBufferPool();
+    		ring = bp.newBulkReadRing(hf.numPages());
+    		window = bp.newReadAheadWindow(tableId, hf.numPages(), ring);
+    		if(window != null)
+    			bp.getPrefetcher().advance(window, 0);
     		HeapPageId pId = new HeapPageId(tableId, 0);
-    		hp = (HeapPage) Database.getBufferPool().getPage(tid, pId, null);
-    		it = hp.iterator();
+    		hp = (TuplePage) bp.getPage(tid, pId, null, ring);
+    		it = hp.iterator(columns);
 		}
 
 		@Override
@@ -171,11 +451,14 @@ public class HeapFile implements DbFile {
 			if(it.hasNext())
 				return true;
 
-			while(hp.pid.pageno() < hf.numPages() - 1) {
+			while(hp.getId().pageno() < hf.numPages() - 1) {
 				try {
-					HeapPageId pId = new HeapPageId(tableId, hp.pid.pageno()+1);
-					hp = (HeapPage) Database.getBufferPool().getPage(tid, pId, Permissions.READ_ONLY);
-					it = hp.iterator();
+					BufferPool bp = Database.getBufferPool();
+					HeapPageId pId = new HeapPageId(tableId, hp.getId().pageno()+1);
+					if(window != null)
+						bp.getPrefetcher().advance(window, pId.pageno());
+					hp = (TuplePage) bp.getPage(tid, pId, Permissions.READ_ONLY, ring);
+					it = hp.iterator(columns);
 					if(it.hasNext())
 						return true;
 				} catch (Exception e) {
@@ -209,6 +492,8 @@ public class HeapFile implements DbFile {
 			it = null;
 			tid = null;
 			hf = null;
+			ring = null;
+			window = null;
 		}
     	
     }
@@ -217,5 +502,15 @@ public class HeapFile implements DbFile {
     public DbFileIterator iterator(TransactionId tid) {
         return new HeapFileIterator(tid, this);
     }
+
+    /**
+     * Returns an iterator over the tuples of this file for a reader that only
+     * reads the specified columns of them; see {@link TuplePage#iterator(BitSet)}.
+     *
+     * @param columns the indexes of the needed columns, or null for all.
+     */
+    public DbFileIterator iterator(TransactionId tid, BitSet columns) {
+        return new HeapFileIterator(tid, this, columns);
+    }
     
 }
@@ -8,7 +8,8 @@ import java.util.ArrayList;
  * an array of tuples and converts it to
  * pages of binary data in the appropriate format for simpledb heap pages
  * Pages are padded out to a specified length, and written consecutive in a
- * data file.
+ * data file. Files with pages of other than BufferPool.PAGE_SIZE bytes start
+ * with the header page that records their page size, see HeapFile.
  */
 
 public class HeapFileEncoder {
@@ -100,6 +101,9 @@ public class HeapFileEncoder {
 
     BufferedReader br = new BufferedReader(new FileReader(inFile));
     FileOutputStream os = new FileOutputStream(outFile);
+    // a free space map left over from an older file would describe the wrong pages
+    FreeSpaceMap.sidecarFor(outFile).delete();
+    os.write(HeapFile.fileHeader(npagebytes));
 
     // our numbers probably won't be much larger than 1024 digits
     char buf[] = new char[1024];
@@ -217,4 +221,163 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+  /** Convert the specified input text file into a file of
+   * {@link SlottedPage}s, for use with a {@link SlottedHeapFile}. The input
+   * format is the same as for {@link #convert(File, File, int, int, Type[])};
+   * each page is filled with as many tuples as fit.
+   *
+   * @param inFile The input file to read data from
+   * @param outFile The output file to write data to
+   * @param npagebytes The number of bytes per page in the output file
+   * @param numFields the number of fields in each input line/output tuple
+   * @param typeAr the types of the fields
+   * @throws IOException if the input/output file can't be opened
+   */
+  public static void convertSlotted(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr)
+      throws IOException {
+    TupleDesc td = new TupleDesc(typeAr);
+    BufferedReader br = new BufferedReader(new FileReader(inFile));
+    FileOutputStream os = new FileOutputStream(outFile);
+    FreeSpaceMap.sidecarFor(outFile).delete();
+    os.write(HeapFile.fileHeader(npagebytes));
+
+    SlottedPage page = new SlottedPage(null, new byte[npagebytes], td);
+    String line;
+    while ((line = br.readLine()) != null) {
+        if (line.trim().length() == 0)
+            continue;
+        Tuple t = parseTuple(line, td, numFields, typeAr);
+        if (!page.hasRoomFor(t)) {
+            os.write(page.getPageData());
+            page = new SlottedPage(null, new byte[npagebytes], td);
+        }
+        try {
+            page.addTuple(t);
+        } catch (DbException e) {
+            throw new IOException("tuple does not fit on an empty page: " + line);
+        }
+    }
+    // the last page; like convert, an empty input still gets one empty page
+    os.write(page.getPageData());
+    br.close();
+    os.close();
+  }
+
+  /** Convert the specified input text file into a file of {@link PaxPage}s,
+   * for use with a {@link PaxHeapFile}. The input format is the same as for
+   * {@link #convert(File, File, int, int, Type[])}, and each page holds as
+   * many tuples as a HeapPage does.
+   *
+   * @param inFile The input file to read data from
+   * @param outFile The output file to write data to
+   * @param npagebytes The number of bytes per page in the output file
+   * @param numFields the number of fields in each input line/output tuple
+   * @param typeAr the types of the fields
+   * @throws IOException if the input/output file can't be opened
+   */
+  public static void convertPax(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr)
+      throws IOException {
+    TupleDesc td = new TupleDesc(typeAr);
+    BufferedReader br = new BufferedReader(new FileReader(inFile));
+    FileOutputStream os = new FileOutputStream(outFile);
+    FreeSpaceMap.sidecarFor(outFile).delete();
+    os.write(HeapFile.fileHeader(npagebytes));
+
+    PaxPage page = new PaxPage(null, new byte[npagebytes], td);
+    String line;
+    while ((line = br.readLine()) != null) {
+        if (line.trim().length() == 0)
+            continue;
+        if (page.getNumEmptySlots() == 0) {
+            os.write(page.getPageData());
+            page = new PaxPage(null, new byte[npagebytes], td);
+        }
+        try {
+            page.addTuple(parseTuple(line, td, numFields, typeAr));
+        } catch (DbException e) {
+            throw new IOException("tuple does not fit on an empty page: " + line);
+        }
+    }
+    // the last page; like convert, an empty input still gets one empty page
+    os.write(page.getPageData());
+    br.close();
+    os.close();
+  }
+
+  /** Convert the specified tuple list (with only integer fields) into a
+   * BTreeFile ordered on the specified field.
+   *
+   * @see #convertBTree(File, File, int, Type[], int)
+   */
+  public static void convertBTree(ArrayList<ArrayList<Integer>> tuples, File outFile, int numFields,
+                 int keyField) throws IOException {
+      Type[] ts = new Type[numFields];
+      for (int i = 0; i < ts.length; i++) {
+          ts[i] = Type.INT_TYPE;
+      }
+      TupleDesc td = new TupleDesc(ts);
+      ArrayList<Tuple> rows = new ArrayList<Tuple>();
+      for (ArrayList<Integer> tuple : tuples) {
+          if (tuple.size() != numFields)
+              throw new RuntimeException("Tuple does not have " + numFields + " fields: (" +
+                      Utility.listToString(tuple) + ")");
+          Tuple t = new Tuple(td);
+          for (int i = 0; i < numFields; i++)
+              t.setField(i, new IntField(tuple.get(i)));
+          rows.add(t);
+      }
+      BTreeFile.create(outFile, td, keyField, rows);
+  }
+
+  /**
+   * Convert the specified input text file into a BTreeFile ordered on the
+   * specified field. The input is read as by {@link #convert(File, File, int, int, Type[])};
+   * its rows may be in any order. Pages are always BufferPool.PAGE_SIZE
+   * bytes, and the rows are held in memory while the tree is built.
+   *
+   * @see BTreeFile#create
+   */
+  public static void convertBTree(File inFile, File outFile, int numFields, Type[] typeAr,
+                 int keyField) throws IOException {
+    TupleDesc td = new TupleDesc(typeAr);
+    BufferedReader br = new BufferedReader(new FileReader(inFile));
+    ArrayList<Tuple> rows = new ArrayList<Tuple>();
+    try {
+        String line;
+        while ((line = br.readLine()) != null) {
+            if (line.trim().length() == 0)
+                continue;
+            rows.add(parseTuple(line, td, numFields, typeAr));
+        }
+    } finally {
+        br.close();
+    }
+    BTreeFile.create(outFile, td, keyField, rows);
+  }
+
+
+  /** Parses a line of comma separated field values into a tuple; bad
+   * integers are reported and stored as 0, like convert does. */
+  private static Tuple parseTuple(String line, TupleDesc td, int numFields, Type[] typeAr) {
+    String[] values = line.split(",", -1);
+    Tuple t = new Tuple(td);
+    for (int i = 0; i < numFields; i++) {
+        String s = i < values.length ? values[i].trim() : "";
+        if (typeAr[i] == Type.INT_TYPE) {
+            int v = 0;
+            try {
+                v = Integer.parseInt(s);
+            } catch (NumberFormatException e) {
+                System.out.println ("BAD LINE : " + s);
+            }
+            t.setField(i, new IntField(v));
+        } else {
+            t.setField(i, new StringField(s, Type.STRING_LEN));
+        }
+    }
+    return t;
+  }
 }
@@ -10,15 +10,25 @@ import java.io.*;
  * @see HeapFile
  * @see BufferPool
  */
-public class HeapPage implements Page {
+public class HeapPage implements TuplePage {
 
     HeapPageId pid;
     TupleDesc td;
-    byte header[];
+    // the slot bitmap of the header, 64 slots per word; bit i of the header is bit i % 64 of word i / 64
+    long slots[];
+    int headerSize;
+    // number of set bits in slots, kept up to date by setSlot
+    int usedSlots;
+    // tuples decoded or added so far; slots that are in use but null here are still only in data
     Tuple tuples[];
     int numSlots;
     TransactionId dirtier;
+    // the bytes this page was created from or last committed as; never modified, so lazily decoded tuples can share them
+    byte[] data;
+    // slots added or deleted since the page was created from data, null if there are none
+    BitSet changed;
 
+    // contents as of the last commit, captured by the first modification after it; see getBeforeImage()
     byte[] oldData;
 
     /**
@@ -26,48 +36,47 @@ public class HeapPage implements Page {
      * The format of a HeapPage is a set of header bytes indicating
      * the slots of the page that are in use, some number of tuple slots.
      *  Specifically, the number of tuples is equal to: <p>
-     *          floor((BufferPool.PAGE_SIZE*8) / (tuple size * 8 + 1))
+     *          floor((page size*8) / (tuple size * 8 + 1))
      * <p> where tuple size is the size of tuples in this
      * database table, which can be determined via {@link Catalog#getTupleDesc}.
      * The number of 8-bit header words is equal to:
      * <p>
      *      ceiling(no. tuple slots / 8)
+     * <p> where the page size is the length of data, the page size of the
+     * table (see {@link HeapFile#getPageSize}).
      * <p>
+     * Only the header is read up front. The page keeps the array and decodes
+     * a tuple when it is first asked for, and each field of a tuple when it
+     * is first read, so the array must not be modified after it is passed in.
+     *
      * @throws Exception 
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
-     * @see BufferPool#PAGE_SIZE
+     * @see HeapFile#getPageSize
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.data = data;
         this.numSlots = getNumTuples();
-        this.oldData = new byte[BufferPool.PAGE_SIZE];
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-
-        try{
-            // allocate and read the actual records of this page
-            tuples = new Tuple[numSlots];
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
 
-        setBeforeImage();
+        // read the header slots of this page; bits past the last slot are ignored
+        headerSize = getHeaderSize();
+        slots = new long[(numSlots + 63) / 64];
+        for (int b = 0; b < headerSize; b++)
+            slots[b >>> 3] |= (data[b] & 0xffL) << ((b & 7) * 8);
+        if (numSlots % 64 != 0)
+            slots[slots.length - 1] &= (1L << numSlots) - 1;
+        for (long word : slots)
+            usedSlots += Long.bitCount(word);
+        tuples = new Tuple[numSlots];
     }
 
     /** Retrieve the number of tuples on this page.
         @return the number of tuples on this page
     */
     private int getNumTuples() {        
-    	return (int) Math.floor((BufferPool.PAGE_SIZE * 8) / (this.td.getSize() * 8 + 1));
+    	return (int) Math.floor((data.length * 8) / (this.td.getSize() * 8 + 1));
     }
 
     /**
@@ -80,10 +89,18 @@ public class HeapPage implements Page {
     
     /** Return a view of this page before it was modified
         -- used by recovery 
+     * <p>
+     * The before-image is only captured when the page is first modified
+     * after being loaded or committed. Until then the current contents are
+     * the before-image, and an unmodified page simply hands out the bytes
+     * it was loaded from.
      * @throws Exception */
     public HeapPage getBeforeImage() {
         try {
-            return new HeapPage(pid,oldData);
+            byte[] before = oldData;
+            if (before == null)
+                before = changed != null ? getPageData() : data;
+            return new HeapPage(pid,before);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -92,15 +109,35 @@ public class HeapPage implements Page {
         return null;
     }
     
+    /**
+     * Drops the captured before-image, making the current contents the
+     * before-image. The next modification captures them again.
+     * <p>
+     * The current contents also become the bytes the page is encoded
+     * against, so that later flushes only encode slots changed after this
+     * commit.
+     */
     public void setBeforeImage() {
-    	try {
-    		oldData = getPageData().clone();
-    	} catch(Exception e) {
-    		e.printStackTrace();
-    		System.exit(1);
+    	oldData = null;
+    	if (changed != null) {
+    		data = getPageData();
+    		changed = null;
     	}
     }
 
+    /**
+     * Called before every change to the specified slot of this page.
+     * Captures the before-image on the first change since the last commit,
+     * which is the only time the page has to be serialized for it.
+     */
+    private void beforeModify(int slotId) {
+        if (oldData == null)
+            oldData = changed != null ? getPageData() : data;
+        if (changed == null)
+            changed = new BitSet(numSlots);
+        changed.set(slotId);
+    }
+
     /**
      * @return the PageId associated with this page.
      */
@@ -108,38 +145,25 @@ public class HeapPage implements Page {
     	return pid;
     }
 
+    /** @return the offset in data of the tuple in the specified slot. */
+    private int slotOffset(int slotId) {
+        return headerSize + slotId * td.getSize();
+    }
+
     /**
-     * Suck up tuples from the source file.
-     * @throws Exception 
+     * Returns the tuple in the specified slot, or null if the slot is empty.
+     * A tuple that is still only in data is wrapped without decoding any of
+     * its fields; see {@link Tuple#Tuple(TupleDesc, byte[], int)}.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!getSlot(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
+    public Tuple getTuple(int slotId) {
+        if (slotId < 0 || slotId >= numSlots || !getSlot(slotId))
             return null;
+        Tuple t = tuples[slotId];
+        if (t == null) {
+            t = new Tuple(td, data, slotOffset(slotId));
+            t.setRecordId(new RecordId(pid, slotId));
+            tuples[slotId] = t;
         }
-
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
-        }
-
         return t;
     }
 
@@ -156,63 +180,39 @@ public class HeapPage implements Page {
      * @throws Exception 
      */
     public byte[] getPageData() {
-        int len = BufferPool.PAGE_SIZE;
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
+        byte[] out = new byte[data.length];
+        getPageData(out);
+        return out;
+    }
 
-            // empty slot
+    /**
+     * Writes the contents of this page into out, which must hold at least
+     * as many bytes as the page. The bytes the page was created from are
+     * copied in bulk, and only the header and the slots changed since then
+     * are encoded on top of them, so the cost depends on the number of
+     * modified tuples rather than on the size of the page.
+     *
+     * @return the number of bytes written, the size of the page
+     */
+    public int getPageData(byte[] out) {
+        int len = data.length;
+        System.arraycopy(data, 0, out, 0, len);
+        for (int b = 0; b < headerSize; b++)
+            out[b] = (byte) (slots[b >>> 3] >>> ((b & 7) * 8));
+
+        if (changed == null)
+            return len;
+        for (int i = changed.nextSetBit(0); i >= 0; i = changed.nextSetBit(i + 1)) {
+            int offset = slotOffset(i);
             if (!getSlot(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
+                Arrays.fill(out, offset, offset + td.getSize(), (byte) 0);
                 continue;
             }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                try {
-                	Field f = tuples[i].getField(j);
-                    f.serialize(dos);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            }
+            Tuple t = tuples[i];
+            for (int j=0; j<td.numFields(); j++)
+                t.getField(j).serialize(out, offset + td.getOffset(j));
         }
-
-        // padding
-        int zerolen = BufferPool.PAGE_SIZE - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        return len;
     }
 
     /**
@@ -220,13 +220,15 @@ public class HeapPage implements Page {
      * HeapPage.
      * Used to add new, empty pages to the file. Passing the results of
      * this method to the HeapPage constructor will create a HeapPage with
-     * no valid tuples in it.
+     * no valid tuples in it. The array is as long as the pages of the table,
+     * or BufferPool.PAGE_SIZE for tables that are not HeapFiles.
      *
      * @param tableid The id of the table that this empty page will belong to.
      * @return The returned ByteArray.
      */
-    public static byte[] createEmptyPageData() {
-        int len = BufferPool.PAGE_SIZE;
+    public static byte[] createEmptyPageData(int tableid) {
+        DbFile file = Database.getCatalog().getDbFile(tableid);
+        int len = file instanceof HeapFile ? ((HeapFile) file).getPageSize() : BufferPool.PAGE_SIZE;
         return new byte[len]; //all 0
     }
 
@@ -247,7 +249,9 @@ public class HeapPage implements Page {
         if(!getSlot(t_tupleno))
             throw new DbException(String.format("No tuple at index %d in page %s", t_tupleno, pid.toString()));
 
+        beforeModify(t_tupleno);
         setSlot(t.getRecordId().tupleno(), false);
+        tuples[t_tupleno] = null;
         t.setRecordId(null);
     }
 
@@ -264,20 +268,17 @@ public class HeapPage implements Page {
         if (getNumEmptySlots() == 0)
             throw new DbException("No space left on this page");
 
-        // find first empty slot
-        byte full = (byte) 0xFF;
+        // find first empty slot; bits past the last slot read as free, but a real free slot comes first
         int firstEmpty = -1;
-        for (int x = 0; x < header.length; x++) {
-            if (header[x] != full) {
-                int startIndex = 8 * x;
-                for (int y = startIndex; y < startIndex + 8; y++)
-                    if (!getSlot(y)) {
-                        firstEmpty = y;
-                        break;
-                    }
+        for (int w = 0; w < slots.length; w++) {
+            long free = ~slots[w];
+            if (free != 0) {
+                firstEmpty = (w << 6) + Long.numberOfTrailingZeros(free);
+                break;
             }
         }
 
+        beforeModify(firstEmpty);
         setSlot(firstEmpty, true);
         tuples[firstEmpty] = t;
         t.setRecordId(new RecordId(pid, firstEmpty));
@@ -306,51 +307,81 @@ public class HeapPage implements Page {
      * Returns the number of empty slots on this page.
      */
     public int getNumEmptySlots() {
-    	int usedSlots = 0;
-    	for(int x=0; x<header.length; x++) {
-    		int mask = 1;
-    		byte b = header[x];
-    		for(int y=0; y<8; y++) {
-    			if((b & mask) != 0)
-    				usedSlots++;
-    			mask = mask << 1;
-    		}
-    	}
     	return numSlots - usedSlots;
     }
 
+    /**
+     * Returns true if the page has an empty slot; all tuples take one slot.
+     */
+    public boolean hasRoomFor(Tuple t) {
+    	return getNumEmptySlots() > 0;
+    }
+
     /**
      * Returns true if associated slot on this page is filled.
      */
     public boolean getSlot(int i) {
-    	int byteIndex = i/8;
-    	int bitOffset = i % 8;
-    	int bitMask = 1 << bitOffset;
-    	return (header[byteIndex] & bitMask) != 0;
+    	return (slots[i >>> 6] & (1L << i)) != 0;
     }
 
     /**
      * Abstraction to fill or clear a slot on this page.
      */
     private void setSlot(int i, boolean value) {
-        int byteIndex = i/8;
-        int bitOffset = i % 8;
-        byte bitMask = (byte) ~(1 << bitOffset);
-        byte bitValue = (byte) (value ? 1 : 0);
-        header[byteIndex] = (byte) ((header[byteIndex] & bitMask) | (bitValue << bitOffset));
+        long word = slots[i >>> 6];
+        long updated = value ? word | (1L << i) : word & ~(1L << i);
+        if (updated != word) {
+            slots[i >>> 6] = updated;
+            usedSlots += value ? 1 : -1;
+        }
+    }
+
+    /**
+     * @return the first filled slot at or after from, or numSlots if there is none.
+     */
+    private int nextUsedSlot(int from) {
+        int w = from >>> 6;
+        if (w >= slots.length)
+            return numSlots;
+        long word = slots[w] & (-1L << from);
+        while (word == 0) {
+            if (++w == slots.length)
+                return numSlots;
+            word = slots[w];
+        }
+        return (w << 6) + Long.numberOfTrailingZeros(word);
     }
 
     /**
      * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
      * (note that this iterator shouldn't return tuples in empty slots!)
      */
+    public Iterator<Tuple> iterator(BitSet columns) {
+    	// rows are decoded lazily, field by field, so there is nothing to gain from knowing the columns
+    	return iterator();
+    }
+
     public Iterator<Tuple> iterator() {
-    	ArrayList<Tuple> iteratorList = new ArrayList<Tuple>();
-    	for(int x=0; x<tuples.length; x++)
-    	    if(getSlot(x) && tuples[x] != null)
-    	        iteratorList.add(tuples[x]);
+    	// walks the slot bitmap directly, decoding tuples as it reaches them; slots
+    	// filled or emptied behind the iterator's position are seen as they are then
+    	return new Iterator<Tuple>() {
+    		private int slot = 0;
+
+    		public boolean hasNext() {
+    			slot = nextUsedSlot(slot);
+    			return slot < numSlots;
+    		}
 
-    	return iteratorList.iterator();
+    		public Tuple next() {
+    			if(!hasNext())
+    				throw new NoSuchElementException();
+    			return getTuple(slot++);
+    		}
+
+    		public void remove() {
+    			throw new UnsupportedOperationException();
+    		}
+    	};
     }
 
 }
@@ -0,0 +1,158 @@
+package simpledb;
+import java.util.*;
+
+/**
+ * IndexScan is an access method that reads the tuples of a table stored in a
+ * {@link BTreeFile} whose keys satisfy a predicate, in key order. Instead of
+ * reading every page of the table like SeqScan, it descends the tree to the
+ * first matching tuple and stops at the first tuple past the last match.
+ * <p>
+ * An IndexScan can also read the tuples of a heap table with a
+ * {@link HashIndexFile} on its primary key whose key equals a constant; it
+ * then looks the key up in the index and reads just the pages holding the
+ * matches.
+ */
+public class IndexScan implements DbIterator {
+    private TransactionId tid;
+    private String tableAlias;
+    private DbFile tableFile;
+    private HashIndexFile hashIndex; // null if the table is a BTreeFile
+    private Field low;
+    private boolean lowInclusive;
+    private Field high;
+    private boolean highInclusive;
+    private DbFileIterator fileIterator;
+
+    /**
+     * Creates a scan over the tuples of the specified table whose key
+     * satisfies <tt>key op operand</tt>.
+     *
+     * @param tid The transaction this scan is running as a part of.
+     * @param tableid the table to scan, which must be stored in a BTreeFile
+     *   or have a hash index.
+     * @param tableAlias the alias of this table, as for SeqScan.
+     * @param op EQUALS, GREATER_THAN, GREATER_THAN_OR_EQ, LESS_THAN or
+     *   LESS_THAN_OR_EQ; only EQUALS for a hash index
+     * @param operand the value the keys are compared to
+     * @throws IllegalArgumentException if the table has no index or op
+     *   cannot be answered from the index
+     */
+    public IndexScan(TransactionId tid, int tableid, String tableAlias, Predicate.Op op, Field operand) {
+        this(tid, tableid, tableAlias);
+        if (!(tableFile instanceof BTreeFile)) {
+            hashIndex = Database.getCatalog().getHashIndex(tableid);
+            if (hashIndex == null)
+                throw new IllegalArgumentException("table " + tableid + " has no index");
+            if (op != Predicate.Op.EQUALS)
+                throw new IllegalArgumentException("a hash index cannot answer " + op);
+        }
+        switch (op) {
+        case EQUALS:
+            setLow(Predicate.Op.GREATER_THAN_OR_EQ, operand);
+            setHigh(Predicate.Op.LESS_THAN_OR_EQ, operand);
+            break;
+        case GREATER_THAN:
+        case GREATER_THAN_OR_EQ:
+            setLow(op, operand);
+            break;
+        case LESS_THAN:
+        case LESS_THAN_OR_EQ:
+            setHigh(op, operand);
+            break;
+        default:
+            throw new IllegalArgumentException("an index scan cannot answer " + op);
+        }
+    }
+
+    /**
+     * Creates a scan over the tuples of the specified table whose key
+     * satisfies both <tt>key lowOp low</tt> and <tt>key highOp high</tt>.
+     *
+     * @param lowOp GREATER_THAN or GREATER_THAN_OR_EQ
+     * @param highOp LESS_THAN or LESS_THAN_OR_EQ
+     * @throws IllegalArgumentException if the table is not a BTreeFile
+     * @see #IndexScan(TransactionId, int, String, Predicate.Op, Field)
+     */
+    public IndexScan(TransactionId tid, int tableid, String tableAlias,
+            Predicate.Op lowOp, Field low, Predicate.Op highOp, Field high) {
+        this(tid, tableid, tableAlias);
+        if (!(tableFile instanceof BTreeFile))
+            throw new IllegalArgumentException("table " + tableid + " is not a BTreeFile");
+        if (lowOp != Predicate.Op.GREATER_THAN && lowOp != Predicate.Op.GREATER_THAN_OR_EQ)
+            throw new IllegalArgumentException("not a lower bound: " + lowOp);
+        if (highOp != Predicate.Op.LESS_THAN && highOp != Predicate.Op.LESS_THAN_OR_EQ)
+            throw new IllegalArgumentException("not an upper bound: " + highOp);
+        setLow(lowOp, low);
+        setHigh(highOp, high);
+    }
+
+    private IndexScan(TransactionId tid, int tableid, String tableAlias) {
+        this.tid = tid;
+        this.tableAlias = tableAlias;
+        this.tableFile = Database.getCatalog().getDbFile(tableid);
+    }
+
+    private void setLow(Predicate.Op op, Field value) {
+        low = value;
+        lowInclusive = op == Predicate.Op.GREATER_THAN_OR_EQ;
+    }
+
+    private void setHigh(Predicate.Op op, Field value) {
+        high = value;
+        highInclusive = op == Predicate.Op.LESS_THAN_OR_EQ;
+    }
+
+    /** @return the id of the scanned table */
+    public int getTableId() {
+        return tableFile.getId();
+    }
+
+    /**
+     * @return the key field, which the tuples are returned in ascending
+     *   order of; a hash index returns tuples of a single key
+     */
+    public int getOrderField() {
+        return hashIndex != null ? hashIndex.getKeyField() : ((BTreeFile) tableFile).getKeyField();
+    }
+
+    /** @return the alias of the scanned table */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    public void open()
+        throws DbException, TransactionAbortedException {
+        if (hashIndex != null)
+            fileIterator = hashIndex.lookupIterator(tid, low);
+        else
+            fileIterator = ((BTreeFile) tableFile).indexIterator(tid, low, lowInclusive, high, highInclusive);
+        fileIterator.open();
+    }
+
+    /**
+     * Returns the TupleDesc of the scanned table, like SeqScan.
+     */
+    public TupleDesc getTupleDesc() {
+        return tableFile.getTupleDesc();
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        return fileIterator.hasNext();
+    }
+
+    public Tuple next()
+        throws NoSuchElementException, TransactionAbortedException, DbException {
+        if(!this.hasNext())
+            throw new NoSuchElementException();
+        return fileIterator.next();
+    }
+
+    public void close() {
+        fileIterator.close();
+    }
+
+    public void rewind()
+        throws DbException, NoSuchElementException, TransactionAbortedException {
+        fileIterator.rewind();
+    }
+}
@@ -1,18 +1,28 @@
 package simpledb;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
 
 /**
  * Knows how to compute some aggregate over a set of IntFields.
+ * <p>
+ * Each group gets a number, and the aggregate and count of group i are kept
+ * in the arrays aggs[i] and counts[i]. Int group-by values, and the single
+ * group without grouping, are numbered by an {@link IntHashTable}, so that
+ * merging a tuple neither boxes its values nor allocates; other group-by
+ * values are numbered by a HashMap.
  */
 public class IntAggregator implements Aggregator {
     private int gbfield;
     private Type gbfieldtype;
     private int afield;
     private Op what;
-    private HashMap<Field, Integer> groupValToAgg;
-    private HashMap<Field, Integer> groupValToCount;
+    private IntHashTable intGroups; // numbers of int group-by values, or null
+    private HashMap<Field, Integer> groupIds; // numbers of other group-by values, or null
+    private ArrayList<Field> groupVals; // group-by value of each number, if groupIds is used
+    private int[] aggs = new int[16];
+    private int[] counts = new int[16];
 
     /**
      * Aggregate constructor
@@ -27,9 +37,43 @@ public class IntAggregator implements Aggregator {
         this.gbfieldtype = gbfieldtype;
         this.afield = afield;
         this.what = what;
-        this.groupValToAgg = new HashMap<Field, Integer>();
-        if (what == Op.AVG)
-            this.groupValToCount = new HashMap<Field, Integer>();
+        if (gbfield == NO_GROUPING || gbfieldtype == Type.INT_TYPE) {
+            intGroups = new IntHashTable();
+        } else {
+            groupIds = new HashMap<Field, Integer>();
+            groupVals = new ArrayList<Field>();
+        }
+    }
+
+    private int numGroups() {
+        return intGroups != null ? intGroups.size() : groupVals.size();
+    }
+
+    /** @return the number of the group of the specified tuple, setting up the state of a new group */
+    private int group(Tuple tup) {
+        int groups = numGroups();
+        int group;
+        if (intGroups != null) {
+            int key = gbfield != NO_GROUPING ? ((IntField) tup.getField(gbfield)).getValue() : NO_GROUPING;
+            group = intGroups.add(key);
+        } else {
+            Field groupVal = tup.getField(gbfield);
+            Integer id = groupIds.get(groupVal);
+            if (id != null)
+                return id;
+            group = groupVals.size();
+            groupIds.put(groupVal, group);
+            groupVals.add(groupVal);
+        }
+        if (group == groups) {
+            if (group == aggs.length) {
+                aggs = Arrays.copyOf(aggs, aggs.length * 2);
+                counts = Arrays.copyOf(counts, counts.length * 2);
+            }
+            aggs[group] = getInitValueForOp(what);
+            counts[group] = 0;
+        }
+        return group;
     }
 
     private int getInitValueForOp(Op what) {
@@ -55,16 +99,9 @@ public class IntAggregator implements Aggregator {
      * @param tup the Tuple containing an aggregate field and a group-by field
      */
     public void merge(Tuple tup) {
-        Field groupVal = gbfield != NO_GROUPING ? tup.getField(gbfield) : new IntField(NO_GROUPING);
+        int group = group(tup);
         int aggFieldVal = ((IntField) tup.getField(afield)).getValue();
-
-        if (!groupValToAgg.containsKey(groupVal)) {
-            groupValToAgg.put(groupVal, getInitValueForOp(what));
-            if(what == Op.AVG)
-                groupValToCount.put(groupVal, 0);
-        }
-
-        int updatedAggVal = groupValToAgg.get(groupVal);
+        int updatedAggVal = aggs[group];
 
         switch(what) {
             case MIN:
@@ -78,7 +115,6 @@ public class IntAggregator implements Aggregator {
                 break;
             case AVG:
                 updatedAggVal += aggFieldVal;
-                groupValToCount.put(groupVal, groupValToCount.get(groupVal) + 1);
                 break;
             case COUNT:
                 updatedAggVal++;
@@ -88,14 +124,15 @@ public class IntAggregator implements Aggregator {
                 System.exit(1);
         }
 
-        groupValToAgg.put(groupVal, updatedAggVal);
+        aggs[group] = updatedAggVal;
+        counts[group]++;
     }
 
 
     public class IntAggregatorIterator extends AbstractDbIterator {
         private IntAggregator intAgg;
         private TupleDesc td;
-        private Iterator<HashMap.Entry<Field, Integer>> it;
+        private int next; // number of the next group to return
 
         public IntAggregatorIterator(IntAggregator intAgg) {
             this.intAgg = intAgg;
@@ -107,22 +144,22 @@ public class IntAggregator implements Aggregator {
         }
 
         public void open() {
-            it = intAgg.groupValToAgg.entrySet().iterator();
+            next = 0;
         }
 
         public void rewind() {
-            it = intAgg.groupValToAgg.entrySet().iterator();
+            next = 0;
         }
 
         protected Tuple readNext() {
-            if(!it.hasNext())
+            if(intAgg == null || next >= intAgg.numGroups())
                 return null;
 
-            HashMap.Entry<Field, Integer> groupAndAggVal = it.next();
-            Field groupValue = groupAndAggVal.getKey();
-            IntField aggValue = new IntField(groupAndAggVal.getValue());
+            int group = next++;
+            int agg = intAgg.aggs[group];
             if(this.intAgg.what == Op.AVG)
-                aggValue = new IntField(aggValue.getValue() / this.intAgg.groupValToCount.get(groupValue));
+                agg /= intAgg.counts[group];
+            IntField aggValue = new IntField(agg);
 
             Tuple nextTuple = new Tuple(this.td);
 
@@ -130,6 +167,8 @@ public class IntAggregator implements Aggregator {
                 nextTuple.setField(0, aggValue);
                 return nextTuple;
             } else {
+                Field groupValue = intAgg.intGroups != null
+                        ? new IntField(intAgg.intGroups.keyAt(group)) : intAgg.groupVals.get(group);
                 nextTuple.setField(0, groupValue);
                 nextTuple.setField(1, aggValue);
                 return nextTuple;
@@ -37,6 +37,10 @@ public class IntField implements Field {
         dos.writeInt(value);
     }
 
+    public void serialize(byte[] data, int offset) {
+        Type.writeInt(data, offset, value);
+    }
+
     /**
      * Compare the specified field to the value of this Field.
      * Return semantics are as specified by Field.compare
@@ -0,0 +1,117 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * IntHashTable numbers distinct int keys 0, 1, 2, ... in the order they are
+ * added, so that operators can keep the state of each key in arrays indexed
+ * by its number instead of in a HashMap of boxed Fields and values. The
+ * keys are kept in an open-addressing table with linear probing, which
+ * stores each key next to its number, so that a lookup reads one or two
+ * adjacent array entries and allocates nothing.
+ */
+public class IntHashTable {
+    private static final int EMPTY = -1;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int[] slotIds;   // number of the key in each slot, or EMPTY
+    private int[] slotKeys;  // key in each slot
+    private int[] keys;      // key of each number
+    private int size;
+    private int mask;
+
+    /** Creates an empty table. */
+    public IntHashTable() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /** Creates an empty table that holds the specified number of keys without growing. */
+    public IntHashTable(int expectedKeys) {
+        int slots = INITIAL_CAPACITY;
+        while (slots < 2 * expectedKeys)
+            slots *= 2;
+        allocate(slots);
+        keys = new int[Math.max(expectedKeys, INITIAL_CAPACITY)];
+    }
+
+    private void allocate(int slots) {
+        slotIds = new int[slots];
+        slotKeys = new int[slots];
+        Arrays.fill(slotIds, EMPTY);
+        mask = slots - 1;
+    }
+
+    private static int slot(int key, int mask) {
+        int h = key * 0x9e3779b9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /** @return the number of distinct keys added */
+    public int size() {
+        return size;
+    }
+
+    /** @return the key with the specified number */
+    public int keyAt(int id) {
+        if (id < 0 || id >= size)
+            throw new IndexOutOfBoundsException("no key number " + id);
+        return keys[id];
+    }
+
+    /** @return the number of the specified key, or -1 if it has not been added */
+    public int find(int key) {
+        int i = slot(key, mask);
+        int id;
+        while ((id = slotIds[i]) != EMPTY) {
+            if (slotKeys[i] == key)
+                return id;
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the number of the specified key, adding it if it is new; a new
+     *   key gets the number size() had before the call
+     */
+    public int add(int key) {
+        int i = slot(key, mask);
+        int id;
+        while ((id = slotIds[i]) != EMPTY) {
+            if (slotKeys[i] == key)
+                return id;
+            i = (i + 1) & mask;
+        }
+        id = size++;
+        if (id == keys.length)
+            keys = Arrays.copyOf(keys, keys.length * 2);
+        keys[id] = key;
+        slotIds[i] = id;
+        slotKeys[i] = key;
+        // keep the table at most half full, so that probe sequences stay short
+        if (2 * size > slotIds.length)
+            grow();
+        return id;
+    }
+
+    private void grow() {
+        int[] oldIds = slotIds;
+        int[] oldKeys = slotKeys;
+        allocate(oldIds.length * 2);
+        for (int j = 0; j < oldIds.length; j++) {
+            if (oldIds[j] == EMPTY)
+                continue;
+            int i = slot(oldKeys[j], mask);
+            while (slotIds[i] != EMPTY)
+                i = (i + 1) & mask;
+            slotIds[i] = oldIds[j];
+            slotKeys[i] = oldKeys[j];
+        }
+    }
+
+    /** Removes all keys; the table keeps its capacity. */
+    public void clear() {
+        Arrays.fill(slotIds, EMPTY);
+        size = 0;
+    }
+}
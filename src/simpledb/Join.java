@@ -1,17 +1,92 @@
 package simpledb;
+import java.io.IOException;
 import java.util.*;
 import java.util.Queue;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * Equality joins build a hash table of the inner relation, unless the inner
+ * relation is a plain scan of a table with a {@link HashIndexFile} on the
+ * join field and the outer relation is small: each outer tuple then looks
+ * its matches up in the index, reading about two pages, which is cheaper
+ * than reading every page of the inner table to build the hash table. The
+ * join reads up to half as many outer tuples as the inner table has pages
+ * to find out which case it is in.
+ * <p>
+ * The hash table of an equality join on int fields is an
+ * {@link IntHashTable} of the keys, with the inner tuples of each key chained
+ * through int arrays, so that building and probing it does not allocate per
+ * tuple; joins on other fields use a HashMap of Fields to lists of tuples.
+ * <p>
+ * The hash table of the inner relation is limited to a memory budget,
+ * {@link #DEFAULT_MEMORY_BUDGET} unless {@link #setMemoryBudget} says
+ * otherwise. When the inner relation outgrows it, the join becomes a Grace
+ * hash join: both relations are split on a hash of their join fields into
+ * {@link #FANOUT} pairs of {@link SpillFile}s, and each pair is joined on
+ * its own. A pair whose inner side is still too large is split again on
+ * the next bits of the hash; a pair that stops getting smaller, because it
+ * holds one key many times, is joined a budget-sized chunk of its inner
+ * side at a time, reading its outer side once per chunk.
+ * <p>
+ * Joins on other predicates are block nested-loop joins: they read a block
+ * of outer tuples that fits in the same memory budget and scan the inner
+ * relation once per block, rather than once per outer tuple.
  */
 public class Join extends AbstractDbIterator {
+    /** Default estimated size in bytes of the inner relation's hash table or the outer block, see {@link #setMemoryBudget} */
+    public static final long DEFAULT_MEMORY_BUDGET = 16L << 20;
+    /** Number of partitions a spilled relation is split into per pass */
+    public static final int FANOUT = 16;
+    private static final int FANOUT_BITS = 4;
+    // each pass splits on the next FANOUT_BITS bits of the hash
+    private static final int MAX_LEVEL = 32 / FANOUT_BITS - 1;
+
     private JoinPredicate jp;
     private DbIterator child1;
     private DbIterator child2;
-    private Tuple currOuterTuple; // used only by brute-force join
-    HashMap<Field, ArrayList<Tuple>> fieldTwoToTuples; // used only by equality join
-    Queue<Tuple> tupleQueue; // used only by equality join
+    private ArrayList<Tuple> outerBlock; // used only by block nested-loop join
+    HashMap<Field, ArrayList<Tuple>> fieldTwoToTuples; // used only by equality join on other than int fields
+    // used only by equality join on int fields: the inner tuples, and for each key number of intKeys the
+    // indexes in innerTuples of its first and last tuple, each of which has the index of the next in nextInner
+    private IntHashTable intKeys;
+    private int[] firstInner;
+    private int[] lastInner;
+    private int[] nextInner;
+    private Tuple[] innerTuples;
+    private int numInner;
+    Queue<Tuple> tupleQueue;
+    private TupleDesc combinedTd; // schema of the returned tuples, see getTupleDesc
+    private HashIndexFile innerIndex; // index on the join field of the table child2 scans, or null
+    private TransactionId innerTid;
+    private boolean indexJoin; // true if each outer tuple is looked up in innerIndex
+    private Iterator<Tuple> outerPrefix; // outer tuples read while choosing between the equality joins
+    private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+    private long buildBytes; // estimated size of the hash table of inner tuples
+    private ArrayList<Partition> spilled; // partitions of a Grace hash join, or null if the inner relation fit
+    private ArrayList<Partition> subPartitions; // partitions split off spilled partitions
+    private LinkedList<Partition> pending; // partitions still to be joined
+    private DbFileIterator outerPartition; // outer side of the partition being joined
+    private DbFileIterator innerPartition; // inner side of the partition being joined, past the loaded chunk
+
+    /** One pair of spill files of a Grace hash join, holding the tuples of both relations with the same hash bits. */
+    private static class Partition {
+        final SpillFile outer;
+        final SpillFile inner;
+        final int level; // the partition holds the keys whose hash agrees in the low (level + 1) * FANOUT_BITS bits
+        boolean splittable = true;
+
+        Partition(TupleDesc outerTd, TupleDesc innerTd, int level) {
+            outer = new SpillFile(outerTd);
+            inner = new SpillFile(innerTd);
+            this.level = level;
+        }
+
+        void delete() {
+            outer.delete();
+            inner.delete();
+        }
+    }
 
     /**
      * Constructor.  Accepts to children to join and the predicate
@@ -25,10 +100,28 @@ public class Join extends AbstractDbIterator {
         this.jp = p;
         this.child1 = child1;
         this.child2 = child2;
+        tupleQueue = new ArrayDeque<Tuple>();
 
         if(p.getOp() == Predicate.Op.EQUALS) {
-            fieldTwoToTuples = new HashMap<Field, ArrayList<Tuple>>();
-            tupleQueue = new LinkedList<Tuple>();
+            if(child1.getTupleDesc().getType(p.getFieldOne()) == Type.INT_TYPE
+                    && child2.getTupleDesc().getType(p.getFieldTwo()) == Type.INT_TYPE) {
+                intKeys = new IntHashTable();
+                firstInner = new int[16];
+                lastInner = new int[16];
+                nextInner = new int[16];
+                innerTuples = new Tuple[16];
+            } else {
+                fieldTwoToTuples = new HashMap<Field, ArrayList<Tuple>>();
+            }
+            if(child2 instanceof SeqScan) {
+                SeqScan scan = (SeqScan) child2;
+                HashIndexFile index = Database.getCatalog().getHashIndex(scan.getTableId());
+                if(index != null && index.getKeyField() == p.getFieldTwo()
+                        && child1.getTupleDesc().getType(p.getFieldOne()) == index.getKeyType()) {
+                    innerIndex = index;
+                    innerTid = scan.getTransactionId();
+                }
+            }
         }
     }
 
@@ -39,87 +132,399 @@ public class Join extends AbstractDbIterator {
         return TupleDesc.combine(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
+    /**
+     * Sets the estimated size in bytes the hash table of the inner relation
+     * of an equality join may take before the join spills both relations to
+     * disk, and the size of the blocks of outer tuples a join on another
+     * predicate reads. Takes effect on the next call to open.
+     */
+    public void setMemoryBudget(long bytes) {
+        if(bytes <= 0)
+            throw new IllegalArgumentException("memory budget must be positive: " + bytes);
+        memoryBudget = bytes;
+    }
+
+    /** @return true if the last call to open spilled the relations to disk */
+    boolean hasSpilled() {
+        return spilled != null;
+    }
+
+    /** @return a rough estimate of the heap bytes a tuple of the specified schema takes when kept in memory */
+    static long tupleBytes(TupleDesc td) {
+        return 48 + td.getSize() + 24L * td.numFields();
+    }
+
     public void open()
         throws DbException, NoSuchElementException, TransactionAbortedException {
+        deleteSpillFiles();
+        tupleQueue.clear();
+        combinedTd = getTupleDesc();
         child1.open();
+        indexJoin = false;
+        outerPrefix = null;
+        if(innerIndex != null) {
+            // probing the index reads about two pages per outer tuple, building the hash table every inner page
+            int limit = innerIndex.getTable().numPages() / 2;
+            ArrayList<Tuple> prefix = new ArrayList<Tuple>();
+            while(prefix.size() <= limit && child1.hasNext())
+                prefix.add(child1.next());
+            indexJoin = prefix.size() <= limit;
+            outerPrefix = prefix.iterator();
+        }
+        if(indexJoin)
+            return;
         child2.open();
 
         // for equality joins, set up hash table to do hash-joins
         if(jp.getOp() == Predicate.Op.EQUALS) {
-            int fieldTwoIndex = jp.getFieldTwo();
+            clearInner();
+            long bytesPerTuple = tupleBytes(child2.getTupleDesc());
             while(child2.hasNext()) {
-                Tuple t = child2.next();
-                Field fieldTwo = t.getField(fieldTwoIndex);
-                if(!fieldTwoToTuples.containsKey(fieldTwo))
-                    fieldTwoToTuples.put(fieldTwo, new ArrayList<Tuple>());
-                fieldTwoToTuples.get(fieldTwo).add(t);
+                if(buildBytes >= memoryBudget) {
+                    partition();
+                    break;
+                }
+                addInner(child2.next(), bytesPerTuple);
             }
         } else {
-            if(child1.hasNext())
-                currOuterTuple = child1.next();
+            outerBlock = new ArrayList<Tuple>();
+            loadOuterBlock();
+        }
+    }
+
+    private void clearInner() {
+        if(intKeys != null) {
+            intKeys.clear();
+            Arrays.fill(innerTuples, 0, numInner, null);
+            numInner = 0;
+        } else if(fieldTwoToTuples != null) {
+            fieldTwoToTuples.clear();
+        }
+        buildBytes = 0;
+    }
+
+    private void addInner(Tuple t, long bytesPerTuple) {
+        buildBytes += bytesPerTuple;
+        if(intKeys != null) {
+            int keys = intKeys.size();
+            int key = intKeys.add(((IntField) t.getField(jp.getFieldTwo())).getValue());
+            if(numInner == innerTuples.length) {
+                innerTuples = Arrays.copyOf(innerTuples, numInner * 2);
+                nextInner = Arrays.copyOf(nextInner, numInner * 2);
+            }
+            innerTuples[numInner] = t;
+            nextInner[numInner] = -1;
+            if(key == keys) {
+                if(key == firstInner.length) {
+                    firstInner = Arrays.copyOf(firstInner, key * 2);
+                    lastInner = Arrays.copyOf(lastInner, key * 2);
+                }
+                firstInner[key] = numInner;
+            } else {
+                nextInner[lastInner[key]] = numInner;
+            }
+            lastInner[key] = numInner++;
+            return;
+        }
+        Field fieldTwo = t.getField(jp.getFieldTwo());
+        ArrayList<Tuple> tuples = fieldTwoToTuples.get(fieldTwo);
+        if(tuples == null) {
+            tuples = new ArrayList<Tuple>();
+            fieldTwoToTuples.put(fieldTwo, tuples);
         }
+        tuples.add(t);
+    }
+
+    /** @return the partition of the specified key at the specified level */
+    private static int partitionOf(Field key, int level) {
+        return (HashIndexFile.hash(key) >>> (level * FANOUT_BITS)) & (FANOUT - 1);
+    }
+
+    /**
+     * Starts a Grace hash join once the inner relation is found not to fit
+     * in the memory budget: moves the hash table and the rest of the inner
+     * relation, and then the outer relation, to the spill files of FANOUT
+     * partitions.
+     */
+    private void partition() throws DbException, TransactionAbortedException {
+        spilled = new ArrayList<Partition>();
+        subPartitions = new ArrayList<Partition>();
+        try {
+            for(int i = 0; i < FANOUT; i++)
+                spilled.add(new Partition(child1.getTupleDesc(), child2.getTupleDesc(), 0));
+            if(intKeys != null) {
+                for(int i = 0; i < numInner; i++)
+                    spilled.get(partitionOf(innerTuples[i].getField(jp.getFieldTwo()), 0)).inner.add(innerTuples[i]);
+            } else {
+                for(Map.Entry<Field, ArrayList<Tuple>> e : fieldTwoToTuples.entrySet()) {
+                    SpillFile inner = spilled.get(partitionOf(e.getKey(), 0)).inner;
+                    for(Tuple t : e.getValue())
+                        inner.add(t);
+                }
+            }
+            clearInner();
+            while(child2.hasNext()) {
+                Tuple t = child2.next();
+                spilled.get(partitionOf(t.getField(jp.getFieldTwo()), 0)).inner.add(t);
+            }
+            Tuple t;
+            while((t = nextOuter()) != null)
+                spilled.get(partitionOf(t.getField(jp.getFieldOne()), 0)).outer.add(t);
+            for(Partition p : spilled) {
+                p.inner.finish();
+                p.outer.finish();
+            }
+        } catch(IOException e) {
+            deleteSpillFiles();
+            throw new DbException("could not spill join input: " + e.getMessage());
+        }
+        pending = new LinkedList<Partition>(spilled);
+    }
+
+    /**
+     * Splits a partition whose inner side does not fit in the memory budget
+     * on the next bits of the hash, and queues the new partitions to be
+     * joined next.
+     */
+    private void split(Partition p) throws DbException, TransactionAbortedException {
+        ArrayList<Partition> parts = new ArrayList<Partition>();
+        try {
+            for(int i = 0; i < FANOUT; i++) {
+                Partition part = new Partition(p.outer.getTupleDesc(), p.inner.getTupleDesc(), p.level + 1);
+                parts.add(part);
+                subPartitions.add(part);
+            }
+            copyTo(p.inner.iterator(), jp.getFieldTwo(), parts, p.level + 1, false);
+            copyTo(p.outer.iterator(), jp.getFieldOne(), parts, p.level + 1, true);
+        } catch(IOException e) {
+            deleteSpillFiles();
+            throw new DbException("could not spill join input: " + e.getMessage());
+        }
+        if(p.level > 0)
+            p.delete();
+        for(int i = parts.size() - 1; i >= 0; i--) {
+            Partition part = parts.get(i);
+            // a partition that kept all its tuples holds a single key, splitting it again would not help
+            part.splittable = part.inner.numTuples() < p.inner.numTuples();
+            pending.addFirst(part);
+        }
+    }
+
+    private void copyTo(DbFileIterator it, int field, ArrayList<Partition> parts, int level, boolean outer)
+            throws DbException, TransactionAbortedException, IOException {
+        it.open();
+        while(it.hasNext()) {
+            Tuple t = it.next();
+            Partition part = parts.get(partitionOf(t.getField(field), level));
+            (outer ? part.outer : part.inner).add(t);
+        }
+        it.close();
+        for(Partition part : parts)
+            (outer ? part.outer : part.inner).finish();
+    }
+
+    /**
+     * Starts joining the next partition that fits in the memory budget,
+     * splitting those that do not.
+     * @return false if there are no more partitions
+     */
+    private boolean nextPartition() throws DbException, TransactionAbortedException {
+        closePartition();
+        Partition p;
+        while((p = pending.poll()) != null) {
+            if(p.inner.numTuples() == 0 || p.outer.numTuples() == 0)
+                continue;
+            if(p.splittable && p.level < MAX_LEVEL
+                    && p.inner.numTuples() * tupleBytes(p.inner.getTupleDesc()) > memoryBudget) {
+                split(p);
+                continue;
+            }
+            innerPartition = p.inner.iterator();
+            innerPartition.open();
+            loadChunk();
+            outerPartition = p.outer.iterator();
+            outerPartition.open();
+            return true;
+        }
+        return false;
+    }
+
+    /** Fills the hash table with the next tuples of the inner side of the current partition, up to the budget. */
+    private void loadChunk() throws DbException, TransactionAbortedException {
+        clearInner();
+        long bytesPerTuple = tupleBytes(child2.getTupleDesc());
+        while(innerPartition.hasNext() && buildBytes < memoryBudget)
+            addInner(innerPartition.next(), bytesPerTuple);
+    }
+
+    private void closePartition() {
+        if(innerPartition != null)
+            innerPartition.close();
+        if(outerPartition != null)
+            outerPartition.close();
+        innerPartition = null;
+        outerPartition = null;
+    }
+
+    /** Deletes the partitions split off the spilled partitions, which are needed again only after a rewind. */
+    private void deleteSubPartitions() {
+        closePartition();
+        if(subPartitions == null)
+            return;
+        for(Partition p : subPartitions)
+            p.delete();
+        subPartitions.clear();
+    }
+
+    private void deleteSpillFiles() {
+        deleteSubPartitions();
+        if(spilled != null) {
+            for(Partition p : spilled)
+                p.delete();
+        }
+        spilled = null;
+        subPartitions = null;
+        pending = null;
     }
 
     public void close() {
-        currOuterTuple = null;
+        outerBlock = null;
+        outerPrefix = null;
+        deleteSpillFiles();
+        clearInner();
         child1.close();
-        child2.close();
+        if(!indexJoin)
+            child2.close();
         super.close();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        currOuterTuple = null;
+        outerPrefix = null;
+        tupleQueue.clear();
+        if(spilled != null) {
+            // both relations are in the spill files already
+            deleteSubPartitions();
+            clearInner();
+            pending = new LinkedList<Partition>(spilled);
+            return;
+        }
         child1.rewind();
-        child2.rewind();
-        if(jp.getOp() != Predicate.Op.EQUALS && child1.hasNext())
-            currOuterTuple = child1.next();
+        if(!indexJoin)
+            child2.rewind();
+        if(outerBlock != null)
+            loadOuterBlock();
     }
 
+    /** Replaces the block of outer tuples with the next ones that fit in the memory budget. */
+    private void loadOuterBlock() throws DbException, TransactionAbortedException {
+        outerBlock.clear();
+        long bytesPerTuple = tupleBytes(child1.getTupleDesc());
+        for(long bytes = 0; bytes < memoryBudget && child1.hasNext(); bytes += bytesPerTuple)
+            outerBlock.add(child1.next());
+    }
 
-    private Tuple readNextBruteForce() throws TransactionAbortedException, DbException {
-        while(currOuterTuple != null) {
+    private Tuple readNextBlockNestedLoop() throws TransactionAbortedException, DbException {
+        while(!outerBlock.isEmpty()) {
+            if(!tupleQueue.isEmpty())
+                return tupleQueue.poll();
             while(child2.hasNext()) {
                 Tuple rightTuple = child2.next();
-                if(jp.filter(currOuterTuple, rightTuple))
-                    return Tuple.combine(currOuterTuple, rightTuple);
+                for(Tuple leftTuple : outerBlock) {
+                    if(jp.filter(leftTuple, rightTuple))
+                        tupleQueue.add(Tuple.combine(combinedTd, leftTuple, rightTuple));
+                }
+                if(!tupleQueue.isEmpty())
+                    return tupleQueue.poll();
             }
-            if(!child1.hasNext())
-                return null;
-            currOuterTuple = child1.next();
-            child2.rewind();
+            loadOuterBlock();
+            if(!outerBlock.isEmpty())
+                child2.rewind();
+        }
+        return tupleQueue.poll();
+    }
+
+    /** @return the next outer tuple, from the tuples read by open() first, or null if there are no more */
+    private Tuple nextOuter() throws TransactionAbortedException, DbException {
+        if(outerPrefix != null && outerPrefix.hasNext())
+            return outerPrefix.next();
+        return child1.hasNext() ? child1.next() : null;
+    }
+
+    private Tuple readNextIndexJoin() throws TransactionAbortedException, DbException {
+        if(!tupleQueue.isEmpty())
+            return tupleQueue.poll();
+
+        Tuple outer;
+        while((outer = nextOuter()) != null) {
+            DbFileIterator matches = innerIndex.lookupIterator(innerTid, outer.getField(jp.getFieldOne()));
+            matches.open();
+            while(matches.hasNext()) {
+                Tuple inner = matches.next();
+                if(jp.filter(outer, inner))
+                    tupleQueue.add(Tuple.combine(combinedTd, outer, inner));
+            }
+            matches.close();
+            if(!tupleQueue.isEmpty())
+                return tupleQueue.poll();
         }
         return null;
     }
 
+    /** Adds the joins of the specified outer tuple with its matches in the hash table to the queue. */
+    private void probe(Tuple childOneTuple) {
+        if(intKeys != null) {
+            int key = intKeys.find(((IntField) childOneTuple.getField(jp.getFieldOne())).getValue());
+            if(key < 0)
+                return;
+            for(int i = firstInner[key]; i >= 0; i = nextInner[i])
+                tupleQueue.add(Tuple.combine(combinedTd, childOneTuple, innerTuples[i]));
+            return;
+        }
+        ArrayList<Tuple> childTwoTuples = fieldTwoToTuples.get(childOneTuple.getField(jp.getFieldOne()));
+        if(childTwoTuples == null)
+            return;
+        for(Tuple childTwoTuple : childTwoTuples) {
+            if(jp.filter(childOneTuple, childTwoTuple))
+                tupleQueue.add(Tuple.combine(combinedTd, childOneTuple, childTwoTuple));
+        }
+    }
+
     private Tuple readNextHashJoin() throws TransactionAbortedException, DbException {
        if(!tupleQueue.isEmpty())
            return tupleQueue.poll();
 
        // keep looking until you find a scenario where field1 == field2
-       int fieldOneIndex = jp.getFieldOne();
-       while(child1.hasNext()) {
-           Tuple childOneTuple = child1.next();
-           Field fieldOne = childOneTuple.getField(fieldOneIndex);
-           if(!fieldTwoToTuples.containsKey(fieldOne))
-               continue;
-
-           // add all matches that pass filter into the queue and then return first one if possible
-           ArrayList<Tuple> childTwoTuples = fieldTwoToTuples.get(fieldOne);
-           for(Tuple childTwoTuple : childTwoTuples) {
-               if(jp.filter(childOneTuple, childTwoTuple))
-                   tupleQueue.add(Tuple.combine(childOneTuple, childTwoTuple));
-           }
-
+       Tuple childOneTuple;
+       while((childOneTuple = nextOuter()) != null) {
+           probe(childOneTuple);
            if(!tupleQueue.isEmpty())
                return tupleQueue.poll();
        }
-
-       if(!tupleQueue.isEmpty())
-           return tupleQueue.poll();
-
        return null;
     }
 
+    private Tuple readNextGraceJoin() throws TransactionAbortedException, DbException {
+        while(true) {
+            if(!tupleQueue.isEmpty())
+                return tupleQueue.poll();
+            if(outerPartition != null) {
+                while(outerPartition.hasNext()) {
+                    probe(outerPartition.next());
+                    if(!tupleQueue.isEmpty())
+                        return tupleQueue.poll();
+                }
+                if(innerPartition.hasNext()) {
+                    // the inner side did not fit: join the next chunk of it with the whole outer side
+                    loadChunk();
+                    outerPartition.rewind();
+                    continue;
+                }
+            }
+            if(!nextPartition())
+                return null;
+        }
+    }
+
     /**
      * Returns the next tuple generated by the join, or null if there are no more tuples.
      * Logically, this is the next tuple in r1 cross r2 that satisfies the join
@@ -140,9 +545,13 @@ public class Join extends AbstractDbIterator {
      * @see JoinPredicate#filter
      */
     protected Tuple readNext() throws TransactionAbortedException, DbException {
-        if(jp.getOp() == Predicate.Op.EQUALS)
+        if(indexJoin)
+            return readNextIndexJoin();
+        else if(spilled != null)
+            return readNextGraceJoin();
+        else if(jp.getOp() == Predicate.Op.EQUALS)
             return readNextHashJoin();
         else
-            return readNextBruteForce();
+            return readNextBlockNestedLoop();
     }
 }
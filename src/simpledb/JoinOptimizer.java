@@ -10,6 +10,16 @@ import javax.swing.tree.*;
  *    join for a given logical plan.
 */
 public class JoinOptimizer {
+    /**
+     * Number of outer tuples a block nested-loop join is costed as holding
+     * per block: the default join memory budget over the estimated size of
+     * a tuple of about ten int fields, since the width of the outer tuples
+     * is not known here.
+     */
+    static final int BLOCK_TUPLES = (int) (Join.DEFAULT_MEMORY_BUDGET / Join.tupleBytes(Utility.getTupleDesc(10)));
+    /** Number of tuples of about ten int fields an OrderBy sorts in memory, see BLOCK_TUPLES */
+    static final int SORT_TUPLES = (int) (OrderBy.DEFAULT_MEMORY_BUDGET / Join.tupleBytes(Utility.getTupleDesc(10)));
+
     LogicalPlan p;
     Vector<LogicalJoinNode> joins;
 
@@ -56,12 +66,59 @@ public class JoinOptimizer {
         }
         
         JoinPredicate p = new JoinPredicate(t1id,lj.p,t2id);
-       
-        j = new Join(p,plan1,plan2);
+
+        if (useSortMerge(lj.p, plan1, t1id, plan2, t2id, stats))
+            j = new SortMergeJoin(p, plan1, plan2);
+        else
+            j = new Join(p,plan1,plan2);
         
         return j;
 
     }
+
+    /**
+     * A sort-merge join is used when both inputs are already sorted on
+     * their join fields, or for a join on an inequality whose inputs are
+     * both known to be larger than a block of a block nested-loop join,
+     * which would then scan the inner input many times.
+     */
+    private boolean useSortMerge(Predicate.Op op, DbIterator plan1, int t1id, DbIterator plan2, int t2id,
+            HashMap<String, TableStats> stats) {
+        if (op != Predicate.Op.EQUALS && !isInequality(op))
+            return false;
+        if (SortMergeJoin.isSortedOn(plan1, t1id) && SortMergeJoin.isSortedOn(plan2, t2id))
+            return true;
+        return isSortMergeInequality(op, estimatePlanCardinality(plan1, stats), estimatePlanCardinality(plan2, stats));
+    }
+
+    private static boolean isInequality(Predicate.Op op) {
+        return op == Predicate.Op.GREATER_THAN || op == Predicate.Op.GREATER_THAN_OR_EQ
+                || op == Predicate.Op.LESS_THAN || op == Predicate.Op.LESS_THAN_OR_EQ;
+    }
+
+    /** @return true if a join on op of inputs of the specified cardinalities, -1 if unknown, is a sort-merge join on an inequality */
+    private static boolean isSortMergeInequality(Predicate.Op op, int card1, int card2) {
+        return isInequality(op) && card1 > BLOCK_TUPLES && card2 > BLOCK_TUPLES;
+    }
+
+    /**
+     * @return an upper bound on the number of tuples a scan of a table, or a
+     *   filter of one, returns, from the statistics of the table; -1 for other
+     *   plans or if there are no statistics
+     */
+    private static int estimatePlanCardinality(DbIterator plan, HashMap<String, TableStats> stats) {
+        while (plan instanceof Filter)
+            plan = ((Filter) plan).getChild();
+        int tableId;
+        if (plan instanceof SeqScan)
+            tableId = ((SeqScan) plan).getTableId();
+        else if (plan instanceof IndexScan)
+            tableId = ((IndexScan) plan).getTableId();
+        else
+            return -1;
+        TableStats s = stats == null ? null : stats.get(Database.getCatalog().getTableName(tableId));
+        return s == null ? -1 : s.estimateTableCardinality(1.0);
+    }
     
     /**
      * Estimate the cost of a join.
@@ -82,10 +139,36 @@ public class JoinOptimizer {
      * @return An estimate of the cost of this query, in terms of cost1 and cost2
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2, double scanCost1, double scanCost2) {
+        return estimateJoinCost(j, card1, card2, scanCost1, scanCost2, false);
+    }
+
+    /**
+     * Estimate the cost of a join, as {@link #estimateJoinCost(LogicalJoinNode, int, int, double, double)}.
+     *
+     * @param sorted true if both sides are already sorted on their join
+     *   fields, so that instantiateJoin merges them without sorting them
+     */
+    public double estimateJoinCost(LogicalJoinNode j, int card1, int card2, double scanCost1, double scanCost2,
+            boolean sorted) {
         if (j instanceof LogicalSubplanJoinNode) {
         	// A LogicalSubplanJoinNode represents a subquery.
         	// You do not need to implement proper support for these for Lab 4.
         	return card1 + scanCost1 + scanCost2;
+        } else if (sorted && (j.p == Predicate.Op.EQUALS || isInequality(j.p))) {
+            // sort-merge of sorted relations: each is read once, and about as many pairs are compared as are returned
+            return scanCost1 + scanCost2 // IO cost
+                    + estimateJoinCardinality(j, card1, card2, false, false); // merging
+        } else if (isSortMergeInequality(j.p, card1, card2)) {
+            // sort-merge: both relations are sorted, then each is read once while the matching prefix of one is
+            // kept, and about as many pairs are compared, and prefix tuples reread, as are returned
+            return scanCost1 + scanCost2 // IO cost
+                    + sortCost(card1, scanCost1) + sortCost(card2, scanCost2) // sorting
+                    + estimateJoinCardinality(j, card1, card2, false, false); // merging
+        } else if (j.p != Predicate.Op.EQUALS) {
+            // block nested loops: the inner relation is scanned once per block of outer tuples
+            double blocks = Math.ceil(card1 / (double) BLOCK_TUPLES);
+            return scanCost1 + Math.max(1, blocks) * scanCost2 // IO cost
+                    + (double) card1 * card2; // CPU cost
         } else {
             //TODO: consider hashjoin cost as well
             return scanCost1 + card1 * scanCost2 // IO cost
@@ -93,6 +176,22 @@ public class JoinOptimizer {
         }
     }
 
+    /**
+     * @return the cost of sorting a relation with an OrderBy: comparisons,
+     *   and for a relation that does not fit in memory, writing and reading
+     *   it once per pass over its sorted runs
+     */
+    private static double sortCost(int card, double scanCost) {
+        double cost = card * log2(card);
+        for (double runs = Math.ceil(card / (double) SORT_TUPLES); runs > 1; runs = Math.ceil(runs / OrderBy.MERGE_FANIN))
+            cost += 2 * scanCost;
+        return cost;
+    }
+
+    private static double log2(int n) {
+        return n <= 1 ? 0 : Math.log(n) / Math.log(2);
+    }
+
     /**
      * Estimate the cardinality of a join.  The cardinality of a join
      * is the number of tuples produced by the join.
@@ -272,6 +371,7 @@ public class JoinOptimizer {
         double t1cost,t2cost;
         int t1card,t2card;
         boolean leftPkey, rightPkey;
+        boolean sorted; // both sides sorted on their join fields
 
         if (news.isEmpty()) { //base case -- both are base relations
             prevBest = new Vector<LogicalJoinNode>();
@@ -282,6 +382,7 @@ public class JoinOptimizer {
             t2cost = j.t2==null?0:stats.get(j.t2).estimateScanCost();
             t2card = j.t2==null?0:stats.get(j.t2).estimateTableCardinality(filterSelectivities.get(j.t2));
             rightPkey = j.t2==null?false:isPkey(j.t2,j.f2);
+            sorted = j.t2 != null && isSortedTable(j.t1, j.f1) && isSortedTable(j.t2, j.f2);
         } else {
             //news is not empty -- figure best way to join j to news
             prevBest = pc.getOrder(news);
@@ -304,10 +405,12 @@ public class JoinOptimizer {
                 t2cost = j.t2 == null?0:stats.get(j.t2).estimateScanCost();
                 t2card = j.t2 == null?0:stats.get(j.t2).estimateTableCardinality(filterSelectivities.get(j.t2));
                 rightPkey = j.t2 == null?false:isPkey(j.t2,j.f2);
+                sorted = j.t2 != null && isSortedOn(prevBest, prevBest.size(), j.t1, j.f1) && isSortedTable(j.t2, j.f2);
             } else if (doesJoin(prevBest, j.t2)) { //j.t2 is in prevbest (both shouldn't be)
                 t2cost = stats.get(j.t1).estimateScanCost();
                 t2card = stats.get(j.t1).estimateTableCardinality(filterSelectivities.get(j.t1));
                 rightPkey = isPkey(j.t1,j.f1);
+                sorted = isSortedOn(prevBest, prevBest.size(), j.t2, j.f2) && isSortedTable(j.t1, j.f1);
 
             } else {
                 //don't consider this plan if one of j.t1 or j.t2
@@ -317,10 +420,10 @@ public class JoinOptimizer {
         }
                     
         //case where prevbest is left
-        double cost1 = estimateJoinCost(j,t1card,t2card, t1cost,t2cost);
+        double cost1 = estimateJoinCost(j,t1card,t2card, t1cost,t2cost, sorted);
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2,t2card,t1card, t2cost,t1cost);
+        double cost2 = estimateJoinCost(j2,t2card,t1card, t2cost,t1cost, sorted);
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
@@ -341,7 +444,7 @@ public class JoinOptimizer {
     } 
 
     /** Return true if the specified table is in the list of joins, false otherwise */
-    private boolean doesJoin(Vector<LogicalJoinNode> joinlist, String table) {
+    private boolean doesJoin(List<LogicalJoinNode> joinlist, String table) {
         for (LogicalJoinNode j : joinlist) {
             if (j.t1.equals(table) || (j.t2!=null && j.t2.equals(table)))
                 return true;
@@ -357,6 +460,50 @@ public class JoinOptimizer {
         return (pkey1.equals(field) || (table + "." + pkey1).equals(field));
     }
 
+    /**
+     * Return true if every scan of the specified table returns its tuples in
+     * ascending order of field, which holds for the key of a BTreeFile
+     */
+    private boolean isSortedTable(String table, String field) {
+        DbFile file = Database.getCatalog().getDbFile(p.getTableId(table));
+        if (!(file instanceof BTreeFile))
+            return false;
+        return file.getTupleDesc().getFieldName(((BTreeFile) file).getKeyField()).equals(fieldName(table, field));
+    }
+
+    /**
+     * Return true if the first n joins of joinlist return their tuples in
+     * ascending order of the specified field, as SortMergeJoin.isSortedOn
+     * finds for the joins instantiateJoin builds for them: a join is a
+     * SortMergeJoin when both sides are sorted on their join fields, and
+     * returns its tuples in the order described there.
+     */
+    boolean isSortedOn(Vector<LogicalJoinNode> joinlist, int n, String table, String field) {
+        LogicalJoinNode lj = joinlist.get(n - 1);
+        if (lj.t2 == null || (lj.p != Predicate.Op.EQUALS && !isInequality(lj.p)))
+            return false;
+        List<LogicalJoinNode> prefix = joinlist.subList(0, n - 1);
+        boolean merged;
+        if (doesJoin(prefix, lj.t1))
+            merged = isSortedOn(joinlist, n - 1, lj.t1, lj.f1) && isSortedTable(lj.t2, lj.f2);
+        else if (doesJoin(prefix, lj.t2))
+            merged = isSortedOn(joinlist, n - 1, lj.t2, lj.f2) && isSortedTable(lj.t1, lj.f1);
+        else
+            merged = isSortedTable(lj.t1, lj.f1) && isSortedTable(lj.t2, lj.f2);
+        if (!merged)
+            return false;
+        boolean outer = lj.t1.equals(table) && fieldName(lj.t1, lj.f1).equals(fieldName(table, field));
+        boolean inner = lj.t2.equals(table) && fieldName(lj.t2, lj.f2).equals(fieldName(table, field));
+        if (lj.p == Predicate.Op.EQUALS)
+            return outer || inner;
+        return lj.p == Predicate.Op.LESS_THAN || lj.p == Predicate.Op.LESS_THAN_OR_EQ ? inner : outer;
+    }
+
+    /** Return the name of field without the table qualifier it may have */
+    private static String fieldName(String table, String field) {
+        return field.startsWith(table + ".") ? field.substring(table.length() + 1) : field;
+    }
+
     /** Return true if a primary key field is joined by one of the joins in joinlist */
     private boolean hasPkey(Vector<LogicalJoinNode> joinlist) {
         for (LogicalJoinNode j: joinlist) {
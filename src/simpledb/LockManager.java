@@ -1,168 +1,349 @@
 package simpledb;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 
-class Lock {
-    TransactionId tid;
-    PageId pid;
-    boolean exclusive;
+/**
+ * Lock state of a single page: the transactions holding a lock on it and the
+ * requests waiting for one, in arrival order. All fields are guarded by the
+ * PageLock's monitor, which waiting threads also wait on.
+ */
+class PageLock {
+    final PageId pid;
+    // holding transactions, mapped to true if they hold the lock exclusively
+    final HashMap<TransactionId, Boolean> holders;
+    final LinkedList<LockRequest> waiters;
+    // set once the lock is dropped from the LockManager; threads that find it set must look the page up again
+    boolean removed;
 
-    public Lock(TransactionId tid, PageId pid, boolean exclusive) {
-        this.tid = tid;
+    PageLock(PageId pid) {
         this.pid = pid;
-        this.exclusive = exclusive;
+        this.holders = new HashMap<TransactionId, Boolean>();
+        this.waiters = new LinkedList<LockRequest>();
+        this.removed = false;
     }
 
-    public boolean equals(Object o) {
-        if(!(o instanceof Lock))
-            return false;
-        Lock other = (Lock) o;
-        return this.tid.equals(other.tid) && this.pid.equals(other.pid) && this.exclusive == other.exclusive;
+    /** @return true if tid already holds a lock at least as strong as the one requested */
+    boolean holds(TransactionId tid, boolean exclusive) {
+        Boolean held = holders.get(tid);
+        return held != null && (held || !exclusive);
+    }
+
+    /**
+     * Returns the transactions a request has to wait for: holders of
+     * conflicting locks and, so that locks are granted in FIFO order, owners
+     * of conflicting requests queued ahead of it.
+     *
+     * @param request the queued request, or null for a request not queued yet
+     */
+    Set<TransactionId> blockers(TransactionId tid, boolean exclusive, LockRequest request) {
+        Set<TransactionId> blockers = new HashSet<TransactionId>();
+        for (Map.Entry<TransactionId, Boolean> holder : holders.entrySet())
+            if (!holder.getKey().equals(tid) && (exclusive || holder.getValue()))
+                blockers.add(holder.getKey());
+        // an upgrade only waits for the other holders; it would deadlock with every queued request
+        if (holders.containsKey(tid))
+            return blockers;
+        for (LockRequest waiter : waiters) {
+            if (waiter == request)
+                break;
+            if (!waiter.tid.equals(tid) && (exclusive || waiter.exclusive))
+                blockers.add(waiter.tid);
+        }
+        return blockers;
     }
 
-    @Override
-    public int hashCode() {
-        return (tid != null ? tid.hashCode() : 0) + pid.hashCode() + (exclusive ? 1 : 0);
+    void grant(TransactionId tid, boolean exclusive) {
+        Boolean held = holders.get(tid);
+        holders.put(tid, exclusive || (held != null && held));
     }
 }
 
+/** A request for a lock, which is queued on the page if it cannot be granted right away. */
+class LockRequest {
+    final TransactionId tid;
+    final boolean exclusive;
+    PageLock queuedOn; // null while not queued
+    long queuedAt;
+
+    LockRequest(TransactionId tid, boolean exclusive) {
+        this.tid = tid;
+        this.exclusive = exclusive;
+    }
+}
 
 
+/**
+ * LockManager implements strict two-phase locking on pages. A transaction that
+ * requests a lock that conflicts with a held one is queued on the page and
+ * blocks until the lock can be granted; waiters are granted in FIFO order,
+ * except that upgrades from a shared to an exclusive lock go first. How
+ * deadlocks are handled depends on the {@link DeadlockPolicy}: by default,
+ * requests that would close a cycle of waiting transactions abort instead.
+ * <p>
+ * Every page has its own lock object, so requests for different pages never
+ * contend.
+ */
 public class LockManager {
-    private HashMap<PageId, ArrayList<Lock>> pageIdToLocks;
-    private HashMap<TransactionId, HashSet<PageId>> txIdToPageIds;
+    private ConcurrentHashMap<PageId, PageLock> pageLocks;
+    private ConcurrentHashMap<TransactionId, Set<PageId>> txIdToPageIds;
     private DependencyGraph dependencyGraph;
+    private WaitTimeHistogram waitTimes;
+    private final DeadlockPolicy deadlockPolicy;
+    // WOUND_WAIT only: transactions that must abort, and the locks waiting transactions wait on
+    private ConcurrentHashMap<TransactionId, Boolean> wounded;
+    private ConcurrentHashMap<TransactionId, PageLock> waitingOn;
 
     public LockManager() {
-        pageIdToLocks = new HashMap<PageId, ArrayList<Lock>>();
-        txIdToPageIds = new HashMap<TransactionId, HashSet<PageId>>();
+        this(DeadlockPolicy.DETECT);
+    }
+
+    public LockManager(DeadlockPolicy deadlockPolicy) {
+        pageLocks = new ConcurrentHashMap<PageId, PageLock>();
+        txIdToPageIds = new ConcurrentHashMap<TransactionId, Set<PageId>>();
         dependencyGraph = new DependencyGraph();
+        waitTimes = new WaitTimeHistogram();
+        this.deadlockPolicy = deadlockPolicy;
+        wounded = new ConcurrentHashMap<TransactionId, Boolean>();
+        waitingOn = new ConcurrentHashMap<TransactionId, PageLock>();
+    }
+
+    public DeadlockPolicy getDeadlockPolicy() {
+        return deadlockPolicy;
     }
 
-    public synchronized boolean lockPage(TransactionId tid, PageId pid, boolean exclusiveLock) throws TransactionAbortedException {
-        // return early if requestor is asking for a lock they already have
-        Permissions existingPermissions = getLockHeldType(tid, pid);
-        if(existingPermissions != null)
-            if(existingPermissions.isReadWrite() || (!exclusiveLock && existingPermissions.isReadOnly()))
-                return true;
-
-        boolean canAquire = false;
-        ArrayList<Lock> otherLocks = null;
-        if(pageIdToLocks.containsKey(pid)) {
-            otherLocks = pageIdToLocks.get(pid);
-            if(otherLocks.isEmpty())
-                canAquire = true;
-            else {
-                if(upgradeLock(tid, pid))
-                    return true;
-                boolean otherExclusiveLock = false;
-                for(Lock l : otherLocks)
-                    if(l.exclusive)
-                        otherExclusiveLock = true;
-                if(!exclusiveLock && !otherExclusiveLock)
-                    canAquire = true;
+    /**
+     * Acquires a lock on a page, blocking until it can be granted. Requests
+     * made outside of any transaction (tid is null) are not locked at all.
+     *
+     * @throws TransactionAbortedException if the transaction has to abort to
+     *   prevent or break a deadlock
+     */
+    public void lockPage(TransactionId tid, PageId pid, boolean exclusiveLock) throws TransactionAbortedException {
+        if(tid == null)
+            return;
+        LockRequest request = new LockRequest(tid, exclusiveLock);
+        try {
+            while(true) {
+                // a queued request keeps its page's lock from being removed
+                PageLock lock = request.queuedOn != null ? request.queuedOn : pageLocks.get(pid);
+                if(lock == null) {
+                    PageLock newLock = new PageLock(pid);
+                    lock = pageLocks.putIfAbsent(pid, newLock);
+                    if(lock == null)
+                        lock = newLock;
+                }
+                Set<TransactionId> victims;
+                synchronized (lock) {
+                    if(lock.removed)
+                        continue;
+                    victims = acquire(lock, request);
+                }
+                if(victims == null)
+                    break;
+                // woken outside our page's monitor, since victims wait on other pages' monitors
+                for(TransactionId victim : victims)
+                    wakeUp(victim);
             }
-        } else {
-            canAquire = true;
+        } finally {
+            // the request is still queued if we abort or are stopped while waiting
+            PageLock queuedOn = request.queuedOn;
+            if(queuedOn != null)
+                synchronized (queuedOn) {
+                    dequeue(queuedOn, request);
+                }
         }
 
-        if(!canAquire) {
-            addDependencies(tid, pid, exclusiveLock, otherLocks);
-            return false;
+        Set<PageId> pageIds = txIdToPageIds.get(tid);
+        if(pageIds == null) {
+            Set<PageId> newPageIds = Collections.synchronizedSet(new HashSet<PageId>());
+            pageIds = txIdToPageIds.putIfAbsent(tid, newPageIds);
+            if(pageIds == null)
+                pageIds = newPageIds;
         }
+        pageIds.add(pid);
+    }
 
-        Lock newLock = new Lock(tid, pid, exclusiveLock);
-        if(!pageIdToLocks.containsKey(pid))
-            pageIdToLocks.put(pid, new ArrayList<Lock>());
-        pageIdToLocks.get(pid).add(newLock);
+    /**
+     * Grants the request, queueing it and waiting on the page's monitor first
+     * if necessary. Must hold the monitor of lock.
+     *
+     * @return null once the lock is granted, or the transactions wounded by
+     *   the request, which the caller must wake up before calling again
+     */
+    private Set<TransactionId> acquire(PageLock lock, LockRequest request) throws TransactionAbortedException {
+        TransactionId tid = request.tid;
+        checkWounded(tid);
+        if(request.queuedOn == null) {
+            // return early if requestor is asking for a lock they already have
+            if(lock.holds(tid, request.exclusive))
+                return null;
+            if(lock.blockers(tid, request.exclusive, null).isEmpty()) {
+                lock.grant(tid, request.exclusive);
+                return null;
+            }
+            if(lock.holders.containsKey(tid))
+                lock.waiters.addFirst(request);
+            else
+                lock.waiters.addLast(request);
+            request.queuedOn = lock;
+            request.queuedAt = System.nanoTime();
+        }
 
-        if(!txIdToPageIds.containsKey(tid))
-            txIdToPageIds.put(tid, new HashSet<PageId>());
-        txIdToPageIds.get(tid).add(pid);
+        while(true) {
+            Set<TransactionId> blockers = lock.blockers(tid, request.exclusive, request);
+            if(blockers.isEmpty()) {
+                dequeue(lock, request);
+                lock.grant(tid, request.exclusive);
+                return null;
+            }
+            Set<TransactionId> victims = resolveConflicts(lock, request, blockers);
+            if(!victims.isEmpty())
+                return victims;
 
-        return true;
+            if(deadlockPolicy == DeadlockPolicy.WOUND_WAIT) {
+                waitingOn.put(tid, lock);
+                // re-checked after publishing where we wait, so a concurrent wound cannot be missed
+                checkWounded(tid);
+            }
+            try {
+                lock.wait();
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new TransactionAbortedException();
+            } finally {
+                if(deadlockPolicy == DeadlockPolicy.WOUND_WAIT)
+                    waitingOn.remove(tid, lock);
+            }
+            checkWounded(tid);
+        }
     }
 
-    private Permissions getLockHeldType(TransactionId tid, PageId pid) {
-       if(pageIdToLocks.containsKey(pid)) {
-            ArrayList<Lock> locks = pageIdToLocks.get(pid);
-            for(Lock l : locks)
-                if(l.tid.equals(tid))
-                    return l.exclusive ? Permissions.READ_WRITE : Permissions.READ_ONLY;
-       }
-       return null;
+    /**
+     * Applies the deadlock policy to a request that has to wait for blockers.
+     *
+     * @return the transactions newly wounded by the request
+     * @throws TransactionAbortedException if the requesting transaction must abort instead of waiting
+     */
+    private Set<TransactionId> resolveConflicts(PageLock lock, LockRequest request, Set<TransactionId> blockers)
+            throws TransactionAbortedException {
+        TransactionId tid = request.tid;
+        Set<TransactionId> victims = new HashSet<TransactionId>();
+        switch(deadlockPolicy) {
+        case DETECT:
+            // edges from earlier wake-ups may be stale, e.g. if we moved up the queue
+            dependencyGraph.removeWaiter(tid, lock.pid);
+            for(TransactionId blocker : blockers)
+                dependencyGraph.addDependency(tid, blocker, lock.pid);
+            break;
+        case WAIT_DIE:
+            for(TransactionId blocker : blockers)
+                if(blocker.getId() < tid.getId())
+                    throw new TransactionAbortedException();
+            break;
+        case WOUND_WAIT:
+            for(TransactionId blocker : blockers)
+                if(blocker.getId() > tid.getId() && wounded.putIfAbsent(blocker, Boolean.TRUE) == null)
+                    victims.add(blocker);
+            break;
+        }
+        return victims;
     }
 
-    public synchronized boolean holdsLock(TransactionId tid, PageId pid) {
-        if(!txIdToPageIds.containsKey(tid))
-            return false;
-        return txIdToPageIds.get(tid).contains(pid);
+    /** Removes a queued request from its page's queue. Must hold the monitor of lock. */
+    private void dequeue(PageLock lock, LockRequest request) {
+        lock.waiters.remove(request);
+        request.queuedOn = null;
+        if(deadlockPolicy == DeadlockPolicy.DETECT)
+            dependencyGraph.removeWaiter(request.tid, lock.pid);
+        waitTimes.record(System.nanoTime() - request.queuedAt);
+        // leaving the queue may unblock the requests behind us
+        lock.notifyAll();
     }
 
-    public synchronized void unlockPage(TransactionId tid, PageId pid) {
-        if(!pageIdToLocks.containsKey(pid))
-            return;
+    private void checkWounded(TransactionId tid) throws TransactionAbortedException {
+        if(!wounded.isEmpty() && wounded.containsKey(tid))
+            throw new TransactionAbortedException();
+    }
 
-        Iterator<Lock> pageLockIterator = pageIdToLocks.get(pid).iterator();
-        while(pageLockIterator.hasNext()) {
-            Lock l = pageLockIterator.next();
-            if(l.tid.equals(tid))
-                pageLockIterator.remove();
-        }
+    /** Wakes up a wounded transaction if it is waiting for a lock, so that it aborts. */
+    private void wakeUp(TransactionId victim) {
+        PageLock lock = waitingOn.get(victim);
+        if(lock != null)
+            synchronized (lock) {
+                lock.notifyAll();
+            }
+    }
 
-        dependencyGraph.removeDependencies(tid, pid);
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        if(tid == null)
+            return false;
+        Set<PageId> pageIds = txIdToPageIds.get(tid);
+        return pageIds != null && pageIds.contains(pid);
+    }
 
-        if(txIdToPageIds.containsKey(tid))
-            txIdToPageIds.get(tid).remove(pid);
+    public void unlockPage(TransactionId tid, PageId pid) {
+        if(tid == null)
+            return;
+        release(tid, pid);
+        Set<PageId> pageIds = txIdToPageIds.get(tid);
+        if(pageIds != null)
+            pageIds.remove(pid);
     }
 
     public void unlockAllPages(TransactionId tid) {
-        HashSet<PageId> pageIds;
+        if(tid == null)
+            return;
+        // the transaction is over, so a wound no longer applies to it
+        wounded.remove(tid);
+        Set<PageId> pageIds = txIdToPageIds.remove(tid);
+        if(pageIds == null)
+            return;
+        for(PageId pid : copyOf(pageIds))
+            release(tid, pid);
+    }
 
-        synchronized (this) {
-            if(!txIdToPageIds.containsKey(tid))
+    /** Releases tid's lock on pid and wakes up the transactions waiting for the page. */
+    private void release(TransactionId tid, PageId pid) {
+        PageLock lock = pageLocks.get(pid);
+        if(lock == null)
+            return;
+        synchronized (lock) {
+            if(lock.holders.remove(tid) == null)
                 return;
-
-            pageIds = txIdToPageIds.get(tid);
-            txIdToPageIds.remove(tid);
+            if(deadlockPolicy == DeadlockPolicy.DETECT)
+                dependencyGraph.removeDependencies(tid, pid);
+            if(lock.holders.isEmpty() && lock.waiters.isEmpty()) {
+                lock.removed = true;
+                pageLocks.remove(pid);
+            } else {
+                lock.notifyAll();
+            }
         }
+    }
 
-        for(PageId pid : pageIds)
-            unlockPage(tid, pid);
+    /** @return a snapshot of the pages locked by tid, or null if it holds no locks */
+    public Set<PageId> getPagesLockedByTx(TransactionId tid) {
+        if(tid == null)
+            return null;
+        Set<PageId> pageIds = txIdToPageIds.get(tid);
+        return pageIds == null ? null : copyOf(pageIds);
     }
 
-    public synchronized Set<PageId> getPagesLockedByTx(TransactionId tid) {
-        return txIdToPageIds.get(tid);
+    /** @return the durations of all lock requests that had to wait, including ones that aborted */
+    public WaitTimeHistogram getWaitTimes() {
+        return waitTimes;
     }
 
-    private boolean upgradeLock(TransactionId tid, PageId pid) {
-        if(pageIdToLocks.containsKey(pid)) {
-            ArrayList<Lock> pageLocks = pageIdToLocks.get(pid);
-            if(pageLocks.size() == 1) {
-               Lock onlyLock = pageLocks.iterator().next();
-               if(onlyLock.tid.equals(tid)) {
-                   onlyLock.exclusive = true;
-                   return true;
-               }
-            }
-        }
-        return false;
-    }
-
-    private void addDependencies(TransactionId tid, PageId pid, boolean exclusiveLock, ArrayList<Lock> otherLocks) throws TransactionAbortedException {
-        // if requested lock is exclusive, we must wait for all other locks to be released
-        if(exclusiveLock) {
-            for(Lock l : otherLocks)
-                dependencyGraph.addDependency(tid, l.tid, pid);
-        } else {
-            for(Lock l : otherLocks)
-                if(l.exclusive)
-                    dependencyGraph.addDependency(tid, l.tid, pid);
+    private static Set<PageId> copyOf(Set<PageId> pageIds) {
+        synchronized (pageIds) {
+            return new HashSet<PageId>(pageIds);
         }
     }
 }
@@ -1,5 +1,6 @@
 package simpledb;
 import java.util.Vector;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.io.File;
@@ -243,6 +244,155 @@ public  class LogicalPlan {
 
     }
 
+    /** Returns the fields of the specified scanned table that the query
+     *  reads, or null if it reads all of them or they cannot be determined,
+     *  so that the scan can tell the table which columns to decode.
+     */
+    private BitSet referencedColumns(LogicalScanNode table) {
+        ArrayList<String> names = new ArrayList<String>();
+        for (LogicalSelectListNode si : selectList)
+            names.add(si.fname);
+        for (LogicalFilterNode lf : filters)
+            names.add(lf.f);
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1);
+            names.add(lj.f2);
+        }
+        if (hasAgg) {
+            names.add(aggField);
+            names.add(groupByField);
+        }
+        if (hasOrderBy)
+            names.add(oByField);
+
+        TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+        BitSet columns = new BitSet(td.numFields());
+        for (String name : names) {
+            if (name == null)
+                continue;
+            try {
+                String field = disambiguateName(name);
+                String[] parts = field.split("[.]");
+                if (parts[parts.length - 1].equals("*")) {
+                    if (parts.length == 1 || parts[0].equals(table.alias))
+                        return null;
+                } else if (parts[0].equals(table.alias)) {
+                    columns.set(td.nameToId(field));
+                }
+            } catch (ParsingException e) {
+                // reported when the plan is built
+                return null;
+            } catch (NoSuchElementException e) {
+                return null;
+            }
+        }
+        return columns;
+    }
+
+    /** @return the constant of a filter expression as a field of the specified type */
+    private static Field filterConstant(Type type, String constant) {
+        if (type == Type.INT_TYPE)
+            return new IntField(new Integer(constant).intValue());
+        return new StringField(constant, Type.STRING_LEN);
+    }
+
+    /**
+     * Returns an IndexScan of the specified table that answers its filters on
+     * the key of its BTreeFile or hash index, or null if the table has no
+     * index, has no such filters, or its TableStats estimate that scanning
+     * the whole table is cheaper. An equality filter is answered if there is
+     * one; otherwise the most selective lower and upper bounds are, which a
+     * hash index cannot answer. The filters the scan answers are added to
+     * indexed.
+     */
+    private IndexScan indexScan(TransactionId t, LogicalScanNode table, TableStats stats,
+            Set<LogicalFilterNode> indexed, boolean explain) throws ParsingException {
+        DbFile file = Database.getCatalog().getDbFile(table.t);
+        HashIndexFile hashIndex = Database.getCatalog().getHashIndex(table.t);
+        if (stats == null || (!(file instanceof BTreeFile) && hashIndex == null))
+            return null;
+        int key = hashIndex != null ? hashIndex.getKeyField() : ((BTreeFile) file).getKeyField();
+        TupleDesc td = file.getTupleDesc();
+        LogicalFilterNode eq = null, low = null, high = null;
+        Field eqValue = null, lowValue = null, highValue = null;
+        double eqSel = 1.0, lowSel = 1.0, highSel = 1.0;
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.t.equals(table.alias))
+                continue;
+            try {
+                if (td.nameToId(disambiguateName(lf.f)) != key)
+                    continue;
+            } catch (NoSuchElementException e) {
+                // reported when the filter is planned
+                continue;
+            }
+            Field value = filterConstant(td.getType(key), lf.c);
+            double sel = stats.estimateSelectivity(key, lf.p, value);
+            switch (lf.p) {
+            case EQUALS:
+                if (eq == null || sel < eqSel) {
+                    eq = lf;
+                    eqValue = value;
+                    eqSel = sel;
+                }
+                break;
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQ:
+                if (low == null || sel < lowSel) {
+                    low = lf;
+                    lowValue = value;
+                    lowSel = sel;
+                }
+                break;
+            case LESS_THAN:
+            case LESS_THAN_OR_EQ:
+                if (high == null || sel < highSel) {
+                    high = lf;
+                    highValue = value;
+                    highSel = sel;
+                }
+                break;
+            default:
+                break;
+            }
+        }
+        if (eq != null || hashIndex != null) {
+            low = null;
+            high = null;
+        }
+        double sel;
+        if (eq != null)
+            sel = eqSel;
+        else if (low != null && high != null)
+            sel = Math.max(0.0, lowSel + highSel - 1.0);
+        else if (low != null)
+            sel = lowSel;
+        else if (high != null)
+            sel = highSel;
+        else
+            return null;
+        if (stats.estimateIndexScanCost(sel) >= stats.estimateScanCost())
+            return null;
+
+        IndexScan scan;
+        if (eq != null)
+            scan = new IndexScan(t, file.getId(), table.alias, eq.p, eqValue);
+        else if (low != null && high != null)
+            scan = new IndexScan(t, file.getId(), table.alias, low.p, lowValue, high.p, highValue);
+        else if (low != null)
+            scan = new IndexScan(t, file.getId(), table.alias, low.p, lowValue);
+        else
+            scan = new IndexScan(t, file.getId(), table.alias, high.p, highValue);
+        for (LogicalFilterNode lf : new LogicalFilterNode[] { eq, low, high })
+            if (lf != null)
+                indexed.add(lf);
+        if (explain)
+            System.out.println("Scanning " + table.alias + " through its " + (hashIndex != null ? "hash " : "")
+                    + "index on " + td.getFieldName(key)
+                    + ", estimated selectivity " + sel);
+        return scan;
+    }
+
     /** Convert the aggregate operator name s into an Aggregator.op operation.
      *  @throws ParsingException if s is not a valid operator name 
      */
@@ -274,6 +424,8 @@ public  class LogicalPlan {
         HashMap<String,String> equivMap = new HashMap<String,String>();
         HashMap<String,Double> filterSelectivities = new HashMap<String, Double>();
         HashMap<String,TableStats> statsMap = new HashMap<String,TableStats>();
+        // filters answered by an IndexScan, which are not applied again
+        Set<LogicalFilterNode> indexedFilters = new HashSet<LogicalFilterNode>();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
@@ -283,12 +435,14 @@ public  class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
+            ss.setColumns(referencedColumns(table));
             
-            subplanMap.put(table.alias,ss);
             String baseTableName = Database.getCatalog().getTableName(table.t);
             statsMap.put(table.alias, baseTableStats.get(baseTableName));
             filterSelectivities.put(table.alias, 1.0);
 
+            IndexScan is = indexScan(t, table, statsMap.get(table.alias), indexedFilters, explain);
+            subplanMap.put(table.alias, is != null ? is : ss);
         }
 
         Iterator<LogicalFilterNode> filterIt = filters.iterator();        
@@ -308,10 +462,7 @@ public  class LogicalPlan {
             } catch (java.util.NoSuchElementException e) {
                 throw new ParsingException("Unknown field in filter expression " + lf.f);
             }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(new Integer(lf.c).intValue());
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
+            f = filterConstant(ftyp, lf.c);
 
             Predicate p = null;
             try {
@@ -319,7 +470,8 @@ public  class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.f);
             }
-            subplanMap.put(lf.t, new Filter(p, subplan));
+            if (!indexedFilters.contains(lf))
+                subplanMap.put(lf.t, new Filter(p, subplan));
 
             TableStats s = statsMap.get(lf.t);
             
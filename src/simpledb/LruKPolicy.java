@@ -0,0 +1,120 @@
+package simpledb;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LruKPolicy implements the LRU-K replacement algorithm (O'Neil, O'Neil and
+ * Weikum). For every page it remembers the times of the last K accesses and
+ * evicts the page whose K-th most recent access lies furthest in the past.
+ * Pages that have been accessed fewer than K times are evicted first, oldest
+ * access first, so a burst of pages touched once by a scan cannot push out
+ * pages that are accessed repeatedly, such as the inner table of a join.
+ * <p>
+ * Access history is retained for a bounded number of recently evicted pages,
+ * so that a page which is re-read shortly after its eviction keeps its history.
+ */
+public class LruKPolicy extends AbstractReplacementPolicy {
+    public static final int DEFAULT_K = 2;
+
+    /** Maximum number of evicted pages whose history is remembered. */
+    static final int RETAINED_HISTORY = 1024;
+
+    private final int k;
+    private long clock;
+    // histories hold access times, most recent first; 0 means "no such access"
+    private HashMap<PageId, long[]> residentHistory;
+    private RetainedHistory retainedHistory;
+    // prefetched pages whose first request has not been recorded yet
+    private HashSet<PageId> prefetched;
+
+    public LruKPolicy() {
+        this(DEFAULT_K);
+    }
+
+    /**
+     * @param k the number of past accesses remembered for each page; LRU-1 is plain LRU
+     */
+    public LruKPolicy(int k) {
+        if (k < 1)
+            throw new IllegalArgumentException("k must be at least 1");
+        this.k = k;
+        this.clock = 0;
+        this.residentHistory = new HashMap<PageId, long[]>();
+        this.retainedHistory = new RetainedHistory();
+        this.prefetched = new HashSet<PageId>();
+    }
+
+    protected void onHit(PageId pid) {
+        long[] history = residentHistory.get(pid);
+        if (history == null)
+            onMiss(pid);
+        else if (prefetched.remove(pid))
+            history[0] = ++clock; // the prefetch and its first request are one access
+        else
+            recordAccess(history);
+    }
+
+    protected void onMiss(PageId pid) {
+        long[] history = residentHistory.get(pid);
+        if (history == null)
+            history = retainedHistory.remove(pid);
+        if (history == null)
+            history = new long[k];
+        recordAccess(history);
+        residentHistory.put(pid, history);
+    }
+
+    protected void onPrefetch(PageId pid) {
+        onMiss(pid);
+        prefetched.add(pid);
+    }
+
+    protected void onRemove(PageId pid) {
+        prefetched.remove(pid);
+        long[] history = residentHistory.remove(pid);
+        if (history != null)
+            retainedHistory.put(pid, history);
+    }
+
+    protected PageId chooseVictim(EvictionFilter filter) {
+        PageId victim = null;
+        long[] victimHistory = null;
+        for (Map.Entry<PageId, long[]> entry : residentHistory.entrySet()) {
+            long[] history = entry.getValue();
+            if (victimHistory != null && !isOlder(history, victimHistory))
+                continue;
+            if (!filter.canEvict(entry.getKey()))
+                continue;
+            victim = entry.getKey();
+            victimHistory = history;
+        }
+        return victim;
+    }
+
+    /** @return true if a has a larger backward K-distance than b */
+    private boolean isOlder(long[] a, long[] b) {
+        long aKth = a[k - 1];
+        long bKth = b[k - 1];
+        if (aKth != bKth)
+            return aKth < bKth;
+        // both have infinite K-distance (or, rarely, the same one): fall back to LRU
+        return a[0] < b[0];
+    }
+
+    private void recordAccess(long[] history) {
+        System.arraycopy(history, 0, history, 1, k - 1);
+        history[0] = ++clock;
+    }
+
+    /** Histories of evicted pages, in eviction order, forgetting the oldest past RETAINED_HISTORY. */
+    private static class RetainedHistory extends LinkedHashMap<PageId, long[]> {
+        private static final long serialVersionUID = 1L;
+
+        protected boolean removeEldestEntry(Map.Entry<PageId, long[]> eldest) {
+            return size() > RETAINED_HISTORY;
+        }
+    }
+}
@@ -1,16 +1,35 @@
 package simpledb;
+import java.io.IOException;
 import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p>
+ * Tuples are sorted in memory as long as their estimated size stays within
+ * {@link #DEFAULT_MEMORY_BUDGET} unless {@link #setMemoryBudget} says
+ * otherwise. A larger input is sorted externally: whenever the buffered
+ * tuples reach the budget they are sorted and written to a {@link SpillFile}
+ * as a sorted run, and the runs are then merged {@link #MERGE_FANIN} at a
+ * time, in several passes if needed, until few enough remain to be merged
+ * while the sorted tuples are returned. Only the current block of each run
+ * is kept in memory while merging. Tuples with equal keys are returned in
+ * the order the child returned them, as for the in-memory sort.
  */
 public class OrderBy extends AbstractDbIterator {
+    /** Default estimated size in bytes of the tuples sorted in memory at once, see {@link #setMemoryBudget} */
+    public static final long DEFAULT_MEMORY_BUDGET = 16L << 20;
+    /** Maximum number of runs merged at once */
+    public static final int MERGE_FANIN = 64;
+
     DbIterator child;
     TupleDesc td;
     ArrayList<Tuple> childTups = new ArrayList<Tuple>();
     int orderByField;
     Iterator<Tuple> it;
     boolean asc;
+    private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+    private ArrayList<SpillFile> runs; // sorted runs of an external sort, or null if the input fit in memory
+    private Merge merge; // merge of the remaining runs, while returning tuples of an external sort
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -30,22 +49,121 @@ public class OrderBy extends AbstractDbIterator {
         return td;
     }
 
+    /** @return the field the tuples are sorted on */
+    public int getOrderByField() {
+        return orderByField;
+    }
+
+    /** @return true if the sort order is ascending */
+    public boolean isAscending() {
+        return asc;
+    }
+
+    /**
+     * Sets the estimated size in bytes the tuples sorted in memory may take
+     * before they are written to disk as a sorted run. Takes effect on the
+     * next call to open.
+     */
+    public void setMemoryBudget(long bytes) {
+        if (bytes <= 0)
+            throw new IllegalArgumentException("memory budget must be positive: " + bytes);
+        memoryBudget = bytes;
+    }
+
+    /** @return true if the last call to open sorted the tuples externally */
+    boolean hasSpilled() {
+        return runs != null;
+    }
+
     public void open()
         throws DbException, NoSuchElementException, TransactionAbortedException {
+        close();
+        TupleComparator comparator = new TupleComparator(orderByField, asc);
+        long maxTuples = Math.max(1, memoryBudget / Join.tupleBytes(td));
         child.open();
-        //load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add((Tuple)child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        try {
+            //load the tuples in a collection, and sort it, writing it out as a run when it is full
+            while (child.hasNext()) {
+                childTups.add(child.next());
+                if (childTups.size() >= maxTuples)
+                    spillRun(comparator);
+            }
+            if (runs == null) {
+                Collections.sort(childTups, comparator);
+                it = childTups.iterator();
+                return;
+            }
+            if (!childTups.isEmpty())
+                spillRun(comparator);
+            childTups = new ArrayList<Tuple>();
+            // merge runs until the last merge can be done while returning tuples
+            while (runs.size() > MERGE_FANIN) {
+                ArrayList<SpillFile> merged = new ArrayList<SpillFile>();
+                for (int i = 0; i < runs.size(); i += MERGE_FANIN)
+                    merged.add(mergeRuns(runs.subList(i, Math.min(i + MERGE_FANIN, runs.size()))));
+                runs = merged;
+            }
+        } catch (IOException e) {
+            close();
+            throw new DbException("could not spill sorted run: " + e.getMessage());
+        }
+        merge = new Merge(runs);
+    }
+
+    /** Sorts the buffered tuples and writes them to a new run. */
+    private void spillRun(TupleComparator comparator) throws IOException {
+        if (runs == null)
+            runs = new ArrayList<SpillFile>();
+        Collections.sort(childTups, comparator);
+        SpillFile run = new SpillFile(td);
+        runs.add(run);
+        for (Tuple t : childTups)
+            run.add(t);
+        run.finish();
+        childTups.clear();
+    }
+
+    /** Merges the specified runs into a new run, and deletes them. */
+    private SpillFile mergeRuns(List<SpillFile> toMerge)
+        throws DbException, TransactionAbortedException, IOException {
+        SpillFile run = new SpillFile(td);
+        Merge m = new Merge(toMerge);
+        try {
+            Tuple t;
+            while ((t = m.next()) != null)
+                run.add(t);
+            run.finish();
+        } catch (IOException e) {
+            run.delete();
+            throw e;
+        } finally {
+            m.close();
+        }
+        for (SpillFile f : toMerge)
+            f.delete();
+        return run;
     }
 
     public void close() {
+        super.close();
         it = null;
+        childTups.clear();
+        if (merge != null)
+            merge.close();
+        merge = null;
+        if (runs != null) {
+            for (SpillFile f : runs)
+                f.delete();
+        }
+        runs = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        if (merge != null) {
+            merge.close();
+            merge = new Merge(runs);
+        } else
+            it = childTups.iterator();
     }
 
     /**
@@ -56,11 +174,73 @@ public class OrderBy extends AbstractDbIterator {
      */
     protected Tuple readNext()
         throws NoSuchElementException, TransactionAbortedException, DbException {
+        if (merge != null)
+            return merge.next();
         if (it != null && it.hasNext()) {
             return it.next();
         } else
             return null;
     }
+
+    /** The current tuple of a run being merged. */
+    private static class Head {
+        final int run;
+        final Tuple tuple;
+
+        Head(int run, Tuple tuple) {
+            this.run = run;
+            this.tuple = tuple;
+        }
+    }
+
+    /**
+     * A k-way merge of sorted runs, which keeps the current tuple of each
+     * run in a priority queue. Equal tuples are taken from the earlier run
+     * first, which keeps the sort stable since runs are written in input
+     * order.
+     */
+    private class Merge {
+        private final DbFileIterator[] iterators;
+        private final PriorityQueue<Head> heads;
+
+        Merge(List<SpillFile> toMerge) throws DbException, TransactionAbortedException {
+            final TupleComparator comparator = new TupleComparator(orderByField, asc);
+            iterators = new DbFileIterator[toMerge.size()];
+            heads = new PriorityQueue<Head>(Math.max(1, iterators.length), new Comparator<Head>() {
+                public int compare(Head h1, Head h2) {
+                    int c = comparator.compare(h1.tuple, h2.tuple);
+                    return c != 0 ? c : h1.run - h2.run;
+                }
+            });
+            for (int i = 0; i < iterators.length; i++) {
+                iterators[i] = toMerge.get(i).iterator();
+                iterators[i].open();
+                advance(i);
+            }
+        }
+
+        private void advance(int run) throws DbException, TransactionAbortedException {
+            if (iterators[run].hasNext())
+                heads.add(new Head(run, iterators[run].next()));
+        }
+
+        /** @return the next tuple in the ordering, or null if all runs are exhausted */
+        Tuple next() throws DbException, TransactionAbortedException {
+            Head h = heads.poll();
+            if (h == null)
+                return null;
+            advance(h.run);
+            return h.tuple;
+        }
+
+        void close() {
+            for (DbFileIterator i : iterators) {
+                if (i != null)
+                    i.close();
+            }
+            heads.clear();
+        }
+    }
 }
 
  class TupleComparator implements Comparator<Tuple> {
@@ -46,6 +46,15 @@ public interface Page {
 
     public byte[] getPageData();
 
+  /**
+   * Writes the bytes that getPageData would return into out, which must
+   * have room for them, instead of allocating a new array. Used to flush
+   * and log pages through a reusable buffer.
+   *
+   * @return the number of bytes written
+   */
+    public int getPageData(byte[] out);
+
     /** Provide a representation of this page before any modifications were made
         to it.  Used by recovery.
     */
@@ -0,0 +1,34 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * PaxHeapFile is a HeapFile whose pages are {@link PaxPage}s, which store
+ * each column of a page contiguously. Use it for wide tables that are mostly
+ * scanned for aggregates and filters over a few of their columns. Files in
+ * this format are written by {@link HeapFileEncoder#convertPax} and selected
+ * in a catalog file with the <code>format=pax</code> table option.
+ */
+public class PaxHeapFile extends HeapFile {
+
+    /**
+     * Constructs a PAX heap file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this heap file.
+     */
+    public PaxHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    /**
+     * Constructs a PAX heap file with the specified page size; see
+     * {@link HeapFile#HeapFile(File, TupleDesc, int)}.
+     */
+    public PaxHeapFile(File f, TupleDesc td, int pageSize) throws IOException {
+        super(f, td, pageSize);
+    }
+
+    protected TuplePage newPage(HeapPageId pid, byte[] data) throws IOException {
+        return new PaxPage(pid, data, getTupleDesc());
+    }
+}
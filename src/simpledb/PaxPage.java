@@ -0,0 +1,215 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * PaxPage is a page layout that stores the tuples of a page column by
+ * column. It holds as many tuples as a {@link HeapPage} and has the same
+ * slot bitmap header, but the header is followed by one minipage per column
+ * holding that column's value for every slot, instead of by whole tuples.
+ * <p>
+ * A scan that only needs a few columns of a wide table decodes each of them
+ * in one pass over contiguous bytes, see {@link #iterator(BitSet)}; the other
+ * fields of its tuples are still decoded on demand if they are read.
+ *
+ * @see PaxHeapFile
+ */
+public class PaxPage implements TuplePage {
+
+    private final HeapPageId pid;
+    private final TupleDesc td;
+    private final int numSlots;
+    private final int headerSize;
+    // offset of each column's minipage in page; shared with the tuples of the page
+    private final int[] columnStarts;
+    // the page bytes; shared with the before-image or the caller until the first change, see beforeModify()
+    private byte[] page;
+    private TransactionId dirtier;
+    private byte[] oldData;
+
+    private int usedSlots;
+    private final Tuple[] tuples;
+
+    /**
+     * Creates a PaxPage of the table that pid belongs to from the specified
+     * bytes, which must not be modified afterwards. The page size is the
+     * length of the array.
+     */
+    public PaxPage(HeapPageId pid, byte[] data) throws IOException {
+        this(pid, data, Database.getCatalog().getTupleDesc(pid.getTableId()));
+    }
+
+    /**
+     * Creates a PaxPage holding tuples of the specified TupleDesc, for
+     * callers such as HeapFileEncoder that have no catalog entry.
+     */
+    PaxPage(HeapPageId pid, byte[] data, TupleDesc td) {
+        this.pid = pid;
+        this.td = td;
+        this.page = data;
+        this.numSlots = (data.length * 8) / (td.getSize() * 8 + 1);
+        this.headerSize = (numSlots + 7) / 8;
+        this.columnStarts = new int[td.numFields()];
+        int start = headerSize;
+        for (int i = 0; i < td.numFields(); i++) {
+            columnStarts[i] = start;
+            start += numSlots * td.getType(i).getLen();
+        }
+        for (int slot = 0; slot < numSlots; slot++)
+            if (isSlotUsed(slot))
+                usedSlots++;
+        tuples = new Tuple[numSlots];
+    }
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    private boolean isSlotUsed(int slot) {
+        return (page[slot >>> 3] & (1 << (slot & 7))) != 0;
+    }
+
+    private void setSlot(int slot, boolean used) {
+        if (used)
+            page[slot >>> 3] |= 1 << (slot & 7);
+        else
+            page[slot >>> 3] &= ~(1 << (slot & 7));
+    }
+
+    public Tuple getTuple(int slot) {
+        if (slot < 0 || slot >= numSlots || !isSlotUsed(slot))
+            return null;
+        if (tuples[slot] == null) {
+            Tuple t = new Tuple(td, page, columnStarts, slot);
+            t.setRecordId(new RecordId(pid, slot));
+            tuples[slot] = t;
+        }
+        return tuples[slot];
+    }
+
+    public void addTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("Tuple being added does not have the same tupledesc as this page");
+        if (usedSlots == numSlots)
+            throw new DbException("No empty slots left on this page");
+
+        int slot = 0;
+        while (page[slot >>> 3] == (byte) 0xff)
+            slot += 8;
+        while (isSlotUsed(slot))
+            slot++;
+        beforeModify();
+        for (int i = 0; i < td.numFields(); i++)
+            t.getField(i).serialize(page, columnStarts[i] + slot * td.getType(i).getLen());
+        setSlot(slot, true);
+        usedSlots++;
+        tuples[slot] = t;
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    public void deleteTuple(Tuple t) throws DbException {
+        if (t.getRecordId() == null)
+            throw new DbException("This tuple has already been deleted");
+        int slot = t.getRecordId().tupleno();
+        if (!pid.equals(t.getRecordId().getPageId()))
+            throw new DbException(String.format("Tuple is not on page %s", pid.toString()));
+        if (slot >= numSlots || !isSlotUsed(slot))
+            throw new DbException(String.format("No tuple at index %d in page %s", slot, pid.toString()));
+
+        beforeModify();
+        // the slot may be reused while the tuple is still referenced, so decode whatever it has not read yet
+        if (tuples[slot] != null) {
+            for (int i = 0; i < td.numFields(); i++)
+                tuples[slot].getField(i);
+        }
+        setSlot(slot, false);
+        usedSlots--;
+        tuples[slot] = null;
+        t.setRecordId(null);
+    }
+
+    public int getNumEmptySlots() {
+        return numSlots - usedSlots;
+    }
+
+    public boolean hasRoomFor(Tuple t) {
+        return getNumEmptySlots() > 0;
+    }
+
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>() {
+            private int slot = 0;
+
+            public boolean hasNext() {
+                while (slot < numSlots && !isSlotUsed(slot))
+                    slot++;
+                return slot < numSlots;
+            }
+
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return getTuple(slot++);
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Decodes the specified columns of every tuple on the page, one column
+     * at a time, and returns an iterator over the tuples.
+     */
+    public Iterator<Tuple> iterator(BitSet columns) {
+        if (columns != null) {
+            for (int c = columns.nextSetBit(0); c >= 0 && c < td.numFields(); c = columns.nextSetBit(c + 1))
+                for (int slot = 0; slot < numSlots; slot++)
+                    if (isSlotUsed(slot))
+                        getTuple(slot).getField(c);
+        }
+        return iterator();
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    public byte[] getPageData() {
+        return page.clone();
+    }
+
+    public int getPageData(byte[] out) {
+        System.arraycopy(page, 0, out, 0, page.length);
+        return page.length;
+    }
+
+    /**
+     * Called before every change to the page. The current bytes become the
+     * before-image on the first change since the last commit, and the page
+     * continues on a copy of them. Tuples decoding lazily from the old bytes
+     * keep doing so, since their values are unchanged.
+     */
+    private void beforeModify() {
+        if (oldData == null) {
+            oldData = page;
+            page = page.clone();
+        }
+    }
+
+    public PaxPage getBeforeImage() {
+        return new PaxPage(pid, oldData != null ? oldData : page, td);
+    }
+
+    public void setBeforeImage() {
+        oldData = null;
+    }
+}
@@ -0,0 +1,229 @@
+package simpledb;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Prefetcher reads pages into a BufferPool ahead of a sequential scan, on a
+ * background thread, so that the scan overlaps its processing of page N with
+ * the disk reads of the next few pages instead of waiting for each of them in
+ * turn.
+ * <p>
+ * Every scan owns a {@link Window}: the number of pages it keeps in flight
+ * ahead of the page it is consuming. The window adapts to how fast the scan
+ * consumes pages compared to how fast they can be read, by additive increase
+ * and multiplicative decrease:
+ * <ul>
+ * <li>if the scan asks for a page whose prefetch is still in flight, it is
+ * consuming faster than the prefetches complete, and the window grows by one;
+ * <li>if the scan asks for a page it prefetched that has already been evicted
+ * again, it is consuming too slowly for the pages it reads ahead to survive in
+ * the pool, and the window is halved.
+ * </ul>
+ * Prefetched pages are read without taking any locks. They are only installed
+ * if no page of the pool has been written back or discarded while they were
+ * being read, so a prefetch can never install a stale image of a page.
+ *
+ * @see BufferPool#setPrefetching
+ */
+public class Prefetcher {
+    /** Pages read ahead by a scan that has just started. */
+    public static final int INITIAL_WINDOW = 2;
+
+    /** Upper bound on the pages read ahead by a single scan. */
+    public static final int MAX_WINDOW = 32;
+
+    private static ExecutorService executor;
+
+    private final BufferPool bp;
+    private volatile boolean enabled;
+    // pages queued or being read by the background thread
+    private final ConcurrentHashMap<PageId, Boolean> pending;
+    // prefetched pages that are resident but have not been requested yet
+    private final ConcurrentHashMap<PageId, Boolean> unused;
+
+    private long issued;
+    private long hits;
+    private long late;
+    private long wasted;
+
+    /**
+     * Read-ahead state of one sequential scan over a heap file.
+     */
+    public static class Window {
+        private final int tableId;
+        private final int numPages;
+        private final BufferRing ring;
+        private final int maxSize;
+        private int size;
+        private int next; // first page number that has not been scheduled yet
+
+        private Window(int tableId, int numPages, BufferRing ring, int maxSize) {
+            this.tableId = tableId;
+            this.numPages = numPages;
+            this.ring = ring;
+            this.maxSize = maxSize;
+            this.size = Math.min(INITIAL_WINDOW, maxSize);
+            this.next = 0;
+        }
+
+        /** @return the number of pages the scan currently reads ahead */
+        public int size() {
+            return size;
+        }
+    }
+
+    Prefetcher(BufferPool bp) {
+        this.bp = bp;
+        this.enabled = false;
+        this.pending = new ConcurrentHashMap<PageId, Boolean>();
+        this.unused = new ConcurrentHashMap<PageId, Boolean>();
+    }
+
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the read-ahead window for a scan over a heap file, or null if
+     * prefetching is disabled or the file is too short to benefit from it.
+     *
+     * @param tableId the id of the scanned file
+     * @param numPages the number of pages the scan will read
+     * @param ring the ring the scan reads through, or null
+     * @param poolPages the capacity of the buffer pool
+     */
+    Window newWindow(int tableId, int numPages, BufferRing ring, int poolPages) {
+        if (!enabled || numPages < 2)
+            return null;
+        // never read ahead further than the frames the scan may occupy, or the
+        // prefetched pages push each other out before they are consumed
+        int maxSize = ring != null ? ring.size() - 1 : poolPages / 4;
+        maxSize = Math.min(maxSize, MAX_WINDOW);
+        if (maxSize < 1)
+            return null;
+        return new Window(tableId, numPages, ring, maxSize);
+    }
+
+    /**
+     * Called by a scan right before it requests the specified page. Adapts the
+     * scan's window to the state of the page and schedules reads for the pages
+     * in the window that follow it.
+     */
+    void advance(Window w, int pageno) {
+        HeapPageId pid = new HeapPageId(w.tableId, pageno);
+        if (pageno < w.next) {
+            if (pending.containsKey(pid)) {
+                synchronized (this) {
+                    late++;
+                }
+                w.size = Math.min(w.maxSize, w.size + 1);
+            } else if (!bp.isResident(pid)) {
+                w.size = Math.max(1, w.size / 2);
+            }
+        }
+        int end = Math.min(w.numPages, pageno + 1 + w.size);
+        for (int n = Math.max(w.next, pageno + 1); n < end; n++)
+            schedule(new HeapPageId(w.tableId, n), w.ring);
+        w.next = Math.max(w.next, end);
+    }
+
+    private void schedule(final PageId pid, final BufferRing ring) {
+        if (bp.isResident(pid) || pending.putIfAbsent(pid, Boolean.TRUE) != null)
+            return;
+        synchronized (this) {
+            issued++;
+        }
+        getExecutor().execute(new Runnable() {
+            public void run() {
+                try {
+                    long epoch = bp.getWriteEpoch();
+                    Page p = Database.getCatalog().getDbFile(pid.getTableId()).readPage(pid);
+                    if (p == null || !bp.installPrefetchedPage(p, ring, epoch))
+                        countWasted();
+                } catch (RuntimeException e) {
+                    // the table was dropped while the read was queued
+                    countWasted();
+                } finally {
+                    pending.remove(pid);
+                }
+            }
+        });
+    }
+
+    /** Called by the BufferPool when it adds a prefetched page to the pool. */
+    void pageInstalled(PageId pid) {
+        unused.put(pid, Boolean.TRUE);
+    }
+
+    /**
+     * Called by the BufferPool for every page it returns from the pool.
+     *
+     * @return true if the page was brought in by a prefetch and this is its first use
+     */
+    boolean pageUsed(PageId pid) {
+        if (unused.isEmpty() || unused.remove(pid) == null)
+            return false;
+        synchronized (this) {
+            hits++;
+        }
+        return true;
+    }
+
+    /** Called by the BufferPool for every page that leaves the pool. */
+    void pageRemoved(PageId pid) {
+        if (!unused.isEmpty() && unused.remove(pid) != null)
+            countWasted();
+    }
+
+    private synchronized void countWasted() {
+        wasted++;
+    }
+
+    /** @return the number of page reads issued ahead of a scan */
+    public synchronized long getIssued() {
+        return issued;
+    }
+
+    /** @return the number of prefetched pages that were requested while resident */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /** @return the number of requests for a page whose prefetch was still in flight */
+    public synchronized long getLate() {
+        return late;
+    }
+
+    /**
+     * @return the number of prefetches that did not save a read: the page was
+     *   evicted before it was requested, or could not be installed at all
+     */
+    public synchronized long getWasted() {
+        return wasted;
+    }
+
+    public synchronized String toString() {
+        return String.format("Prefetcher(issued=%d, hits=%d, late=%d, wasted=%d)",
+                issued, hits, late, wasted);
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "simpledb-prefetch");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return executor;
+    }
+}
@@ -0,0 +1,70 @@
+package simpledb;
+
+/**
+ * ReplacementPolicy decides which page the BufferPool evicts when it needs to
+ * make room for a page being read from disk. The BufferPool reports every page
+ * access to its policy and asks it for a victim whenever the pool is full.
+ * <p>
+ * Policies also keep hit/miss/eviction counters, so that the policy in use
+ * can be compared across workloads.
+ *
+ * @see BufferPool#BufferPool(int, ReplacementPolicy)
+ * @see AbstractReplacementPolicy
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Decides whether a resident page may be evicted right now, e.g. because
+     * it is clean. Policies must never return a page rejected by the filter.
+     */
+    public interface EvictionFilter {
+        public boolean canEvict(PageId pid);
+    }
+
+    /**
+     * Creates policies for a BufferPool whose page table is split into
+     * partitions, each of which needs its own policy.
+     *
+     * @see BufferPool#BufferPool(int, int, ReplacementPolicy.Factory)
+     */
+    public interface Factory {
+        public ReplacementPolicy newPolicy();
+    }
+
+    /** Records an access to a page that was already resident in the pool. */
+    public void recordHit(PageId pid);
+
+    /** Records that a page was read from disk and is now resident in the pool. */
+    public void recordMiss(PageId pid);
+
+    /**
+     * Records that a page was read into the pool ahead of any request for it.
+     * The first request for the page is reported later through
+     * {@link #recordHit}; implementations should treat the two together as a
+     * single access.
+     */
+    public void recordPrefetch(PageId pid);
+
+    /**
+     * Forgets about a resident page that left the pool without being chosen by
+     * {@link #evict}, e.g. because it was discarded.
+     */
+    public void remove(PageId pid);
+
+    /**
+     * Chooses a resident page to evict and stops tracking it.
+     *
+     * @param filter decides which resident pages may be evicted
+     * @return the page to evict, or null if no resident page may be evicted
+     */
+    public PageId evict(EvictionFilter filter);
+
+    /** @return the number of accesses to pages that were already resident */
+    public long getHits();
+
+    /** @return the number of accesses that had to read the page from disk */
+    public long getMisses();
+
+    /** @return the number of pages chosen for eviction */
+    public long getEvictions();
+}
@@ -12,6 +12,7 @@ public class SeqScan implements DbIterator {
     private String tableAlias;
     private DbFile tableFile;
     private DbFileIterator fileIterator;
+    private BitSet columns;
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -37,9 +38,34 @@ public class SeqScan implements DbIterator {
         }
     }
 
+    /** @return the id of the scanned table */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /** @return the transaction this scan is running as a part of */
+    public TransactionId getTransactionId() {
+        return tid;
+    }
+
+    /**
+     * Tells the scan that its consumers only read the specified fields of the
+     * tuples it returns, so that tables storing columns separately can avoid
+     * decoding the others. The other fields can still be read. Takes effect
+     * on the next call to open.
+     *
+     * @param columns the indexes of the fields that are read, or null for all.
+     */
+    public void setColumns(BitSet columns) {
+        this.columns = columns;
+    }
+
     public void open()
         throws DbException, TransactionAbortedException {
-        fileIterator = tableFile.iterator(tid);
+        if (columns != null && tableFile instanceof HeapFile)
+            fileIterator = ((HeapFile) tableFile).iterator(tid, columns);
+        else
+            fileIterator = tableFile.iterator(tid);
         fileIterator.open();
     }
 
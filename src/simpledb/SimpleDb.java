@@ -14,7 +14,7 @@ public class SimpleDb {
                         BufferPool.PAGE_SIZE,
                         Integer.parseInt(args[2]));
         }
-        else if (args.length == 4) {
+        else if (args.length == 4 || args.length == 5) {
             ArrayList<Type> ts = new ArrayList<Type>();
             String[] typeStringAr = args[3].split(",");
             for (String s: typeStringAr) {
@@ -27,6 +27,17 @@ public class SimpleDb {
                 return;
             }
             }
+            if (args.length == 5 && args[4].equals("slotted"))
+                HeapFileEncoder.convertSlotted(new File(args[1]),
+                        new File(args[1].replaceAll(".txt", ".dat")),
+                        BufferPool.PAGE_SIZE,
+                        Integer.parseInt(args[2]), ts.toArray(new Type[0]));
+            else if (args.length == 5 && args[4].equals("pax"))
+                HeapFileEncoder.convertPax(new File(args[1]),
+                        new File(args[1].replaceAll(".txt", ".dat")),
+                        BufferPool.PAGE_SIZE,
+                        Integer.parseInt(args[2]), ts.toArray(new Type[0]));
+            else
             HeapFileEncoder.convert(new File(args[1]),
                         new File(args[1].replaceAll(".txt", ".dat")),
                         BufferPool.PAGE_SIZE,
@@ -0,0 +1,35 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * SlottedHeapFile is a HeapFile whose pages are {@link SlottedPage}s, which
+ * store strings in as many bytes as they have characters. Use it for tables
+ * with string columns whose values are mostly much shorter than
+ * Type.STRING_LEN. Files in this format are written by
+ * {@link HeapFileEncoder#convertSlotted} and selected in a catalog file with
+ * the <code>format=slotted</code> table option.
+ */
+public class SlottedHeapFile extends HeapFile {
+
+    /**
+     * Constructs a slotted heap file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this heap file.
+     */
+    public SlottedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    /**
+     * Constructs a slotted heap file with the specified page size; see
+     * {@link HeapFile#HeapFile(File, TupleDesc, int)}.
+     */
+    public SlottedHeapFile(File f, TupleDesc td, int pageSize) throws IOException {
+        super(f, td, pageSize);
+    }
+
+    protected TuplePage newPage(HeapPageId pid, byte[] data) throws IOException {
+        return new SlottedPage(pid, data, getTupleDesc());
+    }
+}
@@ -0,0 +1,337 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * SlottedPage is a page layout for tables with variable-length tuples. A
+ * string takes one length byte plus its characters, instead of the fixed
+ * Type.STRING_LEN + 4 bytes of a HeapPage, so tables of short strings fit
+ * many more tuples per page.
+ * <p>
+ * The page starts with a 4 byte header: the number of entries in the slot
+ * directory and the offset where tuple data starts, both unsigned shorts,
+ * with a data offset of 0 standing for the end of the page. The directory
+ * follows the header, one entry per slot holding the offset and length of
+ * the slot's tuple, with an offset of 0 marking an empty slot. Tuple data
+ * grows from the end of the page towards the directory. An array of zeros is
+ * an empty page.
+ * <p>
+ * A tuple keeps its slot, and so its RecordId, for as long as it is on the
+ * page; deleting it leaves a hole in the data area that is reclaimed by
+ * compacting the page when an insert would not fit otherwise.
+ *
+ * @see SlottedHeapFile
+ */
+public class SlottedPage implements TuplePage {
+    private static final int HEADER_SIZE = 4;
+    private static final int SLOT_SIZE = 4;
+
+    private final HeapPageId pid;
+    private final TupleDesc td;
+    private final int pageSize;
+    private final int minTupleSize;
+    // the page bytes; shared with the before-image or the caller until the first change, see beforeModify()
+    private byte[] page;
+    private TransactionId dirtier;
+    private byte[] oldData;
+
+    private int numEntries;
+    private int dataStart;
+    private int emptyEntries;
+    // bytes of deleted tuples between dataStart and the end of the page
+    private int holeBytes;
+    private Tuple[] tuples;
+
+    /**
+     * Creates a SlottedPage of the table that pid belongs to from the
+     * specified bytes, which must not be modified afterwards. The page size
+     * is the length of the array.
+     */
+    public SlottedPage(HeapPageId pid, byte[] data) throws IOException {
+        this(pid, data, Database.getCatalog().getTupleDesc(pid.getTableId()));
+    }
+
+    /**
+     * Creates a SlottedPage holding tuples of the specified TupleDesc, for
+     * callers such as HeapFileEncoder that have no catalog entry.
+     */
+    SlottedPage(HeapPageId pid, byte[] data, TupleDesc td) {
+        this.pid = pid;
+        this.td = td;
+        this.page = data;
+        this.pageSize = data.length;
+        int min = 0;
+        for (int i = 0; i < td.numFields(); i++)
+            min += td.getType(i) == Type.STRING_TYPE ? 1 : td.getType(i).getLen();
+        this.minTupleSize = min;
+
+        numEntries = getShort(0);
+        dataStart = getShort(2) == 0 ? pageSize : getShort(2);
+        int liveBytes = 0;
+        for (int i = 0; i < numEntries; i++) {
+            if (entryOffset(i) == 0)
+                emptyEntries++;
+            else
+                liveBytes += entryLength(i);
+        }
+        holeBytes = pageSize - dataStart - liveBytes;
+        tuples = new Tuple[numEntries];
+    }
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    private int getShort(int offset) {
+        return ((page[offset] & 0xff) << 8) | (page[offset + 1] & 0xff);
+    }
+
+    private void putShort(int offset, int v) {
+        page[offset] = (byte) (v >>> 8);
+        page[offset + 1] = (byte) v;
+    }
+
+    private int entryOffset(int slot) {
+        return getShort(HEADER_SIZE + slot * SLOT_SIZE);
+    }
+
+    private int entryLength(int slot) {
+        return getShort(HEADER_SIZE + slot * SLOT_SIZE + 2);
+    }
+
+    private void setEntry(int slot, int offset, int length) {
+        putShort(HEADER_SIZE + slot * SLOT_SIZE, offset);
+        putShort(HEADER_SIZE + slot * SLOT_SIZE + 2, length);
+    }
+
+    private void setHeader() {
+        putShort(0, numEntries);
+        putShort(2, dataStart == pageSize ? 0 : dataStart);
+    }
+
+    /** @return the unused bytes between the slot directory and the tuple data. */
+    private int gap() {
+        return dataStart - HEADER_SIZE - numEntries * SLOT_SIZE;
+    }
+
+    /** @return the number of bytes the specified tuple takes on a SlottedPage. */
+    static int encodedSize(Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getType(i) == Type.STRING_TYPE)
+                size += 1 + Math.min(((StringField) t.getField(i)).getValue().length(), Type.STRING_LEN);
+            else
+                size += td.getType(i).getLen();
+        }
+        return size;
+    }
+
+    private void encode(Tuple t, int offset) {
+        for (int i = 0; i < td.numFields(); i++) {
+            Field f = t.getField(i);
+            if (td.getType(i) == Type.STRING_TYPE) {
+                String s = ((StringField) f).getValue();
+                int len = Math.min(s.length(), Type.STRING_LEN);
+                page[offset++] = (byte) len;
+                for (int c = 0; c < len; c++)
+                    page[offset++] = (byte) s.charAt(c);
+            } else {
+                f.serialize(page, offset);
+                offset += td.getType(i).getLen();
+            }
+        }
+    }
+
+    private Tuple decode(int slot) {
+        Tuple t = new Tuple(td);
+        int offset = entryOffset(slot);
+        try {
+            for (int i = 0; i < td.numFields(); i++) {
+                if (td.getType(i) == Type.STRING_TYPE) {
+                    int len = page[offset] & 0xff;
+                    t.setField(i, new StringField(new String(page, offset + 1, len), Type.STRING_LEN));
+                    offset += 1 + len;
+                } else {
+                    t.setField(i, td.getType(i).parse(page, offset));
+                    offset += td.getType(i).getLen();
+                }
+            }
+        } catch (java.text.ParseException e) {
+            throw new NoSuchElementException("parsing error: " + e.getMessage());
+        }
+        t.setRecordId(new RecordId(pid, slot));
+        return t;
+    }
+
+    public Tuple getTuple(int slot) {
+        if (slot < 0 || slot >= numEntries || entryOffset(slot) == 0)
+            return null;
+        if (tuples[slot] == null)
+            tuples[slot] = decode(slot);
+        return tuples[slot];
+    }
+
+    /**
+     * @return true if the specified tuple fits on this page, possibly after
+     *   compacting it.
+     */
+    public boolean hasRoomFor(Tuple t) {
+        int needed = encodedSize(t) + (emptyEntries > 0 ? 0 : SLOT_SIZE);
+        return needed <= gap() + holeBytes;
+    }
+
+    public void addTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("Tuple being added does not have the same tupledesc as this page");
+        if (!hasRoomFor(t))
+            throw new DbException("No space left on this page");
+
+        beforeModify();
+        int size = encodedSize(t);
+        int slot = numEntries;
+        if (emptyEntries > 0) {
+            for (slot = 0; entryOffset(slot) != 0; slot++)
+                ;
+        }
+        if (size + (slot == numEntries ? SLOT_SIZE : 0) > gap())
+            compact();
+        if (slot == numEntries) {
+            numEntries++;
+            if (tuples.length < numEntries) {
+                Tuple[] grown = new Tuple[Math.max(numEntries, tuples.length * 2)];
+                System.arraycopy(tuples, 0, grown, 0, tuples.length);
+                tuples = grown;
+            }
+        } else {
+            emptyEntries--;
+        }
+        dataStart -= size;
+        encode(t, dataStart);
+        setEntry(slot, dataStart, size);
+        setHeader();
+        tuples[slot] = t;
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    public void deleteTuple(Tuple t) throws DbException {
+        if (t.getRecordId() == null)
+            throw new DbException("This tuple has already been deleted");
+        int slot = t.getRecordId().tupleno();
+        if (!pid.equals(t.getRecordId().getPageId()))
+            throw new DbException(String.format("Tuple is not on page %s", pid.toString()));
+        if (slot >= numEntries || entryOffset(slot) == 0)
+            throw new DbException(String.format("No tuple at index %d in page %s", slot, pid.toString()));
+
+        beforeModify();
+        holeBytes += entryLength(slot);
+        setEntry(slot, 0, 0);
+        tuples[slot] = null;
+        emptyEntries++;
+        // drop empty entries at the end of the directory, so that an emptied page is all free space
+        while (numEntries > 0 && entryOffset(numEntries - 1) == 0) {
+            numEntries--;
+            emptyEntries--;
+        }
+        setHeader();
+        t.setRecordId(null);
+    }
+
+    /** Moves all tuples to the end of the page, turning the holes left by deletes into free space. */
+    private void compact() {
+        byte[] old = page.clone();
+        int end = pageSize;
+        for (int slot = 0; slot < numEntries; slot++) {
+            int offset = entryOffset(slot);
+            if (offset == 0)
+                continue;
+            int length = entryLength(slot);
+            end -= length;
+            System.arraycopy(old, offset, page, end, length);
+            setEntry(slot, end, length);
+        }
+        java.util.Arrays.fill(page, HEADER_SIZE + numEntries * SLOT_SIZE, end, (byte) 0);
+        dataStart = end;
+        holeBytes = 0;
+        setHeader();
+    }
+
+    /**
+     * Returns the number of tuples with empty strings that can still be
+     * added; whether a particular tuple fits is up to {@link #hasRoomFor}.
+     */
+    public int getNumEmptySlots() {
+        int free = gap() + holeBytes;
+        int reused = Math.min(emptyEntries, free / minTupleSize);
+        free -= reused * minTupleSize;
+        if (reused < emptyEntries)
+            return reused;
+        return reused + Math.max(0, free / (minTupleSize + SLOT_SIZE));
+    }
+
+    public Iterator<Tuple> iterator(BitSet columns) {
+        return iterator();
+    }
+
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>() {
+            private int slot = 0;
+
+            public boolean hasNext() {
+                while (slot < numEntries && entryOffset(slot) == 0)
+                    slot++;
+                return slot < numEntries;
+            }
+
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return getTuple(slot++);
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    public byte[] getPageData() {
+        return page.clone();
+    }
+
+    public int getPageData(byte[] out) {
+        System.arraycopy(page, 0, out, 0, pageSize);
+        return pageSize;
+    }
+
+    /**
+     * Called before every change to the page. The current bytes become the
+     * before-image on the first change since the last commit, and the page
+     * continues on a copy of them.
+     */
+    private void beforeModify() {
+        if (oldData == null) {
+            oldData = page;
+            page = page.clone();
+        }
+    }
+
+    public SlottedPage getBeforeImage() {
+        return new SlottedPage(pid, oldData != null ? oldData : page, td);
+    }
+
+    public void setBeforeImage() {
+        oldData = null;
+    }
+}
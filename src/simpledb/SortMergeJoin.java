@@ -0,0 +1,282 @@
+package simpledb;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * SortMergeJoin joins two relations that are sorted in ascending order of
+ * their join fields by reading them side by side. A child that is not known
+ * to be sorted on its join field (see {@link #isSortedOn}) is sorted with an
+ * {@link OrderBy} first.
+ * <p>
+ * An equality join reads each relation once, keeping in memory only the
+ * inner tuples that share the current key. A join on an inequality uses
+ * the fact that the tuples of one relation that match a tuple of the other
+ * are a prefix of it, and that the prefix only grows as the other relation
+ * is read: for <tt>outer &gt; inner</tt> or <tt>outer &gt;= inner</tt> the
+ * inner tuples matching an outer tuple are the ones that matched the
+ * previous outer tuple followed by the next few inner tuples, and for
+ * <tt>outer &lt; inner</tt> or <tt>outer &lt;= inner</tt> the same holds
+ * the other way around. The join keeps the prefix read so far, so each
+ * relation is read once, and the predicate is applied to about as many
+ * pairs as the join returns, rather than to every pair as in a nested-loop
+ * join. The prefix is kept in memory while its estimated size stays within
+ * {@link Join#DEFAULT_MEMORY_BUDGET} unless {@link #setMemoryBudget} says
+ * otherwise, and in a {@link SpillFile} that is read once per tuple of the
+ * other relation after that.
+ * <p>
+ * Like {@link Join}, the returned tuples are the outer tuple followed by
+ * the inner tuple. They come in ascending order of the outer join field,
+ * except for <tt>outer &lt; inner</tt> and <tt>outer &lt;= inner</tt>,
+ * which return them in ascending order of the inner join field.
+ */
+public class SortMergeJoin extends AbstractDbIterator {
+    private final JoinPredicate jp;
+    private final DbIterator child1;
+    private final DbIterator child2;
+    private final boolean innerDrives; // true if the outer relation is read once per inner tuple
+
+    // equality join: the current outer tuple, the inner tuples with its key, and the inner tuple after them
+    private Tuple outer;
+    private final ArrayList<Tuple> group = new ArrayList<Tuple>();
+    private Field groupKey;
+    private int groupPos;
+    private Tuple nextInner;
+
+    // inequality join: the current tuple of the driving relation, the prefix of the other relation
+    // that matches it, and the tuple of the other relation after the prefix read so far
+    private Tuple driver;
+    private final ArrayList<Tuple> prefixTuples = new ArrayList<Tuple>();
+    private SpillFile prefixSpill; // holds the prefix instead of prefixTuples once it outgrows the memory budget
+    private DbFileIterator spilledPrefix; // reads prefixSpill for the current driver
+    private int prefixPos; // next tuple of prefixTuples to join with the current driver
+    private Tuple nextPrefix;
+    private long memoryBudget = Join.DEFAULT_MEMORY_BUDGET;
+
+    /**
+     * Creates a join of two relations on a predicate.
+     *
+     * @param p the predicate to join on; EQUALS, GREATER_THAN,
+     *   GREATER_THAN_OR_EQ, LESS_THAN or LESS_THAN_OR_EQ
+     * @param child1 the outer relation
+     * @param child2 the inner relation
+     * @throws IllegalArgumentException if the predicate has another operator
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        switch (p.getOp()) {
+        case EQUALS:
+        case GREATER_THAN:
+        case GREATER_THAN_OR_EQ:
+        case LESS_THAN:
+        case LESS_THAN_OR_EQ:
+            break;
+        default:
+            throw new IllegalArgumentException("a sort-merge join cannot join on " + p.getOp());
+        }
+        this.jp = p;
+        this.child1 = isSortedOn(child1, p.getFieldOne()) ? child1 : new OrderBy(p.getFieldOne(), true, child1);
+        this.child2 = isSortedOn(child2, p.getFieldTwo()) ? child2 : new OrderBy(p.getFieldTwo(), true, child2);
+        innerDrives = p.getOp() == Predicate.Op.LESS_THAN || p.getOp() == Predicate.Op.LESS_THAN_OR_EQ;
+    }
+
+    /**
+     * @return true if the specified iterator is known to return its tuples
+     *   in ascending order of the specified field: an ascending OrderBy on
+     *   it, an IndexScan whose key it is, a SeqScan of a BTreeFile whose key
+     *   it is, a Filter of such an iterator, or a SortMergeJoin that returns
+     *   its tuples in that order.
+     */
+    public static boolean isSortedOn(DbIterator it, int field) {
+        if (it instanceof SeqScan) {
+            DbFile file = Database.getCatalog().getDbFile(((SeqScan) it).getTableId());
+            return file instanceof BTreeFile && ((BTreeFile) file).getKeyField() == field;
+        }
+        if (it instanceof OrderBy)
+            return ((OrderBy) it).isAscending() && ((OrderBy) it).getOrderByField() == field;
+        if (it instanceof IndexScan)
+            return ((IndexScan) it).getOrderField() == field;
+        if (it instanceof Filter)
+            return isSortedOn(((Filter) it).getChild(), field);
+        if (it instanceof SortMergeJoin)
+            return ((SortMergeJoin) it).isSortedOn(field);
+        return false;
+    }
+
+    /** @return true if this join returns its tuples in ascending order of the specified field */
+    private boolean isSortedOn(int field) {
+        int innerField = child1.getTupleDesc().numFields() + jp.getFieldTwo();
+        if (jp.getOp() == Predicate.Op.EQUALS)
+            return field == jp.getFieldOne() || field == innerField;
+        return field == (innerDrives ? innerField : jp.getFieldOne());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return TupleDesc.combine(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * Sets the estimated size in bytes the matching prefix of a join on an
+     * inequality may take in memory before it is written to disk. Takes
+     * effect on the next call to open.
+     */
+    public void setMemoryBudget(long bytes) {
+        if (bytes <= 0)
+            throw new IllegalArgumentException("memory budget must be positive: " + bytes);
+        memoryBudget = bytes;
+    }
+
+    /** @return true if the matching prefix has been written to disk since the last call to open or rewind */
+    boolean hasSpilled() {
+        return prefixSpill != null;
+    }
+
+    public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+        child1.open();
+        child2.open();
+        reset();
+    }
+
+    private void reset() throws DbException, TransactionAbortedException {
+        outer = null;
+        group.clear();
+        groupKey = null;
+        groupPos = 0;
+        driver = null;
+        nextInner = null;
+        clearPrefix();
+        if (jp.getOp() == Predicate.Op.EQUALS && child2.hasNext())
+            nextInner = child2.next();
+    }
+
+    private void clearPrefix() {
+        prefixTuples.clear();
+        prefixPos = 0;
+        nextPrefix = null;
+        if (spilledPrefix != null)
+            spilledPrefix.close();
+        spilledPrefix = null;
+        if (prefixSpill != null)
+            prefixSpill.delete();
+        prefixSpill = null;
+    }
+
+    public void close() {
+        child1.close();
+        child2.close();
+        outer = null;
+        group.clear();
+        driver = null;
+        nextInner = null;
+        clearPrefix();
+        super.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        child2.rewind();
+        reset();
+    }
+
+    private static boolean less(Field a, Field b) {
+        return a.compare(Predicate.Op.LESS_THAN, b);
+    }
+
+    private Tuple readNextEquals() throws TransactionAbortedException, DbException {
+        int fieldTwo = jp.getFieldTwo();
+        while (true) {
+            if (outer != null && groupPos < group.size())
+                return Tuple.combine(outer, group.get(groupPos++));
+            if (!child1.hasNext())
+                return null;
+            outer = child1.next();
+            groupPos = 0;
+            Field key = outer.getField(jp.getFieldOne());
+            if (groupKey != null && !less(groupKey, key)) {
+                // the same key as the last outer tuple joins with the same group; a smaller one with nothing
+                if (!groupKey.equals(key))
+                    groupPos = group.size();
+                continue;
+            }
+            group.clear();
+            groupKey = null;
+            while (nextInner != null && less(nextInner.getField(fieldTwo), key))
+                nextInner = child2.hasNext() ? child2.next() : null;
+            if (nextInner == null || !nextInner.getField(fieldTwo).equals(key))
+                continue;
+            groupKey = key;
+            while (nextInner != null && nextInner.getField(fieldTwo).equals(key)) {
+                group.add(nextInner);
+                nextInner = child2.hasNext() ? child2.next() : null;
+            }
+        }
+    }
+
+    private Tuple readNextInequality() throws TransactionAbortedException, DbException {
+        DbIterator driving = innerDrives ? child2 : child1;
+        DbIterator prefix = innerDrives ? child1 : child2;
+        while (true) {
+            if (driver != null) {
+                // the prefix that matched the previous driving tuples matches this one too
+                if (spilledPrefix != null) {
+                    if (spilledPrefix.hasNext())
+                        return combine(spilledPrefix.next());
+                    spilledPrefix.close();
+                    spilledPrefix = null;
+                }
+                if (prefixPos < prefixTuples.size())
+                    return combine(prefixTuples.get(prefixPos++));
+                if (nextPrefix == null && prefix.hasNext())
+                    nextPrefix = prefix.next();
+                if (nextPrefix != null && (innerDrives ? jp.filter(nextPrefix, driver) : jp.filter(driver, nextPrefix))) {
+                    Tuple t = nextPrefix;
+                    nextPrefix = null;
+                    addToPrefix(t);
+                    return combine(t);
+                }
+            }
+            // the prefix of matches ended; the next driving tuple's prefix is at least as long
+            if (!driving.hasNext())
+                return null;
+            driver = driving.next();
+            prefixPos = 0;
+            if (prefixSpill != null) {
+                spilledPrefix = prefixSpill.iterator();
+                spilledPrefix.open();
+            }
+        }
+    }
+
+    /** @return the current driving tuple combined with a tuple of its prefix */
+    private Tuple combine(Tuple t) {
+        return innerDrives ? Tuple.combine(t, driver) : Tuple.combine(driver, t);
+    }
+
+    /** Appends a tuple to the prefix, which the current driving tuple has already been joined with. */
+    private void addToPrefix(Tuple t) throws DbException {
+        try {
+            if (prefixSpill == null && (prefixTuples.size() + 1) * Join.tupleBytes(t.getTupleDesc()) > memoryBudget) {
+                prefixSpill = new SpillFile(t.getTupleDesc());
+                for (Tuple p : prefixTuples)
+                    prefixSpill.add(p);
+                prefixTuples.clear();
+            }
+            if (prefixSpill != null) {
+                prefixSpill.add(t);
+            } else {
+                prefixTuples.add(t);
+                prefixPos = prefixTuples.size();
+            }
+        } catch (IOException e) {
+            throw new DbException("could not spill join input: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the next tuple of the join, or null if there are no more.
+     * @see Join#readNext
+     */
+    protected Tuple readNext() throws TransactionAbortedException, DbException {
+        if (jp.getOp() == Predicate.Op.EQUALS)
+            return readNextEquals();
+        return readNextInequality();
+    }
+}
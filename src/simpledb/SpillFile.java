@@ -0,0 +1,189 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * SpillFile is a temporary file of tuples that operators write when their
+ * input does not fit in memory, and read back once or several times. The
+ * tuples are stored back to back in the format written by
+ * {@link Field#serialize}, td.getSize() bytes each, with no header, and are
+ * written and read in blocks of {@link #BLOCK_SIZE} bytes. Tuples read back
+ * decode their fields lazily from the block they were read in.
+ * <p>
+ * The temporary file is only created when the first tuple is added, so
+ * spill files that stay empty cost nothing, and it is deleted by
+ * {@link #delete}, which the operator that created the file has to call
+ * when it is closed.
+ */
+public class SpillFile {
+    /** Size in bytes of the blocks tuples are written and read in */
+    public static final int BLOCK_SIZE = 32768;
+
+    private final TupleDesc td;
+    private final int tupleSize;
+    private final int tuplesPerBlock;
+    private File file; // null until the first tuple is added
+    private boolean deleted;
+    private OutputStream out;
+    private byte[] block;
+    private int blockUsed;
+    private long numTuples;
+
+    /**
+     * Creates an empty spill file for tuples of the specified schema.
+     */
+    public SpillFile(TupleDesc td) {
+        this.td = td;
+        tupleSize = td.getSize();
+        tuplesPerBlock = Math.max(1, BLOCK_SIZE / tupleSize);
+    }
+
+    /** @return the schema of the tuples in this file */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of tuples added to this file */
+    public long numTuples() {
+        return numTuples;
+    }
+
+    /** @return the number of bytes the tuples in this file take */
+    public long numBytes() {
+        return numTuples * tupleSize;
+    }
+
+    /**
+     * Appends a tuple to the file. The file must not be read while tuples
+     * are being added.
+     */
+    public void add(Tuple t) throws IOException {
+        if (deleted)
+            throw new IOException("spill file has been deleted");
+        if (block == null) {
+            if (file == null)
+                file = File.createTempFile("spill", ".tmp");
+            block = new byte[tuplesPerBlock * tupleSize];
+            out = new FileOutputStream(file, true);
+        }
+        for (int i = 0; i < td.numFields(); i++)
+            t.getField(i).serialize(block, blockUsed + td.getOffset(i));
+        blockUsed += tupleSize;
+        numTuples++;
+        if (blockUsed == block.length)
+            flush();
+    }
+
+    /**
+     * Writes out the tuples added since the last call and releases the
+     * write buffer; called before the file is read. Tuples can still be
+     * added afterwards.
+     */
+    public void finish() throws IOException {
+        if (out == null)
+            return;
+        flush();
+        out.close();
+        out = null;
+        block = null;
+    }
+
+    private void flush() throws IOException {
+        out.write(block, 0, blockUsed);
+        blockUsed = 0;
+    }
+
+    /** Deletes the file; it cannot be used afterwards. */
+    public void delete() {
+        deleted = true;
+        if (file == null)
+            return;
+        try {
+            if (out != null)
+                out.close();
+        } catch (IOException e) {
+            // the file is deleted anyway
+        }
+        out = null;
+        block = null;
+        file.delete();
+        file = null;
+    }
+
+    /**
+     * @return an iterator over the tuples of this file, in the order they
+     *   were added. {@link #finish} is called on open.
+     */
+    public DbFileIterator iterator() {
+        return new SpillIterator();
+    }
+
+    private class SpillIterator extends AbstractDbFileIterator {
+        private InputStream in;
+        private byte[] data;
+        private int dataLength;
+        private int pos;
+
+        public void open() throws DbException {
+            if (deleted)
+                throw new DbException("spill file has been deleted");
+            try {
+                finish();
+                // a file that no tuple was added to was never created
+                in = file == null ? new ByteArrayInputStream(new byte[0]) : new FileInputStream(file);
+            } catch (IOException e) {
+                throw new DbException("could not read spill file " + file + ": " + e.getMessage());
+            }
+            data = null;
+            dataLength = 0;
+            pos = 0;
+        }
+
+        protected Tuple readNext() throws DbException {
+            if (in == null)
+                return null;
+            if (pos == dataLength && !readBlock())
+                return null;
+            Tuple t = new Tuple(td, data, pos);
+            pos += tupleSize;
+            return t;
+        }
+
+        /** Reads the next block into a new array, since returned tuples keep decoding from the old one. */
+        private boolean readBlock() throws DbException {
+            byte[] next = new byte[tuplesPerBlock * tupleSize];
+            int length = 0;
+            try {
+                int n;
+                while (length < next.length && (n = in.read(next, length, next.length - length)) > 0)
+                    length += n;
+            } catch (IOException e) {
+                throw new DbException("could not read spill file " + file + ": " + e.getMessage());
+            }
+            if (length % tupleSize != 0)
+                throw new DbException("spill file " + file + " ends in a partial tuple");
+            data = next;
+            dataLength = length;
+            pos = 0;
+            return length > 0;
+        }
+
+        public void rewind() throws DbException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // nothing was written
+                }
+            }
+            in = null;
+            data = null;
+        }
+    }
+}
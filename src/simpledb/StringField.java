@@ -59,6 +59,18 @@ public class StringField implements Field {
         dos.write((byte)0);
     }
 
+    /**
+     * Write this string into data at offset, in the format of
+     * {@link #serialize(DataOutputStream)}.
+     */
+    public void serialize(byte[] data, int offset) {
+        int len = Math.min(value.length(), maxSize);
+        Type.writeInt(data, offset, len);
+        for (int i = 0; i < len; i++)
+            data[offset + 4 + i] = (byte) value.charAt(i);
+        java.util.Arrays.fill(data, offset + 4 + len, offset + 4 + maxSize, (byte) 0);
+    }
+
     /**
      * Compare the specified field to the value of this Field.
      * Return semantics are as specified by Field.compare
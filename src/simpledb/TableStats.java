@@ -12,6 +12,7 @@ public class TableStats {
     private HashMap<Integer, Field> fieldMax;
     private HashMap<Integer, Field> fieldMin;
     private int tupleCount;
+    private int indexHeight;
 
     /**
      * Number of bins for the histogram.
@@ -35,6 +36,8 @@ public class TableStats {
         fieldMax = new HashMap<Integer, Field>();
         fieldMin = new HashMap<Integer, Field>();
         TupleDesc td = dbFile.getTupleDesc();
+        if (dbFile instanceof BTreeFile)
+            indexHeight = ((BTreeFile) dbFile).height();
         calculateTableFieldsMinMax();
 
         // perform table scan to create histograms
@@ -125,7 +128,35 @@ public class TableStats {
      * @return The estimated cost of scanning the table.
      */ 
     public double estimateScanCost() {
-        return ((HeapFile)dbFile).numPages() * ioCostPerPage;
+        return numPages() * ioCostPerPage;
+    }
+
+    /**
+     * Estimates the cost of an {@link IndexScan} of the table that returns
+     * the tuples satisfying predicates with the specified selectivity. The
+     * scan reads the pages from the root of the B+-tree down to the first
+     * match, and then the leaves holding the matches, which take up the same
+     * fraction of the table's pages as the matches do of its tuples.
+     * <p>
+     * For a heap table with a {@link HashIndexFile}, which only answers
+     * equality predicates, the scan reads the directory, the key's bucket
+     * and the page of each match, which may all be different pages.
+     *
+     * @return The estimated cost of the index scan, or infinity if the table
+     *   is neither stored in a {@link BTreeFile} nor has a hash index.
+     */
+    public double estimateIndexScanCost(double selectivity) {
+        if (dbFile instanceof BTreeFile)
+            return (indexHeight + Math.ceil(selectivity * numPages())) * ioCostPerPage;
+        if (Database.getCatalog().getHashIndex(dbFile.getId()) != null)
+            return (2 + Math.min(numPages(), Math.ceil(selectivity * tupleCount))) * ioCostPerPage;
+        return Double.POSITIVE_INFINITY;
+    }
+
+    private int numPages() {
+        if (dbFile instanceof BTreeFile)
+            return ((BTreeFile) dbFile).numPages();
+        return ((HeapFile) dbFile).numPages();
     }
 
     /** 
@@ -12,9 +12,23 @@ public class Tuple {
 	private TupleDesc td;
 	private RecordId rId;
 	private Field[] fields;
+	// serialized tuple that unset fields are decoded from, see Tuple(TupleDesc, byte[], int)
+	private byte[] source;
+	private int offset;
+	// for tuples stored by column, the offset in source of each column; offset is then the row index
+	private int[] columnStarts;
 
     public static Tuple combine(Tuple t1, Tuple t2) {
-        TupleDesc newTd = TupleDesc.combine(t1.getTupleDesc(), t2.getTupleDesc());
+        return combine(TupleDesc.combine(t1.getTupleDesc(), t2.getTupleDesc()), t1, t2);
+    }
+
+    /**
+     * Like {@link #combine(Tuple, Tuple)}, for operators that combine many
+     * tuples of the same schemas and compute the combined schema once.
+     *
+     * @param newTd the result of TupleDesc.combine on the schemas of t1 and t2
+     */
+    public static Tuple combine(TupleDesc newTd, Tuple t1, Tuple t2) {
         Tuple newT = new Tuple(newTd);
         int fieldOneCount = t1.getTupleDesc().numFields();
         int fieldTwoCount = t2.getTupleDesc().numFields();
@@ -38,6 +52,39 @@ public class Tuple {
     	this.fields = new Field[td.numFields()];
     }
 
+    /**
+     * Create a tuple whose fields are decoded from the serialized tuple at
+     * the specified offset of source, each one the first time it is read.
+     * Fields that are never read are never decoded. The caller must not
+     * modify source while the tuple is in use.
+     *
+     * @param td the schema of this tuple.
+     * @param source bytes holding the tuple in the format written by
+     *   {@link Field#serialize}.
+     * @param offset offset of the first byte of the tuple in source.
+     */
+    Tuple(TupleDesc td, byte[] source, int offset) {
+    	this(td);
+    	this.source = source;
+    	this.offset = offset;
+    }
+
+    /**
+     * Create a tuple whose fields are decoded lazily from a page that stores
+     * each column separately, such as a {@link PaxPage}. Field i is at
+     * columnStarts[i] + row * (length of field i) in source.
+     *
+     * @param td the schema of this tuple.
+     * @param source bytes holding the columns in the format written by
+     *   {@link Field#serialize}.
+     * @param columnStarts offset of the first value of each column in source.
+     * @param row index of this tuple within the columns.
+     */
+    Tuple(TupleDesc td, byte[] source, int[] columnStarts, int row) {
+    	this(td, source, row);
+    	this.columnStarts = columnStarts;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -84,6 +131,15 @@ public class Tuple {
     public Field getField(int i) throws NoSuchElementException {
     	if(i >= td.numFields())
     		throw new NoSuchElementException("Trying to access a field that is out of bounds");
+    	if(fields[i] == null && source != null) {
+    		try {
+    			Type type = td.getType(i);
+    			int at = columnStarts == null ? offset + td.getOffset(i) : columnStarts[i] + offset * type.getLen();
+    			fields[i] = type.parse(source, at);
+    		} catch(java.text.ParseException e) {
+    			throw new NoSuchElementException("parsing error: " + e.getMessage());
+    		}
+    	}
     	return fields[i];
     }
 
@@ -98,8 +154,8 @@ public class Tuple {
      */
     public String toString() {
     	StringBuilder retVal = new StringBuilder(); 
-    	for(Field f: fields) {
-    		retVal.append(f.toString());
+    	for(int i=0; i<fields.length; i++) {
+    		retVal.append(getField(i).toString());
     		retVal.append("\t");
     	}
     	retVal.append("\n");
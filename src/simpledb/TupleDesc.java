@@ -8,6 +8,8 @@ public class TupleDesc {
 	
 	private Type[] typeAr;
 	private String[] fieldAr;
+	// byte offset of each field within a tuple, computed on first use
+	private int[] offsets;
 	
 
     /**
@@ -151,6 +153,25 @@ public class TupleDesc {
 		return tupleSize;
     }
 
+    /**
+     * @return The offset (in bytes) of the ith field from the start of tuples
+     * corresponding to this TupleDesc.
+     *
+     * @param i The index of the field. It must be a valid index.
+     * @throws NoSuchElementException if i is not a valid field reference.
+     */
+    public int getOffset(int i) throws NoSuchElementException {
+    	if (i >= this.numFields())
+    		throw new NoSuchElementException();
+    	if (offsets == null) {
+    		int[] o = new int[typeAr.length];
+    		for (int x = 1; x < typeAr.length; x++)
+    			o[x] = o[x - 1] + typeAr[x - 1].getLen();
+    		offsets = o;
+    	}
+    	return offsets[i];
+    }
+
     /**
      * Compares the specified object with this TupleDesc for equality.
      * Two TupleDescs are considered equal if they are the same size and if the
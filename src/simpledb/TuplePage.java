@@ -0,0 +1,66 @@
+package simpledb;
+
+import java.util.BitSet;
+import java.util.Iterator;
+
+/**
+ * TuplePage is a page of a HeapFile: an unordered set of tuples addressed
+ * by slot number. HeapFile only uses pages through this interface, so that
+ * each subclass of HeapFile can store its tuples in its own page layout.
+ *
+ * @see HeapPage
+ * @see HeapFile#newPage
+ */
+public interface TuplePage extends Page {
+
+    public HeapPageId getId();
+
+    /**
+     * Adds the specified tuple to the page and sets its RecordId.
+     * @throws DbException if the tuple does not fit or its TupleDesc does
+     *   not match the page's.
+     */
+    public void addTuple(Tuple t) throws DbException;
+
+    /**
+     * Deletes the specified tuple from the page and clears its RecordId.
+     * @throws DbException if the tuple is not on this page.
+     */
+    public void deleteTuple(Tuple t) throws DbException;
+
+    /**
+     * Returns the number of tuples that can still be added to this page.
+     * Pages of variable-length tuples count tuples of the smallest possible
+     * size, so this is a hint for the free space map: a page reporting 0 has
+     * no room for any tuple, but one reporting more may not have room for a
+     * particular one, see {@link #hasRoomFor}.
+     */
+    public int getNumEmptySlots();
+
+    /**
+     * @return true if the specified tuple fits on this page.
+     */
+    public boolean hasRoomFor(Tuple t);
+
+    /**
+     * @return the tuple in the specified slot, with its RecordId set, or
+     *   null if the slot is empty or does not exist on this page.
+     */
+    public Tuple getTuple(int slot);
+
+    /**
+     * @return an iterator over the tuples on this page; remove is not
+     *   supported.
+     */
+    public Iterator<Tuple> iterator();
+
+    /**
+     * Returns an iterator over the tuples on this page for a reader that
+     * only needs the specified columns. This is a hint: the other fields of
+     * the tuples can still be read, but layouts that store columns
+     * separately may decode the specified ones up front.
+     *
+     * @param columns the indexes of the needed columns, or null for all.
+     */
+    public Iterator<Tuple> iterator(BitSet columns);
+}
@@ -24,6 +24,13 @@ public enum Type {
             }
         }
 
+        @Override
+        public Field parse(byte[] data, int offset) throws ParseException {
+            if (offset < 0 || offset + 4 > data.length)
+                throw new ParseException("couldn't parse", offset);
+            return new IntField(readInt(data, offset));
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -42,6 +49,16 @@ public enum Type {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(byte[] data, int offset) throws ParseException {
+            if (offset < 0 || offset + getLen() > data.length)
+                throw new ParseException("couldn't parse", offset);
+            int strLen = readInt(data, offset);
+            if (strLen < 0 || strLen > STRING_LEN)
+                throw new ParseException("bad string length " + strLen, offset);
+            return new StringField(new String(data, offset + 4, strLen), STRING_LEN);
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -60,4 +77,30 @@ public enum Type {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   read from the specified offset of data. Unlike parse(DataInputStream),
+   *   this one has no position to advance, so many threads can decode
+   *   fields from the same array.
+   * @param data The bytes to read from
+   * @param offset The offset of the first byte of the field
+   * @throws ParseException if the data at offset is not of the appropriate
+   *   type.
+   */
+    public abstract Field parse(byte[] data, int offset) throws ParseException;
+
+    /** Writes a big-endian int, as DataOutputStream.writeInt does. */
+    static void writeInt(byte[] data, int offset, int v) {
+        data[offset] = (byte) (v >>> 24);
+        data[offset + 1] = (byte) (v >>> 16);
+        data[offset + 2] = (byte) (v >>> 8);
+        data[offset + 3] = (byte) v;
+    }
+
+    /** Reads a big-endian int, as written by DataOutputStream.writeInt. */
+    static int readInt(byte[] data, int offset) {
+        return (data[offset] << 24) | ((data[offset + 1] & 0xff) << 16)
+                | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+    }
+
 }
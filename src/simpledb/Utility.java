@@ -108,13 +108,14 @@ public class Utility {
         FileOutputStream fos = new FileOutputStream(f);
         fos.write(new byte[0]);
         fos.close();
+        FreeSpaceMap.sidecarFor(f).delete();
 
         HeapFile hf = openHeapFile(cols, f);
         HeapPageId pid = new HeapPageId(hf.getId(), 0);
 
         HeapPage page = null;
         try {
-            page = new HeapPage(pid, HeapPage.createEmptyPageData());
+            page = new HeapPage(pid, HeapPage.createEmptyPageData(hf.getId()));
         } catch (IOException e) {
             // this should never happen for an empty page; bail;
             throw new RuntimeException("failed to create empty page in HeapFile");
@@ -0,0 +1,99 @@
+package simpledb;
+
+/**
+ * WaitTimeHistogram counts waits by duration in power-of-two buckets: bucket
+ * i counts waits of at least 2^i and less than 2^(i+1) microseconds, except
+ * that bucket 0 also counts waits shorter than a microsecond and the last
+ * bucket counts all longer waits. Recording a wait is constant time and
+ * allocation free, so it can be done on every lock wait.
+ *
+ * @see LockManager#getWaitTimes
+ */
+public class WaitTimeHistogram {
+    public static final int BUCKETS = 32;
+
+    private final long[] counts;
+    private long count;
+    private long totalNanos;
+    private long maxNanos;
+
+    public WaitTimeHistogram() {
+        counts = new long[BUCKETS];
+    }
+
+    /** Records a wait of the specified duration. */
+    public synchronized void record(long nanos) {
+        counts[bucketOf(nanos)]++;
+        count++;
+        totalNanos += nanos;
+        maxNanos = Math.max(maxNanos, nanos);
+    }
+
+    /** @return the bucket that counts waits of the specified duration */
+    public static int bucketOf(long nanos) {
+        long micros = nanos / 1000;
+        if (micros < 1)
+            return 0;
+        return Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros));
+    }
+
+    /** @return the exclusive upper bound, in microseconds, of the waits counted in a bucket */
+    public static long bucketLimitMicros(int bucket) {
+        return 1L << (bucket + 1);
+    }
+
+    /** @return the number of waits recorded */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /** @return the number of waits recorded in the specified bucket */
+    public synchronized long getCount(int bucket) {
+        return counts[bucket];
+    }
+
+    /** @return the total duration of all waits recorded, in nanoseconds */
+    public synchronized long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /** @return the longest wait recorded, in nanoseconds */
+    public synchronized long getMaxNanos() {
+        return maxNanos;
+    }
+
+    /**
+     * Returns an upper bound on the specified percentile of the recorded waits:
+     * the limit of the bucket that holds it.
+     *
+     * @param percentile between 0 and 100
+     * @return the bound in microseconds, or 0 if no waits were recorded
+     */
+    public synchronized long percentileMicros(double percentile) {
+        if (count == 0)
+            return 0;
+        long rank = (long) Math.ceil(count * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0)
+                return bucketLimitMicros(i);
+        }
+        return bucketLimitMicros(BUCKETS - 1);
+    }
+
+    /** Forgets all recorded waits. */
+    public synchronized void clear() {
+        for (int i = 0; i < BUCKETS; i++)
+            counts[i] = 0;
+        count = 0;
+        totalNanos = 0;
+        maxNanos = 0;
+    }
+
+    public synchronized String toString() {
+        long mean = count == 0 ? 0 : totalNanos / count / 1000;
+        return String.format("waits=%d mean=%dus p50<%dus p99<%dus max=%dus",
+                count, mean, percentileMicros(50), percentileMicros(99), maxNanos / 1000);
+    }
+}
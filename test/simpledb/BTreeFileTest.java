@@ -0,0 +1,251 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BTreeFileTest extends SimpleDbTestBase {
+    private File file;
+    private ArrayList<ArrayList<Integer>> tuples;
+    private BTreeFile bf;
+
+    /**
+     * Bulk loads a two column table keyed on its first column, with every
+     * key appearing three times, so that equal keys span leaves.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        file = File.createTempFile("btree", ".dat");
+        file.deleteOnExit();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        Random r = new Random(42);
+        for (int i = 0; i < 30000; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(i / 3);
+            tuple.add(r.nextInt(100000));
+            tuples.add(tuple);
+        }
+        HeapFileEncoder.convertBTree(tuples, file, 2, 0);
+        bf = new BTreeFile(file, Utility.getTupleDesc(2, "f"), 0);
+        Database.getCatalog().addTable(bf, SystemTestUtil.getUUID());
+    }
+
+    private ArrayList<ArrayList<Integer>> matching(Predicate.Op op, int operand) {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> tuple : tuples)
+            if (new IntField(tuple.get(0)).compare(op, new IntField(operand)))
+                result.add(tuple);
+        return result;
+    }
+
+    /**
+     * Scans all tuples of the file and checks that the keys are in order.
+     * @return the number of tuples
+     */
+    private int checkOrder(DbFileIterator it) throws Exception {
+        it.open();
+        int count = 0;
+        int last = Integer.MIN_VALUE;
+        while (it.hasNext()) {
+            int key = ((IntField) it.next().getField(0)).getValue();
+            assertTrue(key >= last);
+            last = key;
+            count++;
+        }
+        it.close();
+        return count;
+    }
+
+    /**
+     * A bulk loaded file holds all the tuples, in key order, in a tree of
+     * more than one level.
+     */
+    @Test public void bulkLoad() throws Exception {
+        // 511 tuples per leaf: 59 leaves under one root
+        assertEquals(2, bf.height());
+        assertEquals(1 + 59 + 1, bf.numPages());
+        SystemTestUtil.matchTuples(bf, tuples);
+        TransactionId tid = new TransactionId();
+        assertEquals(tuples.size(), checkOrder(bf.iterator(tid)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Index scans return exactly the tuples matching their predicate, for
+     * keys at the ends of the table, on leaf boundaries and missing keys.
+     */
+    @Test public void indexScan() throws Exception {
+        Predicate.Op[] ops = new Predicate.Op[] { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+                Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ };
+        int[] keys = new int[] { -1, 0, 170, 171, 5000, 9999, 10000 };
+        TransactionId tid = new TransactionId();
+        for (Predicate.Op op : ops) {
+            for (int key : keys) {
+                IndexScan scan = new IndexScan(tid, bf.getId(), "t", op, new IntField(key));
+                SystemTestUtil.matchTuples(scan, matching(op, key));
+            }
+        }
+        IndexScan range = new IndexScan(tid, bf.getId(), "t", Predicate.Op.GREATER_THAN, new IntField(100),
+                Predicate.Op.LESS_THAN_OR_EQ, new IntField(200));
+        ArrayList<ArrayList<Integer>> expected = matching(Predicate.Op.GREATER_THAN, 100);
+        expected.retainAll(matching(Predicate.Op.LESS_THAN_OR_EQ, 200));
+        SystemTestUtil.matchTuples(range, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * An equality lookup reads only the pages on the way down and the
+     * leaves holding the key.
+     */
+    @Test public void indexScanReadsFewPages() throws Exception {
+        TransactionId tid = new TransactionId();
+        long misses = Database.getBufferPool().getMisses();
+        DbFileIterator it = bf.indexIterator(tid, Predicate.Op.EQUALS, new IntField(4321));
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(3, count);
+        assertTrue(Database.getBufferPool().getMisses() - misses <= 4);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Inserting tuples through the BufferPool splits leaves and internal
+     * pages, and the tuples are found again after the file is reopened.
+     */
+    @Test public void insertSplits() throws Exception {
+        Database.resetBufferPool(500);
+        File strFile = File.createTempFile("btree", ".dat");
+        strFile.deleteOnExit();
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE }, new String[] { "s", "i" });
+        BTreeFile sf = new BTreeFile(strFile, td, 0);
+        Database.getCatalog().addTable(sf, SystemTestUtil.getUUID());
+        assertEquals(1, sf.height());
+
+        Random r = new Random(7);
+        HashMap<String, Integer> inserted = new HashMap<String, Integer>();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 4000; i++) {
+            String key = "k" + r.nextInt(1000000);
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField(key, Type.STRING_LEN));
+            t.setField(1, new IntField(i));
+            Database.getBufferPool().insertTuple(tid, sf.getId(), t);
+            Integer n = inserted.get(key);
+            inserted.put(key, n == null ? 1 : n + 1);
+            if (i % 200 == 199) {
+                Database.getBufferPool().transactionComplete(tid);
+                tid = new TransactionId();
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        // 30 keys per internal page and 30 tuples per leaf
+        assertTrue(sf.height() >= 3);
+
+        Database.resetBufferPool(500);
+        sf.close();
+        tid = new TransactionId();
+        DbFileIterator it = sf.iterator(tid);
+        it.open();
+        String last = "";
+        int count = 0;
+        while (it.hasNext()) {
+            String key = ((StringField) it.next().getField(0)).getValue();
+            assertTrue(key.compareTo(last) >= 0);
+            last = key;
+            count++;
+        }
+        it.close();
+        assertEquals(4000, count);
+        for (String key : inserted.keySet()) {
+            it = sf.indexIterator(tid, Predicate.Op.EQUALS, new StringField(key, Type.STRING_LEN));
+            it.open();
+            int found = 0;
+            while (it.hasNext()) {
+                assertEquals(key, ((StringField) it.next().getField(0)).getValue());
+                found++;
+            }
+            it.close();
+            assertEquals(inserted.get(key).intValue(), found);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Tuples can be deleted while the index scan that found them is
+     * running, and the others stay.
+     */
+    @Test public void deleteWhileScanning() throws Exception {
+        Database.resetBufferPool(500);
+        TransactionId tid = new TransactionId();
+        IndexScan scan = new IndexScan(tid, bf.getId(), "t", Predicate.Op.LESS_THAN, new IntField(2000));
+        Delete delete = new Delete(tid, scan);
+        delete.open();
+        Tuple result = delete.next();
+        delete.close();
+        assertEquals(6000, ((IntField) result.getField(0)).getValue());
+        Database.getBufferPool().transactionComplete(tid);
+
+        SystemTestUtil.matchTuples(bf, matching(Predicate.Op.GREATER_THAN_OR_EQ, 2000));
+    }
+
+    /**
+     * The planner answers a selective filter on the key with an IndexScan,
+     * which reads a few pages, and an unselective one with a scan of the
+     * whole table.
+     */
+    @Test public void plannerChoosesIndexScan() throws Exception {
+        String name = Database.getCatalog().getTableName(bf.getId());
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(bf.getId(), 1000));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(bf.getId(), "t");
+        lp.addFilter("t.f0", Predicate.Op.EQUALS, "123");
+        lp.addProjectField("t.f0", null);
+        lp.addProjectField("t.f1", null);
+        // start with an empty pool, after computing the statistics
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        SystemTestUtil.matchTuples(plan, matching(Predicate.Op.EQUALS, 123));
+        // the root pointer, the root and at most two leaves
+        assertTrue(Database.getBufferPool().getMisses() <= 4);
+
+        lp = new LogicalPlan();
+        lp.addScan(bf.getId(), "t");
+        lp.addFilter("t.f0", Predicate.Op.GREATER_THAN, "100");
+        lp.addProjectField("t.f0", null);
+        lp.addProjectField("t.f1", null);
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        plan = lp.physicalPlan(tid, stats, false);
+        SystemTestUtil.matchTuples(plan, matching(Predicate.Op.GREATER_THAN, 100));
+        // every page of the file, on the way down to the first leaf and then every leaf
+        assertEquals(bf.numPages(), Database.getBufferPool().getMisses());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeFileTest.class);
+    }
+}
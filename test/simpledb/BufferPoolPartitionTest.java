@@ -0,0 +1,135 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolPartitionTest extends SimpleDbTestBase {
+
+    /**
+     * Unit test for the default number of partitions
+     */
+    @Test public void defaultPartitions() {
+        assertEquals(1, new BufferPool(20).getNumPartitions());
+        assertEquals(3, new BufferPool(BufferPool.DEFAULT_PAGES).getNumPartitions());
+        assertEquals(BufferPool.MAX_PARTITIONS, new BufferPool(1000).getNumPartitions());
+        assertEquals(1, new BufferPool(1000, new ClockPolicy()).getNumPartitions());
+    }
+
+    /**
+     * All partitions share the capacity of the pool.
+     */
+    @Test public void capacityIsShared() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 100 * 504, null, null);
+        BufferPool bp = new BufferPool(32, 4, new ReplacementPolicy.Factory() {
+            public ReplacementPolicy newPolicy() {
+                return new LruKPolicy();
+            }
+        });
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 100; i++)
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+
+        int resident = 0;
+        for (int i = 0; i < 100; i++)
+            if (bp.isResident(new HeapPageId(hf.getId(), i)))
+                resident++;
+        assertEquals(32, resident);
+        assertNull(bp.getReplacementPolicy());
+        assertEquals(100, bp.getMisses());
+        assertEquals(68, bp.getEvictions());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * A page whose own partition holds only dirty pages evicts a clean page
+     * from another partition.
+     */
+    @Test public void evictionFallsBackToOtherPartitions() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10 * 504, null, null);
+        BufferPool bp = new BufferPool(8, 4, new ReplacementPolicy.Factory() {
+            public ReplacementPolicy newPolicy() {
+                return new ClockPolicy();
+            }
+        });
+        TransactionId tid = new TransactionId();
+        ArrayList<Page> dirty = new ArrayList<Page>();
+        for (int i = 0; i < 8; i++) {
+            Page p = bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_WRITE);
+            if (i != 5) {
+                p.markDirty(true, tid);
+                dirty.add(p);
+            }
+        }
+
+        bp.getPage(tid, new HeapPageId(hf.getId(), 8), Permissions.READ_ONLY);
+        assertFalse(bp.isResident(new HeapPageId(hf.getId(), 5)));
+        for (Page p : dirty)
+            assertTrue(bp.isResident(p.getId()));
+
+        bp.getPage(tid, new HeapPageId(hf.getId(), 8), Permissions.READ_ONLY).markDirty(true, tid);
+        try {
+            bp.getPage(tid, new HeapPageId(hf.getId(), 9), Permissions.READ_ONLY);
+            fail("expected DbException");
+        } catch (DbException e) {
+            // every page in the pool is dirty
+        }
+        bp.transactionComplete(tid, false);
+    }
+
+    /**
+     * Concurrent hits from several threads are all counted.
+     */
+    @Test public void concurrentHits() throws Exception {
+        final HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 64 * 504, null, null);
+        final BufferPool bp = new BufferPool(64, 4, new ReplacementPolicy.Factory() {
+            public ReplacementPolicy newPolicy() {
+                return new ClockPolicy();
+            }
+        });
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 64; i++)
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+
+        final int rounds = 50;
+        final Exception[] error = new Exception[1];
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                public void run() {
+                    TransactionId tid = new TransactionId();
+                    try {
+                        for (int r = 0; r < rounds; r++)
+                            for (int i = 0; i < 64; i++)
+                                bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+                        bp.transactionComplete(tid);
+                    } catch (Exception e) {
+                        error[0] = e;
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        assertNull(error[0]);
+        assertEquals(64, bp.getMisses());
+        assertEquals(threads.length * rounds * 64, bp.getHits());
+        assertEquals(0, bp.getEvictions());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolPartitionTest.class);
+    }
+}
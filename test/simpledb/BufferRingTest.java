@@ -0,0 +1,69 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferRingTest extends SimpleDbTestBase {
+
+    /**
+     * Unit test for BufferPool.newBulkReadRing()
+     */
+    @Test public void ringOnlyForLargeTables() {
+        BufferPool bp = new BufferPool(64);
+        assertNull(bp.newBulkReadRing(64));
+        BufferRing ring = bp.newBulkReadRing(65);
+        assertNotNull(ring);
+        assertEquals(8, ring.size());
+        assertEquals(BufferPool.BULK_READ_RING_PAGES, new BufferPool(1000).newBulkReadRing(1001).size());
+        assertEquals(1, new BufferPool(4).newBulkReadRing(100).size());
+    }
+
+    /**
+     * A scan over a table larger than the pool must not evict pages that
+     * were cached before the scan started.
+     */
+    @Test public void largeScanKeepsWorkingSet() throws Exception {
+        HeapFile hot = SystemTestUtil.createRandomHeapFile(2, 10 * 504, null, null);
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 100 * 504, null, null);
+        assertEquals(10, hot.numPages());
+        assertEquals(100, big.numPages());
+
+        BufferPool bp = Database.resetBufferPool(20);
+        ReplacementPolicy policy = bp.getReplacementPolicy();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < hot.numPages(); i++)
+            bp.getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+        assertEquals(10, policy.getMisses());
+
+        DbFileIterator it = big.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(100 * 504, count);
+        assertEquals(110, policy.getMisses());
+
+        // every hot page is still cached
+        for (int i = 0; i < hot.numPages(); i++)
+            bp.getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+        assertEquals(110, policy.getMisses());
+        assertEquals(0, policy.getEvictions());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferRingTest.class);
+    }
+}
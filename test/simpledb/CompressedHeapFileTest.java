@@ -0,0 +1,88 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class CompressedHeapFileTest extends SimpleDbTestBase {
+    private ArrayList<ArrayList<Integer>> tuples;
+    private File heap;
+    private File compressed;
+
+    /**
+     * Writes a table of small values, which compresses well, and a
+     * compressed copy of it.
+     */
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        heap = SystemTestUtil.createRandomHeapFileUnopened(2, 3000, 100, null, tuples);
+        compressed = File.createTempFile("compressed", ".dat");
+        compressed.deleteOnExit();
+        CompressedHeapFile.indexFor(compressed).deleteOnExit();
+        FreeSpaceMap.sidecarFor(compressed).deleteOnExit();
+        CompressedHeapFile.compress(heap, compressed, 6);
+    }
+
+    private CompressedHeapFile open() {
+        CompressedHeapFile hf = new CompressedHeapFile(compressed, Utility.getTupleDesc(2), 6);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        return hf;
+    }
+
+    /**
+     * A compressed copy has the same pages and tuples in a smaller file.
+     */
+    @Test public void compressedCopy() throws Exception {
+        CompressedHeapFile hf = open();
+        assertEquals(heap.length() / BufferPool.PAGE_SIZE, hf.numPages());
+        assertTrue(compressed.length() < heap.length() / 2);
+        SystemTestUtil.matchTuples(hf, tuples);
+        hf.close();
+    }
+
+    /**
+     * Inserted tuples are written through the index and are there when the
+     * table is opened again, including on pages that outgrew their space.
+     */
+    @Test public void insertAndReopen() throws Exception {
+        CompressedHeapFile hf = open();
+        int pages = hf.numPages();
+        long size = compressed.length();
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1000; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] { 100000 + i * 7919, -i * 104729 });
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            row.add(100000 + i * 7919);
+            row.add(-i * 104729);
+            tuples.add(row);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(hf.numPages() > pages);
+        // the last page of the copy was partly full and its new image did not fit in place
+        assertTrue(compressed.length() > size);
+        hf.close();
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        hf = open();
+        SystemTestUtil.matchTuples(hf, tuples);
+        hf.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedHeapFileTest.class);
+    }
+}
@@ -0,0 +1,123 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.LockGrabber;
+
+public class DeadlockPolicyTest extends TestUtil.CreateHeapFile {
+    /** Time to wait before checking the state of lock contention, in ms */
+    private static final int TIMEOUT = 100;
+
+    private PageId p0, p1;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1025; ++i)
+            empty.addTuple(tid, Utility.getHeapTuple(i, 2));
+        assertEquals(3, empty.numPages());
+        p0 = new HeapPageId(empty.getId(), 0);
+        p1 = new HeapPageId(empty.getId(), 1);
+        bp.getPage(tid, p0, Permissions.READ_WRITE).markDirty(true, tid);
+        bp.getPage(tid, p1, Permissions.READ_WRITE).markDirty(true, tid);
+        bp.flushAllPages();
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    private static LockGrabber startGrabber(TransactionId tid, PageId pid, Permissions perm) {
+        LockGrabber lg = new LockGrabber(tid, pid, perm);
+        lg.start();
+        return lg;
+    }
+
+    /**
+     * Wait-die: an older transaction waits for a younger one, a younger
+     * transaction aborts instead of waiting for an older one.
+     */
+    @Test public void waitDie() throws Exception {
+        bp.setDeadlockPolicy(DeadlockPolicy.WAIT_DIE);
+        TransactionId older = new TransactionId();
+        TransactionId younger = new TransactionId();
+
+        bp.getPage(older, p0, Permissions.READ_WRITE);
+        try {
+            bp.getPage(younger, p0, Permissions.READ_ONLY);
+            fail("expected TransactionAbortedException");
+        } catch (TransactionAbortedException e) {
+            // younger dies
+        }
+        bp.transactionComplete(younger, false);
+
+        bp.getPage(younger, p1, Permissions.READ_WRITE);
+        LockGrabber lg = startGrabber(older, p1, Permissions.READ_ONLY);
+        Thread.sleep(TIMEOUT);
+        assertFalse(lg.acquired());
+        bp.transactionComplete(younger);
+        Thread.sleep(TIMEOUT);
+        assertTrue(lg.acquired());
+        assertNull(lg.getError());
+        bp.transactionComplete(older);
+    }
+
+    /**
+     * Wound-wait: an older transaction wounds a younger lock holder, which
+     * aborts on its next lock request.
+     */
+    @Test public void woundWait() throws Exception {
+        bp.setDeadlockPolicy(DeadlockPolicy.WOUND_WAIT);
+        TransactionId older = new TransactionId();
+        TransactionId younger = new TransactionId();
+
+        bp.getPage(younger, p0, Permissions.READ_WRITE);
+        LockGrabber lg = startGrabber(older, p0, Permissions.READ_WRITE);
+        Thread.sleep(TIMEOUT);
+        assertFalse(lg.acquired());
+        try {
+            bp.getPage(younger, p1, Permissions.READ_ONLY);
+            fail("expected TransactionAbortedException");
+        } catch (TransactionAbortedException e) {
+            // younger was wounded
+        }
+        bp.transactionComplete(younger, false);
+        Thread.sleep(TIMEOUT);
+        assertTrue(lg.acquired());
+        bp.transactionComplete(older);
+    }
+
+    /**
+     * Wound-wait: a wounded transaction that is waiting for a lock aborts
+     * right away, which resolves what would otherwise be a deadlock.
+     */
+    @Test public void woundWaitWakesWaitingVictim() throws Exception {
+        bp.setDeadlockPolicy(DeadlockPolicy.WOUND_WAIT);
+        TransactionId older = new TransactionId();
+        TransactionId younger = new TransactionId();
+
+        bp.getPage(older, p0, Permissions.READ_WRITE);
+        bp.getPage(younger, p1, Permissions.READ_WRITE);
+        LockGrabber victim = startGrabber(younger, p0, Permissions.READ_WRITE);
+        Thread.sleep(TIMEOUT);
+        assertFalse(victim.acquired());
+
+        // the grabber of the wounded transaction aborts it, releasing p1
+        LockGrabber lg = startGrabber(older, p1, Permissions.READ_WRITE);
+        Thread.sleep(TIMEOUT);
+        assertTrue(victim.getError() instanceof TransactionAbortedException);
+        assertTrue(lg.acquired());
+        bp.transactionComplete(older);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DeadlockPolicyTest.class);
+    }
+}
@@ -0,0 +1,68 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class DependencyGraphTest extends SimpleDbTestBase {
+    private static final PageId P0 = new HeapPageId(-1, 0);
+    private static final PageId P1 = new HeapPageId(-1, 1);
+
+    private static void assertDeadlock(DependencyGraph g, TransactionId waiter, TransactionId runner, PageId pid) {
+        try {
+            g.addDependency(waiter, runner, pid);
+            fail("expected TransactionAbortedException");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+    }
+
+    /**
+     * An edge that closes a cycle is rejected and not added.
+     */
+    @Test public void detectsCycleThroughNewEdge() throws Exception {
+        DependencyGraph g = new DependencyGraph();
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        TransactionId t3 = new TransactionId();
+        g.addDependency(t1, t2, P0);
+        g.addDependency(t2, t3, P0);
+        assertDeadlock(g, t3, t1, P1);
+        assertEquals(3, g.size());
+
+        // a waiter may wait for several holders of the same page
+        TransactionId t4 = new TransactionId();
+        g.addDependency(t1, t4, P0);
+        g.addDependency(t3, t4, P1);
+        assertEquals(4, g.size());
+    }
+
+    /**
+     * Edges for different pages between the same transactions are removed
+     * independently.
+     */
+    @Test public void parallelEdges() throws Exception {
+        DependencyGraph g = new DependencyGraph();
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        g.addDependency(t1, t2, P0);
+        g.addDependency(t1, t2, P1);
+
+        g.removeDependencies(t2, P0);
+        assertDeadlock(g, t2, t1, P0);
+        g.removeWaiter(t1, P1);
+        assertEquals(0, g.size());
+        g.addDependency(t2, t1, P0);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DependencyGraphTest.class);
+    }
+}
@@ -0,0 +1,147 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.RandomAccessFile;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class FreeSpaceMapTest extends TestUtil.CreateHeapFile {
+    private BufferPool bp;
+
+    /**
+     * Fills pages 0 and 1 of the table and puts a single tuple on page 2.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        FreeSpaceMap.sidecarFor(empty.getFile()).deleteOnExit();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1009; ++i)
+            Database.getBufferPool().insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(3, empty.numPages());
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    private int insert(TransactionId tid) throws Exception {
+        Tuple t = Utility.getHeapTuple(0, 2);
+        empty.addTuple(tid, t);
+        return t.getRecordId().getPageId().pageno();
+    }
+
+    /**
+     * Inserts go straight to the page with room, without reading full pages.
+     */
+    @Test public void insertSkipsFullPages() throws Exception {
+        TransactionId tid = new TransactionId();
+        assertEquals(2, insert(tid));
+        assertEquals(1, bp.getMisses());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * The map survives reopening the table.
+     */
+    @Test public void persisted() throws Exception {
+        FreeSpaceMap map = new FreeSpaceMap(empty.getFile());
+        assertEquals(2, map.firstFree(3));
+        assertFalse(map.isFree(0));
+        assertFalse(map.isFree(1));
+
+        empty = Utility.openHeapFile(2, empty.getFile());
+        TransactionId tid = new TransactionId();
+        assertEquals(2, insert(tid));
+        assertEquals(1, bp.getMisses());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Deleting a tuple from a full page makes its slot available again.
+     */
+    @Test public void deleteFreesPage() throws Exception {
+        TransactionId tid = new TransactionId();
+        HeapPage p0 = (HeapPage) bp.getPage(tid, new HeapPageId(empty.getId(), 0), Permissions.READ_WRITE);
+        Iterator<Tuple> it = p0.iterator();
+        empty.deleteTuple(tid, it.next());
+        bp.transactionComplete(tid);
+
+        tid = new TransactionId();
+        assertEquals(0, insert(tid));
+        assertEquals(2, insert(tid));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Slots filled by an aborted transaction can be used again.
+     */
+    @Test public void abortRestoresFreeSpace() throws Exception {
+        TransactionId tid = new TransactionId();
+        HeapPageId pid = new HeapPageId(empty.getId(), 2);
+        int free = ((HeapPage) bp.getPage(tid, pid, Permissions.READ_ONLY)).getNumEmptySlots();
+        for (int i = 0; i < free; i++)
+            assertEquals(2, insert(tid));
+        bp.transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        assertEquals(2, insert(tid));
+        assertEquals(3, empty.numPages());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * A table without a map is probed page by page once, after which full
+     * pages are skipped.
+     */
+    @Test public void missingMapIsRebuilt() throws Exception {
+        assertTrue(FreeSpaceMap.sidecarFor(empty.getFile()).delete());
+        empty = Utility.openHeapFile(2, empty.getFile());
+
+        TransactionId tid = new TransactionId();
+        assertEquals(2, insert(tid));
+        assertEquals(3, bp.getMisses());
+        assertEquals(2, insert(tid));
+        assertEquals(3, bp.getMisses());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * A map written for a table file of another length is discarded, and all
+     * pages are probed again.
+     */
+    @Test public void staleMapIsDiscarded() throws Exception {
+        RandomAccessFile raf = new RandomAccessFile(empty.getFile(), "rw");
+        raf.setLength(raf.length() + BufferPool.PAGE_SIZE);
+        raf.close();
+
+        FreeSpaceMap map = new FreeSpaceMap(empty.getFile());
+        assertTrue(map.isFree(0));
+        assertEquals(0, map.firstFree(4));
+        assertFalse(FreeSpaceMap.sidecarFor(empty.getFile()).exists());
+    }
+
+    /**
+     * Writing pages that still have room does not create a map, so tables
+     * that never fill a page leave no sidecar behind.
+     */
+    @Test public void noMapUntilPageFills() throws Exception {
+        assertTrue(FreeSpaceMap.sidecarFor(empty.getFile()).delete());
+        empty = Utility.openHeapFile(2, empty.getFile());
+
+        TransactionId tid = new TransactionId();
+        assertEquals(2, insert(tid));
+        bp.transactionComplete(tid);
+        bp.flushAllPages();
+        assertFalse(FreeSpaceMap.sidecarFor(empty.getFile()).exists());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
@@ -0,0 +1,338 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HashIndexTest extends SimpleDbTestBase {
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile hf;
+
+    /** Creates a two column heap table whose first column, the primary key, holds 0 to 19999. */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 20000; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(i);
+            tuple.add(i % 100);
+            tuples.add(tuple);
+        }
+        hf = createTable(tuples);
+    }
+
+    private HeapFile createTable(ArrayList<ArrayList<Integer>> rows) throws Exception {
+        File file = File.createTempFile("hashtable", ".dat");
+        file.deleteOnExit();
+        FreeSpaceMap.sidecarFor(file).deleteOnExit();
+        HashIndexFile.fileFor(file).deleteOnExit();
+        HeapFileEncoder.convert(rows, file, BufferPool.PAGE_SIZE, 2);
+        HeapFile table = new HeapFile(file, Utility.getTupleDesc(2, "f"));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID(), "f0");
+        return table;
+    }
+
+    private static ArrayList<Integer> row(int a, int b) {
+        ArrayList<Integer> tuple = new ArrayList<Integer>();
+        tuple.add(a);
+        tuple.add(b);
+        return tuple;
+    }
+
+    private int count(DbIterator it) throws Exception {
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /**
+     * An index built for an existing table finds every tuple by its key,
+     * reading the directory, one bucket and the tuple's page.
+     */
+    @Test public void buildAndLookup() throws Exception {
+        HashIndexFile index = Database.getCatalog().addHashIndex(hf.getId());
+        assertEquals(0, index.getKeyField());
+        TransactionId tid = new TransactionId();
+        for (int key = -5; key < 20005; key += 7) {
+            ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+            if (key >= 0 && key < 20000)
+                expected.add(tuples.get(key));
+            SystemTestUtil.matchTuples(new IndexScan(tid, hf.getId(), "t", Predicate.Op.EQUALS, new IntField(key)), expected);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        assertEquals(1, count(new IndexScan(tid, hf.getId(), "t", Predicate.Op.EQUALS, new IntField(12345))));
+        assertEquals(3, Database.getBufferPool().getMisses());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Tuples inserted and deleted through the BufferPool are added to and
+     * removed from the index, whose buckets split as they fill; since the
+     * table file has changed, the index is rebuilt when the table is
+     * reopened.
+     */
+    @Test public void maintainedByBufferPool() throws Exception {
+        HashIndexFile index = Database.getCatalog().addHashIndex(hf.getId());
+        int pagesBefore = index.numPages();
+        Database.resetBufferPool(500);
+        TransactionId tid = new TransactionId();
+        for (int i = 20000; i < 40000; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { i, -i }));
+            tuples.add(row(i, -i));
+            if (i % 500 == 499) {
+                Database.getBufferPool().transactionComplete(tid);
+                tid = new TransactionId();
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(index.numPages() > pagesBefore);
+
+        tid = new TransactionId();
+        for (int key = 0; key < 40000; key += 1000) {
+            Delete delete = new Delete(tid, new IndexScan(tid, hf.getId(), "t", Predicate.Op.EQUALS, new IntField(key)));
+            delete.open();
+            assertEquals(1, ((IntField) delete.next().getField(0)).getValue());
+            delete.close();
+            tuples.remove(row(key, key < 20000 ? key % 100 : -key));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        // reopen the table and its index from disk
+        String name = Database.getCatalog().getTableName(hf.getId());
+        Database.getBufferPool().flushAllPages();
+        Database.getCatalog().clear();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapFile reopened = new HeapFile(hf.getFile(), Utility.getTupleDesc(2, "f"));
+        Database.getCatalog().addTable(reopened, name, "f0");
+        assertFalse(HashIndexFile.isCurrent(index.getFile(), reopened));
+        index = Database.getCatalog().addHashIndex(reopened.getId());
+
+        TransactionId check = new TransactionId();
+        int entries = count(new SeqScan(check, index.getId(), "i"));
+        assertEquals(tuples.size(), entries);
+        for (int key = 0; key < 40000; key += 250) {
+            int expected = key % 1000 == 0 ? 0 : 1;
+            assertEquals(expected, count(new IndexScan(check, reopened.getId(), "t", Predicate.Op.EQUALS, new IntField(key))));
+        }
+        Database.getBufferPool().transactionComplete(check);
+    }
+
+    /**
+     * An index file left over from a table file that has since been
+     * rewritten with other tuples is rebuilt instead of used.
+     */
+    @Test public void staleIndexIsRebuilt() throws Exception {
+        Database.getCatalog().addHashIndex(hf.getId());
+        String name = Database.getCatalog().getTableName(hf.getId());
+        Database.getCatalog().clear();
+
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 5000; i++)
+            rows.add(row(i * 3, i));
+        HeapFileEncoder.convert(rows, hf.getFile(), BufferPool.PAGE_SIZE, 2);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapFile rewritten = new HeapFile(hf.getFile(), Utility.getTupleDesc(2, "f"));
+        Database.getCatalog().addTable(rewritten, name, "f0");
+        assertFalse(HashIndexFile.isCurrent(HashIndexFile.fileFor(hf.getFile()), rewritten));
+        Database.getCatalog().addHashIndex(rewritten.getId());
+
+        TransactionId tid = new TransactionId();
+        assertEquals(1, count(new IndexScan(tid, rewritten.getId(), "t", Predicate.Op.EQUALS, new IntField(300))));
+        assertEquals(0, count(new IndexScan(tid, rewritten.getId(), "t", Predicate.Op.EQUALS, new IntField(301))));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * An index file left over from a table file that has since been
+     * rewritten with as many tuples, but other keys, is rebuilt instead of
+     * used; an index of an unchanged table file is used.
+     */
+    @Test public void sameSizeRewriteIsRebuilt() throws Exception {
+        Database.getCatalog().addHashIndex(hf.getId());
+        String name = Database.getCatalog().getTableName(hf.getId());
+        Database.getCatalog().clear();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapFile reopened = new HeapFile(hf.getFile(), Utility.getTupleDesc(2, "f"));
+        assertTrue(HashIndexFile.isCurrent(HashIndexFile.fileFor(hf.getFile()), reopened));
+
+        long length = hf.getFile().length();
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 20000; i++)
+            rows.add(row(i + 100000, i % 100));
+        HeapFileEncoder.convert(rows, hf.getFile(), BufferPool.PAGE_SIZE, 2);
+        assertEquals(length, hf.getFile().length());
+        HeapFile rewritten = new HeapFile(hf.getFile(), Utility.getTupleDesc(2, "f"));
+        Database.getCatalog().addTable(rewritten, name, "f0");
+        assertFalse(HashIndexFile.isCurrent(HashIndexFile.fileFor(hf.getFile()), rewritten));
+        Database.getCatalog().addHashIndex(rewritten.getId());
+
+        TransactionId tid = new TransactionId();
+        assertEquals(1, count(new IndexScan(tid, rewritten.getId(), "t", Predicate.Op.EQUALS, new IntField(100300))));
+        assertEquals(0, count(new IndexScan(tid, rewritten.getId(), "t", Predicate.Op.EQUALS, new IntField(300))));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A compressed table can have a hash index; its page-offset index and
+     * the hash index are kept in different files.
+     */
+    @Test public void compressedTable() throws Exception {
+        File file = File.createTempFile("hashtable", ".dat");
+        file.deleteOnExit();
+        CompressedHeapFile.indexFor(file).deleteOnExit();
+        HashIndexFile.fileFor(file).deleteOnExit();
+        FreeSpaceMap.sidecarFor(file).deleteOnExit();
+        CompressedHeapFile.compress(hf.getFile(), file, 6);
+        assertFalse(CompressedHeapFile.indexFor(file).equals(HashIndexFile.fileFor(file)));
+
+        CompressedHeapFile table = new CompressedHeapFile(file, Utility.getTupleDesc(2, "f"), 6);
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID(), "f0");
+        Database.getCatalog().addHashIndex(table.getId());
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[] { 20000, 0 }));
+        Database.getBufferPool().transactionComplete(tid);
+        tuples.add(row(20000, 0));
+
+        tid = new TransactionId();
+        assertEquals(1, count(new IndexScan(tid, table.getId(), "t", Predicate.Op.EQUALS, new IntField(20000))));
+        assertEquals(1, count(new IndexScan(tid, table.getId(), "t", Predicate.Op.EQUALS, new IntField(1234))));
+        SystemTestUtil.matchTuples(new SeqScan(tid, table.getId(), "t"), tuples);
+        Database.getBufferPool().transactionComplete(tid);
+        table.close();
+    }
+
+    /**
+     * A key repeated more often than a bucket at the directory's maximum
+     * depth holds goes to a chain of overflow pages.
+     */
+    @Test public void overflowChain() throws Exception {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        HeapFile dups = createTable(rows);
+        HashIndexFile index = Database.getCatalog().addHashIndex(dups.getId());
+        Database.resetBufferPool(500);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 2000; i++) {
+            Database.getBufferPool().insertTuple(tid, dups.getId(), Utility.getHeapTuple(new int[] { 7, i }));
+            rows.add(row(7, i));
+            if (i % 500 == 499) {
+                Database.getBufferPool().transactionComplete(tid);
+                tid = new TransactionId();
+            }
+        }
+        Database.getBufferPool().insertTuple(tid, dups.getId(), Utility.getHeapTuple(new int[] { 8, 0 }));
+        Database.getBufferPool().transactionComplete(tid);
+
+        // the directory, the first bucket, one bucket per split up to depth 9,
+        // and overflow pages for the rest of the 340 int entries per page
+        assertTrue(index.numPages() >= 1 + 1 + 9 + 2000 / 340);
+        tid = new TransactionId();
+        SystemTestUtil.matchTuples(new IndexScan(tid, dups.getId(), "t", Predicate.Op.EQUALS, new IntField(7)), rows);
+        assertEquals(1, count(new IndexScan(tid, dups.getId(), "t", Predicate.Op.EQUALS, new IntField(8))));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The planner answers an equality filter on the primary key through the
+     * index, and a range filter with a scan.
+     */
+    @Test public void plannerUsesHashIndex() throws Exception {
+        Database.getCatalog().addHashIndex(hf.getId());
+        String name = Database.getCatalog().getTableName(hf.getId());
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(hf.getId(), 1000));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "t");
+        lp.addFilter("t.f0", Predicate.Op.EQUALS, "4321");
+        lp.addProjectField("t.f1", null);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        plan.open();
+        assertTrue(plan.hasNext());
+        assertEquals(new IntField(21), plan.next().getField(0));
+        assertFalse(plan.hasNext());
+        plan.close();
+        assertEquals(3, Database.getBufferPool().getMisses());
+        Database.getBufferPool().transactionComplete(tid);
+
+        lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "t");
+        lp.addFilter("t.f0", Predicate.Op.LESS_THAN, "10");
+        lp.addProjectField("t.f1", null);
+        tid = new TransactionId();
+        assertEquals(10, count(lp.physicalPlan(tid, stats, false)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * An equality join of a few outer tuples with an indexed table looks
+     * them up in the index instead of reading the whole table, and a large
+     * outer relation uses a hash join; both find the same matches.
+     */
+    @Test public void indexNestedLoopJoin() throws Exception {
+        Database.getCatalog().addHashIndex(hf.getId());
+        ArrayList<ArrayList<Integer>> outerRows = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 10; i++)
+            outerRows.add(row(i * 1999, i));
+        outerRows.add(row(-1, 0));
+        HeapFile outer = createTable(outerRows);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        Join join = new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, outer.getId(), "o"), new SeqScan(tid, hf.getId(), "t"));
+        join.open();
+        int matches = 0;
+        while (join.hasNext()) {
+            join.next();
+            matches++;
+        }
+        assertEquals(10, matches);
+        // the outer page, the directory, and at most a bucket and a table page per outer tuple
+        assertTrue(Database.getBufferPool().getMisses() <= 2 + 2 * 11);
+        assertTrue(Database.getBufferPool().getMisses() < hf.numPages());
+        join.rewind();
+        for (matches = 0; join.hasNext(); matches++)
+            join.next();
+        assertEquals(10, matches);
+        join.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        // every tuple of the table joins with one outer tuple
+        ArrayList<ArrayList<Integer>> allRows = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 20000; i++)
+            allRows.add(row(i, i));
+        HeapFile big = createTable(allRows);
+        tid = new TransactionId();
+        join = new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, big.getId(), "o"), new SeqScan(tid, hf.getId(), "t"));
+        assertEquals(20000, count(join));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashIndexTest.class);
+    }
+}
@@ -126,6 +126,91 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.addTuple() on a page whose last header byte has
+     * bits past the last slot
+     */
+    @Test public void addTupleUnalignedSlots() throws Exception {
+        Database.getCatalog().addTable(new SkeletonFile(-2, Utility.getTupleDesc(4)), SystemTestUtil.getUUID());
+        HeapPage page = new HeapPage(new HeapPageId(-2, 0), HeapPage.createEmptyPageData(-2));
+        int slots = page.getNumEmptySlots();
+        assertEquals(254, slots);
+
+        for (int i = 0; i < slots; ++i) {
+            Tuple t = Utility.getHeapTuple(i, 4);
+            page.addTuple(t);
+            assertEquals(i, t.getRecordId().tupleno());
+        }
+        assertEquals(0, page.getNumEmptySlots());
+
+        // slots are refilled lowest first, and survive a round trip through the page bytes
+        Iterator<Tuple> it = page.iterator();
+        for (int i = 0; i < 70; ++i)
+            it.next();
+        page.deleteTuple(it.next());
+        page.deleteTuple(it.next());
+        Tuple t = Utility.getHeapTuple(-1, 4);
+        page.addTuple(t);
+        assertEquals(70, t.getRecordId().tupleno());
+
+        HeapPage copy = new HeapPage(new HeapPageId(-2, 0), page.getPageData());
+        assertEquals(1, copy.getNumEmptySlots());
+        int count = 0;
+        for (it = copy.iterator(); it.hasNext(); it.next())
+            count++;
+        assertEquals(253, count);
+    }
+
+    /**
+     * Unit test for HeapPage.getPageData() after tuples were added and deleted
+     */
+    @Test public void pageDataRoundTrip() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Iterator<Tuple> it = page.iterator();
+        page.deleteTuple(it.next());
+        it.next();
+        page.deleteTuple(it.next());
+        page.addTuple(Utility.getHeapTuple(new int[] { 42, -42 }));
+        page.setBeforeImage();
+        page.addTuple(Utility.getHeapTuple(new int[] { 7, 8 }));
+
+        // the reusable-buffer variant overwrites whatever was in the buffer
+        byte[] buf = new byte[BufferPool.PAGE_SIZE];
+        java.util.Arrays.fill(buf, (byte) 0x55);
+        assertEquals(BufferPool.PAGE_SIZE, page.getPageData(buf));
+        assertTrue(java.util.Arrays.equals(page.getPageData(), buf));
+
+        HeapPage copy = new HeapPage(pid, buf);
+        assertEquals(page.getNumEmptySlots(), copy.getNumEmptySlots());
+        Iterator<Tuple> expected = page.iterator();
+        Iterator<Tuple> actual = copy.iterator();
+        while (expected.hasNext())
+            assertTrue(TestUtil.compareTuples(expected.next(), actual.next()));
+        assertTrue(!actual.hasNext());
+    }
+
+    /**
+     * Unit test for HeapPage.getBeforeImage() and HeapPage.setBeforeImage()
+     */
+    @Test public void beforeImage() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        int free = page.getNumEmptySlots();
+        assertTrue(java.util.Arrays.equals(HeapPageReadTest.EXAMPLE_DATA, page.getBeforeImage().getPageData()));
+
+        // the first change captures the contents as loaded
+        page.addTuple(Utility.getHeapTuple(1, 2));
+        page.addTuple(Utility.getHeapTuple(2, 2));
+        assertEquals(free, page.getBeforeImage().getNumEmptySlots());
+
+        // after a commit the current contents are the before-image
+        page.setBeforeImage();
+        byte[] committed = page.getPageData();
+        assertTrue(java.util.Arrays.equals(committed, page.getBeforeImage().getPageData()));
+        page.addTuple(Utility.getHeapTuple(3, 2));
+        assertTrue(java.util.Arrays.equals(committed, page.getBeforeImage().getPageData()));
+        assertEquals(free - 2, page.getBeforeImage().getNumEmptySlots());
+    }
+
     /**
      * JUnit suite target
      */
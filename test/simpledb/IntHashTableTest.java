@@ -0,0 +1,65 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class IntHashTableTest extends SimpleDbTestBase {
+
+    /**
+     * Keys are numbered in the order they are first added, and found again
+     * after the table has grown many times.
+     */
+    @Test public void addAndFind() {
+        IntHashTable table = new IntHashTable();
+        HashMap<Integer, Integer> expected = new HashMap<Integer, Integer>();
+        Random r = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            // multiples of a large power of two collide in the low bits
+            int key = r.nextBoolean() ? r.nextInt(50000) - 25000 : (r.nextInt(1000) << 20);
+            Integer id = expected.get(key);
+            if (id == null) {
+                id = expected.size();
+                expected.put(key, id);
+            }
+            assertEquals(id.intValue(), table.add(key));
+        }
+        assertEquals(expected.size(), table.size());
+        for (Integer key : expected.keySet()) {
+            int id = expected.get(key);
+            assertEquals(id, table.find(key));
+            assertEquals(key.intValue(), table.keyAt(id));
+        }
+        assertEquals(-1, table.find(30000));
+        assertEquals(-1, table.find(Integer.MIN_VALUE));
+    }
+
+    /**
+     * A cleared table is empty and numbers keys from 0 again.
+     */
+    @Test public void clear() {
+        IntHashTable table = new IntHashTable(4);
+        for (int i = 0; i < 100; i++)
+            table.add(i * 7);
+        table.clear();
+        assertEquals(0, table.size());
+        assertEquals(-1, table.find(7));
+        assertEquals(0, table.add(14));
+        assertEquals(1, table.add(0));
+        assertEquals(0, table.find(14));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IntHashTableTest.class);
+    }
+}
@@ -158,6 +158,108 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
 		Assert.assertEquals(Boolean.TRUE, ret[0]);
 	}
 
+	/**
+	 * A join on an inequality is costed as a block nested-loop join, which
+	 * scans the inner relation once per block of outer tuples.
+	 */
+	@Test public void estimateBlockNestedLoopJoinCost() throws ParsingException {
+		TransactionId tid = new TransactionId();
+		JoinOptimizer jo = new JoinOptimizer(Parser.generateLogicalPlan(tid, "SELECT * FROM " + tableName1 + " t1, " + tableName2 + " t2 WHERE t1.c1 < t2.c2;"),
+				new Vector<LogicalJoinNode>());
+		LogicalJoinNode lessThan = new LogicalJoinNode(tableName1, tableName2, Integer.toString(1), Integer.toString(2), Predicate.Op.LESS_THAN);
+		int card1 = 3 * JoinOptimizer.BLOCK_TUPLES - 5;
+		Assert.assertEquals(100.0 + 3 * 1000.0 + card1 * 10.0, jo.estimateJoinCost(lessThan, card1, 10, 100.0, 1000.0), 0.001);
+		Assert.assertEquals(100.0 + 1000.0 + 20 * 10.0, jo.estimateJoinCost(lessThan, 20, 10, 100.0, 1000.0), 0.001);
+	}
+
+	/**
+	 * A join on an inequality of two inputs larger than a block is costed
+	 * as a sort-merge join, which reads each input once and sorts the ones
+	 * that do not fit in memory externally, writing and reading them again.
+	 */
+	@Test public void estimateSortMergeJoinCost() throws ParsingException {
+		TransactionId tid = new TransactionId();
+		JoinOptimizer jo = new JoinOptimizer(Parser.generateLogicalPlan(tid, "SELECT * FROM " + tableName1 + " t1, " + tableName2 + " t2 WHERE t1.c1 < t2.c2;"),
+				new Vector<LogicalJoinNode>());
+		LogicalJoinNode lessThan = new LogicalJoinNode(tableName1, tableName2, Integer.toString(1), Integer.toString(2), Predicate.Op.LESS_THAN);
+		int card1 = JoinOptimizer.BLOCK_TUPLES + 1;
+		int card2 = 100 * JoinOptimizer.SORT_TUPLES;
+		double sorting = card1 * Math.log(card1) / Math.log(2) + card2 * Math.log(card2) / Math.log(2);
+		// card1 makes 2 runs, merged in one pass; card2 makes 100 runs, merged in two
+		double io = 100.0 + 1000.0 + 2 * 100.0 + 4 * 1000.0;
+		double merging = jo.estimateJoinCardinality(lessThan, card1, card2, false, false);
+		Assert.assertEquals(io + sorting + merging, jo.estimateJoinCost(lessThan, card1, card2, 100.0, 1000.0), 0.001);
+	}
+
+	/**
+	 * A join of inputs that are both sorted on their join fields is costed
+	 * as a merge that reads each input once, without sorting them.
+	 */
+	@Test public void estimateSortedMergeJoinCost() throws ParsingException {
+		TransactionId tid = new TransactionId();
+		JoinOptimizer jo = new JoinOptimizer(Parser.generateLogicalPlan(tid, "SELECT * FROM " + tableName1 + " t1, " + tableName2 + " t2 WHERE t1.c1 = t2.c2;"),
+				new Vector<LogicalJoinNode>());
+		LogicalJoinNode equals = new LogicalJoinNode(tableName1, tableName2, Integer.toString(1), Integer.toString(2), Predicate.Op.EQUALS);
+		LogicalJoinNode lessThan = new LogicalJoinNode(tableName1, tableName2, Integer.toString(1), Integer.toString(2), Predicate.Op.LESS_THAN);
+		Assert.assertEquals(100.0 + 1000.0 + jo.estimateJoinCardinality(equals, 500, 2000, false, false),
+				jo.estimateJoinCost(equals, 500, 2000, 100.0, 1000.0, true), 0.001);
+		Assert.assertEquals(100.0 + 1000.0 + jo.estimateJoinCardinality(lessThan, 500, 2000, false, false),
+				jo.estimateJoinCost(lessThan, 500, 2000, 100.0, 1000.0, true), 0.001);
+		Assert.assertEquals(jo.estimateJoinCost(equals, 500, 2000, 100.0, 1000.0),
+				jo.estimateJoinCost(equals, 500, 2000, 100.0, 1000.0, false), 0.001);
+	}
+
+	/**
+	 * The optimizer knows which joins of a plan instantiateJoin merges
+	 * without sorting, and which fields their output is sorted on: scans
+	 * of a BTreeFile are sorted on its key, and a merge of sorted inputs is
+	 * sorted as SortMergeJoin describes.
+	 */
+	@Test public void sortedJoinOutput() throws Exception {
+		String[] names = { "BA", "BB", "BC" };
+		for (String name : names) {
+			File f = File.createTempFile("btree", ".dat");
+			f.deleteOnExit();
+			Database.getCatalog().addTable(new BTreeFile(f, Utility.getTupleDesc(2, "f"), 0), name);
+		}
+		TransactionId tid = new TransactionId();
+		JoinOptimizer jo = new JoinOptimizer(Parser.generateLogicalPlan(tid,
+				"SELECT * FROM BA a, BB b, BC c, " + tableName1 + " t WHERE a.f0 = b.f0 AND b.f0 < c.f0 AND c.f0 = t.c0;"),
+				new Vector<LogicalJoinNode>());
+		Vector<LogicalJoinNode> plan = new Vector<LogicalJoinNode>();
+		plan.add(new LogicalJoinNode("a", "b", "a.f0", "b.f0", Predicate.Op.EQUALS));
+		plan.add(new LogicalJoinNode("b", "c", "b.f0", "c.f0", Predicate.Op.LESS_THAN));
+		plan.add(new LogicalJoinNode("c", "t", "c.f0", "t.c0", Predicate.Op.EQUALS));
+		Assert.assertTrue(jo.isSortedOn(plan, 1, "a", "a.f0"));
+		Assert.assertTrue(jo.isSortedOn(plan, 1, "b", "b.f0"));
+		Assert.assertFalse(jo.isSortedOn(plan, 1, "a", "a.f1"));
+		// outer < inner returns the tuples in order of the inner join field
+		Assert.assertTrue(jo.isSortedOn(plan, 2, "c", "c.f0"));
+		Assert.assertFalse(jo.isSortedOn(plan, 2, "b", "b.f0"));
+		// the heap file is not sorted, so the last join is not a merge
+		Assert.assertFalse(jo.isSortedOn(plan, 3, "c", "c.f0"));
+	}
+
+	/**
+	 * A join whose inputs are both sorted on their join fields is a
+	 * SortMergeJoin; other equality joins are hash joins.
+	 */
+	@Test public void instantiateSortMergeJoin() throws ParsingException {
+		TransactionId tid = new TransactionId();
+		JoinOptimizer jo = new JoinOptimizer(Parser.generateLogicalPlan(tid, "SELECT * FROM " + tableName1 + " t1, " + tableName2 + " t2 WHERE t1.c1 = t2.c2;"),
+				new Vector<LogicalJoinNode>());
+		LogicalJoinNode equals = new LogicalJoinNode("t1", "t2", "t1.c1", "t2.c2", Predicate.Op.EQUALS);
+		HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+		stats.put(tableName1, stats1);
+		stats.put(tableName2, stats2);
+
+		DbIterator sorted1 = new OrderBy(1, true, new SeqScan(tid, tableId1, "t1"));
+		DbIterator sorted2 = new OrderBy(2, true, new SeqScan(tid, tableId2, "t2"));
+		Assert.assertTrue(jo.instantiateJoin(equals, sorted1, sorted2, stats) instanceof SortMergeJoin);
+		Assert.assertTrue(jo.instantiateJoin(equals, sorted1, new SeqScan(tid, tableId2, "t2"), stats) instanceof Join);
+		Assert.assertTrue(jo.instantiateJoin(equals, new OrderBy(1, false, new SeqScan(tid, tableId1, "t1")), sorted2, stats) instanceof Join);
+	}
+
 	/**
 	 * Verify that the join cardinalities produced by estimateJoinCardinality() are reasonable
 	 */
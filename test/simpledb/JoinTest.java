@@ -1,8 +1,13 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Before;
@@ -105,6 +110,92 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /**
+   * An equality join whose inner relation does not fit in the memory
+   * budget spills both relations to disk and finds the same tuples as an
+   * in-memory join, also for a key too frequent to ever fit, and again
+   * after a rewind.
+   */
+  @Test public void graceHashJoin() throws Exception {
+    int[] outer = new int[2 * 3000];
+    for (int i = 0; i < 3000; i++) {
+      outer[2 * i] = i % 1000;
+      outer[2 * i + 1] = i;
+    }
+    int[] inner = new int[3 * 2500];
+    for (int i = 0; i < 2500; i++) {
+      // every fifth tuple has key 7
+      inner[3 * i] = i % 5 == 0 ? 7 : i;
+      inner[3 * i + 1] = i;
+      inner[3 * i + 2] = -i;
+    }
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+
+    Join inMemory = new Join(pred, TestUtil.createTupleList(width1, outer), TestUtil.createTupleList(width2, inner));
+    inMemory.open();
+    List<String> expected = TestUtil.readTuples(inMemory, false);
+    assertFalse(inMemory.hasSpilled());
+    inMemory.close();
+    // the 799 keys below 1000 other than 7 that are not multiples of 5, and key 7 501 times, each matching 3 outer tuples
+    assertEquals(3 * 799 + 3 * 501, expected.size());
+
+    int spillFiles = spillFiles();
+    Join op = new Join(pred, TestUtil.createTupleList(width1, outer), TestUtil.createTupleList(width2, inner));
+    op.setMemoryBudget(4096);
+    op.open();
+    assertTrue(op.hasSpilled());
+    TestUtil.checkTuples(expected, op, false);
+    op.close();
+    // close deletes every spill file the join created
+    assertEquals(spillFiles, spillFiles());
+  }
+
+  /** @return the number of spill files in the temporary directory */
+  private static int spillFiles() {
+    File[] files = new File(System.getProperty("java.io.tmpdir")).listFiles();
+    int n = 0;
+    for (File f : files)
+      if (f.getName().startsWith("spill") && f.getName().endsWith(".tmp"))
+        n++;
+    return n;
+  }
+
+  /**
+   * A join on an inequality reads the outer relation in blocks that fit in
+   * the memory budget, and finds the same tuples with one block as with
+   * many, also after a rewind.
+   */
+  @Test public void blockNestedLoopJoin() throws Exception {
+    int[] outer = new int[2 * 300];
+    for (int i = 0; i < 300; i++) {
+      outer[2 * i] = (i * 37) % 300;
+      outer[2 * i + 1] = i;
+    }
+    int[] inner = new int[3 * 200];
+    for (int i = 0; i < 200; i++) {
+      inner[3 * i] = i + 50;
+      inner[3 * i + 1] = i;
+      inner[3 * i + 2] = -i;
+    }
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.LESS_THAN, 0);
+
+    Join oneBlock = new Join(pred, TestUtil.createTupleList(width1, outer), TestUtil.createTupleList(width2, inner));
+    oneBlock.open();
+    List<String> expected = TestUtil.readTuples(oneBlock, false);
+    oneBlock.close();
+    // outer key k is less than the inner keys above it, 50 to 249
+    int matches = 0;
+    for (int k = 0; k < 300; k++)
+      matches += Math.max(0, Math.min(200, 249 - k));
+    assertEquals(matches, expected.size());
+
+    Join op = new Join(pred, TestUtil.createTupleList(width1, outer), TestUtil.createTupleList(width2, inner));
+    op.setMemoryBudget(1000);
+    op.open();
+    TestUtil.checkTuples(expected, op, false);
+    op.close();
+  }
+
   /**
    * JUnit suite target
    */
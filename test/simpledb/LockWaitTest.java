@@ -0,0 +1,133 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.LockGrabber;
+
+public class LockWaitTest extends TestUtil.CreateHeapFile {
+    /** Time to wait before checking the state of lock contention, in ms */
+    private static final int TIMEOUT = 100;
+
+    private PageId p0;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        empty.addTuple(tid, Utility.getHeapTuple(0, 2));
+        bp.transactionComplete(tid);
+        p0 = new HeapPageId(empty.getId(), 0);
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    private static LockGrabber startGrabber(TransactionId tid, PageId pid, Permissions perm) {
+        LockGrabber lg = new LockGrabber(tid, pid, perm);
+        lg.start();
+        return lg;
+    }
+
+    /**
+     * A shared request queued behind an exclusive one is not granted before
+     * it, even though it is compatible with the lock that is held.
+     */
+    @Test public void waitersAreGrantedInOrder() throws Exception {
+        TransactionId reader = new TransactionId();
+        TransactionId writer = new TransactionId();
+        TransactionId lateReader = new TransactionId();
+        bp.getPage(reader, p0, Permissions.READ_ONLY);
+
+        LockGrabber w = startGrabber(writer, p0, Permissions.READ_WRITE);
+        Thread.sleep(TIMEOUT);
+        LockGrabber r = startGrabber(lateReader, p0, Permissions.READ_ONLY);
+        Thread.sleep(TIMEOUT);
+        assertFalse(w.acquired());
+        assertFalse(r.acquired());
+
+        bp.transactionComplete(reader);
+        Thread.sleep(TIMEOUT);
+        assertTrue(w.acquired());
+        assertFalse(r.acquired());
+
+        bp.transactionComplete(writer);
+        Thread.sleep(TIMEOUT);
+        assertTrue(r.acquired());
+        assertNull(w.getError());
+        assertNull(r.getError());
+        bp.transactionComplete(lateReader);
+
+        assertEquals(2, bp.getLockWaitTimes().getCount());
+        assertTrue(bp.getLockWaitTimes().getMaxNanos() >= TIMEOUT * 1000000L);
+    }
+
+    /**
+     * A waiter that goes away leaves the queue, so it does not block the
+     * requests behind it.
+     */
+    @SuppressWarnings("deprecation")
+    @Test public void stoppedWaiterLeavesQueue() throws Exception {
+        TransactionId holder = new TransactionId();
+        bp.getPage(holder, p0, Permissions.READ_ONLY);
+
+        LockGrabber w = startGrabber(new TransactionId(), p0, Permissions.READ_WRITE);
+        Thread.sleep(TIMEOUT);
+        LockGrabber r = startGrabber(new TransactionId(), p0, Permissions.READ_ONLY);
+        Thread.sleep(TIMEOUT);
+        assertFalse(r.acquired());
+
+        w.stop();
+        w.join();
+        Thread.sleep(TIMEOUT);
+        assertTrue(r.acquired());
+        assertFalse(w.acquired());
+    }
+
+    /**
+     * A shared lock holder upgrades ahead of queued requests.
+     */
+    @Test public void upgradeJumpsQueue() throws Exception {
+        TransactionId tid1 = new TransactionId();
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        LockGrabber w = startGrabber(new TransactionId(), p0, Permissions.READ_WRITE);
+        Thread.sleep(TIMEOUT);
+
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        assertFalse(w.acquired());
+        bp.transactionComplete(tid1);
+        Thread.sleep(TIMEOUT);
+        assertTrue(w.acquired());
+    }
+
+    /**
+     * Unit test for WaitTimeHistogram
+     */
+    @Test public void histogramBuckets() {
+        WaitTimeHistogram h = new WaitTimeHistogram();
+        assertEquals(0, h.percentileMicros(50));
+        h.record(500);          // < 1us
+        h.record(3000);         // 3us
+        h.record(1000000);      // 1ms
+        h.record(Long.MAX_VALUE / 2);
+        assertEquals(4, h.getCount());
+        assertEquals(1, h.getCount(0));
+        assertEquals(1, h.getCount(1));
+        assertEquals(1, h.getCount(9));
+        assertEquals(1, h.getCount(WaitTimeHistogram.BUCKETS - 1));
+        assertEquals(4, h.percentileMicros(50));
+        assertEquals(1024, h.percentileMicros(75));
+        h.clear();
+        assertEquals(0, h.getCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockWaitTest.class);
+    }
+}
@@ -0,0 +1,88 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+  int width = 2;
+  int[] tuples;
+
+  /**
+   * Creates an unsorted relation whose first field repeats every key many
+   * times, and whose second field numbers the tuples in input order.
+   */
+  @Before public void createTupleList() throws Exception {
+    super.setUp();
+    tuples = new int[width * 5000];
+    for (int i = 0; i < 5000; i++) {
+      tuples[width * i] = (i * 7919) % 300 - 100;
+      tuples[width * i + 1] = i;
+    }
+  }
+
+  private void checkExternalSort(boolean asc) throws Exception {
+    OrderBy inMemory = new OrderBy(0, asc, TestUtil.createTupleList(width, tuples));
+    inMemory.open();
+    assertFalse(inMemory.hasSpilled());
+    List<String> expected = TestUtil.readTuples(inMemory, true);
+    inMemory.close();
+    assertEquals(5000, expected.size());
+
+    OrderBy op = new OrderBy(0, asc, TestUtil.createTupleList(width, tuples));
+    // 20 tuples per run gives 250 runs, more than can be merged in one pass
+    op.setMemoryBudget(20 * Join.tupleBytes(Utility.getTupleDesc(width)));
+    op.open();
+    assertTrue(op.hasSpilled());
+    TestUtil.checkTuples(expected, op, true);
+    op.close();
+  }
+
+  /**
+   * An external sort returns the same tuples in the same order as the
+   * in-memory sort, also for equal keys, which both keep in input order.
+   */
+  @Test public void externalSort() throws Exception {
+    checkExternalSort(true);
+    checkExternalSort(false);
+  }
+
+  /**
+   * The in-memory sort orders the tuples and keeps equal keys in input order.
+   */
+  @Test public void inMemorySort() throws Exception {
+    OrderBy op = new OrderBy(0, true, TestUtil.createTupleList(width, tuples));
+    op.open();
+    int lastKey = Integer.MIN_VALUE;
+    int lastPos = -1;
+    int n = 0;
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      int key = ((IntField) t.getField(0)).getValue();
+      int pos = ((IntField) t.getField(1)).getValue();
+      assertTrue(key > lastKey || (key == lastKey && pos > lastPos));
+      lastKey = key;
+      lastPos = pos;
+      n++;
+    }
+    assertEquals(5000, n);
+    op.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(OrderByTest.class);
+  }
+}
@@ -0,0 +1,115 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageSizeTest extends SimpleDbTestBase {
+    private File file;
+
+    @Before public void setUp() throws Exception {
+        file = File.createTempFile("pagesize", ".dat");
+        file.deleteOnExit();
+        FreeSpaceMap.sidecarFor(file).deleteOnExit();
+    }
+
+    private HeapFile open(HeapFile hf) {
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        return hf;
+    }
+
+    /**
+     * HeapFileEncoder records a non-default page size in the file, and a
+     * HeapFile opened without a page size reads it back.
+     */
+    @Test public void encodedPageSize() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 5000; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(i);
+            tuple.add(-i);
+            tuples.add(tuple);
+        }
+        HeapFileEncoder.convert(tuples, file, 16384, 2);
+        HeapFile hf = open(new HeapFile(file, Utility.getTupleDesc(2)));
+        assertEquals(16384, hf.getPageSize());
+        // (16384 * 8) / (8 * 8 + 1) = 2016 tuples per page
+        assertEquals(3, hf.numPages());
+        assertEquals(4 * 16384, file.length());
+
+        TransactionId tid = new TransactionId();
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        assertEquals(16384, page.getPageData().length);
+        Iterator<Tuple> it = page.iterator();
+        assertEquals(new IntField(0), it.next().getField(0));
+        Database.getBufferPool().transactionComplete(tid);
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * An empty table created with a page size keeps it, and tuples inserted
+     * into it are found again after reopening the file.
+     */
+    @Test public void createdPageSize() throws Exception {
+        HeapFile hf = open(new HeapFile(file, Utility.getTupleDesc(2), 8192));
+        assertEquals(8192, hf.getPageSize());
+        assertEquals(0, hf.numPages());
+
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 2000; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { i, 2 * i }));
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(i);
+            tuple.add(2 * i);
+            tuples.add(tuple);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        // 1008 tuples per page
+        assertEquals(2, hf.numPages());
+        hf.close();
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        hf = open(new HeapFile(file, Utility.getTupleDesc(2)));
+        assertEquals(8192, hf.getPageSize());
+        SystemTestUtil.matchTuples(hf, tuples);
+        hf.close();
+
+        try {
+            new HeapFile(file, Utility.getTupleDesc(2), 4096);
+            fail("expected a page size mismatch");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    /**
+     * Files with the default page size have no header.
+     */
+    @Test public void defaultPageSize() throws Exception {
+        HeapFile hf = open(new HeapFile(file, Utility.getTupleDesc(2), BufferPool.PAGE_SIZE));
+        assertEquals(BufferPool.PAGE_SIZE, hf.getPageSize());
+        assertEquals(0, file.length());
+        try {
+            new HeapFile(file, Utility.getTupleDesc(2), 3000);
+            fail("expected an invalid page size");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageSizeTest.class);
+    }
+}
@@ -0,0 +1,151 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class PaxPageTest extends SimpleDbTestBase {
+    private static final TupleDesc TD = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+
+    private HeapPageId pid;
+
+    @Before public void setUp() {
+        pid = new HeapPageId(-1, 0);
+    }
+
+    private static Tuple tuple(int key) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(key));
+        t.setField(1, new StringField("s" + key, Type.STRING_LEN));
+        t.setField(2, new IntField(-key));
+        return t;
+    }
+
+    private static void assertTuple(int key, Tuple t) {
+        assertEquals(new IntField(key), t.getField(0));
+        assertEquals(new StringField("s" + key, Type.STRING_LEN), t.getField(1));
+        assertEquals(new IntField(-key), t.getField(2));
+    }
+
+    private static ArrayList<Tuple> contents(Iterator<Tuple> it) {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        while (it.hasNext())
+            tuples.add(it.next());
+        return tuples;
+    }
+
+    /**
+     * A PaxPage holds as many tuples as a HeapPage, and they survive a round
+     * trip through the page bytes whichever columns are asked for.
+     */
+    @Test public void addAndReload() throws Exception {
+        PaxPage page = new PaxPage(pid, new byte[BufferPool.PAGE_SIZE], TD);
+        int slots = page.getNumEmptySlots();
+        assertEquals((BufferPool.PAGE_SIZE * 8) / (TD.getSize() * 8 + 1), slots);
+        for (int i = 0; i < slots; i++)
+            page.addTuple(tuple(i));
+        assertEquals(0, page.getNumEmptySlots());
+        try {
+            page.addTuple(tuple(slots));
+            fail("expected a full page");
+        } catch (DbException e) {
+        }
+
+        BitSet middle = new BitSet();
+        middle.set(1);
+        for (BitSet columns : new BitSet[] { null, middle }) {
+            ArrayList<Tuple> tuples = contents(new PaxPage(pid, page.getPageData(), TD).iterator(columns));
+            assertEquals(slots, tuples.size());
+            for (int i = 0; i < slots; i++) {
+                assertTuple(i, tuples.get(i));
+                assertEquals(new RecordId(pid, i), tuples.get(i).getRecordId());
+            }
+        }
+    }
+
+    /**
+     * Deleted slots are reused, and a deleted tuple keeps its values after
+     * its slot is overwritten.
+     */
+    @Test public void deleteAndReuse() throws Exception {
+        PaxPage page = new PaxPage(pid, new byte[BufferPool.PAGE_SIZE], TD);
+        for (int i = 0; i < 10; i++)
+            page.addTuple(tuple(i));
+        page.setBeforeImage();
+        page = new PaxPage(pid, page.getPageData(), TD);
+
+        Tuple third = contents(page.iterator()).get(3);
+        page.deleteTuple(third);
+        page.addTuple(tuple(100));
+        assertEquals(new RecordId(pid, 3), contents(page.iterator()).get(3).getRecordId());
+        assertTuple(3, third);
+        assertTuple(100, contents(page.iterator()).get(3));
+
+        // the before-image still has the deleted tuple
+        assertTuple(3, contents(page.getBeforeImage().iterator()).get(3));
+    }
+
+    /**
+     * A PaxHeapFile written by HeapFileEncoder.convertPax returns the same
+     * tuples from a SeqScan with and without a column set.
+     */
+    @Test public void paxHeapFile() throws Exception {
+        File text = File.createTempFile("pax", ".txt");
+        text.deleteOnExit();
+        FileWriter w = new FileWriter(text);
+        for (int i = 0; i < 500; i++)
+            w.write(i + ",s" + i + "," + (-i) + "\n");
+        w.close();
+        File table = File.createTempFile("pax", ".dat");
+        table.deleteOnExit();
+        FreeSpaceMap.sidecarFor(table).deleteOnExit();
+        HeapFileEncoder.convertPax(text, table, BufferPool.PAGE_SIZE, 3, new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+
+        HeapFile hf = new PaxHeapFile(table, TD);
+        Database.getCatalog().addTable(hf, "pax");
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(500));
+        Database.getBufferPool().transactionComplete(tid);
+
+        BitSet last = new BitSet();
+        last.set(2);
+        for (BitSet columns : new BitSet[] { null, last }) {
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            tid = new TransactionId();
+            SeqScan scan = new SeqScan(tid, hf.getId(), "t");
+            scan.setColumns(columns);
+            scan.open();
+            boolean[] seen = new boolean[501];
+            while (scan.hasNext()) {
+                Tuple t = scan.next();
+                int key = ((IntField) t.getField(0)).getValue();
+                assertTuple(key, t);
+                assertFalse(seen[key]);
+                seen[key] = true;
+            }
+            scan.close();
+            Database.getBufferPool().transactionComplete(tid);
+            for (boolean s : seen)
+                assertTrue(s);
+        }
+        hf.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxPageTest.class);
+    }
+}
@@ -0,0 +1,94 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PrefetcherTest extends SimpleDbTestBase {
+
+    /** Waits for the background thread to load the specified page. */
+    private static void awaitResident(BufferPool bp, PageId pid) throws InterruptedException {
+        for (int i = 0; i < 500 && !bp.isResident(pid); i++)
+            Thread.sleep(10);
+        assertTrue(bp.isResident(pid));
+    }
+
+    /**
+     * A scan with prefetching enabled returns every tuple, and uses the
+     * pages that were read ahead of it.
+     */
+    @Test public void scanUsesPrefetchedPages() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 30 * 504, null, null);
+        assertEquals(30, hf.numPages());
+        BufferPool bp = Database.resetBufferPool(50);
+        bp.setPrefetching(true);
+        Prefetcher prefetcher = bp.getPrefetcher();
+        TransactionId tid = new TransactionId();
+
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        awaitResident(bp, new HeapPageId(hf.getId(), 1));
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+
+        assertEquals(30 * 504, count);
+        assertTrue(prefetcher.getIssued() > 0);
+        assertTrue(prefetcher.getHits() >= 1);
+        assertTrue(prefetcher.getHits() + prefetcher.getWasted() <= prefetcher.getIssued());
+        // every page was either read on demand or prefetched and then used
+        assertEquals(30, bp.getMisses() + prefetcher.getHits());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * A prefetched image must not be installed if a page was written back or
+     * discarded while it was being read.
+     */
+    @Test public void stalePrefetchIsDropped() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 2 * 504, null, null);
+        BufferPool bp = Database.resetBufferPool(10);
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        Page p = hf.readPage(pid);
+
+        long epoch = bp.getWriteEpoch();
+        bp.discardPage(new HeapPageId(hf.getId(), 1));
+        assertFalse(bp.installPrefetchedPage(p, null, epoch));
+        assertFalse(bp.isResident(pid));
+
+        assertTrue(bp.installPrefetchedPage(p, null, bp.getWriteEpoch()));
+        TransactionId tid = new TransactionId();
+        assertSame(p, bp.getPage(tid, pid, Permissions.READ_ONLY));
+        assertEquals(1, bp.getPrefetcher().getHits());
+        assertEquals(0, bp.getMisses());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Read-ahead is off by default, and a scan through a ring never reads
+     * further ahead than the ring can hold.
+     */
+    @Test public void windowBounds() {
+        BufferPool bp = new BufferPool(64);
+        assertNull(bp.newReadAheadWindow(0, 100, null));
+        bp.setPrefetching(true);
+        assertEquals(Prefetcher.INITIAL_WINDOW, bp.newReadAheadWindow(0, 100, null).size());
+        assertEquals(1, bp.newReadAheadWindow(0, 100, new BufferRing(2)).size());
+        assertNull(bp.newReadAheadWindow(0, 100, new BufferRing(1)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PrefetcherTest.class);
+    }
+}
@@ -0,0 +1,129 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+    private static final ReplacementPolicy.EvictionFilter ANY = new ReplacementPolicy.EvictionFilter() {
+        public boolean canEvict(PageId pid) {
+            return true;
+        }
+    };
+
+    private static PageId pid(int pgNo) {
+        return new HeapPageId(-1, pgNo);
+    }
+
+    /**
+     * Unit test for ClockPolicy: recently referenced pages get a second chance.
+     */
+    @Test public void clockSecondChance() {
+        ClockPolicy clock = new ClockPolicy();
+        for (int i = 0; i < 4; i++)
+            clock.recordMiss(pid(i));
+
+        // first sweep clears all reference bits, so page 0 is evicted
+        assertEquals(pid(0), clock.evict(ANY));
+
+        // page 1 was referenced again after the sweep and survives the next one
+        clock.recordHit(pid(1));
+        assertEquals(pid(2), clock.evict(ANY));
+        assertEquals(pid(3), clock.evict(ANY));
+        assertEquals(pid(1), clock.evict(ANY));
+        assertNull(clock.evict(ANY));
+    }
+
+    /**
+     * Unit test for LruKPolicy: pages accessed only once are evicted before
+     * pages with K accesses, regardless of recency.
+     */
+    @Test public void lruKPrefersRepeatedlyUsedPages() {
+        LruKPolicy lru2 = new LruKPolicy(2);
+        lru2.recordMiss(pid(0));
+        lru2.recordHit(pid(0));
+        lru2.recordMiss(pid(1));
+        lru2.recordHit(pid(1));
+
+        // a scan touches pages 2..5 once each, after the hot pages
+        for (int i = 2; i < 6; i++)
+            lru2.recordMiss(pid(i));
+
+        for (int i = 2; i < 6; i++)
+            assertEquals(pid(i), lru2.evict(ANY));
+        // among the hot pages, the one whose 2nd most recent access is oldest goes first
+        assertEquals(pid(0), lru2.evict(ANY));
+        assertEquals(pid(1), lru2.evict(ANY));
+    }
+
+    /**
+     * Unit test for LruKPolicy: history survives a short eviction.
+     */
+    @Test public void lruKRetainsHistory() {
+        LruKPolicy lru2 = new LruKPolicy(2);
+        lru2.recordMiss(pid(0));
+        assertEquals(pid(0), lru2.evict(ANY));
+        lru2.recordMiss(pid(1));
+        // page 0 comes back and now has two recorded accesses
+        lru2.recordMiss(pid(0));
+        assertEquals(pid(1), lru2.evict(ANY));
+    }
+
+    /**
+     * Policies must never return pages that the filter rejects.
+     */
+    @Test public void evictionFilter() {
+        ReplacementPolicy[] policies = { new ClockPolicy(), new LruKPolicy() };
+        for (ReplacementPolicy policy : policies) {
+            final HashSet<PageId> pinned = new HashSet<PageId>();
+            for (int i = 0; i < 3; i++) {
+                policy.recordMiss(pid(i));
+                if (i != 1)
+                    pinned.add(pid(i));
+            }
+            ReplacementPolicy.EvictionFilter unpinned = new ReplacementPolicy.EvictionFilter() {
+                public boolean canEvict(PageId pid) {
+                    return !pinned.contains(pid);
+                }
+            };
+            assertEquals(pid(1), policy.evict(unpinned));
+            assertNull(policy.evict(unpinned));
+            assertEquals(1, policy.getEvictions());
+        }
+    }
+
+    /**
+     * BufferPool reports hits, misses and evictions to its policy.
+     */
+    @Test public void bufferPoolCounters() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 2000, null, null);
+        LruKPolicy policy = new LruKPolicy();
+        BufferPool bp = Database.resetBufferPool(2, policy);
+        TransactionId tid = new TransactionId();
+
+        bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        bp.getPage(tid, new HeapPageId(hf.getId(), 1), Permissions.READ_ONLY);
+        bp.getPage(tid, new HeapPageId(hf.getId(), 2), Permissions.READ_ONLY);
+        bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+
+        assertEquals(3, policy.getMisses());
+        assertEquals(2, policy.getHits());
+        assertEquals(1, policy.getEvictions());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
@@ -0,0 +1,228 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SlottedPageTest extends SimpleDbTestBase {
+    private static final TupleDesc TD = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+
+    private HeapPageId pid;
+
+    @Before public void setUp() {
+        pid = new HeapPageId(-1, 0);
+    }
+
+    private static Tuple tuple(int key, String value) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(key));
+        t.setField(1, new StringField(value, Type.STRING_LEN));
+        return t;
+    }
+
+    private static String string(int length) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++)
+            sb.append((char) ('a' + i % 26));
+        return sb.toString();
+    }
+
+    private static ArrayList<Tuple> contents(SlottedPage page) {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext())
+            tuples.add(it.next());
+        return tuples;
+    }
+
+    /**
+     * Short strings take only as many bytes as they have characters, and
+     * survive a round trip through the page bytes.
+     */
+    @Test public void addAndReload() throws Exception {
+        SlottedPage page = new SlottedPage(pid, new byte[BufferPool.PAGE_SIZE], TD);
+        int n = 0;
+        while (page.hasRoomFor(tuple(n, "v" + n)))
+            page.addTuple(tuple(n, "v" + n++));
+        // 4 + 1 + 1..4 data bytes and a 4 byte directory entry per tuple
+        assertTrue(n > 300);
+        try {
+            page.addTuple(tuple(n, "v" + n));
+            fail("expected a full page");
+        } catch (DbException e) {
+        }
+
+        SlottedPage reloaded = new SlottedPage(pid, page.getPageData(), TD);
+        ArrayList<Tuple> tuples = contents(reloaded);
+        assertEquals(n, tuples.size());
+        for (int i = 0; i < n; i++) {
+            Tuple t = tuples.get(i);
+            assertEquals(new IntField(i), t.getField(0));
+            assertEquals(new StringField("v" + i, Type.STRING_LEN), t.getField(1));
+            assertEquals(new RecordId(pid, i), t.getRecordId());
+        }
+    }
+
+    /**
+     * Space freed by deletes is reused after compacting the page, and the
+     * remaining tuples keep their slots.
+     */
+    @Test public void deleteAndCompact() throws Exception {
+        SlottedPage page = new SlottedPage(pid, new byte[BufferPool.PAGE_SIZE], TD);
+        int n = 0;
+        while (page.hasRoomFor(tuple(n, string(20))))
+            page.addTuple(tuple(n++, string(20)));
+
+        ArrayList<Tuple> tuples = contents(page);
+        for (int i = 0; i < n; i += 2)
+            page.deleteTuple(tuples.get(i));
+        // each freed slot has room for a tuple twice the size
+        int added = 0;
+        while (page.hasRoomFor(tuple(-1, string(40)))) {
+            page.addTuple(tuple(-1, string(40)));
+            added++;
+        }
+        assertTrue(added >= n / 4);
+
+        SlottedPage reloaded = new SlottedPage(pid, page.getPageData(), TD);
+        int kept = 0;
+        for (Tuple t : contents(reloaded)) {
+            int key = ((IntField) t.getField(0)).getValue();
+            if (key == -1) {
+                assertEquals(new StringField(string(40), Type.STRING_LEN), t.getField(1));
+            } else {
+                assertEquals(1, key % 2);
+                assertEquals(key, t.getRecordId().tupleno());
+                kept++;
+            }
+        }
+        assertEquals(n / 2, kept);
+    }
+
+    /**
+     * getNumEmptySlots counts tuples with empty strings, so it stays positive
+     * while a page has room for short tuples but not for long ones, and
+     * reaches 0 only when no tuple fits.
+     */
+    @Test public void emptySlotsCountShortestTuples() throws Exception {
+        SlottedPage page = new SlottedPage(pid, new byte[BufferPool.PAGE_SIZE], TD);
+        while (page.hasRoomFor(tuple(0, string(Type.STRING_LEN))))
+            page.addTuple(tuple(0, string(Type.STRING_LEN)));
+        assertTrue(page.getNumEmptySlots() > 0);
+        assertTrue(page.hasRoomFor(tuple(1, "")));
+
+        int free = page.getNumEmptySlots();
+        for (int i = 0; i < free; i++)
+            page.addTuple(tuple(i, ""));
+        assertEquals(0, page.getNumEmptySlots());
+        assertFalse(page.hasRoomFor(tuple(1, "")));
+    }
+
+    /**
+     * The before-image is the page as it was before its first change.
+     */
+    @Test public void beforeImage() throws Exception {
+        byte[] data = new byte[BufferPool.PAGE_SIZE];
+        SlottedPage page = new SlottedPage(pid, data, TD);
+        page.addTuple(tuple(1, "one"));
+        assertEquals(0, contents(page.getBeforeImage()).size());
+
+        page.setBeforeImage();
+        page.addTuple(tuple(2, "two"));
+        assertEquals(1, contents(page.getBeforeImage()).size());
+        assertEquals(2, contents(page).size());
+        // the caller's array is never written to
+        assertArrayEquals(new byte[BufferPool.PAGE_SIZE], data);
+    }
+
+    /**
+     * A table written by HeapFileEncoder.convertSlotted can be scanned and
+     * inserted into through a SlottedHeapFile.
+     */
+    @Test public void slottedHeapFile() throws Exception {
+        File text = File.createTempFile("slotted", ".txt");
+        text.deleteOnExit();
+        FileWriter w = new FileWriter(text);
+        for (int i = 0; i < 1000; i++)
+            w.write(i + ",name" + i + "\n");
+        w.close();
+        File table = File.createTempFile("slotted", ".dat");
+        table.deleteOnExit();
+        FreeSpaceMap.sidecarFor(table).deleteOnExit();
+        HeapFileEncoder.convertSlotted(text, table, BufferPool.PAGE_SIZE, 2, new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+
+        HeapFile hf = new SlottedHeapFile(table, TD);
+        Database.getCatalog().addTable(hf, "slotted");
+        // about 250 tuples per page, where a HeapPage holds 30
+        assertEquals(4, hf.numPages());
+
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(1000, "name1000"));
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "t");
+        scan.open();
+        int rows = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            int key = ((IntField) t.getField(0)).getValue();
+            assertEquals(new StringField("name" + key, Type.STRING_LEN), t.getField(1));
+            rows++;
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(1001, rows);
+        hf.close();
+    }
+
+    /**
+     * An insert uses a page that has no room for the longest tuples but
+     * still has room for the tuple being inserted, instead of appending a
+     * page.
+     */
+    @Test public void insertFillsPageWithShortTuples() throws Exception {
+        File table = File.createTempFile("slotted", ".dat");
+        table.deleteOnExit();
+        FreeSpaceMap.sidecarFor(table).deleteOnExit();
+        HeapFile hf = new SlottedHeapFile(table, TD);
+        Database.getCatalog().addTable(hf, "slotted");
+
+        TransactionId tid = new TransactionId();
+        Tuple t = tuple(0, string(Type.STRING_LEN));
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        SlottedPage page = (SlottedPage) Database.getBufferPool().getPage(tid, t.getRecordId().getPageId(), Permissions.READ_ONLY);
+        while (page.hasRoomFor(tuple(0, string(Type.STRING_LEN))))
+            Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(0, string(Type.STRING_LEN)));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(1, hf.numPages());
+
+        tid = new TransactionId();
+        t = tuple(1, "short");
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        assertEquals(0, t.getRecordId().getPageId().pageno());
+        t = tuple(2, string(Type.STRING_LEN));
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        assertEquals(1, t.getRecordId().getPageId().pageno());
+        Database.getBufferPool().transactionComplete(tid);
+        hf.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedPageTest.class);
+    }
+}
@@ -0,0 +1,134 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  int[] outer;
+  int[] inner;
+
+  /**
+   * Creates unsorted relations with repeated keys, some of which appear in
+   * only one of them.
+   */
+  @Before public void createTupleLists() throws Exception {
+    super.setUp();
+    outer = new int[width1 * 200];
+    for (int i = 0; i < 200; i++) {
+      outer[width1 * i] = (i * 37) % 100;
+      outer[width1 * i + 1] = i;
+    }
+    inner = new int[width2 * 150];
+    for (int i = 0; i < 150; i++) {
+      inner[width2 * i] = (i * 53) % 150 - 25;
+      inner[width2 * i + 1] = i;
+      inner[width2 * i + 2] = -i;
+    }
+  }
+
+  private void checkAgainstJoin(Predicate.Op op) throws Exception {
+    checkAgainstJoin(op, Join.DEFAULT_MEMORY_BUDGET);
+  }
+
+  private void checkAgainstJoin(Predicate.Op op, long budget) throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, op, 0);
+    Join join = new Join(pred, TestUtil.createTupleList(width1, outer), TestUtil.createTupleList(width2, inner));
+    join.open();
+    List<String> expected = TestUtil.readTuples(join, false);
+    join.close();
+    assertFalse(expected.isEmpty());
+
+    SortMergeJoin op2 = new SortMergeJoin(pred, TestUtil.createTupleList(width1, outer), TestUtil.createTupleList(width2, inner));
+    assertEquals(Utility.getTupleDesc(width1 + width2), op2.getTupleDesc());
+    op2.setMemoryBudget(budget);
+    op2.open();
+    TestUtil.checkTuples(expected, op2, false);
+    assertEquals(op.toString(), budget < Join.DEFAULT_MEMORY_BUDGET, op2.hasSpilled());
+    op2.close();
+  }
+
+  /**
+   * An equality join finds the same tuples as Join, also for keys
+   * repeated on both sides.
+   */
+  @Test public void eqJoin() throws Exception {
+    checkAgainstJoin(Predicate.Op.EQUALS);
+  }
+
+  /**
+   * Joins on inequalities find the same tuples as Join.
+   */
+  @Test public void inequalityJoins() throws Exception {
+    checkAgainstJoin(Predicate.Op.GREATER_THAN);
+    checkAgainstJoin(Predicate.Op.GREATER_THAN_OR_EQ);
+    checkAgainstJoin(Predicate.Op.LESS_THAN);
+    checkAgainstJoin(Predicate.Op.LESS_THAN_OR_EQ);
+  }
+
+  /**
+   * Joins on inequalities whose matching prefix does not fit in the memory
+   * budget spill it to disk and find the same tuples as Join.
+   */
+  @Test public void spilledPrefix() throws Exception {
+    long budget = 5 * Join.tupleBytes(Utility.getTupleDesc(width2));
+    checkAgainstJoin(Predicate.Op.GREATER_THAN, budget);
+    checkAgainstJoin(Predicate.Op.GREATER_THAN_OR_EQ, budget);
+    checkAgainstJoin(Predicate.Op.LESS_THAN, budget);
+    checkAgainstJoin(Predicate.Op.LESS_THAN_OR_EQ, budget);
+  }
+
+  /**
+   * The output is sorted on the join field of the relation read once, so
+   * that a join above can merge it without sorting it again.
+   */
+  @Test public void outputOrder() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, TestUtil.createTupleList(width1, outer), TestUtil.createTupleList(width2, inner));
+    assertTrue(SortMergeJoin.isSortedOn(op, 0));
+    assertFalse(SortMergeJoin.isSortedOn(op, width1));
+    op.open();
+    int last = Integer.MIN_VALUE;
+    while (op.hasNext()) {
+      int key = ((IntField) op.next().getField(0)).getValue();
+      assertTrue(key >= last);
+      last = key;
+    }
+    op.close();
+
+    pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    op = new SortMergeJoin(pred, TestUtil.createTupleList(width1, outer), TestUtil.createTupleList(width2, inner));
+    assertTrue(SortMergeJoin.isSortedOn(op, 0));
+    assertTrue(SortMergeJoin.isSortedOn(op, width1));
+    assertTrue(SortMergeJoin.isSortedOn(new OrderBy(1, true, TestUtil.createTupleList(width1, outer)), 1));
+    assertFalse(SortMergeJoin.isSortedOn(new OrderBy(1, false, TestUtil.createTupleList(width1, outer)), 1));
+    assertFalse(SortMergeJoin.isSortedOn(TestUtil.createTupleList(width1, outer), 0));
+  }
+
+  /**
+   * Predicates that do not order the matches cannot be merged.
+   */
+  @Test(expected = IllegalArgumentException.class) public void notEquals() {
+    new SortMergeJoin(new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0),
+        TestUtil.createTupleList(width1, outer), TestUtil.createTupleList(width2, inner));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SortMergeJoinTest.class);
+  }
+}
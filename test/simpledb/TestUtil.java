@@ -149,6 +149,33 @@ public class TestUtil {
         }
     }
 
+    /**
+     * @return the remaining tuples of the open DbIterator as strings, in the
+     *   order returned if ordered, and sorted otherwise so that two results
+     *   compare equal iff they hold the same tuples.
+     */
+    public static List<String> readTuples(DbIterator it, boolean ordered)
+            throws DbException, TransactionAbortedException {
+        List<String> rows = new ArrayList<String>();
+        while (it.hasNext())
+            rows.add(it.next().toString());
+        if (!ordered)
+            Collections.sort(rows);
+        return rows;
+    }
+
+    /**
+     * Check that the open DbIterator returns the expected tuples, read with
+     *   readTuples, both before and after a rewind.
+     * If not, throw an assertion.
+     */
+    public static void checkTuples(List<String> expected, DbIterator actual, boolean ordered)
+            throws DbException, TransactionAbortedException {
+        assertEquals(expected, readTuples(actual, ordered));
+        actual.rewind();
+        assertEquals(expected, readTuples(actual, ordered));
+    }
+
     /**
      * Verifies that the DbIterator has been exhausted of all elements.
      */
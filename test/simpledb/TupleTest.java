@@ -29,6 +29,29 @@ public class TupleTest extends SimpleDbTestBase {
         assertEquals(new IntField(37), tup.getField(1));
     }
 
+    /**
+     * Unit test for tuples decoded from serialized bytes on demand
+     */
+    @Test public void decodeFields() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+        java.io.ByteArrayOutputStream bytes = new java.io.ByteArrayOutputStream();
+        java.io.DataOutputStream dos = new java.io.DataOutputStream(bytes);
+        dos.writeInt(7); // unrelated prefix, the tuple starts at offset 4
+        new IntField(-1).serialize(dos);
+        new StringField("hello", Type.STRING_LEN).serialize(dos);
+        new IntField(37).serialize(dos);
+        dos.flush();
+
+        Tuple tup = new Tuple(td, bytes.toByteArray(), 4);
+        assertEquals(new IntField(37), tup.getField(2));
+        assertEquals(new IntField(-1), tup.getField(0));
+        assertEquals(new StringField("hello", Type.STRING_LEN), tup.getField(1));
+
+        // a field that was set is not decoded again
+        tup.setField(2, new IntField(5));
+        assertEquals(new IntField(5), tup.getField(2));
+    }
+
     /**
      * Unit test for Tuple.getTupleDesc()
      */
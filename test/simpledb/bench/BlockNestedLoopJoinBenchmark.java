@@ -0,0 +1,75 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures a join on an inequality between two heap tables, with blocks of
+ * one outer tuple, which scans the inner table once per outer tuple as the
+ * nested-loop join used to, and with the default memory budget, which scans
+ * it once per block. The buffer pool is smaller than the inner table, so
+ * every scan of it misses on every page.
+ * <p>
+ * Usage: BlockNestedLoopJoinBenchmark [outerRows] [innerRows]
+ */
+public class BlockNestedLoopJoinBenchmark {
+    private static final int DEFAULT_OUTER_ROWS = 2000;
+    private static final int DEFAULT_INNER_ROWS = 100000;
+    private static final int POOL_PAGES = 50;
+
+    public static void main(String[] args) throws Exception {
+        int outerRows = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_OUTER_ROWS;
+        int innerRows = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_INNER_ROWS;
+
+        // an outer key below 10 is greater than about 0.05% of the inner keys
+        HeapFile outer = createTable(outerRows, 10, 1, "outer");
+        HeapFile inner = createTable(innerRows, 10000, 2, "inner");
+        Database.resetBufferPool(POOL_PAGES);
+        System.out.printf("%d outer rows, %d inner rows on %d pages%n", outerRows, innerRows, inner.numPages());
+
+        for (int i = 0; i < 2; i++) {
+            run("tuple at a time", outer, inner, 1, i);
+            run("block nested loop", outer, inner, Join.DEFAULT_MEMORY_BUDGET, i);
+        }
+    }
+
+    private static void run(String what, HeapFile outer, HeapFile inner, long budget, int round) throws Exception {
+        TransactionId tid = new TransactionId();
+        Join join = new Join(new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0),
+                new SeqScan(tid, outer.getId(), "o"), new SeqScan(tid, inner.getId(), "i"));
+        join.setMemoryBudget(budget);
+        long misses = Database.getBufferPool().getMisses();
+        long start = System.nanoTime();
+        join.open();
+        int matches = 0;
+        while (join.hasNext()) {
+            join.next();
+            matches++;
+        }
+        join.close();
+        Database.getBufferPool().transactionComplete(tid);
+        System.out.printf("%-18s run %d: %8d rows  %9.1f ms  %8d misses%n", what, round, matches,
+                (System.nanoTime() - start) / 1e6, Database.getBufferPool().getMisses() - misses);
+    }
+
+    private static HeapFile createTable(int rows, int keys, long seed, String name) throws Exception {
+        Random r = new Random(seed);
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < rows; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(r.nextInt(keys));
+            tuple.add(i);
+            tuples.add(tuple);
+        }
+        File file = File.createTempFile("benchTable", ".dat");
+        file.deleteOnExit();
+        FreeSpaceMap.sidecarFor(file).deleteOnExit();
+        HeapFileEncoder.convert(tuples, file, BufferPool.PAGE_SIZE, 2);
+        HeapFile hf = new HeapFile(file, Utility.getTupleDesc(2, "f"));
+        Database.getCatalog().addTable(hf, name);
+        return hf;
+    }
+}
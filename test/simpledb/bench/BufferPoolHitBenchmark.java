@@ -0,0 +1,101 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Multi-threaded throughput benchmark for BufferPool.getPage hits. Every page
+ * of the table is resident, so each request only touches the page table, the
+ * replacement policy and the lock manager. Compares a pool with a single
+ * partition, which behaves like the old pool-wide page table, with a pool
+ * partitioned by PageId hash.
+ * <p>
+ * Every thread runs its own read-only transaction over random pages.
+ * <p>
+ * Usage: BufferPoolHitBenchmark [numPages] [hitsPerThread] [maxThreads] [partitions]
+ */
+public class BufferPoolHitBenchmark {
+    private static final int DEFAULT_PAGES = 1024;
+    private static final int DEFAULT_HITS = 200000;
+    private static final int DEFAULT_THREADS = 8;
+
+    private static final ReplacementPolicy.Factory CLOCK = new ReplacementPolicy.Factory() {
+        public ReplacementPolicy newPolicy() {
+            return new ClockPolicy();
+        }
+    };
+
+    public static void main(String[] args) throws Exception {
+        int numPages = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PAGES;
+        int hits = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_HITS;
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_THREADS;
+        int partitions = args.length > 3 ? Integer.parseInt(args[3]) : BufferPool.MAX_PARTITIONS;
+
+        File table = File.createTempFile("benchTable", ".dat");
+        table.deleteOnExit();
+        FreeSpaceMap.sidecarFor(table).deleteOnExit();
+        HeapFile hf = Utility.createEmptyHeapFile(table.getAbsolutePath(), 2);
+        for (int i = 0; i < numPages; i++)
+            hf.writePage(new HeapPage(new HeapPageId(hf.getId(), i), HeapPage.createEmptyPageData(hf.getId())));
+        Database.getCatalog().addTable(hf, "bench");
+        System.out.println("table: " + hf.numPages() + " pages, " + Runtime.getRuntime().availableProcessors() + " cores");
+
+        BufferPool single = load(new BufferPool(numPages, 1, CLOCK), hf, numPages);
+        BufferPool striped = load(new BufferPool(numPages, partitions, CLOCK), hf, numPages);
+
+        // warm up both pools so the JIT has compiled them before we time anything
+        run(single, hf, 1, hits / 4, numPages);
+        run(striped, hf, 1, hits / 4, numPages);
+
+        for (int t = 1; t <= maxThreads; t *= 2) {
+            double one = run(single, hf, t, hits, numPages);
+            double many = run(striped, hf, t, hits, numPages);
+            System.out.printf("threads=%d  1 partition: %.0f hits/s  %d partitions: %.0f hits/s  (%.2fx)%n",
+                    t, one, partitions, many, many / one);
+        }
+        hf.close();
+    }
+
+    /** Reads every page of the table into the pool. */
+    private static BufferPool load(BufferPool bp, HeapFile hf, int numPages) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < numPages; i++)
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+        return bp;
+    }
+
+    /** @return getPage hits per second over all threads */
+    private static double run(final BufferPool bp, final HeapFile hf, int threads,
+                              final int hitsPerThread, final int numPages) throws Exception {
+        ArrayList<Thread> workers = new ArrayList<Thread>();
+        for (int i = 0; i < threads; i++) {
+            final long seed = i;
+            workers.add(new Thread() {
+                public void run() {
+                    Random r = new Random(seed);
+                    TransactionId tid = new TransactionId();
+                    try {
+                        for (int n = 0; n < hitsPerThread; n++)
+                            bp.getPage(tid, new HeapPageId(hf.getId(), r.nextInt(numPages)), Permissions.READ_ONLY);
+                        bp.transactionComplete(tid);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+        }
+        long start = System.nanoTime();
+        for (Thread w : workers)
+            w.start();
+        for (Thread w : workers)
+            w.join();
+        long elapsed = System.nanoTime() - start;
+        if (bp.getMisses() != numPages)
+            throw new IllegalStateException("benchmark pages were evicted");
+        return (double) threads * hitsPerThread / (elapsed / 1e9);
+    }
+}
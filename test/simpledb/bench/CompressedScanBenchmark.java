@@ -0,0 +1,114 @@
+package simpledb.bench;
+
+import java.io.*;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures file size and full-scan throughput of a table shaped like the NSF
+ * grants table (see nsf.schema) stored uncompressed and as a
+ * CompressedHeapFile at several deflate levels. The buffer pool is much
+ * smaller than the table, so every scan reads and, for compressed tables,
+ * inflates every page again.
+ * <p>
+ * The table files are usually in the OS page cache, so the scan times show
+ * the CPU cost of decompression; the file sizes show the disk I/O a cold
+ * scan saves.
+ * <p>
+ * Usage: CompressedScanBenchmark [rows] [scans] [levels...]
+ */
+public class CompressedScanBenchmark {
+    private static final int DEFAULT_ROWS = 100000;
+    private static final int DEFAULT_SCANS = 5;
+    private static final int[] DEFAULT_LEVELS = { 0, 1, 3, 6, 9 };
+    private static final int POOL_PAGES = 50;
+
+    private static final String[] WORDS = { "collaborative", "research", "dynamics", "of", "in", "the",
+            "systems", "climate", "quantum", "network", "learning", "molecular", "ocean", "analysis",
+            "graduate", "fellowship", "program", "center", "materials", "biology" };
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROWS;
+        int scans = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_SCANS;
+        int[] levels = DEFAULT_LEVELS;
+        if (args.length > 2) {
+            levels = new int[args.length - 2];
+            for (int i = 2; i < args.length; i++)
+                levels[i - 2] = Integer.parseInt(args[i]);
+        }
+
+        // grants (id int, title string, amount int, org int, pi int, manager int, started string, ended string)
+        Type[] types = new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE, Type.INT_TYPE,
+                Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE, Type.STRING_TYPE };
+        TupleDesc td = new TupleDesc(types);
+        File text = File.createTempFile("benchGrants", ".txt");
+        text.deleteOnExit();
+        Writer w = new BufferedWriter(new FileWriter(text));
+        Random r = new Random(0);
+        for (int i = 0; i < rows; i++) {
+            StringBuilder title = new StringBuilder();
+            for (int n = 3 + r.nextInt(5); n > 0 && title.length() < Type.STRING_LEN - 15; n--)
+                title.append(title.length() == 0 ? "" : " ").append(WORDS[r.nextInt(WORDS.length)]);
+            int year = 1990 + r.nextInt(20);
+            w.write(i + 1000000 + "," + title + "," + (10000 + r.nextInt(990000)) + "," + r.nextInt(3000) + ","
+                    + r.nextInt(50000) + "," + r.nextInt(500) + "," + date(r, year) + "," + date(r, year + 1 + r.nextInt(4)) + "\n");
+        }
+        w.close();
+        File heap = File.createTempFile("benchGrants", ".dat");
+        heap.deleteOnExit();
+        FreeSpaceMap.sidecarFor(heap).deleteOnExit();
+        HeapFileEncoder.convert(text, heap, BufferPool.PAGE_SIZE, types.length, types);
+
+        HeapFile[] files = new HeapFile[levels.length + 1];
+        String[] names = new String[files.length];
+        files[0] = new HeapFile(heap, td);
+        names[0] = "heap";
+        for (int i = 0; i < levels.length; i++) {
+            File f = File.createTempFile("benchGrantsZ" + levels[i], ".dat");
+            f.deleteOnExit();
+            CompressedHeapFile.indexFor(f).deleteOnExit();
+            FreeSpaceMap.sidecarFor(f).deleteOnExit();
+            long start = System.nanoTime();
+            CompressedHeapFile.compress(heap, f, levels[i]);
+            System.out.printf("compressed at level %d in %.0f ms%n", levels[i], (System.nanoTime() - start) / 1e6);
+            files[i + 1] = new CompressedHeapFile(f, td, levels[i]);
+            names[i + 1] = "level " + levels[i];
+        }
+        for (int i = 0; i < files.length; i++)
+            Database.getCatalog().addTable(files[i], names[i]);
+        Database.resetBufferPool(POOL_PAGES);
+
+        for (int n = 0; n < scans; n++) {
+            for (int i = 0; i < files.length; i++) {
+                long start = System.nanoTime();
+                int count = scan(files[i]);
+                long elapsed = System.nanoTime() - start;
+                long size = files[i].getFile().length();
+                System.out.printf("%-8s %6d pages  %7.2f MB on disk (%5.1f%%)  %7.1f ms  %8.0f rows/s%n",
+                        names[i], files[i].numPages(), size / 1e6, 100.0 * size / heap.length(),
+                        elapsed / 1e6, count / (elapsed / 1e9));
+            }
+        }
+        for (HeapFile hf : files)
+            hf.close();
+    }
+
+    private static String date(Random r, int year) {
+        return String.format("%d-%02d-%02d", year, 1 + r.nextInt(12), 1 + r.nextInt(28));
+    }
+
+    private static int scan(HeapFile hf) throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "g");
+        scan.open();
+        int rows = 0;
+        while (scan.hasNext()) {
+            scan.next().getField(2);
+            rows++;
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return rows;
+    }
+}
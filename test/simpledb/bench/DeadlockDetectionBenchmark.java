@@ -0,0 +1,174 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.*;
+
+/**
+ * Benchmarks deadlock detection in the LockManager's waits-for graph.
+ * <p>
+ * The first part measures the cost of adding and removing one waits-for edge
+ * while the graph holds an increasing number of other waiting transactions.
+ * DependencyGraph only searches the transactions reachable from the new edge,
+ * so its cost stays flat; the topological sort over the whole graph that it
+ * used to run grows with the graph.
+ * <p>
+ * The second part runs hundreds of concurrent transactions that lock a few
+ * random pages of a small table each, in random order, so that they wait for
+ * each other and regularly deadlock.
+ * <p>
+ * Usage: DeadlockDetectionBenchmark [maxGraphSize] [transactions] [pages]
+ */
+public class DeadlockDetectionBenchmark {
+    private static final int DEFAULT_GRAPH_SIZE = 10000;
+    private static final int DEFAULT_TRANSACTIONS = 200;
+    private static final int DEFAULT_PAGES = 64;
+    private static final int EDGES_PER_RUN = 20000;
+    private static final int LOCKS_PER_TRANSACTION = 4;
+    private static final long RUN_MILLIS = 5000;
+
+    public static void main(String[] args) throws Exception {
+        int maxGraphSize = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_GRAPH_SIZE;
+        int transactions = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_TRANSACTIONS;
+        int pages = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_PAGES;
+
+        for (int size = 10; size <= maxGraphSize; size *= 10) {
+            double incremental = edgeCost(size, false);
+            double full = edgeCost(size, true);
+            System.out.printf("waiting transactions=%d  incremental: %.0f ns/edge  full sort: %.0f ns/edge%n",
+                    size, incremental, full);
+        }
+        runTransactions(transactions, pages);
+    }
+
+    /**
+     * Builds a waits-for graph of size transactions waiting in pairs, then
+     * repeatedly adds and removes an edge between two fresh transactions.
+     *
+     * @return nanoseconds per added edge
+     */
+    private static double edgeCost(int size, boolean fullSort) throws Exception {
+        DependencyGraph graph = new DependencyGraph();
+        HashMap<TransactionId, HashSet<TransactionId>> edges = new HashMap<TransactionId, HashSet<TransactionId>>();
+        PageId pid = new HeapPageId(0, 0);
+        for (int i = 0; i < size / 2; i++) {
+            TransactionId waiter = new TransactionId();
+            TransactionId runner = new TransactionId();
+            graph.addDependency(waiter, runner, pid);
+            addEdge(edges, waiter, runner);
+        }
+
+        TransactionId waiter = new TransactionId();
+        TransactionId runner = new TransactionId();
+        int runs = fullSort ? Math.max(10, EDGES_PER_RUN * 10 / Math.max(size, 10)) : EDGES_PER_RUN;
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            if (fullSort) {
+                addEdge(edges, waiter, runner);
+                if (hasCycle(edges))
+                    throw new IllegalStateException("unexpected cycle");
+                edges.get(waiter).remove(runner);
+            } else {
+                graph.addDependency(waiter, runner, pid);
+                graph.removeWaiter(waiter, pid);
+            }
+        }
+        return (System.nanoTime() - start) / (double) runs;
+    }
+
+    private static void addEdge(HashMap<TransactionId, HashSet<TransactionId>> edges, TransactionId from, TransactionId to) {
+        if (!edges.containsKey(from))
+            edges.put(from, new HashSet<TransactionId>());
+        if (!edges.containsKey(to))
+            edges.put(to, new HashSet<TransactionId>());
+        edges.get(from).add(to);
+    }
+
+    /** The whole-graph topological sort that DependencyGraph used to run for every new edge. */
+    private static boolean hasCycle(HashMap<TransactionId, HashSet<TransactionId>> edges) {
+        HashMap<TransactionId, Integer> indegrees = new HashMap<TransactionId, Integer>();
+        for (TransactionId tid : edges.keySet())
+            indegrees.put(tid, 0);
+        for (HashSet<TransactionId> targets : edges.values())
+            for (TransactionId target : targets)
+                indegrees.put(target, indegrees.get(target) + 1);
+        Queue<TransactionId> sources = new LinkedList<TransactionId>();
+        for (Map.Entry<TransactionId, Integer> entry : indegrees.entrySet())
+            if (entry.getValue() == 0)
+                sources.add(entry.getKey());
+        int visited = 0;
+        while (!sources.isEmpty()) {
+            TransactionId current = sources.poll();
+            visited++;
+            for (TransactionId target : edges.get(current)) {
+                int indegree = indegrees.get(target) - 1;
+                indegrees.put(target, indegree);
+                if (indegree == 0)
+                    sources.add(target);
+            }
+        }
+        return visited != edges.size();
+    }
+
+    /** Runs the contended workload for RUN_MILLIS and prints commits, aborts and lock waits. */
+    private static void runTransactions(int transactions, final int pages) throws Exception {
+        File table = File.createTempFile("benchTable", ".dat");
+        table.deleteOnExit();
+        FreeSpaceMap.sidecarFor(table).deleteOnExit();
+        final HeapFile hf = Utility.createEmptyHeapFile(table.getAbsolutePath(), 2);
+        for (int i = 0; i < pages; i++)
+            hf.writePage(new HeapPage(new HeapPageId(hf.getId(), i), HeapPage.createEmptyPageData(hf.getId())));
+        Database.getCatalog().addTable(hf, "bench");
+        final BufferPool bp = Database.resetBufferPool(pages);
+
+        final AtomicLong commits = new AtomicLong();
+        final AtomicLong aborts = new AtomicLong();
+        final long deadline = System.currentTimeMillis() + RUN_MILLIS;
+        ArrayList<Thread> workers = new ArrayList<Thread>();
+        for (int i = 0; i < transactions; i++) {
+            final long seed = i;
+            workers.add(new Thread() {
+                public void run() {
+                    Random r = new Random(seed);
+                    while (System.currentTimeMillis() < deadline) {
+                        TransactionId tid = new TransactionId();
+                        boolean commit = true;
+                        try {
+                            for (int n = 0; n < LOCKS_PER_TRANSACTION; n++) {
+                                Permissions perm = r.nextBoolean() ? Permissions.READ_WRITE : Permissions.READ_ONLY;
+                                bp.getPage(tid, new HeapPageId(hf.getId(), r.nextInt(pages)), perm);
+                            }
+                        } catch (TransactionAbortedException e) {
+                            commit = false;
+                        } catch (DbException e) {
+                            throw new RuntimeException(e);
+                        }
+                        try {
+                            bp.transactionComplete(tid, commit);
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                        (commit ? commits : aborts).incrementAndGet();
+                    }
+                }
+            });
+        }
+        long start = System.nanoTime();
+        for (Thread w : workers)
+            w.start();
+        for (Thread w : workers)
+            w.join();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("transactions=%d pages=%d  commits: %.0f/s  aborts: %.0f/s  lock waits: %s%n",
+                transactions, pages, commits.get() / seconds, aborts.get() / seconds, bp.getLockWaitTimes());
+        hf.close();
+    }
+}
@@ -0,0 +1,105 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.*;
+
+/**
+ * Compares the throughput and abort rate of the LockManager's deadlock
+ * policies on two scaled-up versions of the locking unit tests:
+ * <ul>
+ * <li>deadlock: like DeadlockTest, every transaction read-locks a few random
+ * pages and then write-locks them in a different order, so transactions
+ * regularly wait for each other's upgrades;
+ * <li>hotspot: like TransactionTest, every transaction reads one hot page and
+ * then upgrades to write it, so all transactions conflict.
+ * </ul>
+ * Aborted transactions are retried with a new TransactionId, as the tests do.
+ * <p>
+ * Usage: DeadlockPolicyBenchmark [threads] [pages] [seconds]
+ */
+public class DeadlockPolicyBenchmark {
+    private static final int DEFAULT_THREADS = 100;
+    private static final int DEFAULT_PAGES = 32;
+    private static final int DEFAULT_SECONDS = 3;
+    private static final int PAGES_PER_TRANSACTION = 3;
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_THREADS;
+        int pages = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PAGES;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_SECONDS;
+
+        File table = File.createTempFile("benchTable", ".dat");
+        table.deleteOnExit();
+        FreeSpaceMap.sidecarFor(table).deleteOnExit();
+        HeapFile hf = Utility.createEmptyHeapFile(table.getAbsolutePath(), 2);
+        for (int i = 0; i < pages; i++)
+            hf.writePage(new HeapPage(new HeapPageId(hf.getId(), i), HeapPage.createEmptyPageData(hf.getId())));
+        Database.getCatalog().addTable(hf, "bench");
+
+        for (boolean hotspot : new boolean[] { false, true }) {
+            for (DeadlockPolicy policy : DeadlockPolicy.values()) {
+                BufferPool bp = Database.resetBufferPool(pages);
+                bp.setDeadlockPolicy(policy);
+                run(bp, hf, hotspot, policy, threads, pages, seconds * 1000L);
+            }
+        }
+        hf.close();
+    }
+
+    private static void run(final BufferPool bp, final HeapFile hf, final boolean hotspot, DeadlockPolicy policy,
+                            int threads, final int pages, long millis) throws Exception {
+        final AtomicLong commits = new AtomicLong();
+        final AtomicLong aborts = new AtomicLong();
+        final long deadline = System.currentTimeMillis() + millis;
+        ArrayList<Thread> workers = new ArrayList<Thread>();
+        for (int i = 0; i < threads; i++) {
+            final long seed = i;
+            workers.add(new Thread() {
+                public void run() {
+                    Random r = new Random(seed);
+                    while (System.currentTimeMillis() < deadline) {
+                        TransactionId tid = new TransactionId();
+                        boolean commit = true;
+                        try {
+                            if (hotspot) {
+                                bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+                                bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_WRITE);
+                            } else {
+                                int[] pgNos = new int[PAGES_PER_TRANSACTION];
+                                for (int n = 0; n < pgNos.length; n++) {
+                                    pgNos[n] = r.nextInt(pages);
+                                    bp.getPage(tid, new HeapPageId(hf.getId(), pgNos[n]), Permissions.READ_ONLY);
+                                }
+                                for (int n = pgNos.length - 1; n >= 0; n--)
+                                    bp.getPage(tid, new HeapPageId(hf.getId(), pgNos[n]), Permissions.READ_WRITE);
+                            }
+                        } catch (TransactionAbortedException e) {
+                            commit = false;
+                        } catch (DbException e) {
+                            throw new RuntimeException(e);
+                        }
+                        try {
+                            bp.transactionComplete(tid, commit);
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                        (commit ? commits : aborts).incrementAndGet();
+                    }
+                }
+            });
+        }
+        long start = System.nanoTime();
+        for (Thread w : workers)
+            w.start();
+        for (Thread w : workers)
+            w.join();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%-8s %-10s threads=%d  commits: %8.0f/s  aborts: %8.0f/s  (%.2f aborts/commit)  %s%n",
+                hotspot ? "hotspot" : "deadlock", policy, threads, commits.get() / seconds, aborts.get() / seconds,
+                aborts.get() / (double) Math.max(1, commits.get()), bp.getLockWaitTimes());
+    }
+}
@@ -0,0 +1,87 @@
+package simpledb.bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures ORDER BY on a heap table, once with OrderBy's memory budget,
+ * which sorts the table in runs written to disk and merges them, and once
+ * with an unlimited budget, which sorts the whole table in memory. The
+ * table is written from a text file, so that it is never held in memory.
+ * Run it with a small heap (e.g. -Xmx64m) to see the in-memory sort run out
+ * of memory on a table many times larger than the heap where the external
+ * sort does not.
+ * <p>
+ * Usage: ExternalSortBenchmark [rows] [budgetMB] [runs]
+ */
+public class ExternalSortBenchmark {
+    private static final int DEFAULT_ROWS = 4000000;
+    private static final int DEFAULT_BUDGET_MB = 16;
+    private static final int DEFAULT_RUNS = 3;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROWS;
+        long budget = (args.length > 1 ? Long.parseLong(args[1]) : DEFAULT_BUDGET_MB) << 20;
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_RUNS;
+
+        HeapFile table = createTable(rows, 3);
+        System.out.printf("%d rows, %d pages, budget %d MB, max heap %d MB%n", rows, table.numPages(),
+                budget >> 20, Runtime.getRuntime().maxMemory() >> 20);
+
+        for (int i = 0; i < runs; i++) {
+            run("external sort", table, budget, i);
+            run("in-memory sort", table, Long.MAX_VALUE, i);
+        }
+    }
+
+    private static void run(String what, HeapFile table, long budget, int round) throws Exception {
+        System.gc();
+        TransactionId tid = new TransactionId();
+        OrderBy sort = new OrderBy(0, true, new SeqScan(tid, table.getId(), "t"));
+        sort.setMemoryBudget(budget);
+        long start = System.nanoTime();
+        int n = 0;
+        try {
+            sort.open();
+            int last = Integer.MIN_VALUE;
+            while (sort.hasNext()) {
+                int key = ((IntField) sort.next().getField(0)).getValue();
+                if (key < last)
+                    throw new RuntimeException("out of order at row " + n);
+                last = key;
+                n++;
+            }
+            System.out.printf("%-15s run %d: %8d rows  %9.1f ms%n", what, round, n, (System.nanoTime() - start) / 1e6);
+        } catch (OutOfMemoryError e) {
+            System.out.printf("%-15s run %d: out of memory after %.1f ms%n", what, round, (System.nanoTime() - start) / 1e6);
+        } finally {
+            sort.close();
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    private static HeapFile createTable(int rows, int fields) throws Exception {
+        Random r = new Random(0);
+        File text = File.createTempFile("benchTable", ".txt");
+        text.deleteOnExit();
+        BufferedWriter w = new BufferedWriter(new FileWriter(text));
+        for (int i = 0; i < rows; i++) {
+            w.write(Integer.toString(r.nextInt()));
+            for (int j = 1; j < fields; j++)
+                w.write("," + i);
+            w.write('\n');
+        }
+        w.close();
+        File file = File.createTempFile("benchTable", ".dat");
+        file.deleteOnExit();
+        FreeSpaceMap.sidecarFor(file).deleteOnExit();
+        HeapFileEncoder.convert(text, file, BufferPool.PAGE_SIZE, fields);
+        HeapFile hf = new HeapFile(file, Utility.getTupleDesc(fields, "f"));
+        Database.getCatalog().addTable(hf, "t");
+        return hf;
+    }
+}
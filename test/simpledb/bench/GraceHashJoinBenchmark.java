@@ -0,0 +1,90 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures an equality join of two heap tables whose inner table is about
+ * ten times the join's memory budget, once with the budget, which makes the
+ * join spill both tables to disk and join them partition by partition, and
+ * once with an unlimited budget, which builds a hash table of the whole
+ * inner table. Run it with a small heap (e.g. -Xmx96m) to see the in-memory
+ * join run out of memory where the Grace hash join does not.
+ * <p>
+ * Usage: GraceHashJoinBenchmark [rows] [budgetMB] [runs]
+ */
+public class GraceHashJoinBenchmark {
+    private static final int DEFAULT_ROWS = 1000000;
+    private static final int DEFAULT_BUDGET_MB = 10;
+    private static final int DEFAULT_RUNS = 3;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROWS;
+        long budget = (args.length > 1 ? Long.parseLong(args[1]) : DEFAULT_BUDGET_MB) << 20;
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_RUNS;
+
+        HeapFile outer = createTable(rows, 1, "outer");
+        HeapFile inner = createTable(rows, 2, "inner");
+        System.out.printf("%d rows per table, %d + %d pages, budget %d MB, max heap %d MB%n", rows,
+                outer.numPages(), inner.numPages(), budget >> 20, Runtime.getRuntime().maxMemory() >> 20);
+
+        for (int i = 0; i < runs; i++) {
+            run("grace hash join", outer, inner, budget, i);
+            run("in-memory hash join", outer, inner, Long.MAX_VALUE, i);
+        }
+    }
+
+    private static void run(String what, HeapFile outer, HeapFile inner, long budget, int round) throws Exception {
+        System.gc();
+        TransactionId tid = new TransactionId();
+        Join join = new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, outer.getId(), "o"), new SeqScan(tid, inner.getId(), "i"));
+        join.setMemoryBudget(budget);
+        long start = System.nanoTime();
+        int matches = 0;
+        try {
+            join.open();
+            while (join.hasNext()) {
+                join.next();
+                matches++;
+            }
+            System.out.printf("%-20s run %d: %8d rows  %9.1f ms%n", what, round, matches, (System.nanoTime() - start) / 1e6);
+        } catch (OutOfMemoryError e) {
+            System.out.printf("%-20s run %d: out of memory after %.1f ms%n", what, round, (System.nanoTime() - start) / 1e6);
+        } finally {
+            join.close();
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    /** Creates a table whose first column holds a random permutation of 0 to rows - 1. */
+    private static HeapFile createTable(int rows, long seed, String name) throws Exception {
+        int[] keys = new int[rows];
+        for (int i = 0; i < rows; i++)
+            keys[i] = i;
+        Random r = new Random(seed);
+        for (int i = rows - 1; i > 0; i--) {
+            int j = r.nextInt(i + 1);
+            int k = keys[i];
+            keys[i] = keys[j];
+            keys[j] = k;
+        }
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < rows; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(keys[i]);
+            tuple.add(i);
+            tuples.add(tuple);
+        }
+        File file = File.createTempFile("benchTable", ".dat");
+        file.deleteOnExit();
+        FreeSpaceMap.sidecarFor(file).deleteOnExit();
+        HeapFileEncoder.convert(tuples, file, BufferPool.PAGE_SIZE, 2);
+        HeapFile hf = new HeapFile(file, Utility.getTupleDesc(2, "f"));
+        Database.getCatalog().addTable(hf, name);
+        return hf;
+    }
+}
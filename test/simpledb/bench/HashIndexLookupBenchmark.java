@@ -0,0 +1,124 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures point lookups on the primary key of a heap table with a hash
+ * index, against a Filter over a SeqScan, and a join of a few outer tuples
+ * with the table, which looks them up in the index, against the same join
+ * with an unindexed copy of the table, which builds a hash table of it. The
+ * buffer pool is much smaller than the table; the page misses of each run
+ * are printed next to its time.
+ * <p>
+ * Usage: HashIndexLookupBenchmark [rows] [lookups]
+ */
+public class HashIndexLookupBenchmark {
+    private static final int DEFAULT_ROWS = 500000;
+    private static final int DEFAULT_LOOKUPS = 200;
+    private static final int POOL_PAGES = 50;
+    private static final int SEQ_LOOKUPS = 5;
+    private static final int OUTER_ROWS = 100;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROWS;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_LOOKUPS;
+
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < rows; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(i);
+            tuple.add(i % 1000);
+            tuples.add(tuple);
+        }
+        HeapFile indexed = createTable(tuples, "indexed");
+        HeapFile plain = createTable(tuples, "plain");
+        long start = System.nanoTime();
+        HashIndexFile index = Database.getCatalog().addHashIndex(indexed.getId());
+        System.out.printf("%d rows, %d pages; index of %d pages built in %.1f ms%n",
+                rows, indexed.numPages(), index.numPages(), (System.nanoTime() - start) / 1e6);
+
+        Random r = new Random(0);
+        ArrayList<ArrayList<Integer>> outerTuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < OUTER_ROWS; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(r.nextInt(rows));
+            tuple.add(i);
+            outerTuples.add(tuple);
+        }
+        HeapFile outer = createTable(outerTuples, "outer");
+        Database.resetBufferPool(POOL_PAGES);
+
+        for (int round = 0; round < 3; round++) {
+            long misses = Database.getBufferPool().getMisses();
+            start = System.nanoTime();
+            int found = 0;
+            for (int i = 0; i < SEQ_LOOKUPS; i++) {
+                TransactionId tid = new TransactionId();
+                Predicate p = new Predicate(0, Predicate.Op.EQUALS, new IntField(r.nextInt(rows)));
+                found += count(new Filter(p, new SeqScan(tid, plain.getId(), "plain")));
+                Database.getBufferPool().transactionComplete(tid);
+            }
+            report("seq scan lookup", round, found, SEQ_LOOKUPS, start, misses);
+
+            misses = Database.getBufferPool().getMisses();
+            start = System.nanoTime();
+            found = 0;
+            for (int i = 0; i < lookups; i++) {
+                TransactionId tid = new TransactionId();
+                found += count(new IndexScan(tid, indexed.getId(), "indexed", Predicate.Op.EQUALS, new IntField(r.nextInt(rows))));
+                Database.getBufferPool().transactionComplete(tid);
+            }
+            report("hash index lookup", round, found, lookups, start, misses);
+
+            misses = Database.getBufferPool().getMisses();
+            start = System.nanoTime();
+            found = join(outer, plain);
+            report("hash join", round, found, 1, start, misses);
+
+            misses = Database.getBufferPool().getMisses();
+            start = System.nanoTime();
+            found = join(outer, indexed);
+            report("index nested-loop join", round, found, 1, start, misses);
+        }
+    }
+
+    private static void report(String what, int round, int rows, int runs, long start, long misses) {
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%-24s round %d: %5d rows  %9.3f ms  %8.1f misses per run%n", what, round, rows,
+                elapsed / 1e6 / runs, (Database.getBufferPool().getMisses() - misses) / (double) runs);
+    }
+
+    private static int join(HeapFile outer, HeapFile inner) throws Exception {
+        TransactionId tid = new TransactionId();
+        int rows = count(new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, outer.getId(), "o"), new SeqScan(tid, inner.getId(), "i")));
+        Database.getBufferPool().transactionComplete(tid);
+        return rows;
+    }
+
+    private static int count(DbIterator it) throws Exception {
+        it.open();
+        int rows = 0;
+        while (it.hasNext()) {
+            it.next();
+            rows++;
+        }
+        it.close();
+        return rows;
+    }
+
+    private static HeapFile createTable(ArrayList<ArrayList<Integer>> tuples, String name) throws Exception {
+        File file = File.createTempFile("benchTable", ".dat");
+        file.deleteOnExit();
+        FreeSpaceMap.sidecarFor(file).deleteOnExit();
+        HashIndexFile.fileFor(file).deleteOnExit();
+        HeapFileEncoder.convert(tuples, file, BufferPool.PAGE_SIZE, 2);
+        HeapFile hf = new HeapFile(file, Utility.getTupleDesc(2, "f"));
+        Database.getCatalog().addTable(hf, name, "f0");
+        return hf;
+    }
+}
@@ -0,0 +1,50 @@
+package simpledb.bench;
+
+import java.io.File;
+
+import simpledb.*;
+
+/**
+ * Measures bulk insert throughput into a HeapFile as the table grows. Rows
+ * are inserted through the BufferPool in transactions of a fixed size, and
+ * the rate is printed for every interval of rows, so that a slowdown with
+ * table size shows up as a falling rate.
+ * <p>
+ * Usage: HeapFileInsertBenchmark [rows] [rowsPerTransaction] [poolPages]
+ */
+public class HeapFileInsertBenchmark {
+    private static final int DEFAULT_ROWS = 1000000;
+    private static final int DEFAULT_ROWS_PER_TRANSACTION = 1000;
+    private static final int DEFAULT_POOL_PAGES = 1000;
+    private static final int INTERVALS = 10;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROWS;
+        int rowsPerTransaction = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ROWS_PER_TRANSACTION;
+        int poolPages = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_POOL_PAGES;
+
+        File table = File.createTempFile("benchTable", ".dat");
+        table.deleteOnExit();
+        FreeSpaceMap.sidecarFor(table).deleteOnExit();
+        HeapFile hf = Utility.createEmptyHeapFile(table.getAbsolutePath(), 2);
+        BufferPool bp = Database.resetBufferPool(poolPages);
+
+        int interval = Math.max(1, rows / INTERVALS);
+        long start = System.nanoTime();
+        TransactionId tid = new TransactionId();
+        for (int i = 1; i <= rows; i++) {
+            bp.insertTuple(tid, hf.getId(), Utility.getHeapTuple(i, 2));
+            if (i % rowsPerTransaction == 0 || i == rows) {
+                bp.transactionComplete(tid);
+                tid = new TransactionId();
+            }
+            if (i % interval == 0) {
+                long now = System.nanoTime();
+                System.out.printf("rows=%8d pages=%6d  %10.0f rows/s%n", i, hf.numPages(),
+                        interval / ((now - start) / 1e9));
+                start = now;
+            }
+        }
+        hf.close();
+    }
+}
@@ -0,0 +1,114 @@
+package simpledb.bench;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Microbenchmark for random page misses against a large HeapFile. Compares the
+ * old open/skip/close-per-read access path with HeapFile.readPage, which now
+ * issues positional reads against a single long-lived FileChannel.
+ * <p>
+ * Every read goes straight to the DbFile, so each one is a buffer pool miss.
+ * <p>
+ * Usage: HeapFileReadBenchmark [numPages] [readsPerThread] [threads]
+ */
+public class HeapFileReadBenchmark {
+    private static final int DEFAULT_PAGES = 100000;
+    private static final int DEFAULT_READS = 20000;
+    private static final int DEFAULT_THREADS = 4;
+
+    public static void main(String[] args) throws Exception {
+        int numPages = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PAGES;
+        int reads = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_READS;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_THREADS;
+
+        File table = createTable(numPages);
+        final HeapFile hf = new HeapFile(table, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, "bench");
+        System.out.println("table: " + hf.numPages() + " pages, " + table.length() + " bytes");
+
+        // warm up both paths so the JIT has compiled them before we time anything
+        run(hf, true, 1, reads / 4, numPages);
+        run(hf, false, 1, reads / 4, numPages);
+
+        for (int t = 1; t <= threads; t *= 2) {
+            double legacy = run(hf, true, t, reads, numPages);
+            double channel = run(hf, false, t, reads, numPages);
+            System.out.printf("threads=%d  stream-per-read: %.0f pages/s  filechannel: %.0f pages/s  (%.2fx)%n",
+                    t, legacy, channel, channel / legacy);
+        }
+        hf.close();
+    }
+
+    /** @return page misses per second over all threads */
+    private static double run(final HeapFile hf, final boolean legacy, int threads,
+                              final int readsPerThread, final int numPages) throws InterruptedException {
+        ArrayList<Thread> workers = new ArrayList<Thread>();
+        for (int i = 0; i < threads; i++) {
+            final long seed = i;
+            workers.add(new Thread() {
+                public void run() {
+                    Random r = new Random(seed);
+                    for (int n = 0; n < readsPerThread; n++) {
+                        HeapPageId pid = new HeapPageId(hf.getId(), r.nextInt(numPages));
+                        if (legacy)
+                            readPageLegacy(hf, pid);
+                        else
+                            hf.readPage(pid);
+                    }
+                }
+            });
+        }
+        long start = System.nanoTime();
+        for (Thread w : workers)
+            w.start();
+        for (Thread w : workers)
+            w.join();
+        long elapsed = System.nanoTime() - start;
+        return (double) threads * readsPerThread / (elapsed / 1e9);
+    }
+
+    /** The access path HeapFile.readPage used before it kept a FileChannel open. */
+    private static Page readPageLegacy(HeapFile hf, HeapPageId pid) {
+        byte[] pageData = new byte[BufferPool.PAGE_SIZE];
+        try {
+            FileInputStream fis = new FileInputStream(hf.getFile().getAbsoluteFile());
+            fis.skip((long) pid.pageno() * BufferPool.PAGE_SIZE);
+            fis.read(pageData);
+            fis.close();
+            return new HeapPage(pid, pageData);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Writes numPages copies of a full two-column page, which is much faster than encoding every row. */
+    private static File createTable(int numPages) throws IOException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        Random r = new Random(0);
+        int tuplesPerPage = (BufferPool.PAGE_SIZE * 8) / (2 * 4 * 8 + 1);
+        for (int i = 0; i < tuplesPerPage; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(r.nextInt());
+            tuple.add(r.nextInt());
+            tuples.add(tuple);
+        }
+        File onePage = File.createTempFile("benchPage", ".dat");
+        onePage.deleteOnExit();
+        HeapFileEncoder.convert(tuples, onePage, BufferPool.PAGE_SIZE, 2);
+        byte[] page = TestUtil.readFileBytes(onePage.getAbsolutePath());
+
+        File table = File.createTempFile("benchTable", ".dat");
+        table.deleteOnExit();
+        FileChannel out = new FileOutputStream(table).getChannel();
+        for (int i = 0; i < numPages; i++)
+            out.write(ByteBuffer.wrap(page));
+        out.close();
+        return table;
+    }
+}
@@ -0,0 +1,75 @@
+package simpledb.bench;
+
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+
+import simpledb.*;
+
+/**
+ * Measures the HeapPage operations that work on the slot header: filling an
+ * empty page with addTuple, counting free slots with getNumEmptySlots, and
+ * walking the used slots with iterator().
+ * <p>
+ * Pages are half full in the count and scan runs, with every other slot used,
+ * so that neither fast path for all-empty or all-full header words applies.
+ * <p>
+ * Usage: HeapPageSlotBenchmark [columns] [iterations]
+ */
+public class HeapPageSlotBenchmark {
+    private static final int DEFAULT_COLUMNS = 1;
+    private static final int DEFAULT_ITERATIONS = 20000;
+
+    public static void main(String[] args) throws Exception {
+        int columns = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_COLUMNS;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ITERATIONS;
+
+        Database.getCatalog().addTable(new TestUtil.SkeletonFile(-1, Utility.getTupleDesc(columns)), "bench");
+        HeapPageId pid = new HeapPageId(-1, 0);
+        byte[] empty = HeapPage.createEmptyPageData(-1);
+        int slots = new HeapPage(pid, empty).getNumEmptySlots();
+        Tuple[] rows = new Tuple[slots];
+        for (int i = 0; i < slots; i++)
+            rows[i] = Utility.getHeapTuple(i, columns);
+
+        HeapPage half = new HeapPage(pid, empty);
+        for (Tuple t : rows)
+            half.addTuple(t);
+        Iterator<Tuple> it = half.iterator();
+        while (it.hasNext()) {
+            half.deleteTuple(it.next());
+            if (it.hasNext())
+                it.next();
+        }
+        half = new HeapPage(pid, half.getPageData());
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long self = Thread.currentThread().getId();
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            for (int n = 0; n < iterations; n++) {
+                HeapPage page = new HeapPage(pid, empty);
+                for (Tuple t : rows)
+                    page.addTuple(t);
+            }
+            double fill = (System.nanoTime() - start) / ((double) iterations * slots);
+
+            long sum = 0;
+            start = System.nanoTime();
+            for (int n = 0; n < iterations * 10; n++)
+                sum += half.getNumEmptySlots();
+            double count = (System.nanoTime() - start) / (iterations * 10.0);
+
+            long bytes = threads.getThreadAllocatedBytes(self);
+            start = System.nanoTime();
+            for (int n = 0; n < iterations; n++)
+                for (it = half.iterator(); it.hasNext(); )
+                    sum += it.next() == null ? 0 : 1;
+            double scan = (System.nanoTime() - start) / (double) iterations;
+            double scanBytes = (threads.getThreadAllocatedBytes(self) - bytes) / (double) iterations;
+
+            System.out.printf("slots=%d  addTuple: %5.1f ns/tuple  getNumEmptySlots: %6.1f ns  " +
+                    "iterate half-full page: %7.0f ns %6.0f bytes  (%d)%n",
+                    slots, fill, count, scan, scanBytes, sum);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Compares a Filter over a SeqScan with an IndexScan answering the same
+ * range predicate on the key of a BTreeFile, at several selectivities. Both
+ * read the same file through a buffer pool much smaller than the table, so
+ * the SeqScan reads every page while the IndexScan reads the pages on the
+ * way down and the leaves holding the matches; the page misses of each scan
+ * are printed next to its time.
+ * <p>
+ * Usage: IndexScanBenchmark [rows] [scans]
+ */
+public class IndexScanBenchmark {
+    private static final int DEFAULT_ROWS = 1000000;
+    private static final int DEFAULT_SCANS = 5;
+    private static final int POOL_PAGES = 50;
+    private static final double[] SELECTIVITIES = { 0.0001, 0.001, 0.01, 0.1, 0.5 };
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROWS;
+        int scans = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_SCANS;
+
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        Random r = new Random(0);
+        for (int i = 0; i < rows; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(r.nextInt(rows));
+            tuple.add(r.nextInt());
+            tuples.add(tuple);
+        }
+        File table = File.createTempFile("benchTable", ".dat");
+        table.deleteOnExit();
+        HeapFileEncoder.convertBTree(tuples, table, 2, 0);
+        tuples = null;
+        BTreeFile bf = new BTreeFile(table, Utility.getTupleDesc(2), 0);
+        Database.getCatalog().addTable(bf, "bench");
+        Database.resetBufferPool(POOL_PAGES);
+        System.out.printf("%d rows, %d pages, height %d%n", rows, bf.numPages(), bf.height());
+
+        for (double sel : SELECTIVITIES) {
+            Field high = new IntField((int) (rows * sel));
+            Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, high);
+            for (int i = 0; i < scans; i++) {
+                TransactionId tid = new TransactionId();
+                long misses = Database.getBufferPool().getMisses();
+                long start = System.nanoTime();
+                int seqRows = count(new Filter(p, new SeqScan(tid, bf.getId(), "bench")));
+                long seqTime = System.nanoTime() - start;
+                long seqMisses = Database.getBufferPool().getMisses() - misses;
+                Database.getBufferPool().transactionComplete(tid);
+
+                tid = new TransactionId();
+                misses = Database.getBufferPool().getMisses();
+                start = System.nanoTime();
+                int indexRows = count(new IndexScan(tid, bf.getId(), "bench", Predicate.Op.LESS_THAN, high));
+                long indexTime = System.nanoTime() - start;
+                long indexMisses = Database.getBufferPool().getMisses() - misses;
+                Database.getBufferPool().transactionComplete(tid);
+
+                if (seqRows != indexRows)
+                    throw new RuntimeException("scans disagree: " + seqRows + " != " + indexRows);
+                System.out.printf("selectivity %6.4f scan %d: %7d rows  seq %8.1f ms %6d misses  index %8.1f ms %6d misses%n",
+                        sel, i, seqRows, seqTime / 1e6, seqMisses, indexTime / 1e6, indexMisses);
+            }
+        }
+        bf.close();
+    }
+
+    private static int count(DbIterator it) throws Exception {
+        it.open();
+        int rows = 0;
+        while (it.hasNext()) {
+            it.next();
+            rows++;
+        }
+        it.close();
+        return rows;
+    }
+}
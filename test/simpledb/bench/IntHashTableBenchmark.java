@@ -0,0 +1,110 @@
+package simpledb.bench;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures the throughput of grouping by and joining on int fields with the
+ * IntHashTable that IntAggregator and Join use, against the HashMaps of
+ * boxed Fields and values they used before, which are reimplemented here.
+ * The input tuples are built in memory up front, so only hashing and the
+ * per-tuple work of the operators is measured.
+ * <p>
+ * Usage: IntHashTableBenchmark [rows] [keys]
+ */
+public class IntHashTableBenchmark {
+    private static final int DEFAULT_ROWS = 2000000;
+    private static final int DEFAULT_KEYS = 100000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROWS;
+        int keys = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_KEYS;
+
+        TupleDesc td = Utility.getTupleDesc(2);
+        Random r = new Random(0);
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < rows; i++)
+            tuples.add(Utility.getHeapTuple(new int[] { r.nextInt(keys), i }));
+        ArrayList<Tuple> inner = new ArrayList<Tuple>();
+        for (int i = 0; i < keys; i++)
+            inner.add(Utility.getHeapTuple(new int[] { i, -i }));
+        System.out.printf("%d rows, %d keys%n", rows, keys);
+
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            int groups = groupByHashMap(tuples);
+            report("group by, HashMap", round, groups, rows, start);
+
+            start = System.nanoTime();
+            IntAggregator agg = new IntAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM);
+            for (Tuple t : tuples)
+                agg.merge(t);
+            report("group by, IntAggregator", round, count(agg.iterator()), rows, start);
+
+            start = System.nanoTime();
+            int matches = joinHashMap(tuples, inner);
+            report("join, HashMap", round, matches, rows + keys, start);
+
+            start = System.nanoTime();
+            Join join = new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                    new TupleIterator(td, tuples), new TupleIterator(td, inner));
+            report("join, Join", round, count(join), rows + keys, start);
+        }
+    }
+
+    private static void report(String what, int round, int result, int rows, long start) {
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%-24s round %d: %8d results  %8.1f ms  %6.1f M rows/s%n", what, round, result,
+                elapsed / 1e6, rows / (elapsed / 1e3));
+    }
+
+    private static int count(DbIterator it) throws Exception {
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /** SUM grouped by the first field, as IntAggregator did before. */
+    private static int groupByHashMap(ArrayList<Tuple> tuples) {
+        HashMap<Field, Integer> sums = new HashMap<Field, Integer>();
+        for (Tuple t : tuples) {
+            Field group = t.getField(0);
+            int value = ((IntField) t.getField(1)).getValue();
+            if (!sums.containsKey(group))
+                sums.put(group, 0);
+            sums.put(group, sums.get(group) + value);
+        }
+        return sums.size();
+    }
+
+    /** Hash join on the first fields, as Join did before. */
+    private static int joinHashMap(ArrayList<Tuple> outer, ArrayList<Tuple> inner) {
+        HashMap<Field, ArrayList<Tuple>> table = new HashMap<Field, ArrayList<Tuple>>();
+        for (Tuple t : inner) {
+            Field key = t.getField(0);
+            if (!table.containsKey(key))
+                table.put(key, new ArrayList<Tuple>());
+            table.get(key).add(t);
+        }
+        int matches = 0;
+        for (Tuple t : outer) {
+            ArrayList<Tuple> found = table.get(t.getField(0));
+            if (found == null)
+                continue;
+            for (Tuple match : found) {
+                Tuple.combine(t, match);
+                matches++;
+            }
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,69 @@
+package simpledb.bench;
+
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+
+import simpledb.*;
+
+/**
+ * Measures the cost of serializing a full HeapPage for a flush or log write
+ * as a function of the number of tuples modified since the page was loaded.
+ * Each modification deletes a tuple and adds a new one in its slot.
+ * <p>
+ * getPageData(byte[]) writes into a reusable buffer and only encodes the
+ * modified slots; getPageData() additionally allocates the array it returns.
+ * <p>
+ * Usage: PageSerializationBenchmark [columns] [iterations]
+ */
+public class PageSerializationBenchmark {
+    private static final int DEFAULT_COLUMNS = 4;
+    private static final int DEFAULT_ITERATIONS = 200000;
+
+    public static void main(String[] args) throws Exception {
+        int columns = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_COLUMNS;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ITERATIONS;
+
+        TestUtil.SkeletonFile file = new TestUtil.SkeletonFile(-1, Utility.getTupleDesc(columns));
+        Database.getCatalog().addTable(file, "bench");
+        HeapPageId pid = new HeapPageId(-1, 0);
+        HeapPage full = new HeapPage(pid, HeapPage.createEmptyPageData(-1));
+        int slots = full.getNumEmptySlots();
+        for (int i = 0; i < slots; i++)
+            full.addTuple(Utility.getHeapTuple(i, columns));
+        byte[] loaded = full.getPageData();
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long self = Thread.currentThread().getId();
+        byte[] buf = new byte[BufferPool.PAGE_SIZE];
+        for (int modified : new int[] { 0, 1, 16, slots / 4, slots }) {
+            HeapPage page = new HeapPage(pid, loaded);
+            Iterator<Tuple> it = page.iterator();
+            for (int i = 0; i < modified; i++) {
+                page.deleteTuple(it.next());
+                page.addTuple(Utility.getHeapTuple(-i, columns));
+            }
+
+            // warm up, then time both variants
+            for (int i = 0; i < iterations / 10; i++) {
+                page.getPageData(buf);
+                page.getPageData();
+            }
+            long bytes = threads.getThreadAllocatedBytes(self);
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++)
+                page.getPageData(buf);
+            double reuse = (System.nanoTime() - start) / (double) iterations;
+            double reuseBytes = (threads.getThreadAllocatedBytes(self) - bytes) / (double) iterations;
+
+            bytes = threads.getThreadAllocatedBytes(self);
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++)
+                page.getPageData();
+            double fresh = (System.nanoTime() - start) / (double) iterations;
+            double freshBytes = (threads.getThreadAllocatedBytes(self) - bytes) / (double) iterations;
+
+            System.out.printf("modified=%3d/%d  reusable buffer: %7.0f ns %6.0f bytes  new array: %7.0f ns %6.0f bytes%n",
+                    modified, slots, reuse, reuseBytes, fresh, freshBytes);
+        }
+    }
+}
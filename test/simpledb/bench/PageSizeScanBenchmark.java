@@ -0,0 +1,84 @@
+package simpledb.bench;
+
+import java.io.*;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures full scans of a table shaped like the NSF grants table (see
+ * nsf.schema), whose 396 byte tuples fill a 4 KB page with only 10 rows,
+ * stored with different page sizes. The buffer pool holds the same number of
+ * pages in every run and is much smaller than the table, so every scan reads
+ * every page again; larger pages mean fewer, larger reads.
+ * <p>
+ * Usage: PageSizeScanBenchmark [rows] [scans] [pageSizes...]
+ */
+public class PageSizeScanBenchmark {
+    private static final int DEFAULT_ROWS = 100000;
+    private static final int DEFAULT_SCANS = 5;
+    private static final int[] DEFAULT_PAGE_SIZES = { 4096, 8192, 16384, 65536 };
+    private static final int POOL_PAGES = 50;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROWS;
+        int scans = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_SCANS;
+        int[] pageSizes = DEFAULT_PAGE_SIZES;
+        if (args.length > 2) {
+            pageSizes = new int[args.length - 2];
+            for (int i = 2; i < args.length; i++)
+                pageSizes[i - 2] = Integer.parseInt(args[i]);
+        }
+
+        // grants (id int, title string, amount int, org int, pi int, manager int, started string, ended string)
+        Type[] types = new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE, Type.INT_TYPE,
+                Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE, Type.STRING_TYPE };
+        TupleDesc td = new TupleDesc(types);
+        File text = File.createTempFile("benchGrants", ".txt");
+        text.deleteOnExit();
+        Writer w = new BufferedWriter(new FileWriter(text));
+        Random r = new Random(0);
+        for (int i = 0; i < rows; i++)
+            w.write(i + ",grant " + r.nextInt() + "," + r.nextInt(1000000) + "," + r.nextInt(3000) + ","
+                    + r.nextInt(50000) + "," + r.nextInt(500) + ",2001-01-01,2004-12-31\n");
+        w.close();
+
+        HeapFile[] files = new HeapFile[pageSizes.length];
+        for (int i = 0; i < pageSizes.length; i++) {
+            File f = File.createTempFile("benchGrants" + pageSizes[i], ".dat");
+            f.deleteOnExit();
+            FreeSpaceMap.sidecarFor(f).deleteOnExit();
+            HeapFileEncoder.convert(text, f, pageSizes[i], types.length, types);
+            files[i] = new HeapFile(f, td);
+            Database.getCatalog().addTable(files[i], "grants" + pageSizes[i]);
+        }
+        Database.resetBufferPool(POOL_PAGES);
+
+        for (int n = 0; n < scans; n++) {
+            for (HeapFile hf : files) {
+                long start = System.nanoTime();
+                int count = scan(hf);
+                long elapsed = System.nanoTime() - start;
+                System.out.printf("%6d byte pages  %6d pages  %4d rows/page  %7.1f ms  %8.0f rows/s%n",
+                        hf.getPageSize(), hf.numPages(), count / hf.numPages(), elapsed / 1e6,
+                        count / (elapsed / 1e9));
+            }
+        }
+        for (HeapFile hf : files)
+            hf.close();
+    }
+
+    private static int scan(HeapFile hf) throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "g");
+        scan.open();
+        int rows = 0;
+        while (scan.hasNext()) {
+            scan.next().getField(2);
+            rows++;
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return rows;
+    }
+}
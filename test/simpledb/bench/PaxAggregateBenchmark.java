@@ -0,0 +1,96 @@
+package simpledb.bench;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.BitSet;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Compares a filtered aggregate over two columns of a wide integer table
+ * stored as HeapPages and as PaxPages. Both scans tell the table which
+ * columns the plan reads; only the PAX layout can use that to decode them a
+ * column at a time. The buffer pool is much smaller than the tables, so
+ * every scan loads and decodes every page again.
+ * <p>
+ * Usage: PaxAggregateBenchmark [rows] [columns] [scans]
+ */
+public class PaxAggregateBenchmark {
+    private static final int DEFAULT_ROWS = 100000;
+    private static final int DEFAULT_COLUMNS = 16;
+    private static final int DEFAULT_SCANS = 10;
+    private static final int POOL_PAGES = 50;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROWS;
+        int columns = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_COLUMNS;
+        int scans = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_SCANS;
+
+        Type[] types = new Type[columns];
+        for (int c = 0; c < columns; c++)
+            types[c] = Type.INT_TYPE;
+        TupleDesc td = Utility.getTupleDesc(columns);
+        File text = File.createTempFile("benchRows", ".txt");
+        text.deleteOnExit();
+        Writer w = new BufferedWriter(new FileWriter(text));
+        Random r = new Random(0);
+        for (int i = 0; i < rows; i++) {
+            for (int c = 0; c < columns; c++) {
+                if (c > 0)
+                    w.write(',');
+                w.write(Integer.toString(r.nextInt(1000)));
+            }
+            w.write('\n');
+        }
+        w.close();
+
+        File heap = File.createTempFile("benchHeap", ".dat");
+        File pax = File.createTempFile("benchPax", ".dat");
+        heap.deleteOnExit();
+        pax.deleteOnExit();
+        FreeSpaceMap.sidecarFor(heap).deleteOnExit();
+        FreeSpaceMap.sidecarFor(pax).deleteOnExit();
+        HeapFileEncoder.convert(text, heap, BufferPool.PAGE_SIZE, columns, types);
+        HeapFileEncoder.convertPax(text, pax, BufferPool.PAGE_SIZE, columns, types);
+
+        HeapFile[] files = new HeapFile[] { new HeapFile(heap, td), new PaxHeapFile(pax, td) };
+        String[] names = new String[] { "heap", "pax" };
+        for (int i = 0; i < files.length; i++)
+            Database.getCatalog().addTable(files[i], names[i]);
+        Database.resetBufferPool(POOL_PAGES);
+
+        // SELECT SUM(c1) FROM t WHERE c0 < 100
+        BitSet read = new BitSet();
+        read.set(0);
+        read.set(1);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long self = Thread.currentThread().getId();
+        for (int n = 0; n < scans; n++) {
+            for (int i = 0; i < files.length; i++) {
+                long bytes = threads.getThreadAllocatedBytes(self);
+                long start = System.nanoTime();
+                int sum = aggregate(files[i], read);
+                long elapsed = System.nanoTime() - start;
+                bytes = threads.getThreadAllocatedBytes(self) - bytes;
+                System.out.printf("%-5s %7.1f ms  %6.1f bytes/row  (sum %d)%n",
+                        names[i], elapsed / 1e6, bytes / (double) rows, sum);
+            }
+        }
+        for (HeapFile hf : files)
+            hf.close();
+    }
+
+    private static int aggregate(HeapFile hf, BitSet read) throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "t");
+        scan.setColumns(read);
+        Filter f = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(100)), scan);
+        Aggregate agg = new Aggregate(f, 1, Aggregator.NO_GROUPING, Aggregator.Op.SUM);
+        agg.open();
+        int sum = ((IntField) agg.next().getField(0)).getValue();
+        agg.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return sum;
+    }
+}
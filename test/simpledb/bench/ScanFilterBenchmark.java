@@ -0,0 +1,102 @@
+package simpledb.bench;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures the time and heap allocation of a selective filter over a full
+ * scan of a HeapFile. The buffer pool is much smaller than the table, so
+ * every scan loads every page again, and the cost of turning page bytes into
+ * tuples dominates.
+ * <p>
+ * Allocation is counted with the HotSpot per-thread allocation counter, which
+ * only covers the scanning thread; that is the thread doing all the decoding.
+ * <p>
+ * Usage: ScanFilterBenchmark [numPages] [columns] [scans]
+ */
+public class ScanFilterBenchmark {
+    private static final int DEFAULT_PAGES = 2000;
+    private static final int DEFAULT_COLUMNS = 4;
+    private static final int DEFAULT_SCANS = 10;
+    private static final int POOL_PAGES = 50;
+
+    public static void main(String[] args) throws Exception {
+        int numPages = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PAGES;
+        int columns = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_COLUMNS;
+        int scans = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_SCANS;
+
+        File table = createTable(numPages, columns);
+        HeapFile hf = new HeapFile(table, Utility.getTupleDesc(columns));
+        Database.getCatalog().addTable(hf, "bench");
+        Database.resetBufferPool(POOL_PAGES);
+
+        // about 1% of the uniformly random first column passes
+        Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(Integer.MIN_VALUE + Integer.MAX_VALUE / 50));
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long self = Thread.currentThread().getId();
+        for (int i = 0; i < scans; i++) {
+            long bytes = threads.getThreadAllocatedBytes(self);
+            long start = System.nanoTime();
+            int rows = scan(hf, p);
+            long elapsed = System.nanoTime() - start;
+            bytes = threads.getThreadAllocatedBytes(self) - bytes;
+            System.out.printf("scan %2d: %6d rows passed  %7.1f ms  %8.1f MB allocated  %6.1f bytes/row scanned%n",
+                    i, rows, elapsed / 1e6, bytes / 1e6, bytes / (double) rowCount(numPages, columns));
+        }
+        hf.close();
+    }
+
+    private static int scan(HeapFile hf, Predicate p) throws Exception {
+        TransactionId tid = new TransactionId();
+        Filter f = new Filter(p, new SeqScan(tid, hf.getId(), "bench"));
+        f.open();
+        int rows = 0;
+        while (f.hasNext()) {
+            f.next();
+            rows++;
+        }
+        f.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return rows;
+    }
+
+    private static int tuplesPerPage(int columns) {
+        return (BufferPool.PAGE_SIZE * 8) / (columns * 4 * 8 + 1);
+    }
+
+    private static long rowCount(int numPages, int columns) {
+        return (long) numPages * tuplesPerPage(columns);
+    }
+
+    /** Writes numPages copies of a full page of random rows, which is much faster than encoding every row. */
+    private static File createTable(int numPages, int columns) throws IOException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        Random r = new Random(0);
+        for (int i = 0; i < tuplesPerPage(columns); i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            for (int c = 0; c < columns; c++)
+                tuple.add(r.nextInt());
+            tuples.add(tuple);
+        }
+        File onePage = File.createTempFile("benchPage", ".dat");
+        onePage.deleteOnExit();
+        HeapFileEncoder.convert(tuples, onePage, BufferPool.PAGE_SIZE, columns);
+        byte[] page = new byte[BufferPool.PAGE_SIZE];
+        DataInputStream in = new DataInputStream(new FileInputStream(onePage));
+        in.readFully(page);
+        in.close();
+
+        File table = File.createTempFile("benchTable", ".dat");
+        table.deleteOnExit();
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(table));
+        for (int i = 0; i < numPages; i++)
+            out.write(page);
+        out.close();
+        return table;
+    }
+}
@@ -0,0 +1,85 @@
+package simpledb.bench;
+
+import java.io.*;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Compares the size and full-scan time of a table of (int, string) rows
+ * stored as fixed-size HeapPage slots and as variable-length SlottedPage
+ * tuples. The strings are short, as names and codes usually are, so most of
+ * a HeapPage slot is padding. The buffer pool is much smaller than the table,
+ * so every scan reads every page from the file again.
+ * <p>
+ * Usage: SlottedScanBenchmark [rows] [maxStringLength] [scans]
+ */
+public class SlottedScanBenchmark {
+    private static final int DEFAULT_ROWS = 200000;
+    private static final int DEFAULT_MAX_LENGTH = 16;
+    private static final int DEFAULT_SCANS = 5;
+    private static final int POOL_PAGES = 50;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROWS;
+        int maxLength = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_MAX_LENGTH;
+        int scans = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_SCANS;
+
+        Type[] types = new Type[] { Type.INT_TYPE, Type.STRING_TYPE };
+        TupleDesc td = new TupleDesc(types);
+        File text = File.createTempFile("benchRows", ".txt");
+        text.deleteOnExit();
+        Writer w = new BufferedWriter(new FileWriter(text));
+        Random r = new Random(0);
+        for (int i = 0; i < rows; i++) {
+            w.write(Integer.toString(r.nextInt()));
+            w.write(',');
+            int len = 1 + r.nextInt(maxLength);
+            for (int c = 0; c < len; c++)
+                w.write('a' + r.nextInt(26));
+            w.write('\n');
+        }
+        w.close();
+
+        File heap = File.createTempFile("benchHeap", ".dat");
+        File slotted = File.createTempFile("benchSlotted", ".dat");
+        heap.deleteOnExit();
+        slotted.deleteOnExit();
+        FreeSpaceMap.sidecarFor(heap).deleteOnExit();
+        FreeSpaceMap.sidecarFor(slotted).deleteOnExit();
+        HeapFileEncoder.convert(text, heap, BufferPool.PAGE_SIZE, 2, types);
+        HeapFileEncoder.convertSlotted(text, slotted, BufferPool.PAGE_SIZE, 2, types);
+
+        HeapFile[] files = new HeapFile[] { new HeapFile(heap, td), new SlottedHeapFile(slotted, td) };
+        String[] names = new String[] { "heap", "slotted" };
+        for (int i = 0; i < files.length; i++)
+            Database.getCatalog().addTable(files[i], names[i]);
+        Database.resetBufferPool(POOL_PAGES);
+
+        for (int n = 0; n < scans; n++) {
+            for (int i = 0; i < files.length; i++) {
+                long start = System.nanoTime();
+                int count = scan(files[i], names[i]);
+                long elapsed = System.nanoTime() - start;
+                System.out.printf("%-8s %6d pages  %8d rows  %7.1f ms%n",
+                        names[i], files[i].numPages(), count, elapsed / 1e6);
+            }
+        }
+        for (HeapFile hf : files)
+            hf.close();
+    }
+
+    private static int scan(HeapFile hf, String alias) throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId(), alias);
+        scan.open();
+        int rows = 0;
+        while (scan.hasNext()) {
+            scan.next().getField(1);
+            rows++;
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return rows;
+    }
+}
@@ -0,0 +1,72 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures a join on an inequality between two heap tables, as a block
+ * nested-loop Join, which compares every pair of tuples, and as a
+ * SortMergeJoin, which sorts both tables and compares about as many pairs as
+ * it returns. The outer keys are small, so each outer tuple matches few
+ * inner tuples.
+ * <p>
+ * Usage: SortMergeJoinBenchmark [outerRows] [innerRows]
+ */
+public class SortMergeJoinBenchmark {
+    private static final int DEFAULT_OUTER_ROWS = 20000;
+    private static final int DEFAULT_INNER_ROWS = 100000;
+
+    public static void main(String[] args) throws Exception {
+        int outerRows = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_OUTER_ROWS;
+        int innerRows = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_INNER_ROWS;
+
+        // an outer key below 100 is greater than about 0.05% of the inner keys
+        HeapFile outer = createTable(outerRows, 100, 1, "outer");
+        HeapFile inner = createTable(innerRows, 100000, 2, "inner");
+        System.out.printf("%d outer rows, %d inner rows%n", outerRows, innerRows);
+
+        for (int i = 0; i < 3; i++) {
+            run("block nested loop", false, outer, inner, i);
+            run("sort-merge", true, outer, inner, i);
+        }
+    }
+
+    private static void run(String what, boolean merge, HeapFile outer, HeapFile inner, int round) throws Exception {
+        TransactionId tid = new TransactionId();
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+        DbIterator scan1 = new SeqScan(tid, outer.getId(), "o");
+        DbIterator scan2 = new SeqScan(tid, inner.getId(), "i");
+        DbIterator join = merge ? new SortMergeJoin(p, scan1, scan2) : new Join(p, scan1, scan2);
+        long start = System.nanoTime();
+        join.open();
+        int matches = 0;
+        while (join.hasNext()) {
+            join.next();
+            matches++;
+        }
+        join.close();
+        Database.getBufferPool().transactionComplete(tid);
+        System.out.printf("%-18s run %d: %8d rows  %9.1f ms%n", what, round, matches, (System.nanoTime() - start) / 1e6);
+    }
+
+    private static HeapFile createTable(int rows, int keys, long seed, String name) throws Exception {
+        Random r = new Random(seed);
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < rows; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(r.nextInt(keys));
+            tuple.add(i);
+            tuples.add(tuple);
+        }
+        File file = File.createTempFile("benchTable", ".dat");
+        file.deleteOnExit();
+        FreeSpaceMap.sidecarFor(file).deleteOnExit();
+        HeapFileEncoder.convert(tuples, file, BufferPool.PAGE_SIZE, 2);
+        HeapFile hf = new HeapFile(file, Utility.getTupleDesc(2, "f"));
+        Database.getCatalog().addTable(hf, name);
+        return hf;
+    }
+}